@@ -0,0 +1,192 @@
+/*
+ * CRUK-CI Clarity REST API Java Client.
+ * Copyright (C) 2013 Cancer Research UK Cambridge Institute.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cruk.clarity.benchmarks;
+
+import java.lang.reflect.Proxy;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hc.core5.http.NameValuePair;
+import org.apache.hc.core5.net.URIBuilder;
+import org.cruk.clarity.api.ClarityAPI;
+import org.cruk.clarity.api.cache.CacheKey;
+import org.cruk.clarity.api.cache.ClarityAPICache;
+import org.cruk.clarity.api.cache.ClarityAPICacheDecorator;
+import org.cruk.clarity.api.cache.spring.ClarityClientCacheConfiguration;
+import org.cruk.clarity.api.impl.ClarityAPIInternal;
+import org.ehcache.CacheManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.genologics.ri.LimsLink;
+import com.genologics.ri.artifact.Artifact;
+import com.genologics.ri.artifact.ArtifactLink;
+
+/**
+ * Measures the hit path of the cache: loading artifacts that are already in
+ * the cache, one at a time and with {@code loadAll}. The cache is put around
+ * a stub API with {@link ClarityAPICacheDecorator}, so no server is involved.
+ * The cost of making the key and reading the state from a link is also measured
+ * on its own, alongside the {@code URIBuilder} parsing used before version 2.34.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class CacheHitBenchmark
+{
+    private static final String BASE_URI = "http://limsdev.cri.camres.org:8080/api/v2/artifacts/";
+
+    private static final int NUMBER_OF_ARTIFACTS = 1000;
+
+    private CacheManager cacheManager;
+
+    private ClarityAPICache cache;
+
+    private ClarityAPI api;
+
+    private List<LimsLink<Artifact>> links;
+
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception
+    {
+        links = new ArrayList<>(NUMBER_OF_ARTIFACTS);
+        for (int i = 0; i < NUMBER_OF_ARTIFACTS; i++)
+        {
+            links.add(new ArtifactLink(new URI(BASE_URI + "2-" + (1000000 + i) + "?state=" + (5000 + i))));
+        }
+
+        cacheManager = new ClarityClientCacheConfiguration().clarityCacheManager();
+
+        ClarityAPICacheDecorator decorator = new ClarityAPICacheDecorator(cacheManager);
+        cache = decorator.getCache();
+        api = decorator.apply(stubApi());
+
+        // Fill the cache.
+        api.loadAll(links);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+        cacheManager.close();
+    }
+
+    @Benchmark
+    public Artifact loadHit()
+    {
+        LimsLink<Artifact> link = links.get(next);
+        next = (next + 1) % NUMBER_OF_ARTIFACTS;
+        return api.load(link);
+    }
+
+    @Benchmark
+    public List<Artifact> loadAllHit()
+    {
+        return api.loadAll(links);
+    }
+
+    @Benchmark
+    public long keyAndState()
+    {
+        LimsLink<Artifact> link = links.get(next);
+        next = (next + 1) % NUMBER_OF_ARTIFACTS;
+        CacheKey key = cache.keyFromLocatable(link);
+        return key.hashCode() + cache.versionFromUri(link.getUri());
+    }
+
+    @Benchmark
+    public long legacyKeyAndState()
+    {
+        LimsLink<Artifact> link = links.get(next);
+        next = (next + 1) % NUMBER_OF_ARTIFACTS;
+        String key = new URIBuilder(link.getUri()).clearParameters().toString();
+        long version = 0L;
+        URIBuilder builder = new URIBuilder(link.getUri());
+        if (!builder.isQueryEmpty())
+        {
+            NameValuePair stateParam = builder.getFirstQueryParam("state");
+            if (stateParam != null)
+            {
+                version = Long.parseLong(stateParam.getValue());
+            }
+        }
+        return key.hashCode() + version;
+    }
+
+    /**
+     * Create an API that makes artifacts for the links it is asked to load,
+     * as if they had come from the server.
+     *
+     * @return The stub API.
+     */
+    private static ClarityAPI stubApi()
+    {
+        Object stub = Proxy.newProxyInstance(CacheHitBenchmark.class.getClassLoader(),
+                new Class<?>[] { ClarityAPI.class, ClarityAPIInternal.class },
+                (proxy, method, args) ->
+                {
+                    switch (method.getName())
+                    {
+                        case "load":
+                            return toArtifact((LimsLink<?>)args[0]);
+
+                        case "loadAll":
+                            List<Artifact> artifacts = new ArrayList<>();
+                            for (Object link : (Collection<?>)args[0])
+                            {
+                                artifacts.add(toArtifact((LimsLink<?>)link));
+                            }
+                            return artifacts;
+
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+
+                        case "equals":
+                            return proxy == args[0];
+
+                        default:
+                            return null;
+                    }
+                });
+        return (ClarityAPI)stub;
+    }
+
+    private static Artifact toArtifact(LimsLink<?> link)
+    {
+        return new Artifact(link.getUri(), null);
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * CRUK-CI Clarity REST API Java Client.
+ * Copyright (C) 2013 Cancer Research UK Cambridge Institute.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.cruk.clarity.benchmarks;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+import jakarta.xml.bind.JAXBElement;
+
+import org.cruk.clarity.api.ClarityAPI;
+import org.cruk.clarity.api.ClarityAPIBuilder;
+import org.cruk.clarity.api.spring.ClarityClientConfiguration;
+import org.cruk.clarity.api.spring.LazyClarityClientConfiguration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.oxm.Marshaller;
+import org.springframework.oxm.Unmarshaller;
+
+import com.genologics.ri.artifact.Artifact;
+
+/**
+ * Measures the time taken for a fresh JVM to set up the client and handle its first
+ * artifact, as an EPP script launched by Clarity does, with the single JAXB context
+ * built at start up and with the per package contexts built as they are needed.
+ * The client is set up from its configuration alone, through a Spring context or with
+ * {@link ClarityAPIBuilder}; the last two load the artifact from a local HTTP server.
+ * Each measurement is a single call in a new JVM, so nothing has been loaded before.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(10)
+@State(Scope.Benchmark)
+public class ClientStartupBenchmark
+{
+    private static final String ARTIFACT_XML =
+        "<art:artifact xmlns:art=\"http://genologics.com/ri/artifact\" xmlns:udf=\"http://genologics.com/ri/userdefined\" " +
+        "limsid=\"2-1000624\" uri=\"http://limsdev.cri.camres.org:8080/api/v2/artifacts/2-1000624?state=1294907\">" +
+        "<name>Startup artifact</name>" +
+        "<type>Analyte</type>" +
+        "<output-type>Analyte</output-type>" +
+        "<qc-flag>PASSED</qc-flag>" +
+        "<location><container limsid=\"27-1000\" uri=\"http://limsdev.cri.camres.org:8080/api/v2/containers/27-1000\"/>" +
+        "<value>A:1</value></location>" +
+        "<working-flag>true</working-flag>" +
+        "<sample limsid=\"ABC101\" uri=\"http://limsdev.cri.camres.org:8080/api/v2/samples/ABC101\"/>" +
+        "<udf:field type=\"Numeric\" name=\"Concentration\">1.5</udf:field>" +
+        "</art:artifact>";
+
+    @Param({ "eager", "lazy" })
+    private String mode;
+
+    private ServerSocket server;
+
+    private Properties serverConfiguration;
+
+    /**
+     * Start a minimal HTTP server that answers every request with the artifact.
+     *
+     * @throws IOException if the server cannot be started.
+     */
+    @Setup
+    public void startServer() throws IOException
+    {
+        server = new ServerSocket(0, 5, InetAddress.getLoopbackAddress());
+        Thread serverThread = new Thread(() ->
+        {
+            byte[] content = ARTIFACT_XML.getBytes(UTF_8);
+            byte[] headers = ("HTTP/1.1 200 OK\r\nContent-Type: application/xml\r\nConnection: close\r\n" +
+                              "Content-Length: " + content.length + "\r\n\r\n").getBytes(US_ASCII);
+            while (!server.isClosed())
+            {
+                try (Socket socket = server.accept())
+                {
+                    BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), US_ASCII));
+                    String line;
+                    while ((line = reader.readLine()) != null && !line.isEmpty())
+                    {
+                        // Ignore the request.
+                    }
+                    OutputStream out = socket.getOutputStream();
+                    out.write(headers);
+                    out.write(content);
+                    out.flush();
+                }
+                catch (IOException e)
+                {
+                    // Closed.
+                }
+            }
+        });
+        serverThread.setDaemon(true);
+        serverThread.start();
+
+        serverConfiguration = new Properties();
+        serverConfiguration.setProperty("api.server", "http://localhost:" + server.getLocalPort());
+        serverConfiguration.setProperty("api.user", "apiuser");
+        serverConfiguration.setProperty("api.pass", "apipass");
+    }
+
+    @TearDown
+    public void stopServer() throws IOException
+    {
+        server.close();
+    }
+
+    /**
+     * Create the client's configuration and read and write one artifact with
+     * its JAXB beans.
+     *
+     * @return The artifact written out again.
+     *
+     * @throws Exception if anything fails.
+     */
+    @Benchmark
+    public String configuration() throws Exception
+    {
+        ClarityClientConfiguration configuration =
+                "lazy".equals(mode) ? new LazyClarityClientConfiguration() : new ClarityClientConfiguration();
+
+        // The API reads this list when it is created.
+        configuration.clarityJaxbClasses();
+
+        return roundTrip(configuration.clarityJaxbUnmarshaller(), configuration.clarityJaxbMarshaller());
+    }
+
+    /**
+     * Start a Spring context with the client's configuration, fetch the API and
+     * load one artifact from the server.
+     *
+     * @return The artifact loaded.
+     *
+     * @throws Exception if anything fails.
+     */
+    @Benchmark
+    public Artifact springContext() throws Exception
+    {
+        Class<?> configurationClass =
+                "lazy".equals(mode) ? LazyClarityClientConfiguration.class : ClarityClientConfiguration.class;
+
+        try (AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext(configurationClass))
+        {
+            ClarityAPI api = context.getBean("clarityAPI", ClarityAPI.class);
+            api.setConfiguration(serverConfiguration);
+
+            return api.load("2-1000624", Artifact.class);
+        }
+    }
+
+    /**
+     * Create the API with {@code ClarityAPIBuilder}, without Spring, and
+     * load one artifact from the server.
+     *
+     * @return The artifact loaded.
+     *
+     * @throws Exception if anything fails.
+     */
+    @Benchmark
+    public Artifact builder() throws Exception
+    {
+        ClarityAPI api = new ClarityAPIBuilder()
+                .configuration(serverConfiguration)
+                .lazyJaxbContext("lazy".equals(mode))
+                .build();
+        try
+        {
+            return api.load("2-1000624", Artifact.class);
+        }
+        finally
+        {
+            ((Closeable)api).close();
+        }
+    }
+
+    private static String roundTrip(Unmarshaller unmarshaller, Marshaller marshaller) throws Exception
+    {
+        Object artifact = unmarshaller.unmarshal(new StreamSource(new StringReader(ARTIFACT_XML)));
+        if (artifact instanceof JAXBElement<?> element)
+        {
+            artifact = element.getValue();
+        }
+
+        StringWriter writer = new StringWriter();
+        marshaller.marshal((Artifact)artifact, new StreamResult(writer));
+        return writer.toString();
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * CRUK-CI Clarity REST API Java Client.
+ * Copyright (C) 2013 Cancer Research UK Cambridge Institute.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cruk.clarity.benchmarks;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.net.URI;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import jakarta.xml.bind.annotation.XmlTransient;
+
+import org.cruk.clarity.api.impl.EntityCopier;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.genologics.ri.Location;
+import com.genologics.ri.artifact.Artifact;
+import com.genologics.ri.artifact.QCFlag;
+import com.genologics.ri.container.ContainerLink;
+import com.genologics.ri.userdefined.UDF;
+
+/**
+ * Compares the method handle based {@link EntityCopier} with the field
+ * reflection that {@code ClarityAPIImpl.reflectiveUpdate} used before it,
+ * copying an artifact as returned from the server onto the original.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class EntityCopierBenchmark
+{
+    private Artifact original;
+
+    private Artifact updated;
+
+    private LegacyReflectiveCopier legacy;
+
+    @Setup
+    public void setup() throws Exception
+    {
+        original = new Artifact();
+
+        updated = new Artifact(new URI("http://limsdev.cri.camres.org:8080/api/v2/artifacts/2-1000624"), "2-1000624");
+        updated.setName("Benchmark artifact");
+        updated.setQCFlag(QCFlag.PASSED);
+        updated.setLocation(new Location(new ContainerLink(new URI("http://limsdev.cri.camres.org:8080/api/v2/containers/27-1000")), "A:1"));
+        updated.getUserDefinedFields().add(new UDF("Concentration", 1.5));
+
+        legacy = new LegacyReflectiveCopier();
+
+        // Builds the copier up front.
+        EntityCopier.forClass(Artifact.class);
+    }
+
+    @Benchmark
+    public Artifact entityCopier()
+    {
+        EntityCopier.forClass(Artifact.class).update(original, updated);
+        return original;
+    }
+
+    @Benchmark
+    public Artifact legacyReflection() throws Exception
+    {
+        legacy.update(original, updated);
+        return original;
+    }
+
+    /**
+     * The field by field reflective copy as it was done by
+     * {@code ClarityAPIImpl.reflectiveUpdate} before version 2.34.
+     */
+    static class LegacyReflectiveCopier
+    {
+        private static final int MODIFIER_MASK = Modifier.TRANSIENT | Modifier.STATIC | Modifier.FINAL;
+
+        private Map<Class<?>, Map<String, Field>> updaterFields =
+                Collections.synchronizedMap(new HashMap<Class<?>, Map<String, Field>>());
+
+        void update(Object original, Object updated) throws IllegalAccessException
+        {
+            Class<?> clazz = original.getClass();
+
+            do
+            {
+                Map<String, Field> fieldMap = updaterFields.get(clazz);
+                if (fieldMap == null)
+                {
+                    fieldMap = Collections.synchronizedMap(new HashMap<String, Field>());
+                    updaterFields.put(clazz, fieldMap);
+
+                    Class<?> currentClass = clazz;
+                    while (!Object.class.equals(currentClass))
+                    {
+                        for (Field field : currentClass.getDeclaredFields())
+                        {
+                            if ((field.getModifiers() & MODIFIER_MASK) == 0 &&
+                                    field.getAnnotation(XmlTransient.class) == null)
+                            {
+                                field.setAccessible(true);
+                                fieldMap.put(field.getName(), field);
+                            }
+                        }
+                        currentClass = currentClass.getSuperclass();
+                    }
+                }
+
+                for (Field field : fieldMap.values())
+                {
+                    Object updatedValue = field.get(updated);
+                    field.get(original);
+
+                    if (Collection.class.isAssignableFrom(field.getDeclaringClass()) ||
+                        Map.class.isAssignableFrom(field.getDeclaringClass()))
+                    {
+                        throw new AssertionError("Not expecting collection classes.");
+                    }
+
+                    field.set(original, updatedValue);
+                }
+
+                clazz = clazz.getSuperclass();
+            }
+            while (!Object.class.equals(clazz));
+        }
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * CRUK-CI Clarity REST API Java Client.
+ * Copyright (C) 2013 Cancer Research UK Cambridge Institute.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cruk.clarity.benchmarks;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.net.URI;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+import jakarta.xml.bind.Marshaller;
+
+import org.cruk.clarity.api.jaxb.PooledJaxb2Marshaller;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.oxm.jaxb.Jaxb2Marshaller;
+
+import com.genologics.ri.Location;
+import com.genologics.ri.artifact.Artifact;
+import com.genologics.ri.artifact.QCFlag;
+import com.genologics.ri.artifact.SampleLink;
+import com.genologics.ri.container.ContainerLink;
+import com.genologics.ri.step.ProcessStep;
+import com.genologics.ri.userdefined.UDF;
+
+/**
+ * Compares Spring's {@code Jaxb2Marshaller}, which creates a JAXB marshaller or
+ * unmarshaller for every message, with {@link PooledJaxb2Marshaller}, which reuses
+ * them. Typical artifact and step documents are unmarshalled and marshalled from
+ * several threads at once, as the client's REST template does under load.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class JaxbMarshallerBenchmark
+{
+    private static final String STEP_XML =
+        "<stp:step xmlns:stp=\"http://genologics.com/ri/step\" current-state=\"Record Details\" " +
+        "limsid=\"24-1000\" uri=\"http://limsdev.cri.camres.org:8080/api/v2/steps/24-1000\">" +
+        "<configuration uri=\"http://limsdev.cri.camres.org:8080/api/v2/configuration/protocols/1/steps/2\">Library QC</configuration>" +
+        "<date-started>2024-03-01T10:15:00.000+00:00</date-started>" +
+        "<actions uri=\"http://limsdev.cri.camres.org:8080/api/v2/steps/24-1000/actions\"/>" +
+        "<reagents uri=\"http://limsdev.cri.camres.org:8080/api/v2/steps/24-1000/reagents\"/>" +
+        "<pools uri=\"http://limsdev.cri.camres.org:8080/api/v2/steps/24-1000/pools\"/>" +
+        "<placements uri=\"http://limsdev.cri.camres.org:8080/api/v2/steps/24-1000/placements\"/>" +
+        "<program-status uri=\"http://limsdev.cri.camres.org:8080/api/v2/steps/24-1000/programstatus\"/>" +
+        "<details uri=\"http://limsdev.cri.camres.org:8080/api/v2/steps/24-1000/details\"/>" +
+        "<available-programs>" +
+        "<available-program name=\"Copy UDFs\" uri=\"http://limsdev.cri.camres.org:8080/api/v2/steps/24-1000/trigger/101\"/>" +
+        "<available-program name=\"Make sample sheet\" uri=\"http://limsdev.cri.camres.org:8080/api/v2/steps/24-1000/trigger/102\"/>" +
+        "</available-programs>" +
+        "</stp:step>";
+
+    @Param({ "spring", "pooled" })
+    private String implementation;
+
+    private Jaxb2Marshaller jaxb;
+
+    private Artifact artifact;
+
+    private String artifactXml;
+
+    private ProcessStep step;
+
+    @Setup
+    public void setup() throws Exception
+    {
+        jaxb = "pooled".equals(implementation) ? new PooledJaxb2Marshaller() : new Jaxb2Marshaller();
+        jaxb.setClassesToBeBound(Artifact.class, ProcessStep.class);
+        jaxb.setMarshallerProperties(Map.of(Marshaller.JAXB_ENCODING, "UTF-8"));
+        jaxb.afterPropertiesSet();
+
+        Artifact a = new Artifact(new URI("http://limsdev.cri.camres.org:8080/api/v2/artifacts/2-1000624"), "2-1000624");
+        a.setName("Benchmark artifact");
+        a.setQCFlag(QCFlag.PASSED);
+        a.setLocation(new Location(new ContainerLink(new URI("http://limsdev.cri.camres.org:8080/api/v2/containers/27-1000")), "A:1"));
+        for (int i = 0; i < 4; i++)
+        {
+            a.getSamples().add(new SampleLink(new URI("http://limsdev.cri.camres.org:8080/api/v2/samples/ABC10" + i)));
+        }
+        a.getUserDefinedFields().add(new UDF("Concentration", 1.5));
+        a.getUserDefinedFields().add(new UDF("Volume", 20));
+        a.getUserDefinedFields().add(new UDF("Comments", "Benchmark"));
+
+        artifactXml = marshal(a);
+        artifact = (Artifact)unmarshal(artifactXml);
+        step = (ProcessStep)unmarshal(STEP_XML);
+    }
+
+    private Object unmarshal(String xml)
+    {
+        return jaxb.unmarshal(new StreamSource(new StringReader(xml)));
+    }
+
+    private String marshal(Object thing)
+    {
+        StringWriter writer = new StringWriter(2048);
+        jaxb.marshal(thing, new StreamResult(writer));
+        return writer.toString();
+    }
+
+    @Benchmark
+    public Object unmarshalArtifact()
+    {
+        return unmarshal(artifactXml);
+    }
+
+    @Benchmark
+    public Object unmarshalProcessStep()
+    {
+        return unmarshal(STEP_XML);
+    }
+
+    @Benchmark
+    public String marshalArtifact()
+    {
+        return marshal(artifact);
+    }
+
+    @Benchmark
+    public String marshalProcessStep()
+    {
+        return marshal(step);
+    }
+}
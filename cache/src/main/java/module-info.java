@@ -24,6 +24,10 @@ module org.cruk.clarity.api.cache
     requires transitive org.cruk.clarity.api;
     requires transitive ehcache;
 
+    requires static micrometer.core;
+    requires static org.cruk.clarity.api.recorder;
+
+    requires java.management;
     requires org.apache.commons.lang3;
     requires org.apache.httpcomponents.core5.httpcore5;
     requires org.aspectj.weaver;
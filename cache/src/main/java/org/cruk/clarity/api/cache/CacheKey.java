@@ -0,0 +1,326 @@
+/*
+ * CRUK-CI Clarity REST API Java Client.
+ * Copyright (C) 2013 Cancer Research UK Cambridge Institute.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cruk.clarity.api.cache;
+
+import java.io.Serial;
+import java.io.Serializable;
+import java.net.URI;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The key for an entity in the cache: the class of the entity, the server
+ * (host and port) it came from and the path of the entity below the API root,
+ * such as "{@code artifacts/2-1000624}". The scheme, the API version and any
+ * query string (which holds the state of stateful entities) are not part of
+ * the key.
+ *
+ * <p>
+ * The server is part of the key so caches kept on disk between runs cannot
+ * give one server's entities to a client of another. There are only ever a
+ * few servers, so their names are shared between keys rather than each key
+ * holding its own copy.
+ * </p>
+ *
+ * <p>
+ * Keys are immutable and their hash code is computed when they are created,
+ * so they are cheap to look up repeatedly. The hash code depends only on the
+ * class name, the server and the path, so it is the same in every JVM.
+ * </p>
+ *
+ * @since 2.34
+ */
+public final class CacheKey implements Serializable
+{
+    /**
+     * Class version for serialisation.
+     */
+    @Serial private static final long serialVersionUID = 6402711859353364213L;
+
+    /**
+     * The part of the path of an entity's URI that comes before the path
+     * in the key.
+     */
+    static final String API_PATH_BASE = "/api/v2/";
+
+    /**
+     * The server names seen, so keys share one string for each.
+     */
+    private static final ConcurrentMap<String, String> SERVERS = new ConcurrentHashMap<String, String>();
+
+    /**
+     * The server name last used to create a key. Nearly all keys are for
+     * the same server, so checking this first avoids creating a string for
+     * the server for every key made from a URI string.
+     */
+    private static volatile String lastServer = "";
+
+    /**
+     * The class of the entity.
+     * @serial
+     */
+    private final Class<?> entityClass;
+
+    /**
+     * The server's host and port. Empty if the key was made from a
+     * URI without them.
+     * @serial
+     */
+    private final String server;
+
+    /**
+     * The path to the entity below the API root.
+     * @serial
+     */
+    private final String path;
+
+    /**
+     * The hash code of the key.
+     * @serial
+     */
+    private final int hash;
+
+
+    /**
+     * Constructor for a key without a server.
+     *
+     * @param entityClass The class of the entity.
+     * @param path The path to the entity below the API root.
+     */
+    public CacheKey(Class<?> entityClass, String path)
+    {
+        this(entityClass, "", path);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param entityClass The class of the entity.
+     * @param server The server's host and port, as in the authority part of a URI.
+     * May be empty.
+     * @param path The path to the entity below the API root.
+     */
+    public CacheKey(Class<?> entityClass, String server, String path)
+    {
+        if (entityClass == null)
+        {
+            throw new IllegalArgumentException("entityClass cannot be null");
+        }
+        if (server == null)
+        {
+            throw new IllegalArgumentException("server cannot be null");
+        }
+        if (path == null)
+        {
+            throw new IllegalArgumentException("path cannot be null");
+        }
+        this.entityClass = entityClass;
+        this.server = internServer(server);
+        this.path = path;
+        this.hash = 31 * (31 * entityClass.getName().hashCode() + this.server.hashCode()) + path.hashCode();
+    }
+
+    /**
+     * Create the key for an entity from its URI.
+     *
+     * @param entityClass The class of the entity.
+     * @param uri The URI of the entity.
+     *
+     * @return The key for the entity, or null if {@code uri} is null.
+     */
+    public static CacheKey of(Class<?> entityClass, URI uri)
+    {
+        if (uri == null)
+        {
+            return null;
+        }
+
+        String server = uri.getRawAuthority();
+        String rawPath = uri.getRawPath();
+        if (rawPath == null)
+        {
+            // Opaque URI. Use it all, less any fragment.
+            rawPath = uri.getRawSchemeSpecificPart();
+        }
+        return new CacheKey(entityClass, server == null ? "" : server, apiPath(rawPath, 0, rawPath.length()));
+    }
+
+    /**
+     * Create the key for an entity from its URI as a string. The string is
+     * not checked for being a valid URI.
+     *
+     * @param entityClass The class of the entity.
+     * @param uri The URI of the entity.
+     *
+     * @return The key for the entity, or null if {@code uri} is null.
+     */
+    public static CacheKey of(Class<?> entityClass, String uri)
+    {
+        if (uri == null)
+        {
+            return null;
+        }
+
+        int end = 0;
+        while (end < uri.length() && uri.charAt(end) != '?' && uri.charAt(end) != '#')
+        {
+            end++;
+        }
+
+        int start = 0;
+        String server = "";
+
+        // Take the server and skip the scheme, if there are any.
+        int scheme = uri.indexOf("://");
+        if (scheme >= 0 && scheme < end)
+        {
+            int pathStart = uri.indexOf('/', scheme + 3);
+            start = pathStart < 0 || pathStart > end ? end : pathStart;
+            server = server(uri, scheme + 3, start);
+        }
+
+        return new CacheKey(entityClass, server, apiPath(uri, start, end));
+    }
+
+    /**
+     * Get the shared copy of a server name taken from part of a URI string.
+     *
+     * @param s The URI string.
+     * @param start The index of the start of the server in {@code s}.
+     * @param end The index of the end of the server in {@code s}.
+     *
+     * @return The shared server name.
+     */
+    private static String server(String s, int start, int end)
+    {
+        String last = lastServer;
+        if (last.length() == end - start && s.regionMatches(start, last, 0, last.length()))
+        {
+            return last;
+        }
+        return internServer(s.substring(start, end));
+    }
+
+    /**
+     * Get the shared copy of a server name.
+     *
+     * @param server The server name.
+     *
+     * @return The shared server name, equal to {@code server}.
+     */
+    private static String internServer(String server)
+    {
+        String shared = SERVERS.putIfAbsent(server, server);
+        if (shared == null)
+        {
+            shared = server;
+        }
+        lastServer = shared;
+        return shared;
+    }
+
+    /**
+     * Get the part of a URI's path that follows the API root. If the path
+     * does not contain the API root, the whole path is used.
+     *
+     * @param s The string holding the path.
+     * @param start The index of the start of the path in {@code s}.
+     * @param end The index of the end of the path in {@code s}.
+     *
+     * @return The path below the API root.
+     */
+    private static String apiPath(String s, int start, int end)
+    {
+        int base = s.indexOf(API_PATH_BASE, start);
+        if (base >= 0 && base + API_PATH_BASE.length() <= end)
+        {
+            start = base + API_PATH_BASE.length();
+        }
+        return s.substring(start, end);
+    }
+
+    /**
+     * Get the class of the entity.
+     *
+     * @return The entity class.
+     */
+    public Class<?> getEntityClass()
+    {
+        return entityClass;
+    }
+
+    /**
+     * Get the server the entity is on.
+     *
+     * @return The server's host and port, or an empty string if the
+     * key was created without a server.
+     */
+    public String getServer()
+    {
+        return server;
+    }
+
+    /**
+     * Get the path to the entity below the API root.
+     *
+     * @return The entity's path.
+     */
+    public String getPath()
+    {
+        return path;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int hashCode()
+    {
+        return hash;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean equals(Object obj)
+    {
+        if (this == obj)
+        {
+            return true;
+        }
+        if (!(obj instanceof CacheKey other))
+        {
+            return false;
+        }
+        return hash == other.hash && entityClass == other.entityClass &&
+               server.equals(other.server) && path.equals(other.path);
+    }
+
+    /**
+     * Returns a string representation of this object.
+     *
+     * @return The short class name and the path.
+     */
+    @Override
+    public String toString()
+    {
+        return entityClass.getSimpleName() + ' ' + path;
+    }
+}
@@ -21,26 +21,33 @@ package org.cruk.clarity.api.cache;
 import static org.apache.commons.lang3.StringUtils.isNotEmpty;
 
 import java.net.URI;
-import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.commons.lang3.ClassUtils;
-import org.apache.hc.core5.http.NameValuePair;
-import org.apache.hc.core5.net.URIBuilder;
 import org.aspectj.lang.JoinPoint;
 import org.aspectj.lang.ProceedingJoinPoint;
 import org.aspectj.lang.annotation.After;
 import org.aspectj.lang.annotation.Around;
 import org.aspectj.lang.annotation.Aspect;
 import org.cruk.clarity.api.ClarityAPI;
+import org.cruk.clarity.api.ClarityBulkOperationException;
+import org.cruk.clarity.api.ClarityException;
+import org.cruk.clarity.api.DeleteResults;
 import org.cruk.clarity.api.StatefulOverride;
 import org.cruk.clarity.api.cache.internal.CacheElementWrapper;
 import org.cruk.clarity.api.impl.ClarityAPIImpl;
@@ -48,6 +55,10 @@ import org.cruk.clarity.api.impl.ClarityAPIInternal;
 import org.cruk.clarity.api.impl.LatestVersionsResetAspect;
 import org.ehcache.Cache;
 import org.ehcache.CacheManager;
+import org.ehcache.event.CacheEvent;
+import org.ehcache.event.EventFiring;
+import org.ehcache.event.EventOrdering;
+import org.ehcache.event.EventType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -57,6 +68,7 @@ import org.springframework.stereotype.Component;
 import com.genologics.ri.ClarityEntity;
 import com.genologics.ri.LimsEntity;
 import com.genologics.ri.LimsLink;
+import com.genologics.ri.Link;
 import com.genologics.ri.Linkable;
 import com.genologics.ri.Locatable;
 import com.genologics.ri.file.ClarityFile;
@@ -88,6 +100,20 @@ public class ClarityAPICache
      */
     public static final long NO_STATE_VALUE = 0L;
 
+    /**
+     * The number of lock stripes used to guard the cache entries of individual entities.
+     * Must be a power of two.
+     *
+     * @since 2.34
+     */
+    public static final int KEY_LOCK_STRIPES = 64;
+
+    /**
+     * The name of the query parameter holding the state of stateful entities,
+     * with the equals sign that follows it.
+     */
+    private static final String STATE_PARAMETER = "state=";
+
     /**
      * Logger.
      */
@@ -111,12 +137,55 @@ public class ClarityAPICache
     /**
      * The behaviour for dealing with stateful entities.
      */
-    protected CacheStatefulBehaviour behaviour = CacheStatefulBehaviour.LATEST;
+    protected volatile CacheStatefulBehaviour behaviour = CacheStatefulBehaviour.LATEST;
+
+    /**
+     * Lock serialising changes to the cache behaviour. Operations do not take it:
+     * each reads the behaviour once when it starts.
+     */
+    private final Object behaviourChangeLock = new Object();
+
+    /**
+     * Striped locks for individual cache keys. These guard examining and updating
+     * the cache entry for a key, and the fetch in progress table. Threads working
+     * on different entities will (usually) not block each other.
+     *
+     * @since 2.34
+     */
+    private final Lock[] keyLocks;
 
     /**
-     * Lock to prevent the cache behaviour changing during an operation.
+     * Fetches from the server currently in progress, keyed by the cache key of the
+     * entity being fetched (or the full URI string for stateful entities). Threads
+     * wanting an entity that is already being fetched wait on the future here rather
+     * than making a second call to the server.
+     *
+     * @since 2.34
+     */
+    private final ConcurrentMap<Object, CompletableFuture<Locatable>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * The statistics of the cache's behaviour for each entity class.
+     *
+     * @since 2.34
+     */
+    protected ClarityAPICacheStatistics statistics = new ClarityAPICacheStatistics();
+
+    /**
+     * The record of entities recently found not to exist. Turned off unless
+     * replaced with one with a time to live.
+     *
+     * @since 2.34
      */
-    private Lock behaviourLock = new ReentrantLock();
+    protected ClarityAPINotFoundCache notFoundCache = new ClarityAPINotFoundCache();
+
+    /**
+     * The names of the caches that have had the listener counting evictions
+     * and expiries registered.
+     *
+     * @since 2.34
+     */
+    private final Set<String> listenedCaches = ConcurrentHashMap.newKeySet();
 
 
     /**
@@ -124,6 +193,11 @@ public class ClarityAPICache
      */
     public ClarityAPICache()
     {
+        keyLocks = new Lock[KEY_LOCK_STRIPES];
+        for (int i = 0; i < keyLocks.length; i++)
+        {
+            keyLocks[i] = new ReentrantLock();
+        }
     }
 
     /**
@@ -165,38 +239,118 @@ public class ClarityAPICache
         this.latestVersionsResetAspect = latestVersionsResetAspect;
     }
 
+    /**
+     * Set the object to collect the statistics of the cache's behaviour in.
+     * If not set, the cache collects them in its own object.
+     *
+     * @param statistics The cache statistics.
+     *
+     * @since 2.34
+     */
+    @Autowired(required = false)
+    @Qualifier("clarityCacheStatistics")
+    public void setStatistics(ClarityAPICacheStatistics statistics)
+    {
+        if (statistics == null)
+        {
+            throw new IllegalArgumentException("statistics cannot be null");
+        }
+        this.statistics = statistics;
+    }
+
+    /**
+     * Get the statistics of the cache's behaviour for each entity class.
+     *
+     * @return The cache statistics.
+     *
+     * @since 2.34
+     */
+    public ClarityAPICacheStatistics getStatistics()
+    {
+        return statistics;
+    }
+
+    /**
+     * Set the record of entities recently found not to exist.
+     *
+     * @param notFoundCache The record of entities not found.
+     *
+     * @since 2.34
+     */
+    @Autowired(required = false)
+    @Qualifier("clarityNotFoundCache")
+    public void setNotFoundCache(ClarityAPINotFoundCache notFoundCache)
+    {
+        if (notFoundCache == null)
+        {
+            throw new IllegalArgumentException("notFoundCache cannot be null");
+        }
+        this.notFoundCache = notFoundCache;
+    }
+
+    /**
+     * Get the record of entities recently found not to exist.
+     *
+     * @return The record of entities not found.
+     *
+     * @since 2.34
+     */
+    public ClarityAPINotFoundCache getNotFoundCache()
+    {
+        return notFoundCache;
+    }
+
     /**
      * Set the behaviour for dealing with stateful objects. Note that changing
      * this behaviour during operation clears the cache.
      *
+     * <p>
+     * The change does not wait for operations in progress. These finish following
+     * the behaviour in force when they started; later operations use the new one.
+     * </p>
+     *
      * @param behaviour The desired behaviour.
      *
      * @since 2.22
      */
     public void setStatefulBehaviour(CacheStatefulBehaviour behaviour)
     {
-        if (behaviour != null && this.behaviour != behaviour)
+        if (behaviour != null)
         {
-            behaviourLock.lock();
-            try
+            synchronized (behaviourChangeLock)
             {
-                this.behaviour = behaviour;
+                if (this.behaviour != behaviour)
+                {
+                    this.behaviour = behaviour;
 
-                // Guard for null so the order of Spring property setting
-                // doesn't matter.
+                    // Guard for null so the order of Spring property setting
+                    // doesn't matter.
 
-                if (cacheManager != null)
-                {
-                    clear();
+                    if (cacheManager != null)
+                    {
+                        clear();
+                    }
                 }
             }
-            finally
-            {
-                behaviourLock.unlock();
-            }
         }
     }
 
+    /**
+     * Get the lock stripe that guards the given cache key.
+     *
+     * @param key The cache key.
+     *
+     * @return The lock for the key.
+     *
+     * @since 2.34
+     */
+    protected Lock getKeyLock(CacheKey key)
+    {
+        int hash = key == null ? 0 : key.hashCode();
+        hash ^= hash >>> 16;
+        return keyLocks[hash & (keyLocks.length - 1)];
+    }
+
     /**
      * Clears the cache of all cached entities.
      */
@@ -215,22 +369,130 @@ public class ClarityAPICache
      *
      * @see #loadOrRetrieve(ProceedingJoinPoint, String, Class)
      */
-    Cache<String, CacheElementWrapper> getCache(Class<?> type)
+    Cache<CacheKey, CacheElementWrapper> getCache(Class<?> type)
     {
         if (type == null)
         {
             throw new IllegalArgumentException("type cannot be null");
         }
 
-        Cache<String, CacheElementWrapper> cache = cacheManager.getCache(type.getName(), String.class, CacheElementWrapper.class);
+        String name = type.getName();
+        Cache<CacheKey, CacheElementWrapper> cache = cacheManager.getCache(name, CacheKey.class, CacheElementWrapper.class);
         if (cache == null)
         {
-            cache = cacheManager.getCache(LimsEntity.class.getName(), String.class, CacheElementWrapper.class);
+            name = LimsEntity.class.getName();
+            cache = cacheManager.getCache(name, CacheKey.class, CacheElementWrapper.class);
+        }
+
+        if (cache != null && !listenedCaches.contains(name) && listenedCaches.add(name))
+        {
+            // The keys carry the entity class, so evictions from the shared cache
+            // are counted against the right class.
+            cache.getRuntimeConfiguration().registerCacheEventListener(
+                    this::cacheEvent, EventOrdering.UNORDERED, EventFiring.ASYNCHRONOUS,
+                    EnumSet.of(EventType.EVICTED, EventType.EXPIRED));
         }
 
         return cache;
     }
 
+    /**
+     * Listener for Ehcache events, counting evictions and expiries in the
+     * statistics of the entity class concerned.
+     *
+     * @param event The cache event.
+     *
+     * @since 2.34
+     */
+    private void cacheEvent(CacheEvent<? extends CacheKey, ? extends CacheElementWrapper> event)
+    {
+        EntityCacheStatistics stats = statistics.forClass(event.getKey().getEntityClass());
+        if (event.getType() == EventType.EVICTED)
+        {
+            stats.eviction();
+        }
+        else
+        {
+            stats.expiry();
+        }
+    }
+
+    /**
+     * Store an entity in the cache and count it in the statistics for its class.
+     *
+     * @param cache The cache to store the entity in.
+     * @param key The cache key for the entity.
+     * @param entity The entity.
+     *
+     * @since 2.34
+     */
+    private void putEntity(Cache<CacheKey, CacheElementWrapper> cache, CacheKey key, Locatable entity)
+    {
+        cache.put(key, createCacheElement(entity));
+        notFoundCache.remove(key);
+        statistics.forClass(key.getEntityClass()).put();
+    }
+
+    /**
+     * Get the entities of one class that are held in the cache.
+     *
+     * @param entityClass The class of entity.
+     *
+     * @return A list of the cached entities of exactly that class.
+     *
+     * @since 2.34
+     *
+     * @see ClarityCacheWarmer#writeSnapshot(java.nio.file.Path, Collection)
+     */
+    List<Locatable> getCachedEntities(Class<?> entityClass)
+    {
+        List<Locatable> entities = new ArrayList<>();
+        Cache<CacheKey, CacheElementWrapper> cache = getCache(entityClass);
+        if (cache != null)
+        {
+            for (Cache.Entry<CacheKey, CacheElementWrapper> entry : cache)
+            {
+                if (entry.getKey().getEntityClass() == entityClass && entry.getValue().getEntity() instanceof Locatable entity)
+                {
+                    entities.add(entity);
+                }
+            }
+        }
+        return entities;
+    }
+
+    /**
+     * Put an entity that has not come through the API into the cache,
+     * unless the cache already holds it.
+     *
+     * @param entity The entity to store.
+     *
+     * @return true if the entity was stored, false if it is not cacheable
+     * or the cache already has it.
+     *
+     * @since 2.34
+     *
+     * @see ClarityCacheWarmer#readSnapshot(java.nio.file.Path, java.time.Duration)
+     */
+    boolean storeIfAbsent(Locatable entity)
+    {
+        if (entity == null || entity.getUri() == null || !isCacheable(entity))
+        {
+            return false;
+        }
+
+        CacheKey key = keyFromLocatable(entity);
+        Cache<CacheKey, CacheElementWrapper> cache = getCache(key.getEntityClass());
+        if (cache == null || cache.putIfAbsent(key, createCacheElement(entity)) != null)
+        {
+            return false;
+        }
+
+        notFoundCache.remove(key);
+        statistics.forClass(key.getEntityClass()).put();
+        return true;
+    }
+
     /**
      * Makes sure the effects of {@code ClarityAPI.overrideStateful()}
      * is reset after a call. The API itself has its own wrapper to clear
@@ -346,6 +608,7 @@ public class ClarityAPICache
     /**
      * Join point for the {@code ClarityAPI.load} methods taking a {@code LimsLink}.
      * Fetches the object requested, either from the cache or from the API.
+     * Concurrent loads of the same link share a single call to the API.
      *
      * @param pjp The join point object.
      *
@@ -401,6 +664,20 @@ public class ClarityAPICache
      * parameter to their URIs. See the class description for more details.
      * </p>
      *
+     * <p>
+     * Concurrent requests for the same object are coalesced: the first thread
+     * to miss the cache makes the call to the server and any other thread asking
+     * for the same object while that call is in progress waits for its result
+     * rather than making its own call. See {@link #inFlight}.
+     * </p>
+     *
+     * <p>
+     * If the server says the object does not exist, that is remembered in the
+     * {@link #getNotFoundCache() record of entities not found} (if it is turned
+     * on), and requests for it until the record expires fail in the same way
+     * without calling the server.
+     * </p>
+     *
      * @param pjp The join point object.
      * @param uri The URI of the object to fetch.
      * @param entityClass The type of object to fetch.
@@ -420,125 +697,245 @@ public class ClarityAPICache
 
         final String className = ClassUtils.getShortClassName(entityClass);
 
-        Cache<String, CacheElementWrapper> cache = getCache(entityClass);
+        final boolean fetchLatest = isFetchLatestVersions();
 
-        Locatable genologicsObject = null;
-        String key = keyFromUri(uri);
-        long version = NO_STATE_VALUE;
+        Cache<CacheKey, CacheElementWrapper> cache = getCache(entityClass);
+
+        EntityCacheStatistics stats = statistics.forClass(entityClass);
+
+        CacheKey key = keyFromUri(entityClass, uri);
+        long version = statefulEntity ? versionFromUri(uri) : NO_STATE_VALUE;
 
-        behaviourLock.lock();
+        // Without a key (no URI), nothing is cached and the API reports the problem.
+        final String path = key == null ? null : key.getPath();
+
+        // Stateful entities are only coalesced with requests for exactly the same state.
+        Object flightKey = statefulEntity ? uri : key;
+
+        // The behaviour is read once so this call follows the same rules throughout,
+        // even if it is changed meanwhile. The lock for the key is held only while
+        // examining the cache and the table of fetches in progress, not during the
+        // call to the server.
+
+        final CacheStatefulBehaviour storeBehaviour = behaviour;
+        final CacheStatefulBehaviour callBehaviour = getBehaviourForCall(storeBehaviour);
+
+        CacheElementWrapper wrapper = null;
+        CompletableFuture<Locatable> flight = null;
+        boolean leader = false;
+
+        Lock keyLock = getKeyLock(key);
+        keyLock.lock();
         try
         {
-            CacheElementWrapper wrapper = null;
             if (key != null)
             {
                 wrapper = cache.get(key);
-                if (wrapper != null)
+
+                Locatable genologicsObject = getAcceptableFromWrapper(wrapper, statefulEntity, version, fetchLatest, callBehaviour);
+                if (genologicsObject != null)
                 {
-                    if (!statefulEntity)
-                    {
-                        genologicsObject = getFromWrapper(wrapper);
-                    }
-                    else if (!isFetchLatestVersions())
+                    if (logger.isDebugEnabled())
                     {
-                        version = versionFromUri(uri);
-
-                        switch (getBehaviourForCall())
-                        {
-                            case ANY:
-                                genologicsObject = getFromWrapper(wrapper);
-                                break;
-
-                            case LATEST:
-                                if (version == NO_STATE_VALUE || version <= wrapper.getVersion())
-                                {
-                                    genologicsObject = getFromWrapper(wrapper);
-                                }
-                                break;
-
-                            case EXACT:
-                                if (version == NO_STATE_VALUE || version == wrapper.getVersion())
-                                {
-                                    genologicsObject = getFromWrapper(wrapper);
-                                }
-                                break;
-                        }
+                        logger.debug("Already have {} {} in the cache.", className, path);
                     }
+                    stats.hit();
+                    return genologicsObject;
                 }
-            }
 
-            if (genologicsObject == null)
-            {
-                if (logger.isDebugEnabled())
+                if (wrapper == null && !fetchLatest)
                 {
-                    if (version == NO_STATE_VALUE)
-                    {
-                        logger.debug("Don't have {} {} - calling through to API {}", className, key, pjp.getSignature().getName());
-                    }
-                    else
+                    ClarityException notFound = notFoundCache.get(key);
+                    if (notFound != null)
                     {
-                        logger.debug("Have a different version of {} {} - calling through to API {}", className, key, pjp.getSignature().getName());
+                        if (logger.isDebugEnabled())
+                        {
+                            logger.debug("{} {} was recently found not to exist.", className, path);
+                        }
+                        stats.notFoundHit();
+                        throw notFound;
                     }
                 }
 
-                genologicsObject = (Locatable)pjp.proceed();
-                key = keyFromLocatable(genologicsObject);
-
                 if (wrapper == null)
                 {
-                    // Not already in the cache, so it needs to be stored.
-                    cache.put(key, createCacheElement(genologicsObject));
+                    stats.miss();
                 }
                 else
                 {
-                    // Most entities already in the cache will just stay there.
-                    // If though we have a stateful entity, there may be cause
-                    // to replace the object in the cache depending on how the
-                    // cache normally behaves. Typically this will be replacing the
-                    // existing with a newer version or replacing for a difference.
-                    // When we don't care about versions, the one already in the cache
-                    // can remain.
-
-                    if (statefulEntity)
-                    {
-                        switch (behaviour)
-                        {
-                            case ANY:
-                                break;
-
-                            case LATEST:
-                                if (version > wrapper.getVersion())
-                                {
-                                    cache.put(key, createCacheElement(genologicsObject));
-                                }
-                                break;
+                    stats.staleRefetch();
+                }
 
-                            case EXACT:
-                                if (version != wrapper.getVersion())
-                                {
-                                    cache.put(key, createCacheElement(genologicsObject));
-                                }
-                                break;
-                        }
+                if (!fetchLatest)
+                {
+                    flight = inFlight.get(flightKey);
+                    if (flight == null)
+                    {
+                        flight = new CompletableFuture<>();
+                        inFlight.put(flightKey, flight);
+                        leader = true;
                     }
                 }
             }
+        }
+        finally
+        {
+            keyLock.unlock();
+        }
+
+        if (flight != null && !leader)
+        {
+            if (logger.isDebugEnabled())
+            {
+                logger.debug("{} {} is being fetched by another thread - waiting for its result.", className, path);
+            }
+
+            try
+            {
+                return flight.get();
+            }
+            catch (ExecutionException e)
+            {
+                throw e.getCause();
+            }
+        }
+
+        if (logger.isDebugEnabled())
+        {
+            if (wrapper == null)
+            {
+                logger.debug("Don't have {} {} - calling through to API {}", className, path, pjp.getSignature().getName());
+            }
             else
             {
-                if (logger.isDebugEnabled())
-                {
-                    logger.debug("Already have {} {} in the cache.", className, key);
-                }
+                logger.debug("Have a different version of {} {} - calling through to API {}", className, path, pjp.getSignature().getName());
+            }
+        }
+
+        try
+        {
+            long start = System.nanoTime();
+            Locatable genologicsObject = (Locatable)pjp.proceed();
+            stats.fetched(1, System.nanoTime() - start);
+
+            storeFetched(cache, keyFromLocatable(genologicsObject), wrapper, genologicsObject, statefulEntity, storeBehaviour);
+
+            if (flight != null)
+            {
+                flight.complete(genologicsObject);
+            }
+
+            return genologicsObject;
+        }
+        catch (Throwable t)
+        {
+            if (t instanceof ClarityException ce && ce.isNotFound())
+            {
+                notFoundCache.put(key, ce);
+            }
+            if (flight != null)
+            {
+                flight.completeExceptionally(t);
             }
+            throw t;
         }
         finally
         {
-            behaviourLock.unlock();
+            if (flight != null)
+            {
+                inFlight.remove(flightKey, flight);
+            }
+        }
+    }
+
+    /**
+     * Get the entity from a cache element if it satisfies the request being made.
+     * Stateful entities need their versions checking against the version requested
+     * according to the cache's behaviour.
+     *
+     * @param wrapper The cache element. May be null.
+     * @param statefulEntity Whether the entity is stateful.
+     * @param version The version requested.
+     * @param fetchLatest Whether the latest versions of stateful entities must be
+     * fetched from the server.
+     * @param callBehaviour The stateful behaviour for this call.
+     *
+     * @return The entity from the cache element, or null if there is no entity
+     * in the cache or if the entity in the cache cannot be used.
+     *
+     * @since 2.34
+     */
+    private Locatable getAcceptableFromWrapper(CacheElementWrapper wrapper, boolean statefulEntity, long version, boolean fetchLatest,
+                                               CacheStatefulBehaviour callBehaviour)
+    {
+        Locatable genologicsObject = null;
+
+        if (wrapper != null)
+        {
+            if (!statefulEntity)
+            {
+                genologicsObject = getFromWrapper(wrapper);
+            }
+            else if (!fetchLatest)
+            {
+                switch (callBehaviour)
+                {
+                    case ANY:
+                        genologicsObject = getFromWrapper(wrapper);
+                        break;
+
+                    case LATEST:
+                        if (version == NO_STATE_VALUE || version <= wrapper.getVersion())
+                        {
+                            genologicsObject = getFromWrapper(wrapper);
+                        }
+                        break;
+
+                    case EXACT:
+                        if (version == NO_STATE_VALUE || version == wrapper.getVersion())
+                        {
+                            genologicsObject = getFromWrapper(wrapper);
+                        }
+                        break;
+                }
+            }
         }
 
         return genologicsObject;
     }
 
+    /**
+     * Store an entity freshly fetched from the server in the cache.
+     *
+     * @param cache The cache to store the entity in.
+     * @param key The cache key for the entity.
+     * @param wrapper The cache element that was found for the entity before it was
+     * fetched. May be null.
+     * @param genologicsObject The entity fetched.
+     * @param statefulEntity Whether the entity is stateful.
+     * @param storeBehaviour The cache's stateful behaviour when the call started.
+     *
+     * @since 2.34
+     */
+    private void storeFetched(Cache<CacheKey, CacheElementWrapper> cache, CacheKey key, CacheElementWrapper wrapper,
+                              Locatable genologicsObject, boolean statefulEntity, CacheStatefulBehaviour storeBehaviour)
+    {
+        if (wrapper == null)
+        {
+            // Not already in the cache, so it needs to be stored.
+            putEntity(cache, key, genologicsObject);
+        }
+        else if (statefulEntity)
+        {
+            // Most entities already in the cache will just stay there.
+            // If though we have a stateful entity, there may be cause
+            // to replace the object in the cache depending on how the
+            // cache normally behaves.
+
+            replaceStatefulEntity(cache, key, genologicsObject, storeBehaviour);
+        }
+    }
+
     /**
      * Join point for the {@code ClarityAPI.loadAll} method.
      * Examines the cache for objects already loaded and only fetches those
@@ -565,7 +962,7 @@ public class ClarityAPICache
 
         if (links != null && !links.isEmpty())
         {
-            Cache<String, CacheElementWrapper> cache = null;
+            Cache<CacheKey, CacheElementWrapper> cache = null;
 
             List<LimsLink<E>> toFetch = new ArrayList<LimsLink<E>>(links.size());
             List<E> alreadyCached = new ArrayList<E>(links.size());
@@ -573,230 +970,282 @@ public class ClarityAPICache
             Boolean cacheable = null;
             String className = null;
             Boolean stateful = null;
+            EntityCacheStatistics stats = null;
 
-            CacheStatefulBehaviour callBehaviour = getBehaviourForCall();
+            // The behaviour is read once for the whole call. No lock is held over the
+            // call through to the API: taking the key locks for a whole collection would
+            // serialise unrelated batches, so the key lock is taken only when deciding
+            // whether to replace an existing cache entry.
 
-            behaviourLock.lock();
-            try
+            final CacheStatefulBehaviour storeBehaviour = behaviour;
+            final CacheStatefulBehaviour callBehaviour = getBehaviourForCall(storeBehaviour);
+
+            Iterator<LimsLink<E>> linkIterator = links.iterator();
+
+            // Loop through the links requested and accumulate two lists of links:
+            // those that are not in the cache and need to be fetched and those that
+            // have already been fetched. While doing this, assemble in "results" those
+            // entities already in the cache that don't need to be fetch. This list will
+            // have nulls inserted where the entity needs to be fetched.
+
+            while (linkIterator.hasNext())
             {
-                Iterator<LimsLink<E>> linkIterator = links.iterator();
+                LimsLink<E> link = linkIterator.next();
+                if (link == null)
+                {
+                    throw new IllegalArgumentException("link contains a null");
+                }
+                if (link.getUri() == null)
+                {
+                    throw new IllegalArgumentException("A link in the collection has no URI set.");
+                }
 
-                // Loop through the links requested and accumulate two lists of links:
-                // those that are not in the cache and need to be fetched and those that
-                // have already been fetched. While doing this, assemble in "results" those
-                // entities already in the cache that don't need to be fetch. This list will
-                // have nulls inserted where the entity needs to be fetched.
+                if (className == null)
+                {
+                    className = ClassUtils.getShortClassName(link.getEntityClass());
+                    cacheable = isCacheable(link.getEntityClass());
+                    stateful = isStateful(link.getEntityClass());
+                }
 
-                while (linkIterator.hasNext())
+                E entity = null;
+                if (!cacheable)
                 {
-                    LimsLink<E> link = linkIterator.next();
-                    if (link == null)
-                    {
-                        throw new IllegalArgumentException("link contains a null");
-                    }
-                    if (link.getUri() == null)
+                    // Fetch always.
+                    toFetch.add(link);
+                }
+                else
+                {
+                    if (cache == null)
                     {
-                        throw new IllegalArgumentException("A link in the collection has no URI set.");
+                        cache = getCache(link.getEntityClass());
+                        stats = statistics.forClass(link.getEntityClass());
                     }
 
-                    if (className == null)
-                    {
-                        className = ClassUtils.getShortClassName(link.getEntityClass());
-                        cacheable = isCacheable(link.getEntityClass());
-                        stateful = isStateful(link.getEntityClass());
-                    }
+                    CacheKey key = keyFromLocatable(link);
 
-                    E entity = null;
-                    if (!cacheable)
+                    CacheElementWrapper wrapper = cache.get(key);
+                    if (wrapper == null)
                     {
-                        // Fetch always.
                         toFetch.add(link);
+                        stats.miss();
                     }
                     else
                     {
-                        if (cache == null)
-                        {
-                            cache = getCache(link.getEntityClass());
-                        }
-
-                        String key = keyFromLocatable(link);
-
-                        CacheElementWrapper wrapper = cache.get(key);
-                        if (wrapper == null)
+                        if (isFetchLatestVersions())
                         {
                             toFetch.add(link);
+                            stats.staleRefetch();
                         }
                         else
                         {
-                            if (isFetchLatestVersions())
-                            {
-                                toFetch.add(link);
-                            }
-                            else
+                            long version = stateful ? versionFromUri(link.getUri()) : NO_STATE_VALUE;
+
+                            switch (callBehaviour)
                             {
-                                long version = versionFromLocatable(link);
+                                case ANY:
+                                    entity = getFromWrapper(wrapper);
+                                    alreadyCached.add(entity);
+                                    break;
 
-                                switch (callBehaviour)
-                                {
-                                    case ANY:
+                                case LATEST:
+                                    if (version != NO_STATE_VALUE && version > wrapper.getVersion())
+                                    {
+                                        toFetch.add(link);
+                                    }
+                                    else
+                                    {
                                         entity = getFromWrapper(wrapper);
                                         alreadyCached.add(entity);
-                                        break;
-
-                                    case LATEST:
-                                        if (version != NO_STATE_VALUE && version > wrapper.getVersion())
-                                        {
-                                            toFetch.add(link);
-                                        }
-                                        else
-                                        {
-                                            entity = getFromWrapper(wrapper);
-                                            alreadyCached.add(entity);
-                                        }
-                                        break;
-
-                                    case EXACT:
-                                        if (version != NO_STATE_VALUE && version != wrapper.getVersion())
-                                        {
-                                            toFetch.add(link);
-                                        }
-                                        else
-                                        {
-                                            entity = getFromWrapper(wrapper);
-                                            alreadyCached.add(entity);
-                                        }
-                                        break;
-                                }
+                                    }
+                                    break;
+
+                                case EXACT:
+                                    if (version != NO_STATE_VALUE && version != wrapper.getVersion())
+                                    {
+                                        toFetch.add(link);
+                                    }
+                                    else
+                                    {
+                                        entity = getFromWrapper(wrapper);
+                                        alreadyCached.add(entity);
+                                    }
+                                    break;
+                            }
+
+                            if (entity == null)
+                            {
+                                stats.staleRefetch();
+                            }
+                            else
+                            {
+                                stats.hit();
                             }
                         }
                     }
-                    results.add(entity);
                 }
+                results.add(entity);
+            }
 
-                /*
-                if (logger.isWarnEnabled())
+            /*
+            if (logger.isWarnEnabled())
+            {
+                if (cache.getCacheConfiguration().getMaxEntriesLocalHeap() < links.size())
                 {
-                    if (cache.getCacheConfiguration().getMaxEntriesLocalHeap() < links.size())
-                    {
-                        logger.warn("{} {}s are requested, but the cache will only hold {}. Repeated fetches of this collection will always call through to the API.",
-                                links.size(), className, cache.getCacheConfiguration().getMaxEntriesLocalHeap());
-                    }
+                    logger.warn("{} {}s are requested, but the cache will only hold {}. Repeated fetches of this collection will always call through to the API.",
+                            links.size(), className, cache.getCacheConfiguration().getMaxEntriesLocalHeap());
                 }
-                */
+            }
+            */
 
-                if (logger.isDebugEnabled())
+            if (logger.isDebugEnabled())
+            {
+                if (alreadyCached.size() == links.size())
                 {
-                    if (alreadyCached.size() == links.size())
-                    {
-                        logger.debug("All {} {}s requested are already in the cache.", links.size(), className);
-                    }
-                    else
-                    {
-                        logger.debug("Have {} {}s in the cache; {} to retrieve.", alreadyCached.size(), className, toFetch.size());
-                    }
+                    logger.debug("All {} {}s requested are already in the cache.", links.size(), className);
                 }
+                else
+                {
+                    logger.debug("Have {} {}s in the cache; {} to retrieve.", alreadyCached.size(), className, toFetch.size());
+                }
+            }
 
-                // If there is anything to fetch, perform the call to the API then
-                // fill in the nulls in the "results" list from the entities returned
-                // from the API.
-                // The end result is that newly fetched items are put into the cache
-                // and "results" is a fully populated list.
+            // If there is anything to fetch, perform the call to the API then
+            // fill in the nulls in the "results" list from the entities returned
+            // from the API.
+            // The end result is that newly fetched items are put into the cache
+            // and "results" is a fully populated list.
 
-                if (!toFetch.isEmpty())
+            if (!toFetch.isEmpty())
+            {
+                assert cacheable != null : "No cacheable flag found";
+                assert stateful != null : "No stateful flag found";
+
+                Object[] args = { toFetch };
+                long start = System.nanoTime();
+                @SuppressWarnings("unchecked")
+                List<E> fetched = (List<E>)pjp.proceed(args);
+                if (stats != null)
                 {
-                    assert cacheable != null : "No cacheable flag found";
-                    assert stateful != null : "No stateful flag found";
-
-                    Object[] args = { toFetch };
-                    @SuppressWarnings("unchecked")
-                    List<E> fetched = (List<E>)pjp.proceed(args);
+                    stats.fetched(fetched.size(), System.nanoTime() - start);
+                }
 
-                    ListIterator<E> resultIterator = results.listIterator();
-                    ListIterator<E> fetchIterator = fetched.listIterator();
+                ListIterator<E> resultIterator = results.listIterator();
+                ListIterator<E> fetchIterator = fetched.listIterator();
 
-                    while (resultIterator.hasNext())
+                while (resultIterator.hasNext())
+                {
+                    E entity = resultIterator.next();
+                    if (entity == null)
                     {
-                        E entity = resultIterator.next();
-                        if (entity == null)
+                        assert fetchIterator.hasNext() : "Run out of items in the fetched list.";
+                        entity = fetchIterator.next();
+                        resultIterator.set(entity);
+
+                        if (cacheable)
                         {
-                            assert fetchIterator.hasNext() : "Run out of items in the fetched list.";
-                            entity = fetchIterator.next();
-                            resultIterator.set(entity);
+                            CacheKey key = keyFromLocatable(entity);
 
-                            if (cacheable)
+                            if (!stateful)
+                            {
+                                // Entities without state will only have been fetched because they
+                                // were not in the cache. These should just be added.
+
+                                putEntity(cache, key, entity);
+                            }
+                            else
                             {
-                                String key = keyFromLocatable(entity);
+                                // Stateful entities may already be in the cache but may have been
+                                // fetched because the requested version is newer or of a different
+                                // state. Some care needs to be taken to update its cached version
+                                // depending on how the cache normally behaves.
+
+                                CacheElementWrapper wrapper = cache.get(key);
 
-                                if (!stateful)
+                                if (wrapper == null)
                                 {
-                                    // Entities without state will only have been fetched because they
-                                    // were not in the cache. These should just be added.
+                                    // Not already cached, so simply add this entity whatever
+                                    // its state.
 
-                                    cache.put(key, createCacheElement(entity));
+                                    putEntity(cache, key, entity);
                                 }
                                 else
                                 {
-                                    // Stateful entities may already be in the cache but may have been
-                                    // fetched because the requested version is newer or of a different
-                                    // state. Some care needs to be taken to update its cached version
-                                    // depending on how the cache normally behaves.
-
-                                    CacheElementWrapper wrapper = cache.get(key);
-
-                                    if (wrapper == null)
-                                    {
-                                        // Not already cached, so simply add this entity whatever
-                                        // its state.
-
-                                        cache.put(key, createCacheElement(entity));
-                                    }
-                                    else
-                                    {
-                                        // As we have a stateful entity, there may be cause
-                                        // to replace the object in the cache depending on how the
-                                        // cache normally behaves. Typically this will be replacing the
-                                        // existing with a newer version or replacing for a difference.
-                                        // When we don't care about versions, the one already in the cache
-                                        // can remain.
-
-                                        long version = versionFromLocatable(entity);
-
-                                        switch (behaviour)
-                                        {
-                                            case ANY:
-                                                break;
-
-                                            case LATEST:
-                                                if (version > wrapper.getVersion())
-                                                {
-                                                    cache.put(key, createCacheElement(entity));
-                                                }
-                                                break;
-
-                                            case EXACT:
-                                                if (version != wrapper.getVersion())
-                                                {
-                                                    cache.put(key, createCacheElement(entity));
-                                                }
-                                                break;
-                                        }
-                                    }
+                                    // As we have a stateful entity, there may be cause
+                                    // to replace the object in the cache depending on how the
+                                    // cache normally behaves. Typically this will be replacing the
+                                    // existing with a newer version or replacing for a difference.
+                                    // When we don't care about versions, the one already in the cache
+                                    // can remain.
+
+                                    replaceStatefulEntity(cache, key, entity, storeBehaviour);
                                 }
                             }
                         }
                     }
-                    assert !fetchIterator.hasNext() : "Have further items fetched after populating results list.";
                 }
-            }
-            finally
-            {
-                behaviourLock.unlock();
+                assert !fetchIterator.hasNext() : "Have further items fetched after populating results list.";
             }
         }
 
         return results;
     }
 
+    /**
+     * Replace a stateful entity already in the cache with a freshly fetched
+     * version if the cache's behaviour says it should be. The existing element
+     * is examined again under the key's lock as another thread may have updated
+     * it since it was first read.
+     *
+     * @param cache The cache holding the entity.
+     * @param key The cache key.
+     * @param entity The entity just fetched from the server.
+     * @param storeBehaviour The cache's stateful behaviour when the call started.
+     *
+     * @since 2.34
+     */
+    private void replaceStatefulEntity(Cache<CacheKey, CacheElementWrapper> cache, CacheKey key, Locatable entity,
+                                       CacheStatefulBehaviour storeBehaviour)
+    {
+        long version = versionFromLocatable(entity);
+
+        Lock keyLock = getKeyLock(key);
+        keyLock.lock();
+        try
+        {
+            CacheElementWrapper current = cache.get(key);
+            if (current == null)
+            {
+                // Removed from the cache since it was first looked at.
+                putEntity(cache, key, entity);
+                return;
+            }
+
+            switch (storeBehaviour)
+            {
+                case ANY:
+                    break;
+
+                case LATEST:
+                    if (version > current.getVersion())
+                    {
+                        putEntity(cache, key, entity);
+                    }
+                    break;
+
+                case EXACT:
+                    if (version != current.getVersion())
+                    {
+                        putEntity(cache, key, entity);
+                    }
+                    break;
+            }
+        }
+        finally
+        {
+            keyLock.unlock();
+        }
+    }
+
     /**
      * Join point for the {@code ClarityAPI.reload} method.
      * Force a reload from the API of an object by fetching again and updating
@@ -818,8 +1267,8 @@ public class ClarityAPICache
 
         if (isCacheable(entity))
         {
-            Cache<String, CacheElementWrapper> cache = getCache(entity.getClass());
-            cache.put(keyFromLocatable(entity), createCacheElement(entity));
+            Cache<CacheKey, CacheElementWrapper> cache = getCache(entity.getClass());
+            putEntity(cache, keyFromLocatable(entity), entity);
         }
     }
 
@@ -844,8 +1293,8 @@ public class ClarityAPICache
 
         if (isCacheable(entity))
         {
-            Cache<String, CacheElementWrapper> cache = getCache(entity.getClass());
-            cache.put(keyFromLocatable(entity), createCacheElement(entity));
+            Cache<CacheKey, CacheElementWrapper> cache = getCache(entity.getClass());
+            putEntity(cache, keyFromLocatable(entity), entity);
         }
     }
 
@@ -854,6 +1303,12 @@ public class ClarityAPICache
      * Create the objects through the API and, if they can be cached, record them
      * in the cache.
      *
+     * <p>
+     * If the operation fails part way through, the entities the exception reports
+     * as committed are recorded and those written but not fetched back are removed
+     * from the cache.
+     * </p>
+     *
      * @param pjp The join point object.
      *
      * @throws Throwable if there is an error.
@@ -867,11 +1322,19 @@ public class ClarityAPICache
         @SuppressWarnings("unchecked")
         Collection<Locatable> entities = (Collection<Locatable>)pjp.getArgs()[0];
 
-        pjp.proceed();
+        try
+        {
+            pjp.proceed();
+        }
+        catch (ClarityBulkOperationException e)
+        {
+            storeCommitted(e);
+            throw e;
+        }
 
         if (isCacheable(entities))
         {
-            Cache<String, CacheElementWrapper> cache = null;
+            Cache<CacheKey, CacheElementWrapper> cache = null;
 
             for (Locatable entity : entities)
             {
@@ -879,7 +1342,48 @@ public class ClarityAPICache
                 {
                     cache = getCache(entity.getClass());
                 }
-                cache.put(keyFromLocatable(entity), createCacheElement(entity));
+                putEntity(cache, keyFromLocatable(entity), entity);
+            }
+        }
+    }
+
+    /**
+     * Bring the cache up to date after a bulk create or update that failed after
+     * some of its chunks were committed. Entities from chunks that were written
+     * and fetched back are stored. The server may have changed the entities of
+     * chunks that were written but not fetched back, so they are removed.
+     *
+     * @param e The exception from the bulk operation.
+     *
+     * @since 2.34
+     */
+    private void storeCommitted(ClarityBulkOperationException e)
+    {
+        Set<Locatable> unreloaded = Collections.newSetFromMap(new IdentityHashMap<Locatable, Boolean>());
+        unreloaded.addAll(e.getUnreloadedEntities());
+
+        for (Locatable entity : e.getCommittedEntities())
+        {
+            if (!unreloaded.contains(entity) && entity.getUri() != null && isCacheable(entity))
+            {
+                putEntity(getCache(entity.getClass()), keyFromLocatable(entity), entity);
+            }
+        }
+
+        if (!unreloaded.isEmpty())
+        {
+            Class<?> entityClass = e.getUnreloadedEntities().get(0).getClass();
+            if (isCacheable(entityClass))
+            {
+                Cache<CacheKey, CacheElementWrapper> cache = getCache(entityClass);
+                for (Link link : e.getUnreloadedLinks())
+                {
+                    CacheKey key = keyFromUri(entityClass, link.getUri());
+                    if (key != null)
+                    {
+                        cache.remove(key);
+                    }
+                }
             }
         }
     }
@@ -905,8 +1409,8 @@ public class ClarityAPICache
 
         if (isCacheable(entity))
         {
-            Cache<String, CacheElementWrapper> cache = getCache(entity.getClass());
-            cache.put(keyFromLocatable(entity), createCacheElement(entity));
+            Cache<CacheKey, CacheElementWrapper> cache = getCache(entity.getClass());
+            putEntity(cache, keyFromLocatable(entity), entity);
         }
     }
 
@@ -915,6 +1419,12 @@ public class ClarityAPICache
      * Update the objects through the API and, if they can be cached, update their records
      * in the cache.
      *
+     * <p>
+     * If the operation fails part way through, the entities the exception reports
+     * as committed are recorded and those written but not fetched back are removed
+     * from the cache.
+     * </p>
+     *
      * @param pjp The join point object.
      *
      * @throws Throwable if there is an error.
@@ -928,11 +1438,19 @@ public class ClarityAPICache
         @SuppressWarnings("unchecked")
         Collection<Locatable> entities = (Collection<Locatable>)pjp.getArgs()[0];
 
-        pjp.proceed();
+        try
+        {
+            pjp.proceed();
+        }
+        catch (ClarityBulkOperationException e)
+        {
+            storeCommitted(e);
+            throw e;
+        }
 
         if (isCacheable(entities))
         {
-            Cache<String, CacheElementWrapper> cache = null;
+            Cache<CacheKey, CacheElementWrapper> cache = null;
 
             for (Locatable entity : entities)
             {
@@ -940,7 +1458,7 @@ public class ClarityAPICache
                 {
                     cache = getCache(entity.getClass());
                 }
-                cache.put(keyFromLocatable(entity), createCacheElement(entity));
+                putEntity(cache, keyFromLocatable(entity), entity);
             }
         }
     }
@@ -961,44 +1479,51 @@ public class ClarityAPICache
     {
         Locatable entity = (Locatable)pjp.getArgs()[0];
 
-        String key = keyFromLocatable(entity);
+        CacheKey key = keyFromLocatable(entity);
 
         pjp.proceed();
 
         if (isCacheable(entity))
         {
-            Cache<String, CacheElementWrapper> cache = getCache(entity.getClass());
+            Cache<CacheKey, CacheElementWrapper> cache = getCache(entity.getClass());
             cache.remove(key);
         }
     }
 
     /**
      * Join point for the {@code ClarityAPI.deleteAll} method.
-     * Delete the objects through the API and, if they can be cached, remove their records
-     * from the cache.
+     * Delete the objects through the API and, if they can be cached, remove the records
+     * from the cache of those that are no longer in the server (deleted or not found).
+     * Entities that could not be deleted are left in the cache.
      *
      * @param pjp The join point object.
      *
+     * @return The results of the delete.
+     *
      * @throws Throwable if there is an error.
      *
      * @see ClarityAPI#deleteAll(Collection)
      */
     @SuppressWarnings("exports")
     @Around("execution(public * deleteAll(..)) and bean(clarityAPI)")
-    public void deleteAll(ProceedingJoinPoint pjp) throws Throwable
+    public Object deleteAll(ProceedingJoinPoint pjp) throws Throwable
     {
         @SuppressWarnings("unchecked")
         Collection<Locatable> entities = (Collection<Locatable>)pjp.getArgs()[0];
 
-        Cache<String, CacheElementWrapper> cache = null;
+        boolean cacheable = isCacheable(entities);
 
-        Set<String> keys = null;
-        if (isCacheable(entities))
+        Object reply = pjp.proceed();
+
+        if (cacheable && reply instanceof DeleteResults<?> results)
         {
-            keys = new HashSet<>();
-            for (Locatable entity : entities)
+            Cache<CacheKey, CacheElementWrapper> cache = null;
+            Set<CacheKey> keys = new HashSet<>();
+
+            for (DeleteResults.Result<?> result : results.getResults())
             {
-                if (entity != null && entity.getUri() != null)
+                Locatable entity = result.getEntity();
+                if (result.isGone() && entity.getUri() != null)
                 {
                     keys.add(keyFromLocatable(entity));
 
@@ -1008,15 +1533,14 @@ public class ClarityAPICache
                     }
                 }
             }
-        }
-
-        pjp.proceed();
 
-        if (keys != null)
-        {
-            assert cache != null : "No cache set";
-            cache.removeAll(keys);
+            if (cache != null)
+            {
+                cache.removeAll(keys);
+            }
         }
+
+        return reply;
     }
 
     /**
@@ -1043,8 +1567,8 @@ public class ClarityAPICache
 
         if (isCacheable(result))
         {
-            Cache<String, CacheElementWrapper> cache = getCache(result.getClass());
-            cache.put(keyFromLocatable(result), createCacheElement(result));
+            Cache<CacheKey, CacheElementWrapper> cache = getCache(result.getClass());
+            putEntity(cache, keyFromLocatable(result), result);
         }
 
         return result;
@@ -1071,8 +1595,8 @@ public class ClarityAPICache
 
         if (isCacheable(file))
         {
-            Cache<String, CacheElementWrapper> cache = getCache(file.getClass());
-            cache.put(keyFromLocatable(file), createCacheElement(file));
+            Cache<CacheKey, CacheElementWrapper> cache = getCache(file.getClass());
+            putEntity(cache, keyFromLocatable(file), file);
         }
 
         return file;
@@ -1099,7 +1623,7 @@ public class ClarityAPICache
 
         if (isCacheable(file))
         {
-            Cache<String, CacheElementWrapper> cache = getCache(file.getClass());
+            Cache<CacheKey, CacheElementWrapper> cache = getCache(file.getClass());
             cache.remove(keyFromLocatable(file));
         }
     }
@@ -1364,7 +1888,8 @@ public class ClarityAPICache
      */
     public long versionFromUri(URI uri)
     {
-        return uri == null ? NO_STATE_VALUE : extractVersion(new URIBuilder(uri));
+        String query = uri == null ? null : uri.getRawQuery();
+        return query == null ? NO_STATE_VALUE : scanVersion(query, 0);
     }
 
     /**
@@ -1377,92 +1902,104 @@ public class ClarityAPICache
      */
     public long versionFromUri(String uri)
     {
-        try
-        {
-            if (uri != null)
-            {
-                return extractVersion(new URIBuilder(uri));
-            }
-        }
-        catch (URISyntaxException e)
-        {
-            // Cannot extract the state from a bad URI. Just ignore this exception.
-        }
-        return NO_STATE_VALUE;
+        int query = uri == null ? -1 : uri.indexOf('?');
+        return query < 0 ? NO_STATE_VALUE : scanVersion(uri, query + 1);
     }
 
     /**
-     * Helper to the {@code versionFromUri} methods: retrieve the state value from the
-     * URI if there is one in the query string.
+     * Helper to the {@code versionFromUri} methods: find the first "state" parameter
+     * in a query string and read its value. This works on the string as it is,
+     * without splitting or decoding the query.
      *
-     * @param builder A URIBuilder initialised with the URI.
+     * @param s The string holding the query.
+     * @param start The index of the start of the query in {@code s}.
      *
-     * @return The state value, defaulting to {@code NO_STATE_VALUE} if there is none.
+     * @return The state value, defaulting to {@code NO_STATE_VALUE} if there is none
+     * or if its value is not a number.
      */
-    private long extractVersion(URIBuilder builder)
+    private static long scanVersion(String s, int start)
     {
-        long version = NO_STATE_VALUE;
-        if (!builder.isQueryEmpty())
+        int length = s.length();
+        int parameter = start;
+
+        while (parameter < length && s.charAt(parameter) != '#')
         {
-            NameValuePair stateParam = builder.getFirstQueryParam("state");
-            if (stateParam != null)
+            int end = parameter;
+            while (end < length && s.charAt(end) != '&' && s.charAt(end) != '#')
+            {
+                end++;
+            }
+
+            if (s.startsWith(STATE_PARAMETER, parameter))
             {
                 try
                 {
-                    version = Long.parseLong(stateParam.getValue());
+                    return Long.parseLong(s, parameter + STATE_PARAMETER.length(), end, 10);
                 }
                 catch (NumberFormatException e)
                 {
                     // If it's not a number, ignore it.
+                    return NO_STATE_VALUE;
                 }
             }
+
+            parameter = end < length && s.charAt(end) == '&' ? end + 1 : length;
         }
-        return version;
+
+        return NO_STATE_VALUE;
     }
 
     /**
-     * Extract the cache key value from the given object's URI. This is the
-     * full path of the entity, less any query string.
+     * Extract the cache key from the given object. This is the object's class
+     * (or, for links, the class of the entity linked to) and the path of the
+     * entity below the API root.
      *
-     * @param thing The entity to extract the key for.
+     * @param thing The entity or link to extract the key for.
      *
-     * @return The cache key value.
+     * @return The cache key.
+     *
+     * @see CacheKey
      */
-    public String keyFromLocatable(Locatable thing)
+    public CacheKey keyFromLocatable(Locatable thing)
     {
-        return thing == null ? null : keyFromUri(thing.getUri());
+        if (thing == null)
+        {
+            return null;
+        }
+        Class<?> entityClass = thing instanceof LimsLink<?> link ? link.getEntityClass() : thing.getClass();
+        return keyFromUri(entityClass, thing.getUri());
     }
 
     /**
-     * Extract the cache key value from the given URI. This is the
-     * full path of the entity, less any query string.
+     * Create the cache key for an entity from its URI. This is the class
+     * and the path of the entity below the API root, less any query string.
      *
+     * @param entityClass The class of the entity.
      * @param uri The URI to extract the key from.
      *
-     * @return The cache key value.
+     * @return The cache key.
+     *
+     * @see CacheKey#of(Class, URI)
      */
-    public String keyFromUri(URI uri)
+    public CacheKey keyFromUri(Class<?> entityClass, URI uri)
     {
-        return uri == null ? null : new URIBuilder(uri).clearParameters().toString();
+        return CacheKey.of(entityClass, uri);
     }
 
     /**
-     * Extract the cache key value from the given URI string. This is the
-     * full path of the entity, less any query string.
+     * Create the cache key for an entity from its URI string. This is the class
+     * and the path of the entity below the API root, less any query string.
      *
+     * @param entityClass The class of the entity.
      * @param uri The URI string to extract the key from.
      *
-     * @return The cache key value.
+     * @return The cache key.
+     *
+     * @see CacheKey#of(Class, String)
      */
-    public String keyFromUri(String uri)
+    public CacheKey keyFromUri(Class<?> entityClass, String uri)
     {
-        String key = uri;
-        int query = key.indexOf('?');
-        if (query > 0)
-        {
-            key = key.substring(0, query);
-        }
-        return key;
+        return CacheKey.of(entityClass, uri);
     }
 
     /**
@@ -1474,6 +2011,21 @@ public class ClarityAPICache
      * @return The cache behaviour to use this time.
      */
     protected CacheStatefulBehaviour getBehaviourForCall()
+    {
+        return getBehaviourForCall(behaviour);
+    }
+
+    /**
+     * Get the type of stateful behaviour to use for the current call, given
+     * the configured behaviour read at the start of the call.
+     *
+     * @param configured The cache's configured stateful behaviour.
+     *
+     * @return The cache behaviour to use this time.
+     *
+     * @since 2.34
+     */
+    private CacheStatefulBehaviour getBehaviourForCall(CacheStatefulBehaviour configured)
     {
         StatefulOverride override = api.getStatefulOverride();
         if (override == StatefulOverride.EXACT)
@@ -1481,7 +2033,7 @@ public class ClarityAPICache
             // Behave as if the whole cache was running in EXACT mode.
             return CacheStatefulBehaviour.EXACT;
         }
-        return behaviour;
+        return configured;
     }
 
     /**
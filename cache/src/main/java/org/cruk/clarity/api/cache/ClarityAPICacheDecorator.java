@@ -0,0 +1,230 @@
+/*
+ * CRUK-CI Clarity REST API Java Client.
+ * Copyright (C) 2013 Cancer Research UK Cambridge Institute.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.cruk.clarity.api.cache;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.function.UnaryOperator;
+
+import org.apache.commons.lang3.ClassUtils;
+import org.cruk.clarity.api.ClarityAPI;
+import org.cruk.clarity.api.cache.internal.MethodCallJoinPoint;
+import org.cruk.clarity.api.impl.ClarityAPIInternal;
+import org.cruk.clarity.api.impl.LatestVersionsResetAspect;
+import org.ehcache.CacheManager;
+
+import com.genologics.ri.LimsLink;
+
+/**
+ * Puts the {@link ClarityAPICache} around a {@code ClarityAPI} without Spring's
+ * AOP, for an API created with {@code ClarityAPIBuilder}:
+ *
+ * <pre>
+ * ClarityAPI api = new ClarityAPIBuilder()
+ *         .decorator(new ClarityAPICacheDecorator(cacheManager))
+ *         .build();
+ * </pre>
+ *
+ * <p>
+ * The API returned sends the calls the cache aspect would intercept to the
+ * cache's advice, and everything else straight to the API it wraps. A decorator
+ * should only be used for one API.
+ * </p>
+ *
+ * @since 2.34
+ */
+public class ClarityAPICacheDecorator implements UnaryOperator<ClarityAPI>
+{
+    /**
+     * The cache.
+     */
+    private final ClarityAPICache cache;
+
+
+    /**
+     * Constructor.
+     *
+     * @param cacheManager The Ehcache cache manager holding the caches, such as
+     * one from {@code ClarityClientCacheConfiguration.clarityCacheManager()}.
+     */
+    @SuppressWarnings("exports")
+    public ClarityAPICacheDecorator(CacheManager cacheManager)
+    {
+        if (cacheManager == null)
+        {
+            throw new IllegalArgumentException("cacheManager cannot be null");
+        }
+        cache = new ClarityAPICache();
+        cache.setCacheManager(cacheManager);
+    }
+
+    /**
+     * Get the cache, for example to change its behaviour for stateful entities.
+     *
+     * @return The cache.
+     */
+    public ClarityAPICache getCache()
+    {
+        return cache;
+    }
+
+    /**
+     * Wrap the given API with the cache.
+     *
+     * @param api The API to wrap. It must implement {@link ClarityAPIInternal}.
+     *
+     * @return An API that uses the cache, implementing all the interfaces of {@code api}.
+     *
+     * @throws IllegalArgumentException if {@code api} does not implement
+     * {@code ClarityAPIInternal}.
+     */
+    @Override
+    public ClarityAPI apply(ClarityAPI api)
+    {
+        if (!(api instanceof ClarityAPIInternal internal))
+        {
+            throw new IllegalArgumentException("The API must implement " + ClarityAPIInternal.class.getName());
+        }
+
+        cache.setClarityAPI(internal);
+        cache.setLatestVersionsResetAspect(new LatestVersionsResetAspect(internal));
+
+        List<Class<?>> interfaces = ClassUtils.getAllInterfaces(api.getClass());
+        Object proxy = Proxy.newProxyInstance(ClarityAPICacheDecorator.class.getClassLoader(),
+                                              interfaces.toArray(new Class<?>[interfaces.size()]),
+                                              new CacheInvocationHandler(api));
+        return (ClarityAPI)proxy;
+    }
+
+    /**
+     * Invocation handler sending calls to the cache's advice, as the cache
+     * aspect's pointcuts would.
+     */
+    private class CacheInvocationHandler implements InvocationHandler
+    {
+        /**
+         * The API wrapped.
+         */
+        private final ClarityAPI api;
+
+        /**
+         * Constructor.
+         *
+         * @param api The API wrapped.
+         */
+        CacheInvocationHandler(ClarityAPI api)
+        {
+            this.api = api;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+        {
+            if (method.getDeclaringClass() == Object.class)
+            {
+                switch (method.getName())
+                {
+                    case "equals":
+                        return proxy == args[0];
+
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+
+                    default:
+                        return "Cached[" + api + "]";
+                }
+            }
+
+            MethodCallJoinPoint jp = new MethodCallJoinPoint(api, method, args);
+
+            if (!ClarityAPI.class.isAssignableFrom(method.getDeclaringClass()))
+            {
+                return jp.proceed();
+            }
+
+            try
+            {
+                switch (method.getName())
+                {
+                    case "retrieve":
+                        return cache.retrieve(jp);
+
+                    case "load":
+                        if (LimsLink.class.isAssignableFrom(method.getParameterTypes()[0]))
+                        {
+                            return cache.loadByLink(jp);
+                        }
+                        return cache.loadById(jp);
+
+                    case "loadAll":
+                        return cache.loadAll(jp);
+
+                    case "reload":
+                        cache.reload(jp);
+                        return null;
+
+                    case "create":
+                        cache.create(jp);
+                        return null;
+
+                    case "createAll":
+                        cache.createAll(jp);
+                        return null;
+
+                    case "update":
+                        cache.update(jp);
+                        return null;
+
+                    case "updateAll":
+                        cache.updateAll(jp);
+                        return null;
+
+                    case "delete":
+                        cache.delete(jp);
+                        return null;
+
+                    case "deleteAll":
+                        return cache.deleteAll(jp);
+
+                    case "executeProcess":
+                    case "beginProcessStep":
+                        return cache.runSomething(jp);
+
+                    case "uploadFile":
+                        return cache.uploadFile(jp);
+
+                    case "deleteAndRemoveFile":
+                        cache.deleteAndRemoveFile(jp);
+                        return null;
+
+                    default:
+                        return jp.proceed();
+                }
+            }
+            finally
+            {
+                cache.cancelStatefulOverride(jp);
+            }
+        }
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * CRUK-CI Clarity REST API Java Client.
+ * Copyright (C) 2013 Cancer Research UK Cambridge Institute.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cruk.clarity.api.cache;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The statistics of the cache's behaviour, kept separately for each entity class.
+ * The statistics for a class are created the first time the cache deals with
+ * an entity of that class.
+ *
+ * <p>
+ * The statistics can be published through JMX with {@link #registerMBeans(MBeanServer)},
+ * one MBean for each entity class named
+ * "{@code org.cruk.clarity.api.cache:type=EntityCacheStatistics,entity=<class>}".
+ * Classes seen after registration are registered as they appear. They can also be
+ * published to a Micrometer registry with {@link ClarityCacheMeterBinder}.
+ * </p>
+ *
+ * @since 2.34
+ */
+public class ClarityAPICacheStatistics implements Closeable
+{
+    /**
+     * The JMX domain for the statistics MBeans.
+     */
+    public static final String JMX_DOMAIN = "org.cruk.clarity.api.cache";
+
+    /**
+     * Logger.
+     */
+    private final Logger logger = LoggerFactory.getLogger(ClarityAPICacheStatistics.class);
+
+    /**
+     * The statistics for each entity class.
+     */
+    private final ConcurrentMap<Class<?>, EntityCacheStatistics> statistics = new ConcurrentHashMap<>();
+
+    /**
+     * Listeners told when statistics for a new entity class are created.
+     */
+    private final List<Consumer<EntityCacheStatistics>> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * The MBean server the statistics are registered with. Null if they are not.
+     */
+    private volatile MBeanServer mbeanServer;
+
+
+    /**
+     * Constructor.
+     */
+    public ClarityAPICacheStatistics()
+    {
+    }
+
+    /**
+     * Get the statistics for an entity class, creating them if this is the first
+     * time the class has been seen.
+     *
+     * @param entityClass The entity class.
+     *
+     * @return The statistics for the class.
+     */
+    public EntityCacheStatistics forClass(Class<?> entityClass)
+    {
+        if (entityClass == null)
+        {
+            throw new IllegalArgumentException("entityClass cannot be null");
+        }
+
+        EntityCacheStatistics stats = statistics.get(entityClass);
+        if (stats == null)
+        {
+            EntityCacheStatistics created = new EntityCacheStatistics(entityClass);
+            stats = statistics.putIfAbsent(entityClass, created);
+            if (stats == null)
+            {
+                stats = created;
+                for (Consumer<EntityCacheStatistics> listener : listeners)
+                {
+                    listener.accept(created);
+                }
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * Get the statistics for all the entity classes seen so far.
+     *
+     * @return A snapshot of the collection of statistics.
+     */
+    public Collection<EntityCacheStatistics> getStatistics()
+    {
+        return new ArrayList<>(statistics.values());
+    }
+
+    /**
+     * Add a listener to be told about the statistics of entity classes.
+     * The listener is called straight away for each class already seen,
+     * then for each new class as it is first seen.
+     *
+     * @param listener The listener.
+     */
+    public void addListener(Consumer<EntityCacheStatistics> listener)
+    {
+        if (listener == null)
+        {
+            throw new IllegalArgumentException("listener cannot be null");
+        }
+
+        listeners.add(listener);
+        statistics.values().forEach(listener);
+    }
+
+    /**
+     * Register the statistics of each entity class as an MBean with the given
+     * server, now and as new classes are seen.
+     *
+     * @param server The MBean server, usually the platform MBean server.
+     */
+    @SuppressWarnings("exports")
+    public synchronized void registerMBeans(MBeanServer server)
+    {
+        if (server == null)
+        {
+            throw new IllegalArgumentException("server cannot be null");
+        }
+        if (mbeanServer != null)
+        {
+            throw new IllegalStateException("The statistics are already registered with an MBean server.");
+        }
+
+        mbeanServer = server;
+        addListener(this::register);
+    }
+
+    /**
+     * Unregister all the MBeans registered by {@link #registerMBeans(MBeanServer)}.
+     * The statistics carry on being collected.
+     */
+    @Override
+    public synchronized void close()
+    {
+        MBeanServer server = mbeanServer;
+        if (server != null)
+        {
+            mbeanServer = null;
+
+            for (EntityCacheStatistics stats : statistics.values())
+            {
+                try
+                {
+                    ObjectName name = objectName(stats);
+                    if (server.isRegistered(name))
+                    {
+                        server.unregisterMBean(name);
+                    }
+                }
+                catch (JMException e)
+                {
+                    logger.warn("Could not unregister cache statistics MBean for {}: {}", stats.getEntityClass(), e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Register the MBean for one entity class's statistics.
+     *
+     * @param stats The statistics for the entity class.
+     */
+    private void register(EntityCacheStatistics stats)
+    {
+        MBeanServer server = mbeanServer;
+        if (server != null)
+        {
+            try
+            {
+                server.registerMBean(stats, objectName(stats));
+            }
+            catch (JMException e)
+            {
+                logger.warn("Could not register cache statistics MBean for {}: {}", stats.getEntityClass(), e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Create the JMX object name for an entity class's statistics.
+     *
+     * @param stats The statistics for the entity class.
+     *
+     * @return The object name.
+     *
+     * @throws JMException if the name is not valid.
+     */
+    private ObjectName objectName(EntityCacheStatistics stats) throws JMException
+    {
+        return new ObjectName(JMX_DOMAIN + ":type=EntityCacheStatistics,entity=" + stats.getEntityClass());
+    }
+}
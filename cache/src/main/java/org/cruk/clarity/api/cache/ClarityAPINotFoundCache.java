@@ -0,0 +1,332 @@
+/*
+ * CRUK-CI Clarity REST API Java Client.
+ * Copyright (C) 2013 Cancer Research UK Cambridge Institute.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cruk.clarity.api.cache;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.cruk.clarity.api.ClarityException;
+import org.springframework.http.HttpStatus;
+
+/**
+ * A short lived record of the entities that the server has said do not exist,
+ * so that asking for them again soon after does not cost another call.
+ * When a {@code load} or {@code retrieve} through the cache gets a "not found"
+ * {@link ClarityException}, the entity's cache key is remembered for the time
+ * to live; further requests for it in that time are answered with a new
+ * "not found" exception straight away. Creating the entity, or it otherwise
+ * being stored in the cache, removes the record.
+ *
+ * <p>
+ * The records are kept separately for each entity class, with at most
+ * {@link #getMaximumEntries()} for each class. When a class's records are full,
+ * the expired records are discarded and, if that is not enough, an arbitrary one.
+ * </p>
+ *
+ * <p>
+ * An entity created by another program in the time to live will appear not
+ * to exist until its record expires, so the time should be kept short. A time
+ * of zero, the default, turns the record off.
+ * </p>
+ *
+ * @since 2.34
+ *
+ * @see ClarityAPICache#setNotFoundCache(ClarityAPINotFoundCache)
+ */
+public class ClarityAPINotFoundCache
+{
+    /**
+     * The default maximum number of records for each entity class.
+     */
+    public static final int DEFAULT_MAXIMUM_ENTRIES = 1000;
+
+    /**
+     * How long a record lasts, in nanoseconds. Zero if records are not kept.
+     */
+    private final long timeToLiveNanos;
+
+    /**
+     * The maximum number of records for each entity class.
+     */
+    private final int maximumEntries;
+
+    /**
+     * The records, by entity class then key. The values are the times
+     * (from {@code System.nanoTime()}) the records expire and the exceptions
+     * that caused them.
+     */
+    private final ConcurrentMap<Class<?>, ConcurrentMap<CacheKey, NotFound>> records =
+            new ConcurrentHashMap<Class<?>, ConcurrentMap<CacheKey, NotFound>>();
+
+
+    /**
+     * Constructor for a record that is turned off.
+     */
+    public ClarityAPINotFoundCache()
+    {
+        this(Duration.ZERO);
+    }
+
+    /**
+     * Constructor with the time records last for and the default maximum number
+     * of records for each class.
+     *
+     * @param timeToLive How long a record lasts. Zero turns the record off.
+     *
+     * @throws IllegalArgumentException if {@code timeToLive} is null or negative.
+     */
+    public ClarityAPINotFoundCache(Duration timeToLive)
+    {
+        this(timeToLive, DEFAULT_MAXIMUM_ENTRIES);
+    }
+
+    /**
+     * Constructor with the time records last for and the maximum number of
+     * records for each class.
+     *
+     * @param timeToLive How long a record lasts. Zero turns the record off.
+     * @param maximumEntries The maximum number of records for each entity class.
+     *
+     * @throws IllegalArgumentException if {@code timeToLive} is null or negative,
+     * or if {@code maximumEntries} is less than one.
+     */
+    public ClarityAPINotFoundCache(Duration timeToLive, int maximumEntries)
+    {
+        if (timeToLive == null)
+        {
+            throw new IllegalArgumentException("timeToLive cannot be null");
+        }
+        if (timeToLive.isNegative())
+        {
+            throw new IllegalArgumentException("timeToLive cannot be negative");
+        }
+        if (maximumEntries < 1)
+        {
+            throw new IllegalArgumentException("maximumEntries must be at least one");
+        }
+        this.timeToLiveNanos = timeToLive.toNanos();
+        this.maximumEntries = maximumEntries;
+    }
+
+    /**
+     * Get how long a record lasts.
+     *
+     * @return The time to live.
+     */
+    public Duration getTimeToLive()
+    {
+        return Duration.ofNanos(timeToLiveNanos);
+    }
+
+    /**
+     * Get the maximum number of records kept for each entity class.
+     *
+     * @return The maximum number of records.
+     */
+    public int getMaximumEntries()
+    {
+        return maximumEntries;
+    }
+
+    /**
+     * Whether records are kept at all.
+     *
+     * @return true if the time to live is more than zero.
+     */
+    public boolean isEnabled()
+    {
+        return timeToLiveNanos > 0;
+    }
+
+    /**
+     * Look for a current record for an entity.
+     *
+     * @param key The cache key of the entity.
+     *
+     * @return A new "not found" exception to throw for the entity if there is
+     * a record for it that has not expired, otherwise null.
+     */
+    public ClarityException get(CacheKey key)
+    {
+        if (key == null || !isEnabled())
+        {
+            return null;
+        }
+
+        ConcurrentMap<CacheKey, NotFound> classRecords = records.get(key.getEntityClass());
+        if (classRecords == null)
+        {
+            return null;
+        }
+
+        NotFound record = classRecords.get(key);
+        if (record == null)
+        {
+            return null;
+        }
+        if (record.isExpired(System.nanoTime()))
+        {
+            classRecords.remove(key, record);
+            return null;
+        }
+
+        return record.createException();
+    }
+
+    /**
+     * Record that the server has said an entity does not exist. Only
+     * exceptions for "not found" are recorded.
+     *
+     * @param key The cache key of the entity.
+     * @param exception The exception from the server.
+     */
+    public void put(CacheKey key, ClarityException exception)
+    {
+        if (key == null || exception == null || !exception.isNotFound() || !isEnabled())
+        {
+            return;
+        }
+
+        long now = System.nanoTime();
+
+        ConcurrentMap<CacheKey, NotFound> classRecords =
+                records.computeIfAbsent(key.getEntityClass(), c -> new ConcurrentHashMap<CacheKey, NotFound>());
+
+        if (classRecords.size() >= maximumEntries && !classRecords.containsKey(key))
+        {
+            classRecords.values().removeIf(r -> r.isExpired(now));
+
+            Iterator<CacheKey> iter = classRecords.keySet().iterator();
+            while (classRecords.size() >= maximumEntries && iter.hasNext())
+            {
+                iter.next();
+                iter.remove();
+            }
+        }
+
+        classRecords.put(key, new NotFound(now + timeToLiveNanos, exception));
+    }
+
+    /**
+     * Remove the record for an entity, typically because it has been created.
+     *
+     * @param key The cache key of the entity.
+     */
+    public void remove(CacheKey key)
+    {
+        if (key != null)
+        {
+            ConcurrentMap<CacheKey, NotFound> classRecords = records.get(key.getEntityClass());
+            if (classRecords != null)
+            {
+                classRecords.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Get the number of records held for an entity class, including any that
+     * have expired but not yet been removed.
+     *
+     * @param entityClass The entity class.
+     *
+     * @return The number of records.
+     */
+    public int size(Class<?> entityClass)
+    {
+        ConcurrentMap<CacheKey, NotFound> classRecords = records.get(entityClass);
+        return classRecords == null ? 0 : classRecords.size();
+    }
+
+    /**
+     * Remove all the records for an entity class.
+     *
+     * @param entityClass The entity class.
+     */
+    public void clear(Class<?> entityClass)
+    {
+        records.remove(entityClass);
+    }
+
+    /**
+     * Remove all the records.
+     */
+    public void clear()
+    {
+        records.clear();
+    }
+
+    /**
+     * A record of an entity not being found.
+     */
+    private static final class NotFound
+    {
+        /**
+         * When the record expires, from {@code System.nanoTime()}.
+         */
+        final long expires;
+
+        /**
+         * The exception from the server.
+         */
+        final ClarityException exception;
+
+        /**
+         * Constructor.
+         *
+         * @param expires When the record expires.
+         * @param exception The exception from the server.
+         */
+        NotFound(long expires, ClarityException exception)
+        {
+            this.expires = expires;
+            this.exception = exception;
+        }
+
+        /**
+         * Whether this record has expired.
+         *
+         * @param now The current time, from {@code System.nanoTime()}.
+         *
+         * @return true if the record has expired.
+         */
+        boolean isExpired(long now)
+        {
+            return now - expires >= 0;
+        }
+
+        /**
+         * Create a new exception with the details of the original, so each
+         * caller gets its own stack trace.
+         *
+         * @return A new "not found" exception.
+         */
+        ClarityException createException()
+        {
+            com.genologics.ri.exception.Exception ge = new com.genologics.ri.exception.Exception();
+            ge.setMessage(exception.getMessage());
+            ge.setCategory(exception.getCategory());
+            ge.setCode(exception.getCode());
+            ge.setSuggestedActions(exception.getSuggestedActions());
+            return new ClarityException(ge, HttpStatus.NOT_FOUND);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * CRUK-CI Clarity REST API Java Client.
+ * Copyright (C) 2013 Cancer Research UK Cambridge Institute.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cruk.clarity.api.cache;
+
+import java.util.function.ToDoubleFunction;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * Publishes the cache statistics to a Micrometer registry. Each counter is
+ * a meter named "{@code clarity.cache.<counter>}" tagged with the entity class.
+ * Classes first seen by the cache after binding get their meters as they appear.
+ *
+ * <p>
+ * Micrometer is an optional dependency of the cache module; this class can only
+ * be used if it is on the class path.
+ * </p>
+ *
+ * <pre>
+ * new ClarityCacheMeterBinder(cache.getStatistics()).bindTo(meterRegistry);
+ * </pre>
+ *
+ * @since 2.34
+ */
+@SuppressWarnings("exports")
+public class ClarityCacheMeterBinder implements MeterBinder
+{
+    /**
+     * The prefix for the meter names.
+     */
+    public static final String METER_PREFIX = "clarity.cache.";
+
+    /**
+     * The statistics to publish.
+     */
+    private final ClarityAPICacheStatistics statistics;
+
+
+    /**
+     * Constructor.
+     *
+     * @param statistics The statistics to publish.
+     */
+    public ClarityCacheMeterBinder(ClarityAPICacheStatistics statistics)
+    {
+        if (statistics == null)
+        {
+            throw new IllegalArgumentException("statistics cannot be null");
+        }
+        this.statistics = statistics;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void bindTo(MeterRegistry registry)
+    {
+        statistics.addListener(stats -> bind(registry, stats));
+    }
+
+    /**
+     * Register the meters for one entity class.
+     *
+     * @param registry The registry.
+     * @param stats The statistics for the entity class.
+     */
+    private void bind(MeterRegistry registry, EntityCacheStatistics stats)
+    {
+        Tags tags = Tags.of("entity", stats.getEntityClass());
+
+        counter(registry, stats, tags, "hits", "Requests answered from the cache", EntityCacheStatistics::getHits);
+        counter(registry, stats, tags, "misses", "Requests for entities not in the cache", EntityCacheStatistics::getMisses);
+        counter(registry, stats, tags, "stale", "Stateful entities refetched because the cached state could not be used", EntityCacheStatistics::getStaleRefetches);
+        counter(registry, stats, tags, "notfound.hits", "Requests for entities known not to exist answered from the cache", EntityCacheStatistics::getNotFoundHits);
+        counter(registry, stats, tags, "puts", "Entities stored in the cache", EntityCacheStatistics::getPuts);
+        counter(registry, stats, tags, "evictions", "Entities evicted from the cache", EntityCacheStatistics::getEvictions);
+        counter(registry, stats, tags, "expiries", "Entities expired from the cache", EntityCacheStatistics::getExpiries);
+        counter(registry, stats, tags, "fetched", "Entities fetched from the server", EntityCacheStatistics::getFetched);
+
+        FunctionCounter.builder(METER_PREFIX + "fetch.time", stats, s -> s.getFetchTimeMillis() / 1000.0)
+                       .tags(tags).baseUnit("seconds")
+                       .description("Time spent fetching entities from the server")
+                       .register(registry);
+
+        FunctionCounter.builder(METER_PREFIX + "time.saved", stats, s -> s.getTimeSavedMillis() / 1000.0)
+                       .tags(tags).baseUnit("seconds")
+                       .description("Estimated time saved by answering requests from the cache")
+                       .register(registry);
+
+        Gauge.builder(METER_PREFIX + "hit.ratio", stats, EntityCacheStatistics::getHitRatio)
+             .tags(tags)
+             .description("Proportion of requests answered from the cache")
+             .register(registry);
+    }
+
+    /**
+     * Register a counter of one of the statistics.
+     *
+     * @param registry The registry.
+     * @param stats The statistics for the entity class.
+     * @param tags The tags for the meter.
+     * @param name The name of the counter, less the prefix.
+     * @param description The description of the counter.
+     * @param value Function to read the counter's value from the statistics.
+     */
+    private void counter(MeterRegistry registry, EntityCacheStatistics stats, Tags tags, String name,
+                         String description, ToDoubleFunction<EntityCacheStatistics> value)
+    {
+        FunctionCounter.builder(METER_PREFIX + name, stats, value)
+                       .tags(tags)
+                       .description(description)
+                       .register(registry);
+    }
+}
@@ -0,0 +1,683 @@
+/*
+ * CRUK-CI Clarity REST API Java Client.
+ * Copyright (C) 2013 Cancer Research UK Cambridge Institute.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cruk.clarity.api.cache;
+
+import static org.apache.commons.lang3.ClassUtils.getShortClassName;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.cruk.clarity.api.AsyncClarityAPI;
+import org.cruk.clarity.api.ClarityAPI;
+import org.cruk.clarity.api.cache.internal.EntityInputFilter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.genologics.ri.LimsLink;
+import com.genologics.ri.Locatable;
+import com.genologics.ri.containertype.ContainerType;
+import com.genologics.ri.processtype.ProcessType;
+import com.genologics.ri.protocolconfiguration.Protocol;
+import com.genologics.ri.reagenttype.ReagentType;
+import com.genologics.ri.stage.Stage;
+import com.genologics.ri.stepconfiguration.ProtocolStep;
+import com.genologics.ri.workflowconfiguration.Workflow;
+
+/**
+ * Fills the cache with all the entities of chosen classes, typically the
+ * configuration entities that hardly ever change, so they are not fetched
+ * one by one as they are first needed.
+ *
+ * <p>
+ * {@link #warmUp(Collection)} lists every entity of each class with
+ * {@link ClarityAPI#listAll(Class)} and fetches them with
+ * {@link ClarityAPI#loadAll(Collection)}, the classes in parallel. The calls go
+ * through the cached API, so the entities fetched end up in the cache. Classes
+ * that cannot be listed on their own because they are part of another entity
+ * ({@code ProtocolStep} in {@code Protocol}, {@code Stage} in {@code Workflow})
+ * are found from their parent entities, which are fetched first. Other such
+ * classes can be added with {@link #addChildLinks(Class, Class, Function)}.
+ * </p>
+ *
+ * <p>
+ * The cached entities of the classes can be written to a snapshot file with
+ * {@link #writeSnapshot(Path, Collection)} and put back into the cache of a
+ * new process with {@link #readSnapshot(Path, Duration)}, so short lived
+ * programs such as EPP scripts start with the cache already filled.
+ * A snapshot is only used if it was written for the same Clarity server and
+ * is younger than the age given. {@link #warmUp(Path, Duration, Collection)}
+ * does both: it uses the snapshot if it can, otherwise warms the cache from the
+ * server and writes a new snapshot.
+ * </p>
+ *
+ * <pre>
+ * try (ClarityCacheWarmer warmer = new ClarityCacheWarmer(api, cache))
+ * {
+ *     warmer.warmUp(Path.of("/tmp/clarity-config.cache"), Duration.ofHours(12),
+ *                   ClarityCacheWarmer.CONFIGURATION_CLASSES);
+ * }
+ * </pre>
+ *
+ * <p>
+ * Snapshots are read with a filter that only accepts the model classes and the
+ * standard Java classes they are built from, but they should still only be read
+ * from a location that cannot be written by others.
+ * </p>
+ *
+ * @since 2.34
+ */
+public class ClarityCacheWarmer implements Closeable
+{
+    /**
+     * The configuration entity classes that rarely change and are good
+     * candidates for warming up.
+     */
+    public static final List<Class<? extends Locatable>> CONFIGURATION_CLASSES =
+            List.of(ProcessType.class, Protocol.class, ProtocolStep.class, Workflow.class,
+                    Stage.class, ContainerType.class, ReagentType.class);
+
+    /**
+     * Version number of the snapshot file format.
+     */
+    static final int SNAPSHOT_FORMAT = 1;
+
+    /**
+     * Logger.
+     */
+    private final Logger logger = LoggerFactory.getLogger(ClarityCacheWarmer.class);
+
+    /**
+     * The asynchronous API used to make the fetches.
+     */
+    private final AsyncClarityAPI async;
+
+    /**
+     * The cache that is warmed.
+     */
+    private final ClarityAPICache cache;
+
+    /**
+     * Flag indicating that the asynchronous API was created by this object and so
+     * should be closed by it.
+     */
+    private final boolean ownAsync;
+
+    /**
+     * Functions giving the links to entities that are part of another entity,
+     * by the class of the part.
+     */
+    private final Map<Class<?>, ChildLinks<?>> childLinks = new ConcurrentHashMap<Class<?>, ChildLinks<?>>();
+
+
+    /**
+     * Constructor with the cached API to fetch through and the cache it uses.
+     * A pool of daemon threads is created to make the fetches in parallel.
+     *
+     * @param api The Clarity API, with the cache around it.
+     * @param cache The cache used by {@code api}.
+     *
+     * @throws IllegalArgumentException if either argument is null.
+     */
+    public ClarityCacheWarmer(ClarityAPI api, ClarityAPICache cache)
+    {
+        this(new AsyncClarityAPI(api), cache, true);
+    }
+
+    /**
+     * Constructor with the cached API to fetch through, the cache it uses and
+     * the executor to run the fetches on.
+     *
+     * @param api The Clarity API, with the cache around it.
+     * @param cache The cache used by {@code api}.
+     * @param executor The executor to make the fetches with.
+     *
+     * @throws IllegalArgumentException if any argument is null.
+     */
+    public ClarityCacheWarmer(ClarityAPI api, ClarityAPICache cache, Executor executor)
+    {
+        this(new AsyncClarityAPI(api, executor), cache, false);
+    }
+
+    /**
+     * Constructor with an existing asynchronous API over the cached API.
+     *
+     * @param async The asynchronous Clarity API.
+     * @param cache The cache used by the API.
+     *
+     * @throws IllegalArgumentException if either argument is null.
+     */
+    public ClarityCacheWarmer(AsyncClarityAPI async, ClarityAPICache cache)
+    {
+        this(async, cache, false);
+    }
+
+    /**
+     * Internal constructor.
+     *
+     * @param async The asynchronous Clarity API.
+     * @param cache The cache used by the API.
+     * @param ownAsync Whether this object created {@code async}.
+     */
+    private ClarityCacheWarmer(AsyncClarityAPI async, ClarityAPICache cache, boolean ownAsync)
+    {
+        if (async == null)
+        {
+            throw new IllegalArgumentException("async cannot be null");
+        }
+        if (cache == null)
+        {
+            throw new IllegalArgumentException("cache cannot be null");
+        }
+        this.async = async;
+        this.cache = cache;
+        this.ownAsync = ownAsync;
+
+        addChildLinks(Protocol.class, ProtocolStep.class,
+                protocol -> protocol.getSteps().stream().map(ProtocolStep::getLink).toList());
+        addChildLinks(Workflow.class, Stage.class, Workflow::getStages);
+    }
+
+    /**
+     * Close the asynchronous API if it was created by this object.
+     */
+    @Override
+    public void close()
+    {
+        if (ownAsync)
+        {
+            async.close();
+        }
+    }
+
+    /**
+     * Add a class of entity that cannot be listed with {@code listAll} because
+     * it is part of another entity. Warming the class fetches all the parent
+     * entities and then the entities linked to from them.
+     *
+     * @param <P> The type of the parent entity.
+     * @param <E> The type of the child entity.
+     * @param parentClass The class of the parent entity.
+     * @param entityClass The class of the child entity.
+     * @param links A function giving the links to the child entities of a parent.
+     *
+     * @throws IllegalArgumentException if any argument is null.
+     */
+    public <P extends Locatable, E extends Locatable>
+    void addChildLinks(Class<P> parentClass, Class<E> entityClass,
+                       Function<? super P, ? extends Collection<? extends LimsLink<E>>> links)
+    {
+        if (parentClass == null)
+        {
+            throw new IllegalArgumentException("parentClass cannot be null");
+        }
+        if (entityClass == null)
+        {
+            throw new IllegalArgumentException("entityClass cannot be null");
+        }
+        if (links == null)
+        {
+            throw new IllegalArgumentException("links cannot be null");
+        }
+
+        childLinks.put(entityClass, new ChildLinks<P>(parentClass, links));
+    }
+
+    /**
+     * Fill the cache with all the entities of the given classes.
+     *
+     * @param entityClasses The classes of entity to fetch.
+     *
+     * @return The number of entities fetched.
+     *
+     * @throws IllegalArgumentException if {@code entityClasses} is null.
+     */
+    @SafeVarargs
+    public final int warmUp(Class<? extends Locatable>... entityClasses)
+    {
+        if (entityClasses == null)
+        {
+            throw new IllegalArgumentException("entityClasses cannot be null");
+        }
+        // Copied element by element: handing the array on would risk heap pollution.
+        List<Class<? extends Locatable>> classes = new ArrayList<Class<? extends Locatable>>(entityClasses.length);
+        for (Class<? extends Locatable> entityClass : entityClasses)
+        {
+            classes.add(entityClass);
+        }
+        return warmUp(classes);
+    }
+
+    /**
+     * Fill the cache with all the entities of the given classes. Each class
+     * is listed and fetched in parallel with the others, except that classes
+     * that are part of another wait for their parents to be fetched.
+     *
+     * @param entityClasses The classes of entity to fetch.
+     *
+     * @return The number of entities fetched.
+     *
+     * @throws IllegalArgumentException if {@code entityClasses} is null.
+     */
+    public int warmUp(Collection<Class<? extends Locatable>> entityClasses)
+    {
+        if (entityClasses == null)
+        {
+            throw new IllegalArgumentException("entityClasses cannot be null");
+        }
+
+        long start = System.currentTimeMillis();
+
+        Map<Class<?>, CompletableFuture<List<Locatable>>> fetches =
+                new LinkedHashMap<Class<?>, CompletableFuture<List<Locatable>>>();
+        for (Class<? extends Locatable> entityClass : entityClasses)
+        {
+            fetch(entityClass, fetches);
+        }
+
+        int count = 0;
+        for (Class<? extends Locatable> entityClass : new HashSet<Class<? extends Locatable>>(entityClasses))
+        {
+            count += join(fetches.get(entityClass)).size();
+        }
+
+        logger.info("Warmed the cache with {} entities of {} classes in {}ms.",
+                    count, entityClasses.size(), System.currentTimeMillis() - start);
+
+        return count;
+    }
+
+    /**
+     * Use a snapshot to fill the cache if it is fresh, otherwise fill the cache
+     * from the server and write a new snapshot. A snapshot is only used if it
+     * contains all the classes asked for.
+     *
+     * @param snapshot The snapshot file.
+     * @param maxAge The oldest a snapshot can be and still be used.
+     * @param entityClasses The classes of entity to fetch.
+     *
+     * @return true if the cache was filled from the snapshot, false if it
+     * was filled from the server.
+     *
+     * @throws IllegalArgumentException if any argument is null.
+     * @throws IOException if the new snapshot cannot be written.
+     */
+    public boolean warmUp(Path snapshot, Duration maxAge, Collection<Class<? extends Locatable>> entityClasses)
+    throws IOException
+    {
+        if (entityClasses == null)
+        {
+            throw new IllegalArgumentException("entityClasses cannot be null");
+        }
+
+        if (readSnapshot(snapshot, maxAge, entityClasses))
+        {
+            return true;
+        }
+
+        warmUp(entityClasses);
+        writeSnapshot(snapshot, entityClasses);
+        return false;
+    }
+
+    /**
+     * Write the entities of the given classes that are in the cache to a
+     * snapshot file. The file is written in full before it replaces any
+     * existing snapshot, so readers never see a partial file.
+     *
+     * @param snapshot The snapshot file.
+     * @param entityClasses The classes of entity to write.
+     *
+     * @return The number of entities written.
+     *
+     * @throws IllegalArgumentException if either argument is null.
+     * @throws IOException if the file cannot be written.
+     */
+    public int writeSnapshot(Path snapshot, Collection<Class<? extends Locatable>> entityClasses) throws IOException
+    {
+        if (snapshot == null)
+        {
+            throw new IllegalArgumentException("snapshot cannot be null");
+        }
+        if (entityClasses == null)
+        {
+            throw new IllegalArgumentException("entityClasses cannot be null");
+        }
+
+        Set<Class<? extends Locatable>> classes = new HashSet<Class<? extends Locatable>>(entityClasses);
+        List<String> classNames = new ArrayList<String>(classes.size());
+        List<Locatable> entities = new ArrayList<Locatable>();
+        for (Class<? extends Locatable> entityClass : classes)
+        {
+            classNames.add(entityClass.getName());
+            entities.addAll(cache.getCachedEntities(entityClass));
+        }
+
+        Path directory = snapshot.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        Path temp = Files.createTempFile(directory, snapshot.getFileName().toString(), ".tmp");
+        try
+        {
+            try (ObjectOutputStream out = new ObjectOutputStream(
+                    new GZIPOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))))
+            {
+                out.writeInt(SNAPSHOT_FORMAT);
+                out.writeUTF(Objects.toString(async.getClarityAPI().getServerApiAddress(), ""));
+                out.writeLong(System.currentTimeMillis());
+                out.writeObject(classNames.toArray(new String[classNames.size()]));
+                out.writeInt(entities.size());
+                for (Locatable entity : entities)
+                {
+                    out.writeObject(entity);
+                }
+            }
+
+            try
+            {
+                Files.move(temp, snapshot, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            }
+            catch (AtomicMoveNotSupportedException e)
+            {
+                Files.move(temp, snapshot, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        finally
+        {
+            Files.deleteIfExists(temp);
+        }
+
+        logger.debug("Wrote {} entities to cache snapshot {}", entities.size(), snapshot);
+
+        return entities.size();
+    }
+
+    /**
+     * Fill the cache from a snapshot file if the snapshot is fresh enough and was
+     * written for the same server as the API uses. Entities already in the cache
+     * are left as they are.
+     *
+     * <p>
+     * A snapshot that is missing, stale or cannot be read is not an error:
+     * the reason is logged and false returned, so the caller can fetch the
+     * entities from the server instead.
+     * </p>
+     *
+     * @param snapshot The snapshot file.
+     * @param maxAge The oldest the snapshot can be and still be used.
+     *
+     * @return true if the snapshot was used, false if not.
+     *
+     * @throws IllegalArgumentException if either argument is null, or if
+     * {@code maxAge} is negative.
+     */
+    public boolean readSnapshot(Path snapshot, Duration maxAge)
+    {
+        return readSnapshot(snapshot, maxAge, List.of());
+    }
+
+    /**
+     * Fill the cache from a snapshot file if the snapshot is fresh enough, was
+     * written for the same server as the API uses and contains all the classes
+     * required.
+     *
+     * @param snapshot The snapshot file.
+     * @param maxAge The oldest the snapshot can be and still be used.
+     * @param required The entity classes the snapshot must have.
+     *
+     * @return true if the snapshot was used, false if not.
+     *
+     * @throws IllegalArgumentException if either of the first two arguments is null,
+     * or if {@code maxAge} is negative.
+     */
+    private boolean readSnapshot(Path snapshot, Duration maxAge, Collection<Class<? extends Locatable>> required)
+    {
+        if (snapshot == null)
+        {
+            throw new IllegalArgumentException("snapshot cannot be null");
+        }
+        if (maxAge == null)
+        {
+            throw new IllegalArgumentException("maxAge cannot be null");
+        }
+        if (maxAge.isNegative())
+        {
+            throw new IllegalArgumentException("maxAge cannot be negative");
+        }
+
+        try (ObjectInputStream in = new ObjectInputStream(
+                new GZIPInputStream(new BufferedInputStream(Files.newInputStream(snapshot)))))
+        {
+            in.setObjectInputFilter(EntityInputFilter.FILTER);
+
+            int format = in.readInt();
+            if (format != SNAPSHOT_FORMAT)
+            {
+                logger.info("Cache snapshot {} has format {}, not {}. Ignoring it.", snapshot, format, SNAPSHOT_FORMAT);
+                return false;
+            }
+
+            String server = in.readUTF();
+            String expectedServer = Objects.toString(async.getClarityAPI().getServerApiAddress(), "");
+            if (!server.equals(expectedServer))
+            {
+                logger.info("Cache snapshot {} is for {}, not {}. Ignoring it.", snapshot, server, expectedServer);
+                return false;
+            }
+
+            Instant written = Instant.ofEpochMilli(in.readLong());
+            Duration age = Duration.between(written, Instant.now());
+            if (age.compareTo(maxAge) > 0)
+            {
+                logger.info("Cache snapshot {} was written at {} and is stale. Ignoring it.", snapshot, written);
+                return false;
+            }
+
+            Set<String> classNames = Set.of((String[])in.readObject());
+            for (Class<? extends Locatable> entityClass : required)
+            {
+                if (!classNames.contains(entityClass.getName()))
+                {
+                    logger.info("Cache snapshot {} does not contain {}. Ignoring it.",
+                                snapshot, getShortClassName(entityClass));
+                    return false;
+                }
+            }
+
+            int count = in.readInt();
+            List<Locatable> entities = new ArrayList<Locatable>(count);
+            for (int i = 0; i < count; i++)
+            {
+                entities.add((Locatable)in.readObject());
+            }
+
+            // Only touch the cache once the whole file has been read.
+
+            int stored = 0;
+            for (Locatable entity : entities)
+            {
+                if (cache.storeIfAbsent(entity))
+                {
+                    stored++;
+                }
+            }
+
+            logger.info("Filled the cache with {} entities from snapshot {} written at {}.", stored, snapshot, written);
+
+            return true;
+        }
+        catch (NoSuchFileException e)
+        {
+            logger.debug("There is no cache snapshot {}", snapshot);
+            return false;
+        }
+        catch (IOException | ClassNotFoundException | ClassCastException e)
+        {
+            logger.warn("Cannot read cache snapshot {}: {}", snapshot, e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Start fetching all the entities of a class, after first fetching its
+     * parent entities if it is part of another entity. Each class is only
+     * fetched once however many times it is asked for.
+     *
+     * @param entityClass The class of entity.
+     * @param fetches The fetches started so far, by class.
+     *
+     * @return A future for the entities.
+     */
+    private CompletableFuture<List<Locatable>> fetch(Class<? extends Locatable> entityClass,
+                                                     Map<Class<?>, CompletableFuture<List<Locatable>>> fetches)
+    {
+        CompletableFuture<List<Locatable>> fetch = fetches.get(entityClass);
+        if (fetch == null)
+        {
+            ChildLinks<?> children = childLinks.get(entityClass);
+
+            CompletableFuture<? extends List<? extends LimsLink<?>>> links;
+            if (children == null)
+            {
+                links = async.listAllAsync(entityClass);
+            }
+            else
+            {
+                links = fetch(children.parentClass, fetches).thenApply(children::links);
+            }
+
+            fetch = links.thenCompose(l -> async.loadAllAsync(locatableLinks(l)));
+            fetches.put(entityClass, fetch);
+        }
+        return fetch;
+    }
+
+    /**
+     * View a list of links to entities of some class as links to {@code Locatable}
+     * objects, so they can be given to {@code loadAllAsync} whatever their class.
+     *
+     * @param links The links.
+     *
+     * @return The same list.
+     */
+    @SuppressWarnings("unchecked")
+    private static List<LimsLink<Locatable>> locatableLinks(List<? extends LimsLink<?>> links)
+    {
+        return (List<LimsLink<Locatable>>)links;
+    }
+
+    /**
+     * Wait for a fetch, unwrapping any exception it threw.
+     *
+     * @param <T> The type of result.
+     * @param future The future for the fetch.
+     *
+     * @return The result of the fetch.
+     */
+    private static <T> T join(CompletableFuture<T> future)
+    {
+        try
+        {
+            return future.join();
+        }
+        catch (CompletionException e)
+        {
+            if (e.getCause() instanceof RuntimeException re)
+            {
+                throw re;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * How to find the links to entities of a class from their parent entities.
+     *
+     * @param <P> The type of the parent entity.
+     */
+    private static final class ChildLinks<P extends Locatable>
+    {
+        /**
+         * The class of the parent entity.
+         */
+        final Class<P> parentClass;
+
+        /**
+         * The function giving the child links of a parent.
+         */
+        final Function<? super P, ? extends Collection<? extends LimsLink<?>>> links;
+
+        /**
+         * Constructor.
+         *
+         * @param parentClass The class of the parent entity.
+         * @param links The function giving the child links of a parent.
+         */
+        ChildLinks(Class<P> parentClass, Function<? super P, ? extends Collection<? extends LimsLink<?>>> links)
+        {
+            this.parentClass = parentClass;
+            this.links = links;
+        }
+
+        /**
+         * Gather the child links of a list of parent entities.
+         *
+         * @param parents The parent entities.
+         *
+         * @return The links to all their children.
+         */
+        List<LimsLink<?>> links(List<? extends Locatable> parents)
+        {
+            List<LimsLink<?>> all = new ArrayList<LimsLink<?>>();
+            for (Locatable parent : parents)
+            {
+                Collection<? extends LimsLink<?>> children = links.apply(parentClass.cast(parent));
+                if (children != null)
+                {
+                    all.addAll(children);
+                }
+            }
+            return all;
+        }
+    }
+}
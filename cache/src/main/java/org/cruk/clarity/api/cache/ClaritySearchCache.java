@@ -0,0 +1,566 @@
+/*
+ * CRUK-CI Clarity REST API Java Client.
+ * Copyright (C) 2013 Cancer Research UK Cambridge Institute.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cruk.clarity.api.cache;
+
+import static org.apache.commons.lang3.ClassUtils.getShortClassName;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.commons.lang3.SerializationException;
+import org.apache.commons.lang3.SerializationUtils;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.cruk.clarity.api.ClarityAPI;
+import org.cruk.clarity.api.search.SearchTerms;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.genologics.ri.Linkable;
+import com.genologics.ri.Locatable;
+import com.genologics.ri.artifact.Artifact;
+import com.genologics.ri.stepconfiguration.ProtocolStep;
+
+/**
+ * An optional aspect that remembers the links returned by {@code find} and
+ * {@code listQueue} for a short time, so the same search made again soon after
+ * is answered without calling the server. Searches are keyed by the recorder
+ * module's {@link SearchTerms}, so the order of the terms and of the values of
+ * a term do not matter.
+ *
+ * <p>
+ * The results are kept separately for each entity class, with at most
+ * {@link #getMaximumEntries()} searches for each class. They are forgotten when
+ * their time to live passes or when an entity of the class is created, updated
+ * or deleted through the API. Searches for artifacts, including queue listings,
+ * are also forgotten when artifacts are routed or a step is started, run or
+ * advanced, as these move artifacts between queues and workflow stages.
+ * </p>
+ *
+ * <p>
+ * The links are held serialised, so each search answered from the cache is
+ * given its own copies of the links that it may change freely. Changes to the
+ * links returned by the search that was remembered do not alter what is held.
+ * </p>
+ *
+ * <p>
+ * Changes made by other programs are not seen until the results expire, so the
+ * time to live should be short. This aspect is not part of the normal cache; it
+ * is added by {@code ClarityClientSearchCacheConfiguration} and needs the
+ * {@code clarity-client2-recorder} artifact on the class path.
+ * </p>
+ *
+ * @since 2.34
+ *
+ * @see ClarityAPI#find(Map, Class)
+ * @see ClarityAPI#listQueue(Linkable, Map)
+ */
+@Aspect
+public class ClaritySearchCache
+{
+    /**
+     * The default time search results are kept for.
+     */
+    public static final Duration DEFAULT_TIME_TO_LIVE = Duration.ofMinutes(1);
+
+    /**
+     * The default maximum number of searches kept for each entity class.
+     */
+    public static final int DEFAULT_MAXIMUM_ENTRIES = 200;
+
+    /**
+     * Logger.
+     */
+    private final Logger logger = LoggerFactory.getLogger(ClaritySearchCache.class);
+
+    /**
+     * How long results are kept, in nanoseconds.
+     */
+    private final long timeToLiveNanos;
+
+    /**
+     * The maximum number of searches kept for each entity class.
+     */
+    private final int maximumEntries;
+
+    /**
+     * The results, by entity class then search.
+     */
+    private final ConcurrentMap<Class<?>, ConcurrentMap<SearchKey, Results>> results =
+            new ConcurrentHashMap<Class<?>, ConcurrentMap<SearchKey, Results>>();
+
+    /**
+     * The number of searches answered from this cache.
+     */
+    private final LongAdder hits = new LongAdder();
+
+    /**
+     * The number of searches sent to the server.
+     */
+    private final LongAdder misses = new LongAdder();
+
+
+    /**
+     * Constructor with the default time to live and number of searches.
+     */
+    public ClaritySearchCache()
+    {
+        this(DEFAULT_TIME_TO_LIVE, DEFAULT_MAXIMUM_ENTRIES);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param timeToLive How long the results of a search are kept.
+     * @param maximumEntries The maximum number of searches kept for each entity class.
+     *
+     * @throws IllegalArgumentException if {@code timeToLive} is null or not positive,
+     * or if {@code maximumEntries} is less than one.
+     */
+    public ClaritySearchCache(Duration timeToLive, int maximumEntries)
+    {
+        if (timeToLive == null)
+        {
+            throw new IllegalArgumentException("timeToLive cannot be null");
+        }
+        if (timeToLive.isNegative() || timeToLive.isZero())
+        {
+            throw new IllegalArgumentException("timeToLive must be positive");
+        }
+        if (maximumEntries < 1)
+        {
+            throw new IllegalArgumentException("maximumEntries must be at least one");
+        }
+        this.timeToLiveNanos = timeToLive.toNanos();
+        this.maximumEntries = maximumEntries;
+    }
+
+    /**
+     * Get how long the results of a search are kept.
+     *
+     * @return The time to live.
+     */
+    public Duration getTimeToLive()
+    {
+        return Duration.ofNanos(timeToLiveNanos);
+    }
+
+    /**
+     * Get the maximum number of searches kept for each entity class.
+     *
+     * @return The maximum number of searches.
+     */
+    public int getMaximumEntries()
+    {
+        return maximumEntries;
+    }
+
+    /**
+     * Get the number of searches answered from this cache.
+     *
+     * @return The number of hits.
+     */
+    public long getHits()
+    {
+        return hits.sum();
+    }
+
+    /**
+     * Get the number of searches sent to the server.
+     *
+     * @return The number of misses.
+     */
+    public long getMisses()
+    {
+        return misses.sum();
+    }
+
+    /**
+     * Get the number of searches held for an entity class, including any
+     * that have expired but not yet been removed.
+     *
+     * @param entityClass The entity class.
+     *
+     * @return The number of searches.
+     */
+    public int size(Class<?> entityClass)
+    {
+        ConcurrentMap<SearchKey, Results> classResults = results.get(entityClass);
+        return classResults == null ? 0 : classResults.size();
+    }
+
+    /**
+     * Forget all the searches for an entity class.
+     *
+     * @param entityClass The entity class.
+     */
+    public void clear(Class<?> entityClass)
+    {
+        if (results.remove(entityClass) != null && logger.isDebugEnabled())
+        {
+            logger.debug("Forgotten the searches for {}", getShortClassName(entityClass));
+        }
+    }
+
+    /**
+     * Forget all the searches.
+     */
+    public void clear()
+    {
+        results.clear();
+    }
+
+    /**
+     * Join point for the {@code ClarityAPI.find} method. Returns the links
+     * from an earlier identical search if it has not expired, otherwise makes
+     * the search and remembers its results.
+     *
+     * @param pjp The join point object.
+     *
+     * @return The links found.
+     *
+     * @throws Throwable if there is an error.
+     *
+     * @see ClarityAPI#find(Map, Class)
+     */
+    @SuppressWarnings("exports")
+    @Around("execution(public * find(..)) and bean(clarityAPI)")
+    public Object find(ProceedingJoinPoint pjp) throws Throwable
+    {
+        Map<?, ?> searchTerms = (Map<?, ?>)pjp.getArgs()[0];
+        Class<?> entityClass = (Class<?>)pjp.getArgs()[1];
+
+        return search(pjp, entityClass, searchKey(null, searchTerms, entityClass));
+    }
+
+    /**
+     * Join point for the {@code ClarityAPI.listQueue} methods. Returns the links
+     * from an earlier identical listing if it has not expired, otherwise lists
+     * the queue and remembers the result.
+     *
+     * @param pjp The join point object.
+     *
+     * @return The links to the artifacts in the queue.
+     *
+     * @throws Throwable if there is an error.
+     *
+     * @see ClarityAPI#listQueue(Linkable)
+     * @see ClarityAPI#listQueue(Linkable, Map)
+     */
+    @SuppressWarnings("exports")
+    @Around("execution(public * listQueue(..)) and bean(clarityAPI)")
+    public Object listQueue(ProceedingJoinPoint pjp) throws Throwable
+    {
+        Object[] args = pjp.getArgs();
+        Linkable<?> protocolStep = (Linkable<?>)args[0];
+        Map<?, ?> searchTerms = args.length > 1 ? (Map<?, ?>)args[1] : Collections.emptyMap();
+
+        SearchKey key = null;
+        if (protocolStep != null && protocolStep.getUri() != null)
+        {
+            String queue = CacheKey.of(ProtocolStep.class, protocolStep.getUri()).getPath();
+            key = searchKey(queue, searchTerms, Artifact.class);
+        }
+
+        return search(pjp, Artifact.class, key);
+    }
+
+    /**
+     * Join point for the {@code ClarityAPI} methods that create, update or delete
+     * entities. Forgets the searches for the class of entity changed.
+     *
+     * @param pjp The join point object.
+     *
+     * @return The result of the call.
+     *
+     * @throws Throwable if there is an error.
+     *
+     * @see ClarityAPI#create(Locatable)
+     * @see ClarityAPI#createAll(Collection)
+     * @see ClarityAPI#update(Locatable)
+     * @see ClarityAPI#updateAll(Collection)
+     * @see ClarityAPI#delete(Locatable)
+     * @see ClarityAPI#deleteAll(Collection)
+     */
+    @SuppressWarnings("exports")
+    @Around("(execution(public * create(..)) or execution(public * createAll(..)) or " +
+            "execution(public * update(..)) or execution(public * updateAll(..)) or " +
+            "execution(public * delete(..)) or execution(public * deleteAll(..))) and bean(clarityAPI)")
+    public Object change(ProceedingJoinPoint pjp) throws Throwable
+    {
+        try
+        {
+            return pjp.proceed();
+        }
+        finally
+        {
+            // Forget even on failure, as some of a bulk operation may have been done.
+
+            Object thing = pjp.getArgs()[0];
+            if (thing instanceof Collection<?> entities)
+            {
+                entities.stream().filter(e -> e != null).map(Object::getClass).distinct().forEach(this::clear);
+            }
+            else if (thing != null)
+            {
+                clear(thing.getClass());
+            }
+        }
+    }
+
+    /**
+     * Join point for the {@code ClarityAPI} methods that move artifacts between
+     * queues. Forgets the searches for artifacts, including the queue listings.
+     *
+     * @param pjp The join point object.
+     *
+     * @return The result of the call.
+     *
+     * @throws Throwable if there is an error.
+     *
+     * @see ClarityAPI#routeArtifacts(com.genologics.ri.routing.Routing)
+     * @see ClarityAPI#beginProcessStep(com.genologics.ri.stepconfiguration.StepCreation)
+     * @see ClarityAPI#executeProcess(com.genologics.ri.processexecution.ExecutableProcess)
+     * @see ClarityAPI#advanceProcessStep(com.genologics.ri.step.ProcessStep)
+     */
+    @SuppressWarnings("exports")
+    @Around("(execution(public * routeArtifacts(..)) or execution(public * beginProcessStep(..)) or " +
+            "execution(public * executeProcess(..)) or execution(public * advanceProcessStep(..))) and bean(clarityAPI)")
+    public Object moveArtifacts(ProceedingJoinPoint pjp) throws Throwable
+    {
+        try
+        {
+            return pjp.proceed();
+        }
+        finally
+        {
+            clear(Artifact.class);
+        }
+    }
+
+    /**
+     * Answer a search from the cache or by calling through to the API,
+     * remembering the results.
+     *
+     * @param pjp The join point object.
+     * @param entityClass The class of entity searched for.
+     * @param key The key for the search. If null, the search is not cached.
+     *
+     * @return A list of the links found. The list and the links in it belong to
+     * the caller, which may change them.
+     *
+     * @throws Throwable if there is an error.
+     */
+    private Object search(ProceedingJoinPoint pjp, Class<?> entityClass, SearchKey key) throws Throwable
+    {
+        if (key == null)
+        {
+            return pjp.proceed();
+        }
+
+        ConcurrentMap<SearchKey, Results> classResults =
+                results.computeIfAbsent(entityClass, c -> new ConcurrentHashMap<SearchKey, Results>());
+
+        long now = System.nanoTime();
+
+        Results found = classResults.get(key);
+        if (found != null)
+        {
+            if (!found.isExpired(now))
+            {
+                if (logger.isDebugEnabled())
+                {
+                    logger.debug("Using remembered results of {}", key);
+                }
+                hits.increment();
+                return found.getLinks();
+            }
+            classResults.remove(key, found);
+        }
+
+        misses.increment();
+
+        List<?> links = (List<?>)pjp.proceed();
+
+        Results remembered = remember(links, now + timeToLiveNanos);
+
+        if (remembered != null)
+        {
+            if (classResults.size() >= maximumEntries)
+            {
+                classResults.values().removeIf(r -> r.isExpired(now));
+
+                Iterator<SearchKey> iter = classResults.keySet().iterator();
+                while (classResults.size() >= maximumEntries && iter.hasNext())
+                {
+                    iter.next();
+                    iter.remove();
+                }
+            }
+
+            // Only keep the results if the class has not been changed during the search.
+            // This is done inside computeIfPresent so it cannot interleave with clear(Class).
+
+            results.computeIfPresent(entityClass, (c, current) ->
+            {
+                if (current == classResults)
+                {
+                    current.put(key, remembered);
+                }
+                return current;
+            });
+        }
+
+        return links;
+    }
+
+    /**
+     * Serialise the links found by a search for remembering.
+     *
+     * @param links The links found.
+     * @param expires When the results expire, from {@code System.nanoTime()}.
+     *
+     * @return The results to remember, or null if there are no links or they
+     * cannot be serialised.
+     */
+    private Results remember(List<?> links, long expires)
+    {
+        if (links == null)
+        {
+            return null;
+        }
+        try
+        {
+            return new Results(expires, SerializationUtils.serialize(new ArrayList<Object>(links)));
+        }
+        catch (SerializationException e)
+        {
+            logger.debug("Cannot remember search results: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Create the key for a search.
+     *
+     * @param queue The path of the protocol step for queue listings, or null
+     * for {@code find}.
+     * @param searchTerms The search terms.
+     * @param entityClass The class of entity searched for.
+     *
+     * @return The key, or null if the search cannot be cached because a
+     * term has no value.
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static SearchKey searchKey(String queue, Map<?, ?> searchTerms, Class<?> entityClass)
+    {
+        if (searchTerms == null || entityClass == null)
+        {
+            return null;
+        }
+        for (Object value : searchTerms.values())
+        {
+            // Not containsValue: immutable maps throw on being asked for null.
+            if (value == null)
+            {
+                return null;
+            }
+        }
+        return new SearchKey(queue, new SearchTerms((Map<String, ?>)searchTerms, entityClass));
+    }
+
+    /**
+     * The key for a search: the search terms and, for queue listings, the queue.
+     *
+     * @param queue The path of the queue's protocol step, or null for {@code find}.
+     * @param terms The search terms and class of entity searched for.
+     */
+    private record SearchKey(String queue, SearchTerms<?> terms)
+    {
+        /**
+         * Get a printable representation of this key.
+         *
+         * @return The queue, if any, and the search terms.
+         */
+        @Override
+        public String toString()
+        {
+            return queue == null ? terms.toString() : "queue " + queue + " " + terms;
+        }
+    }
+
+    /**
+     * The remembered results of a search.
+     */
+    private static final class Results
+    {
+        /**
+         * When the results expire, from {@code System.nanoTime()}.
+         */
+        final long expires;
+
+        /**
+         * The list of links found, serialised.
+         */
+        final byte[] links;
+
+        /**
+         * Constructor.
+         *
+         * @param expires When the results expire.
+         * @param links The serialised list of links found.
+         */
+        Results(long expires, byte[] links)
+        {
+            this.expires = expires;
+            this.links = links;
+        }
+
+        /**
+         * Get a new copy of the links found.
+         *
+         * @return A new list of new links.
+         */
+        List<Object> getLinks()
+        {
+            return SerializationUtils.<ArrayList<Object>>deserialize(links);
+        }
+
+        /**
+         * Whether these results have expired.
+         *
+         * @param now The current time, from {@code System.nanoTime()}.
+         *
+         * @return true if the results have expired.
+         */
+        boolean isExpired(long now)
+        {
+            return now - expires >= 0;
+        }
+    }
+}
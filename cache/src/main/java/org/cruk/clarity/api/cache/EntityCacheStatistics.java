@@ -0,0 +1,301 @@
+/*
+ * CRUK-CI Clarity REST API Java Client.
+ * Copyright (C) 2013 Cancer Research UK Cambridge Institute.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cruk.clarity.api.cache;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of the cache's behaviour for one entity class. The counters are
+ * updated by {@link ClarityAPICache} and can be read at any time.
+ *
+ * @since 2.34
+ *
+ * @see ClarityAPICacheStatistics
+ */
+public class EntityCacheStatistics implements EntityCacheStatisticsMXBean
+{
+    /**
+     * The entity class.
+     */
+    private final Class<?> entityClass;
+
+    /**
+     * The number of cache hits.
+     */
+    private final LongAdder hits = new LongAdder();
+
+    /**
+     * The number of cache misses.
+     */
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * The number of refetches of stateful entities in an unusable state.
+     */
+    private final LongAdder staleRefetches = new LongAdder();
+
+    /**
+     * The number of requests answered from the record of entities not found.
+     */
+    private final LongAdder notFoundHits = new LongAdder();
+
+    /**
+     * The number of entities stored in the cache.
+     */
+    private final LongAdder puts = new LongAdder();
+
+    /**
+     * The number of entities evicted from the cache.
+     */
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * The number of entities expired from the cache.
+     */
+    private final LongAdder expiries = new LongAdder();
+
+    /**
+     * The number of entities fetched from the server.
+     */
+    private final LongAdder fetched = new LongAdder();
+
+    /**
+     * The time spent fetching entities from the server, in nanoseconds.
+     */
+    private final LongAdder fetchNanos = new LongAdder();
+
+
+    /**
+     * Constructor.
+     *
+     * @param entityClass The entity class.
+     */
+    EntityCacheStatistics(Class<?> entityClass)
+    {
+        this.entityClass = entityClass;
+    }
+
+    /**
+     * Get the entity class these statistics are for.
+     *
+     * @return The entity class.
+     */
+    public Class<?> getType()
+    {
+        return entityClass;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getEntityClass()
+    {
+        return entityClass.getName();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getHits()
+    {
+        return hits.sum();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getMisses()
+    {
+        return misses.sum();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getStaleRefetches()
+    {
+        return staleRefetches.sum();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getNotFoundHits()
+    {
+        return notFoundHits.sum();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getPuts()
+    {
+        return puts.sum();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getEvictions()
+    {
+        return evictions.sum();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getExpiries()
+    {
+        return expiries.sum();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getFetched()
+    {
+        return fetched.sum();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getFetchTimeMillis()
+    {
+        return TimeUnit.NANOSECONDS.toMillis(fetchNanos.sum());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getTimeSavedMillis()
+    {
+        long count = fetched.sum();
+        if (count == 0)
+        {
+            return 0L;
+        }
+        double averageNanos = (double)fetchNanos.sum() / count;
+        return TimeUnit.NANOSECONDS.toMillis(Math.round(averageNanos * hits.sum()));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double getHitRatio()
+    {
+        long hitCount = hits.sum();
+        long requests = hitCount + misses.sum() + staleRefetches.sum();
+        return requests == 0 ? 0.0 : (double)hitCount / requests;
+    }
+
+    /**
+     * Record a cache hit.
+     */
+    void hit()
+    {
+        hits.increment();
+    }
+
+    /**
+     * Record a cache miss.
+     */
+    void miss()
+    {
+        misses.increment();
+    }
+
+    /**
+     * Record a stateful entity in the cache being in a state that cannot be used.
+     */
+    void staleRefetch()
+    {
+        staleRefetches.increment();
+    }
+
+    /**
+     * Record a request for an entity recently found not to exist being
+     * answered without calling the server.
+     */
+    void notFoundHit()
+    {
+        notFoundHits.increment();
+    }
+
+    /**
+     * Record an entity being stored in the cache.
+     */
+    void put()
+    {
+        puts.increment();
+    }
+
+    /**
+     * Record an entity being evicted from the cache.
+     */
+    void eviction()
+    {
+        evictions.increment();
+    }
+
+    /**
+     * Record an entity expiring from the cache.
+     */
+    void expiry()
+    {
+        expiries.increment();
+    }
+
+    /**
+     * Record a fetch of entities from the server.
+     *
+     * @param count The number of entities fetched.
+     * @param nanos The time taken, in nanoseconds.
+     */
+    void fetched(int count, long nanos)
+    {
+        fetched.add(count);
+        fetchNanos.add(nanos);
+    }
+
+    /**
+     * Returns a string representation of this object.
+     *
+     * @return The class name and the main counters.
+     */
+    @Override
+    public String toString()
+    {
+        return entityClass.getSimpleName() + ": hits " + getHits() + ", misses " + getMisses() +
+               ", stale " + getStaleRefetches() + ", puts " + getPuts() + ", evictions " + getEvictions();
+    }
+}
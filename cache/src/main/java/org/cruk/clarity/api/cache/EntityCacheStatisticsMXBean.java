@@ -0,0 +1,122 @@
+/*
+ * CRUK-CI Clarity REST API Java Client.
+ * Copyright (C) 2013 Cancer Research UK Cambridge Institute.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cruk.clarity.api.cache;
+
+/**
+ * JMX view of the cache statistics for one entity class.
+ *
+ * @since 2.34
+ *
+ * @see EntityCacheStatistics
+ */
+public interface EntityCacheStatisticsMXBean
+{
+    /**
+     * Get the name of the entity class these statistics are for.
+     *
+     * @return The entity class name.
+     */
+    String getEntityClass();
+
+    /**
+     * Get the number of requests for an entity answered from the cache.
+     *
+     * @return The number of cache hits.
+     */
+    long getHits();
+
+    /**
+     * Get the number of requests for an entity not in the cache.
+     *
+     * @return The number of cache misses.
+     */
+    long getMisses();
+
+    /**
+     * Get the number of requests for a stateful entity that was in the cache,
+     * but in a state that could not be used (according to the cache's
+     * {@link CacheStatefulBehaviour} or a stateful override), so had to be
+     * fetched again.
+     *
+     * @return The number of stale version refetches.
+     */
+    long getStaleRefetches();
+
+    /**
+     * Get the number of requests for entities that were recently found not to
+     * exist, answered from the cache's record of them without calling the server.
+     *
+     * @return The number of not found hits.
+     *
+     * @see ClarityAPINotFoundCache
+     */
+    long getNotFoundHits();
+
+    /**
+     * Get the number of entities stored in the cache.
+     *
+     * @return The number of puts.
+     */
+    long getPuts();
+
+    /**
+     * Get the number of entities evicted from the cache to make room for others.
+     *
+     * @return The number of evictions.
+     */
+    long getEvictions();
+
+    /**
+     * Get the number of entities removed from the cache because they expired.
+     *
+     * @return The number of expiries.
+     */
+    long getExpiries();
+
+    /**
+     * Get the number of entities fetched from the server by calls the cache
+     * passed through.
+     *
+     * @return The number of entities fetched.
+     */
+    long getFetched();
+
+    /**
+     * Get the total time spent fetching entities from the server.
+     *
+     * @return The fetch time in milliseconds.
+     */
+    long getFetchTimeMillis();
+
+    /**
+     * Get an estimate of the time saved by answering requests from the cache:
+     * the number of hits multiplied by the average time taken to fetch an
+     * entity of the class.
+     *
+     * @return The estimated time saved in milliseconds.
+     */
+    long getTimeSavedMillis();
+
+    /**
+     * Get the proportion of requests answered from the cache.
+     *
+     * @return The hit ratio, between zero and one. Zero if there have been no requests.
+     */
+    double getHitRatio();
+}
@@ -0,0 +1,234 @@
+/*
+ * CRUK-CI Clarity REST API Java Client.
+ * Copyright (C) 2013 Cancer Research UK Cambridge Institute.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cruk.clarity.api.cache.internal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.nio.ByteBuffer;
+
+import org.ehcache.spi.serialization.Serializer;
+import org.ehcache.spi.serialization.SerializerException;
+
+/**
+ * Ehcache serializer for {@link CacheElementWrapper} objects. This is used
+ * when the caches have an off-heap or disk tier, where the elements must be
+ * held as bytes.
+ *
+ * <p>
+ * The element is written as its version followed by the Java serialised form
+ * of the entity it holds. Classes are resolved through the class loader given
+ * to the constructor when reading back, and only those accepted by
+ * {@link EntityInputFilter} are read, as a disk tier's files can be changed
+ * by anything that can write to its directory.
+ * </p>
+ *
+ * @since 2.34
+ */
+public class CacheElementWrapperSerializer implements Serializer<CacheElementWrapper>
+{
+    /**
+     * Initial size of the buffer to serialise elements into.
+     */
+    private static final int INITIAL_BUFFER_SIZE = 4096;
+
+    /**
+     * The class loader to resolve the entity classes with.
+     */
+    private final ClassLoader classLoader;
+
+
+    /**
+     * Constructor. This is the constructor Ehcache expects serializers to have.
+     *
+     * @param classLoader The class loader to resolve the entity classes with.
+     * If null, the class loader of this class is used.
+     */
+    public CacheElementWrapperSerializer(ClassLoader classLoader)
+    {
+        this.classLoader = classLoader == null ? getClass().getClassLoader() : classLoader;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ByteBuffer serialize(CacheElementWrapper element) throws SerializerException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(INITIAL_BUFFER_SIZE);
+
+        try (DataOutputStream dataOut = new DataOutputStream(bytes))
+        {
+            dataOut.writeLong(element.getVersion());
+            dataOut.flush();
+
+            try (ObjectOutputStream objectOut = new ObjectOutputStream(dataOut))
+            {
+                objectOut.writeObject(element.getEntity());
+            }
+        }
+        catch (IOException e)
+        {
+            throw new SerializerException("Cannot serialize " + element.getEntity().getClass().getName(), e);
+        }
+
+        return ByteBuffer.wrap(bytes.toByteArray());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CacheElementWrapper read(ByteBuffer binary) throws ClassNotFoundException, SerializerException
+    {
+        try (DataInputStream dataIn = new DataInputStream(new ByteBufferInputStream(binary)))
+        {
+            long version = dataIn.readLong();
+
+            try (ObjectInputStream objectIn = new ClassLoaderObjectInputStream(dataIn, classLoader))
+            {
+                objectIn.setObjectInputFilter(EntityInputFilter.FILTER);
+                return new CacheElementWrapper(objectIn.readObject(), version);
+            }
+        }
+        catch (IOException e)
+        {
+            throw new SerializerException("Cannot read cache element", e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * The entity classes do not define equality, so this compares the
+     * serialised form of {@code object} with {@code binary}.
+     * </p>
+     */
+    @Override
+    public boolean equals(CacheElementWrapper object, ByteBuffer binary) throws SerializerException
+    {
+        return serialize(object).equals(binary.duplicate());
+    }
+
+    /**
+     * Input stream reading from a byte buffer, without changing the buffer's position.
+     */
+    private static class ByteBufferInputStream extends InputStream
+    {
+        /**
+         * The buffer to read from.
+         */
+        private final ByteBuffer buffer;
+
+        /**
+         * Constructor.
+         *
+         * @param buffer The buffer to read. It is duplicated so the original
+         * is not changed.
+         */
+        ByteBufferInputStream(ByteBuffer buffer)
+        {
+            this.buffer = buffer.duplicate();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int read()
+        {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int read(byte[] b, int off, int len)
+        {
+            if (len == 0)
+            {
+                return 0;
+            }
+            if (!buffer.hasRemaining())
+            {
+                return -1;
+            }
+            int count = Math.min(len, buffer.remaining());
+            buffer.get(b, off, count);
+            return count;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int available()
+        {
+            return buffer.remaining();
+        }
+    }
+
+    /**
+     * Object input stream that resolves classes through a given class loader.
+     */
+    private static class ClassLoaderObjectInputStream extends ObjectInputStream
+    {
+        /**
+         * The class loader to resolve classes with.
+         */
+        private final ClassLoader classLoader;
+
+        /**
+         * Constructor.
+         *
+         * @param in The stream to read from.
+         * @param classLoader The class loader to resolve classes with.
+         *
+         * @throws IOException if the stream header cannot be read.
+         */
+        ClassLoaderObjectInputStream(InputStream in, ClassLoader classLoader) throws IOException
+        {
+            super(in);
+            this.classLoader = classLoader;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException
+        {
+            try
+            {
+                return Class.forName(desc.getName(), false, classLoader);
+            }
+            catch (ClassNotFoundException e)
+            {
+                return super.resolveClass(desc);
+            }
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * CRUK-CI Clarity REST API Java Client.
+ * Copyright (C) 2013 Cancer Research UK Cambridge Institute.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cruk.clarity.api.cache.internal;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.cruk.clarity.api.cache.CacheKey;
+import org.ehcache.spi.serialization.Serializer;
+import org.ehcache.spi.serialization.SerializerException;
+
+/**
+ * Ehcache serializer for {@link CacheKey} objects, used when the caches have
+ * an off-heap or disk tier.
+ *
+ * <p>
+ * The key is written as the length of the entity class name and the class
+ * name, the length of the server name and the server name, and then the path,
+ * all in UTF-8. This is much smaller than the Java serialised form of the key.
+ * </p>
+ *
+ * @since 2.34
+ */
+public class CacheKeySerializer implements Serializer<CacheKey>
+{
+    /**
+     * The class loader to resolve the entity classes with.
+     */
+    private final ClassLoader classLoader;
+
+
+    /**
+     * Constructor. This is the constructor Ehcache expects serializers to have.
+     *
+     * @param classLoader The class loader to resolve the entity classes with.
+     * If null, the class loader of this class is used.
+     */
+    public CacheKeySerializer(ClassLoader classLoader)
+    {
+        this.classLoader = classLoader == null ? getClass().getClassLoader() : classLoader;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ByteBuffer serialize(CacheKey key) throws SerializerException
+    {
+        byte[] className = key.getEntityClass().getName().getBytes(StandardCharsets.UTF_8);
+        byte[] server = key.getServer().getBytes(StandardCharsets.UTF_8);
+        byte[] path = key.getPath().getBytes(StandardCharsets.UTF_8);
+
+        ByteBuffer binary = ByteBuffer.allocate(2 * Integer.BYTES + className.length + server.length + path.length);
+        binary.putInt(className.length).put(className).putInt(server.length).put(server).put(path);
+        return binary.flip();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CacheKey read(ByteBuffer binary) throws ClassNotFoundException, SerializerException
+    {
+        ByteBuffer buffer = binary.duplicate();
+        try
+        {
+            byte[] className = new byte[buffer.getInt()];
+            buffer.get(className);
+            byte[] server = new byte[buffer.getInt()];
+            buffer.get(server);
+            byte[] path = new byte[buffer.remaining()];
+            buffer.get(path);
+
+            Class<?> entityClass = Class.forName(new String(className, StandardCharsets.UTF_8), false, classLoader);
+
+            return new CacheKey(entityClass, new String(server, StandardCharsets.UTF_8), new String(path, StandardCharsets.UTF_8));
+        }
+        catch (RuntimeException e)
+        {
+            throw new SerializerException("Cannot read cache key", e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean equals(CacheKey object, ByteBuffer binary) throws SerializerException
+    {
+        return serialize(object).equals(binary.duplicate());
+    }
+}
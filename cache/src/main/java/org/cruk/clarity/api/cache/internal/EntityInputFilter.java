@@ -0,0 +1,49 @@
+/*
+ * CRUK-CI Clarity REST API Java Client.
+ * Copyright (C) 2013 Cancer Research UK Cambridge Institute.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cruk.clarity.api.cache.internal;
+
+import java.io.ObjectInputFilter;
+
+/**
+ * The filter for Java deserialisation of cached entities, whether from the
+ * off-heap and disk tiers of the cache or from cache warmer snapshots. Anything
+ * able to write these could otherwise have any serialisable class on the class
+ * path instantiated.
+ *
+ * @since 2.34
+ */
+public final class EntityInputFilter
+{
+    /**
+     * The filter. It accepts the model classes, cache keys and the standard Java
+     * classes the entities are built from, and rejects everything else.
+     */
+    public static final ObjectInputFilter FILTER = ObjectInputFilter.Config.createFilter(
+            "maxdepth=64;com.genologics.ri.**;org.cruk.clarity.api.cache.CacheKey;"
+            + "java.lang.*;java.math.*;java.net.URI;java.util.*;"
+            + "javax.xml.datatype.*;javax.xml.namespace.QName;jakarta.xml.bind.JAXBElement;"
+            + "com.sun.org.apache.xerces.internal.jaxp.datatype.*;!*");
+
+    /**
+     * No instances.
+     */
+    private EntityInputFilter()
+    {
+    }
+}
@@ -0,0 +1,287 @@
+/*
+ * CRUK-CI Clarity REST API Java Client.
+ * Copyright (C) 2013 Cancer Research UK Cambridge Institute.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.cruk.clarity.api.cache.internal;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+
+import org.aspectj.lang.JoinPoint;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.Signature;
+import org.aspectj.lang.reflect.SourceLocation;
+import org.aspectj.runtime.internal.AroundClosure;
+
+/**
+ * A join point for a method called through a plain invocation handler rather
+ * than an aspect, so the cache's advice can be used without AOP. Proceeding calls
+ * the method on the target object.
+ *
+ * @since 2.34
+ */
+public class MethodCallJoinPoint implements ProceedingJoinPoint
+{
+    /**
+     * The object the method is called on.
+     */
+    private final Object target;
+
+    /**
+     * The method called.
+     */
+    private final Method method;
+
+    /**
+     * The arguments to the call.
+     */
+    private final Object[] args;
+
+    /**
+     * The signature of the method.
+     */
+    private final Signature signature;
+
+
+    /**
+     * Constructor.
+     *
+     * @param target The object the method is called on.
+     * @param method The method called.
+     * @param args The arguments to the call. May be null for no arguments.
+     */
+    public MethodCallJoinPoint(Object target, Method method, Object[] args)
+    {
+        this.target = target;
+        this.method = method;
+        this.args = args == null ? new Object[0] : args;
+        signature = new MethodCallSignature();
+    }
+
+    /**
+     * Call the method on the target with the original arguments.
+     *
+     * @return The result of the call.
+     *
+     * @throws Throwable anything thrown by the method.
+     */
+    @Override
+    public Object proceed() throws Throwable
+    {
+        return proceed(args);
+    }
+
+    /**
+     * Call the method on the target with the given arguments.
+     *
+     * @param newArgs The arguments to call the method with.
+     *
+     * @return The result of the call.
+     *
+     * @throws Throwable anything thrown by the method.
+     */
+    @Override
+    public Object proceed(Object[] newArgs) throws Throwable
+    {
+        try
+        {
+            return method.invoke(target, newArgs);
+        }
+        catch (InvocationTargetException e)
+        {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Not supported: there is no around closure for a plain method call.
+     *
+     * @param arc The closure.
+     */
+    @Override
+    public void set$AroundClosure(AroundClosure arc)
+    {
+        throw new UnsupportedOperationException("No around closure for a method call.");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toShortString()
+    {
+        return "execution(" + signature.toShortString() + ")";
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toLongString()
+    {
+        return "execution(" + signature.toLongString() + ")";
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString()
+    {
+        return "execution(" + signature + ")";
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Object getThis()
+    {
+        return target;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Object getTarget()
+    {
+        return target;
+    }
+
+    /**
+     * Get a copy of the arguments to the call.
+     *
+     * @return The arguments.
+     */
+    @Override
+    public Object[] getArgs()
+    {
+        return args.clone();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Signature getSignature()
+    {
+        return signature;
+    }
+
+    /**
+     * There is no source location for a plain method call.
+     *
+     * @return Null.
+     */
+    @Override
+    public SourceLocation getSourceLocation()
+    {
+        return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getKind()
+    {
+        return JoinPoint.METHOD_EXECUTION;
+    }
+
+    /**
+     * There is no static part for a plain method call.
+     *
+     * @return Null.
+     */
+    @Override
+    public StaticPart getStaticPart()
+    {
+        return null;
+    }
+
+    /**
+     * Signature of the method called.
+     */
+    private class MethodCallSignature implements Signature
+    {
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String toShortString()
+        {
+            return method.getDeclaringClass().getSimpleName() + "." + method.getName() + "(..)";
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String toLongString()
+        {
+            return method.toGenericString();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String toString()
+        {
+            return method.getReturnType().getSimpleName() + " " + method.getDeclaringClass().getName() + "." +
+                   method.getName() + Arrays.toString(method.getParameterTypes());
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String getName()
+        {
+            return method.getName();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int getModifiers()
+        {
+            return method.getModifiers();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        @SuppressWarnings("rawtypes")
+        public Class getDeclaringType()
+        {
+            return method.getDeclaringClass();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String getDeclaringTypeName()
+        {
+            return method.getDeclaringClass().getName();
+        }
+    }
+}
@@ -1,15 +1,32 @@
 package org.cruk.clarity.api.cache.spring;
 
+import static org.apache.commons.lang3.StringUtils.isNotBlank;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
 import java.time.Duration;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
+import org.cruk.clarity.api.cache.CacheKey;
+import org.cruk.clarity.api.cache.ClarityAPICacheStatistics;
+import org.cruk.clarity.api.cache.ClarityAPINotFoundCache;
 import org.cruk.clarity.api.cache.internal.CacheElementWrapper;
+import org.cruk.clarity.api.cache.internal.CacheElementWrapperSerializer;
+import org.cruk.clarity.api.cache.internal.CacheKeySerializer;
 import org.ehcache.CacheManager;
 import org.ehcache.config.CacheConfiguration;
+import org.ehcache.config.ResourceUnit;
 import org.ehcache.config.builders.CacheConfigurationBuilder;
 import org.ehcache.config.builders.CacheManagerBuilder;
 import org.ehcache.config.builders.ExpiryPolicyBuilder;
 import org.ehcache.config.builders.ResourcePoolsBuilder;
 import org.ehcache.config.units.EntryUnit;
+import org.ehcache.config.units.MemoryUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.ComponentScan.Filter;
@@ -43,6 +60,40 @@ import com.genologics.ri.workflowconfiguration.Workflow;
  * Each cache is configured with appropriate heap size limits and time-to-idle
  * expiry policies based on the expected usage patterns of different entity types.
  *
+ * <p>
+ * The sizes and expiry times can be changed with properties, by default read
+ * from the system properties. All are optional:
+ * </p>
+ *
+ * <ul>
+ * <li>{@code clarity.cache.heap.small}, {@code clarity.cache.heap.medium},
+ * {@code clarity.cache.heap.large} and {@code clarity.cache.heap.default}:
+ * the heap size of each size of cache. A plain number is a number of entries
+ * (defaults 100, 250, 1800 and 500); a number with a unit (B, KB, MB or GB,
+ * e.g. "64MB") limits the memory used.</li>
+ * <li>{@code clarity.cache.expiry.short}, {@code clarity.cache.expiry.medium} and
+ * {@code clarity.cache.expiry.long}: the time-to-idle of each expiry class,
+ * in minutes (defaults 5, 10 and 30).</li>
+ * <li>{@code clarity.cache.offheap.size}: if set, each cache gets an off-heap tier
+ * of this size (with a unit, e.g. "256MB").</li>
+ * <li>{@code clarity.cache.disk.directory} and {@code clarity.cache.disk.size}: if
+ * both are set, each cache gets a disk tier of the given size in the directory.</li>
+ * <li>{@code clarity.cache.disk.persistent}: "true" to keep the disk tier
+ * between runs (default false).</li>
+ * <li>{@code clarity.cache.jmx}: "true" to publish the cache statistics for each
+ * entity class as MBeans on the platform MBean server (default false).</li>
+ * <li>{@code clarity.cache.notfound.ttl}: the time, in seconds, to remember that
+ * an entity was not found by {@code load} or {@code retrieve} (default 0, not
+ * remembered).</li>
+ * <li>{@code clarity.cache.notfound.size}: the maximum number of entities not found
+ * to remember for each entity class (default 1000).</li>
+ * </ul>
+ *
+ * <p>
+ * Entries in off-heap and disk tiers are held serialised using
+ * {@link CacheKeySerializer} and {@link CacheElementWrapperSerializer}.
+ * </p>
+ *
  * @since 2.31
  */
 @Configuration
@@ -50,42 +101,228 @@ import com.genologics.ri.workflowconfiguration.Workflow;
 @ComponentScan(basePackages = "org.cruk.clarity.api.cache", excludeFilters = @Filter(Configuration.class))
 public class ClarityClientCacheConfiguration
 {
+    /**
+     * Prefix for all the cache configuration properties.
+     *
+     * @since 2.34
+     */
+    public static final String PROPERTY_PREFIX = "clarity.cache.";
+
+    /**
+     * Pattern for sizes: a number with an optional unit.
+     */
+    private static final Pattern SIZE_PATTERN = Pattern.compile("(\\d+)\\s*([KMG]?B)?", Pattern.CASE_INSENSITIVE);
+
+    /**
+     * Logger.
+     */
+    private final Logger logger = LoggerFactory.getLogger(ClarityClientCacheConfiguration.class);
+
     /**
      * Cache configuration for small heap (100 entries) with medium expiry (10 minutes).
      */
-    protected CacheConfiguration<String, CacheElementWrapper> smallMedium;
+    protected CacheConfiguration<CacheKey, CacheElementWrapper> smallMedium;
 
     /**
      * Cache configuration for small heap (100 entries) with long expiry (30 minutes).
      */
-    protected CacheConfiguration<String, CacheElementWrapper> smallLong;
+    protected CacheConfiguration<CacheKey, CacheElementWrapper> smallLong;
 
     /**
      * Cache configuration for medium heap (250 entries) with short expiry (5 minutes).
      */
-    protected CacheConfiguration<String, CacheElementWrapper> mediumShort;
+    protected CacheConfiguration<CacheKey, CacheElementWrapper> mediumShort;
 
     /**
      * Cache configuration for medium heap (250 entries) with medium expiry (10 minutes).
      */
-    protected CacheConfiguration<String, CacheElementWrapper> mediumMedium;
+    protected CacheConfiguration<CacheKey, CacheElementWrapper> mediumMedium;
 
     /**
      * Cache configuration for large heap (1800 entries) with short expiry (5 minutes).
      */
-    protected CacheConfiguration<String, CacheElementWrapper> largeShort;
+    protected CacheConfiguration<CacheKey, CacheElementWrapper> largeShort;
+
+    /**
+     * Cache configuration for the default cache (500 entries) with medium expiry (10 minutes).
+     *
+     * @since 2.34
+     */
+    protected CacheConfiguration<CacheKey, CacheElementWrapper> defaultMedium;
+
+    /**
+     * The size of each off-heap tier, in megabytes. Zero for no off-heap tier.
+     *
+     * @since 2.34
+     */
+    protected long offHeapMegabytes;
+
+    /**
+     * The size of each disk tier, in megabytes. Zero for no disk tier.
+     *
+     * @since 2.34
+     */
+    protected long diskMegabytes;
+
+    /**
+     * The directory for the disk tier.
+     *
+     * @since 2.34
+     */
+    protected File diskDirectory;
+
+    /**
+     * Whether the disk tier is kept between runs.
+     *
+     * @since 2.34
+     */
+    protected boolean diskPersistent;
+
+    /**
+     * Whether the cache statistics are published through JMX.
+     *
+     * @since 2.34
+     */
+    protected boolean jmxEnabled;
+
+    /**
+     * How long to remember that an entity was not found, in seconds.
+     *
+     * @since 2.34
+     */
+    protected int notFoundSeconds;
+
+    /**
+     * The maximum number of entities not found to remember for each class.
+     *
+     * @since 2.34
+     */
+    protected int notFoundEntries;
+
+    /**
+     * Serializer for cache elements in off-heap and disk tiers.
+     */
+    private CacheElementWrapperSerializer serializer =
+            new CacheElementWrapperSerializer(CacheElementWrapper.class.getClassLoader());
+
+    /**
+     * Serializer for cache keys in off-heap and disk tiers.
+     */
+    private CacheKeySerializer keySerializer =
+            new CacheKeySerializer(CacheElementWrapper.class.getClassLoader());
 
     /**
      * Constructor. Initializes the pre-configured cache configurations with
-     * different combinations of heap size and expiry times.
+     * different combinations of heap size and expiry times, taking any changes
+     * from the system properties.
      */
     public ClarityClientCacheConfiguration()
     {
-        smallMedium = cacheConfig(100, 10);
-        smallLong = cacheConfig(100, 30);
-        mediumShort = cacheConfig(250, 5);
-        mediumMedium = cacheConfig(250, 10);
-        largeShort = cacheConfig(1800, 5);
+        this(System.getProperties());
+    }
+
+    /**
+     * Constructor. Initializes the pre-configured cache configurations with
+     * different combinations of heap size and expiry times, taking any changes
+     * from the properties given.
+     *
+     * @param properties The cache configuration properties.
+     *
+     * @since 2.34
+     */
+    protected ClarityClientCacheConfiguration(Properties properties)
+    {
+        if (properties == null)
+        {
+            properties = new Properties();
+        }
+
+        offHeapMegabytes = getMegabytes(properties, "offheap.size");
+        diskMegabytes = getMegabytes(properties, "disk.size");
+        diskPersistent = Boolean.parseBoolean(properties.getProperty(PROPERTY_PREFIX + "disk.persistent"));
+        jmxEnabled = Boolean.parseBoolean(properties.getProperty(PROPERTY_PREFIX + "jmx"));
+        notFoundSeconds = Math.max(getInteger(properties, "notfound.ttl", 0), 0);
+        notFoundEntries = Math.max(getInteger(properties, "notfound.size", ClarityAPINotFoundCache.DEFAULT_MAXIMUM_ENTRIES), 1);
+
+        String directory = properties.getProperty(PROPERTY_PREFIX + "disk.directory");
+        if (isNotBlank(directory))
+        {
+            diskDirectory = new File(directory.trim());
+        }
+        if (diskMegabytes > 0 && diskDirectory == null)
+        {
+            logger.warn("Configuration property '{}disk.size' is set without '{}disk.directory'. There will be no disk tier.",
+                        PROPERTY_PREFIX, PROPERTY_PREFIX);
+            diskMegabytes = 0;
+        }
+
+        String small = properties.getProperty(PROPERTY_PREFIX + "heap.small", "100");
+        String medium = properties.getProperty(PROPERTY_PREFIX + "heap.medium", "250");
+        String large = properties.getProperty(PROPERTY_PREFIX + "heap.large", "1800");
+        String standard = properties.getProperty(PROPERTY_PREFIX + "heap.default", "500");
+
+        int shortExpiry = getInteger(properties, "expiry.short", 5);
+        int mediumExpiry = getInteger(properties, "expiry.medium", 10);
+        int longExpiry = getInteger(properties, "expiry.long", 30);
+
+        smallMedium = cacheConfig(small, mediumExpiry);
+        smallLong = cacheConfig(small, longExpiry);
+        mediumShort = cacheConfig(medium, shortExpiry);
+        mediumMedium = cacheConfig(medium, mediumExpiry);
+        largeShort = cacheConfig(large, shortExpiry);
+        defaultMedium = cacheConfig(standard, mediumExpiry);
+    }
+
+    /**
+     * Read a whole number, such as a time in minutes, from the properties.
+     *
+     * @param properties The properties.
+     * @param name The name of the property, without the prefix.
+     * @param defaultValue The value to use if the property is not set or is invalid.
+     *
+     * @return The number.
+     */
+    private int getInteger(Properties properties, String name, int defaultValue)
+    {
+        String value = properties.getProperty(PROPERTY_PREFIX + name);
+        if (isNotBlank(value))
+        {
+            try
+            {
+                return Integer.parseInt(value.trim());
+            }
+            catch (NumberFormatException e)
+            {
+                logger.warn("Configuration property '{}{}' is not a number.", PROPERTY_PREFIX, name);
+            }
+        }
+        return defaultValue;
+    }
+
+    /**
+     * Read a memory size in megabytes from the properties. The property
+     * must have a unit.
+     *
+     * @param properties The properties.
+     * @param name The name of the property, without the prefix.
+     *
+     * @return The number of megabytes, or zero if the property is not set or is invalid.
+     */
+    private long getMegabytes(Properties properties, String name)
+    {
+        String value = properties.getProperty(PROPERTY_PREFIX + name);
+        if (isNotBlank(value))
+        {
+            Matcher m = SIZE_PATTERN.matcher(value.trim());
+            if (m.matches() && m.group(2) != null)
+            {
+                long size = Long.parseLong(m.group(1));
+                MemoryUnit unit = MemoryUnit.valueOf(m.group(2).toUpperCase(Locale.ROOT));
+                return Math.max(unit.toBytes(size) / MemoryUnit.MB.toBytes(1), 1);
+            }
+            logger.warn("Configuration property '{}{}' is not a size with a unit (B, KB, MB or GB).", PROPERTY_PREFIX, name);
+        }
+        return 0;
     }
 
     /**
@@ -94,16 +331,76 @@ public class ClarityClientCacheConfiguration
      * @param number The maximum number of entries in the cache heap.
      * @param expiry The time-to-idle expiry time in minutes.
      *
-     * @return A configured cache configuration for String keys and CacheElementWrapper values.
+     * @return A configured cache configuration for CacheKey keys and CacheElementWrapper values.
+     */
+    protected CacheConfiguration<CacheKey, CacheElementWrapper> cacheConfig(int number, int expiry)
+    {
+        return cacheConfig(number, EntryUnit.ENTRIES, expiry);
+    }
+
+    /**
+     * Creates a cache configuration with the heap size given as a string and
+     * the specified time-to-idle expiry. The size is a number of entries or,
+     * if followed by a unit (B, KB, MB or GB), a memory size.
+     *
+     * @param heapSize The maximum size of the cache heap.
+     * @param expiry The time-to-idle expiry time in minutes.
+     *
+     * @return A configured cache configuration for CacheKey keys and CacheElementWrapper values.
+     *
+     * @throws IllegalArgumentException if {@code heapSize} is not a valid size.
+     *
+     * @since 2.34
+     */
+    protected CacheConfiguration<CacheKey, CacheElementWrapper> cacheConfig(String heapSize, int expiry)
+    {
+        Matcher m = SIZE_PATTERN.matcher(heapSize.trim());
+        if (!m.matches())
+        {
+            throw new IllegalArgumentException("Cache heap size '" + heapSize + "' is not a number of entries or a memory size.");
+        }
+
+        long size = Long.parseLong(m.group(1));
+        ResourceUnit unit = m.group(2) == null ? EntryUnit.ENTRIES : MemoryUnit.valueOf(m.group(2).toUpperCase(Locale.ROOT));
+
+        return cacheConfig(size, unit, expiry);
+    }
+
+    /**
+     * Creates a cache configuration with the specified heap size and time-to-idle expiry,
+     * adding off-heap and disk tiers if they have been configured.
+     *
+     * @param heapSize The maximum size of the cache heap.
+     * @param heapUnit The unit of {@code heapSize}.
+     * @param expiry The time-to-idle expiry time in minutes.
+     *
+     * @return A configured cache configuration for CacheKey keys and CacheElementWrapper values.
+     *
+     * @since 2.34
      */
-    protected CacheConfiguration<String, CacheElementWrapper> cacheConfig(int number, int expiry)
+    protected CacheConfiguration<CacheKey, CacheElementWrapper> cacheConfig(long heapSize, ResourceUnit heapUnit, int expiry)
     {
-        var resourcePools = ResourcePoolsBuilder.newResourcePoolsBuilder().heap(number, EntryUnit.ENTRIES);
+        var resourcePools = ResourcePoolsBuilder.newResourcePoolsBuilder().heap(heapSize, heapUnit);
 
-        return CacheConfigurationBuilder
-                .newCacheConfigurationBuilder(String.class, CacheElementWrapper.class, resourcePools)
-                .withExpiry(ExpiryPolicyBuilder.timeToIdleExpiration(Duration.ofMinutes(expiry)))
-                .build();
+        if (offHeapMegabytes > 0)
+        {
+            resourcePools = resourcePools.offheap(offHeapMegabytes, MemoryUnit.MB);
+        }
+        if (diskMegabytes > 0)
+        {
+            resourcePools = resourcePools.disk(diskMegabytes, MemoryUnit.MB, diskPersistent);
+        }
+
+        var builder = CacheConfigurationBuilder
+                .newCacheConfigurationBuilder(CacheKey.class, CacheElementWrapper.class, resourcePools)
+                .withExpiry(ExpiryPolicyBuilder.timeToIdleExpiration(Duration.ofMinutes(expiry)));
+
+        if (offHeapMegabytes > 0 || diskMegabytes > 0)
+        {
+            builder = builder.withKeySerializer(keySerializer).withValueSerializer(serializer);
+        }
+
+        return builder.build();
     }
 
     /**
@@ -117,8 +414,66 @@ public class ClarityClientCacheConfiguration
     @Bean
     public CacheManager clarityCacheManager()
     {
-        return CacheManagerBuilder.newCacheManagerBuilder()
-            .withCache(LimsEntity.class.getName(), cacheConfig(500, 10))
+        if (diskMegabytes > 0)
+        {
+            return addCaches(CacheManagerBuilder.newCacheManagerBuilder()
+                                .with(CacheManagerBuilder.persistence(diskDirectory)))
+                   .build(true);
+        }
+
+        return addCaches(CacheManagerBuilder.newCacheManagerBuilder()).build(true);
+    }
+
+    /**
+     * Creates the object the cache collects its statistics in, for each entity
+     * class. If enabled, the statistics are registered as MBeans with the platform
+     * MBean server; they are unregistered when the Spring context is closed.
+     *
+     * @return The cache statistics.
+     *
+     * @since 2.34
+     */
+    @Bean
+    public ClarityAPICacheStatistics clarityCacheStatistics()
+    {
+        ClarityAPICacheStatistics statistics = new ClarityAPICacheStatistics();
+        if (jmxEnabled)
+        {
+            statistics.registerMBeans(ManagementFactory.getPlatformMBeanServer());
+        }
+        return statistics;
+    }
+
+    /**
+     * Creates the record of entities that {@code load} and {@code retrieve} have
+     * recently found not to exist. It is turned off unless
+     * {@code clarity.cache.notfound.ttl} is set.
+     *
+     * @return The record of entities not found.
+     *
+     * @since 2.34
+     */
+    @Bean
+    public ClarityAPINotFoundCache clarityNotFoundCache()
+    {
+        return new ClarityAPINotFoundCache(Duration.ofSeconds(notFoundSeconds), notFoundEntries);
+    }
+
+    /**
+     * Add the caches for the Clarity API entities to a cache manager builder.
+     *
+     * @param <T> The type of cache manager being built.
+     * @param builder The cache manager builder.
+     *
+     * @return The builder with the caches added.
+     *
+     * @since 2.34
+     */
+    protected <T extends CacheManager>
+    CacheManagerBuilder<T> addCaches(CacheManagerBuilder<T> builder)
+    {
+        return builder
+            .withCache(LimsEntity.class.getName(), defaultMedium)
             .withCache(Artifact.class.getName(), largeShort)
             .withCache(Demux.class.getName(), mediumShort)
             .withCache(Automation.class.getName(), smallLong)
@@ -137,7 +492,6 @@ public class ClarityClientCacheConfiguration
             .withCache(Stage.class.getName(), smallLong)
             .withCache(Protocol.class.getName(), smallLong)
             .withCache(ProtocolStep.class.getName(), smallLong)
-            .withCache(Workflow.class.getName(), smallLong)
-            .build(true);
+            .withCache(Workflow.class.getName(), smallLong);
     }
 }
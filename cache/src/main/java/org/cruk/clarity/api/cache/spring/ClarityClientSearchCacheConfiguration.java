@@ -0,0 +1,141 @@
+/*
+ * CRUK-CI Clarity REST API Java Client.
+ * Copyright (C) 2013 Cancer Research UK Cambridge Institute.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cruk.clarity.api.cache.spring;
+
+import static org.apache.commons.lang3.StringUtils.isNotBlank;
+import static org.cruk.clarity.api.cache.spring.ClarityClientCacheConfiguration.PROPERTY_PREFIX;
+
+import java.time.Duration;
+import java.util.Properties;
+
+import org.cruk.clarity.api.cache.ClaritySearchCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.EnableAspectJAutoProxy;
+
+/**
+ * Spring configuration adding the cache of {@code find} and {@code listQueue}
+ * results to the client. This is separate from {@link ClarityClientCacheConfiguration},
+ * which caches entities, and can be used with or without it. It needs the
+ * {@code clarity-client2-recorder} artifact on the class path.
+ *
+ * <p>
+ * The cache can be changed with properties, by default read from the system
+ * properties. Both are optional:
+ * </p>
+ *
+ * <ul>
+ * <li>{@code clarity.cache.search.ttl}: the time, in seconds, search results
+ * are kept (default 60).</li>
+ * <li>{@code clarity.cache.search.size}: the maximum number of searches kept
+ * for each entity class (default 200).</li>
+ * </ul>
+ *
+ * @since 2.34
+ *
+ * @see ClaritySearchCache
+ */
+@Configuration
+@EnableAspectJAutoProxy(proxyTargetClass = false)
+public class ClarityClientSearchCacheConfiguration
+{
+    /**
+     * Logger.
+     */
+    private final Logger logger = LoggerFactory.getLogger(ClarityClientSearchCacheConfiguration.class);
+
+    /**
+     * How long search results are kept, in seconds.
+     */
+    protected long timeToLiveSeconds;
+
+    /**
+     * The maximum number of searches kept for each entity class.
+     */
+    protected int maximumEntries;
+
+
+    /**
+     * Constructor taking the settings from the system properties.
+     */
+    public ClarityClientSearchCacheConfiguration()
+    {
+        this(System.getProperties());
+    }
+
+    /**
+     * Constructor taking the settings from the properties given.
+     *
+     * @param properties The cache configuration properties.
+     */
+    protected ClarityClientSearchCacheConfiguration(Properties properties)
+    {
+        if (properties == null)
+        {
+            properties = new Properties();
+        }
+
+        timeToLiveSeconds = getInteger(properties, "search.ttl", (int)ClaritySearchCache.DEFAULT_TIME_TO_LIVE.toSeconds());
+        maximumEntries = getInteger(properties, "search.size", ClaritySearchCache.DEFAULT_MAXIMUM_ENTRIES);
+    }
+
+    /**
+     * Read a positive whole number from the properties.
+     *
+     * @param properties The properties.
+     * @param name The name of the property, without the prefix.
+     * @param defaultValue The value to use if the property is not set or is invalid.
+     *
+     * @return The number.
+     */
+    private int getInteger(Properties properties, String name, int defaultValue)
+    {
+        String value = properties.getProperty(PROPERTY_PREFIX + name);
+        if (isNotBlank(value))
+        {
+            try
+            {
+                int number = Integer.parseInt(value.trim());
+                if (number > 0)
+                {
+                    return number;
+                }
+            }
+            catch (NumberFormatException e)
+            {
+                // Warning below.
+            }
+            logger.warn("Configuration property '{}{}' is not a positive number.", PROPERTY_PREFIX, name);
+        }
+        return defaultValue;
+    }
+
+    /**
+     * Creates the aspect that caches search results.
+     *
+     * @return The search cache.
+     */
+    @Bean
+    public ClaritySearchCache claritySearchCache()
+    {
+        return new ClaritySearchCache(Duration.ofSeconds(timeToLiveSeconds), maximumEntries);
+    }
+}
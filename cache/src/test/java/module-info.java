@@ -26,6 +26,8 @@ open module org.cruk.clarity.api.cache
     requires transitive org.cruk.clarity.api;
     requires transitive ehcache;
 
+    requires java.management;
+    requires org.cruk.clarity.api.recorder;
     requires org.apache.commons.lang3;
     requires org.slf4j;
 
@@ -20,10 +20,15 @@ package org.cruk.clarity.api.cache;
 
 import static org.cruk.clarity.api.cache.ClarityAPICache.NO_STATE_VALUE;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assumptions.assumeTrue;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.atMostOnce;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
@@ -36,16 +41,26 @@ import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.text.NumberFormat;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import org.aspectj.lang.JoinPoint;
 import org.aspectj.lang.ProceedingJoinPoint;
 import org.aspectj.lang.Signature;
 import org.cruk.clarity.api.ClarityAPI;
+import org.cruk.clarity.api.ClarityBulkOperationException;
+import org.cruk.clarity.api.ClarityException;
 import org.cruk.clarity.api.StatefulOverride;
 import org.cruk.clarity.api.cache.internal.CacheElementWrapper;
 import org.cruk.clarity.api.cache.unittests.CRUKCICheck;
@@ -53,14 +68,17 @@ import org.cruk.clarity.api.cache.unittests.ClarityClientCacheTestConfiguration;
 import org.cruk.clarity.api.http.AuthenticatingClientHttpRequestFactory;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.ThrowingSupplier;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.http.HttpStatus;
 import org.springframework.test.context.junit.jupiter.SpringJUnitConfig;
 
 import com.genologics.ri.LimsEntity;
 import com.genologics.ri.LimsLink;
+import com.genologics.ri.Link;
 import com.genologics.ri.Locatable;
 import com.genologics.ri.artifact.Artifact;
 import com.genologics.ri.artifact.OutputType;
@@ -79,6 +97,7 @@ import com.genologics.ri.project.Project;
 import com.genologics.ri.project.ResearcherLink;
 import com.genologics.ri.researcher.Researcher;
 import com.genologics.ri.sample.Sample;
+import com.genologics.ri.sample.SampleLink;
 import com.genologics.ri.userdefined.UDF;
 
 
@@ -162,6 +181,37 @@ public class ClarityAPICacheTest
         assertEquals(5432L, e.getVersion(), "Version wrong with state");
     }
 
+    @Test
+    public void testKeyAndVersion() throws URISyntaxException
+    {
+        String base = "http://limsdev.cri.camres.org:8080/api/v2/";
+
+        CacheKey key = cacheAspect.keyFromUri(Artifact.class, new URI(base + "artifacts/2-1000624?state=5432"));
+        assertEquals("artifacts/2-1000624", key.getPath(), "Key path wrong from URI");
+        assertSame(Artifact.class, key.getEntityClass(), "Key class wrong");
+
+        assertEquals(key, cacheAspect.keyFromUri(Artifact.class, base + "artifacts/2-1000624"), "Key from string differs");
+        assertEquals("limsdev.cri.camres.org:8080", key.getServer(), "Key server wrong from URI");
+        assertSame(key.getServer(), cacheAspect.keyFromUri(Artifact.class, base + "artifacts/2-1000625").getServer(), "Server name not shared");
+        assertNotEquals(key, cacheAspect.keyFromUri(Artifact.class, "https://otherhost/api/v2/artifacts/2-1000624?state=1"), "Key from other server is equal");
+        assertEquals(key, cacheAspect.keyFromUri(Artifact.class, "https://limsdev.cri.camres.org:8080/api/v2/artifacts/2-1000624"), "Key with other scheme differs");
+
+        Artifact artifact = new Artifact(new URI(base + "artifacts/2-1000624?state=12"), "2-1000624");
+        assertEquals(key, cacheAspect.keyFromLocatable(artifact), "Key from entity differs");
+        assertEquals(key, cacheAspect.keyFromLocatable(artifact.getLink()), "Key from link differs");
+
+        assertNotEquals(key, cacheAspect.keyFromUri(Sample.class, base + "artifacts/2-1000624"), "Keys for different classes are equal");
+
+        assertEquals(5432L, cacheAspect.versionFromUri(base + "artifacts/2-1000624?state=5432"), "Version wrong");
+        assertEquals(5432L, cacheAspect.versionFromUri(new URI(base + "artifacts/2-1000624?name=x&state=5432")), "Version wrong after other parameter");
+        assertEquals(7L, cacheAspect.versionFromUri(base + "artifacts/2-1000624?state=7&state=8#top"), "First state not used");
+        assertEquals(NO_STATE_VALUE, cacheAspect.versionFromUri(base + "artifacts/2-1000624?mystate=5432"), "Version found in another parameter");
+        assertEquals(NO_STATE_VALUE, cacheAspect.versionFromUri(base + "artifacts/2-1000624?state=abc"), "Version wrong when not a number");
+        assertEquals(NO_STATE_VALUE, cacheAspect.versionFromUri(base + "artifacts/2-1000624?state="), "Version wrong when empty");
+        assertEquals(NO_STATE_VALUE, cacheAspect.versionFromUri(base + "artifacts/2-1000624#state=5"), "Version found in fragment");
+        assertEquals(NO_STATE_VALUE, cacheAspect.versionFromUri((String)null), "Version wrong for null");
+    }
+
     private void checkCredentialsSet()
     {
         assumeTrue(httpRequestFactory.getCredentials() != null,
@@ -182,6 +232,502 @@ public class ClarityAPICacheTest
         return jpSig;
     }
 
+    /**
+     * Run a call to the cache aspect on another thread.
+     *
+     * @param executor The executor to run the call.
+     * @param call The call to make.
+     *
+     * @return The future result of the call.
+     */
+    private static <T> Future<T> submit(ExecutorService executor, ThrowingSupplier<T> call)
+    {
+        return executor.submit(() ->
+        {
+            try
+            {
+                return call.get();
+            }
+            catch (Exception | Error e)
+            {
+                throw e;
+            }
+            catch (Throwable t)
+            {
+                throw new ExecutionException(t);
+            }
+        });
+    }
+
+    @Test
+    public void testStatistics() throws Throwable
+    {
+        ClarityAPICacheStatistics original = cacheAspect.getStatistics();
+        ClarityAPICacheStatistics statistics = new ClarityAPICacheStatistics();
+        cacheAspect.setStatistics(statistics);
+
+        try
+        {
+            cacheAspect.setStatefulBehaviour(CacheStatefulBehaviour.LATEST);
+            cacheAspect.getCache(Artifact.class).clear();
+
+            String base = "http://limsdev.cri.camres.org:8080/api/v2/";
+
+            Artifact a1 = new Artifact(new URI(base + "artifacts/2-1771911?state=1294907"), "2-1771911");
+            Artifact a2 = new Artifact(new URI(base + "artifacts/2-1771911?state=1500000"), "2-1771911");
+
+            Signature jpSig = createSignatureMock();
+
+            ProceedingJoinPoint pjp1 = mock(ProceedingJoinPoint.class);
+            when(pjp1.getArgs()).thenReturn(new Object[] { a1.getUri(), Artifact.class });
+            when(pjp1.getSignature()).thenReturn(jpSig);
+            when(pjp1.proceed()).thenReturn(a1);
+
+            ProceedingJoinPoint pjp2 = mock(ProceedingJoinPoint.class);
+            when(pjp2.getArgs()).thenReturn(new Object[] { a2.getUri(), Artifact.class });
+            when(pjp2.getSignature()).thenReturn(jpSig);
+            when(pjp2.proceed()).thenReturn(a2);
+
+            // Miss, then a later state than is cached, then a hit for the earlier state.
+
+            cacheAspect.retrieve(pjp1);
+            cacheAspect.retrieve(pjp2);
+            Object returned = cacheAspect.retrieve(pjp1);
+
+            assertSame(a2, returned, "Did not return a2");
+            verify(pjp1, times(1)).proceed();
+            verify(pjp2, times(1)).proceed();
+
+            EntityCacheStatistics stats = statistics.forClass(Artifact.class);
+            assertEquals(1L, stats.getMisses(), "Misses wrong");
+            assertEquals(1L, stats.getStaleRefetches(), "Stale refetches wrong");
+            assertEquals(1L, stats.getHits(), "Hits wrong");
+            assertEquals(2L, stats.getPuts(), "Puts wrong");
+            assertEquals(2L, stats.getFetched(), "Fetched wrong");
+            assertEquals(1.0 / 3.0, stats.getHitRatio(), 1e-9, "Hit ratio wrong");
+            assertEquals(1, statistics.getStatistics().size(), "Statistics for other classes recorded");
+        }
+        finally
+        {
+            cacheAspect.setStatistics(original);
+        }
+    }
+
+    @Test
+    public void testNotFound() throws Throwable
+    {
+        ClarityAPINotFoundCache original = cacheAspect.getNotFoundCache();
+        ClarityAPICacheStatistics originalStatistics = cacheAspect.getStatistics();
+        ClarityAPINotFoundCache notFoundCache = new ClarityAPINotFoundCache(Duration.ofMinutes(1));
+        ClarityAPICacheStatistics statistics = new ClarityAPICacheStatistics();
+        cacheAspect.setNotFoundCache(notFoundCache);
+        cacheAspect.setStatistics(statistics);
+
+        try
+        {
+            cacheAspect.getCache(Container.class).clear();
+
+            String base = "http://limsdev.cri.camres.org:8080/api/v2/";
+            URI uri = new URI(base + "containers/27-4000");
+
+            com.genologics.ri.exception.Exception ge = new com.genologics.ri.exception.Exception();
+            ge.setMessage("Container 27-4000 does not exist.");
+            ClarityException notFound = new ClarityException(ge, HttpStatus.NOT_FOUND);
+
+            Signature jpSig = createSignatureMock();
+
+            ProceedingJoinPoint pjp1 = mock(ProceedingJoinPoint.class);
+            when(pjp1.getArgs()).thenReturn(new Object[] { uri, Container.class });
+            when(pjp1.getSignature()).thenReturn(jpSig);
+            when(pjp1.proceed()).thenThrow(notFound);
+
+            // The first retrieve goes to the server, the second is answered from the record.
+
+            assertSame(notFound, assertThrows(ClarityException.class, () -> cacheAspect.retrieve(pjp1)), "Server exception not thrown");
+            ClarityException second = assertThrows(ClarityException.class, () -> cacheAspect.retrieve(pjp1));
+            assertTrue(second.isNotFound(), "Recorded exception is not not found");
+            assertEquals(notFound.getMessage(), second.getMessage(), "Recorded exception message wrong");
+            verify(pjp1, times(1)).proceed();
+            assertEquals(1L, statistics.forClass(Container.class).getNotFoundHits(), "Not found hits wrong");
+
+            // Creating the container removes the record.
+
+            Container container = new Container(uri, "27-4000");
+
+            ProceedingJoinPoint pjpCreate = mock(ProceedingJoinPoint.class);
+            when(pjpCreate.getArgs()).thenReturn(new Object[] { container });
+
+            cacheAspect.create(pjpCreate);
+            assertEquals(0, notFoundCache.size(Container.class), "Record not removed by create");
+            assertSame(container, cacheAspect.retrieve(pjp1), "Created container not returned");
+            verify(pjp1, times(1)).proceed();
+
+            // Records expire.
+
+            ClarityAPINotFoundCache shortCache = new ClarityAPINotFoundCache(Duration.ofMillis(20), 2);
+            CacheKey key = cacheAspect.keyFromUri(Container.class, uri);
+            shortCache.put(key, notFound);
+            assertNotNull(shortCache.get(key), "Record not found");
+            Thread.sleep(50L);
+            assertNull(shortCache.get(key), "Record has not expired");
+
+            // The number of records for a class is bounded.
+
+            for (int i = 0; i < 5; i++)
+            {
+                shortCache.put(cacheAspect.keyFromUri(Container.class, base + "containers/27-" + i), notFound);
+            }
+            shortCache.put(cacheAspect.keyFromUri(Sample.class, base + "samples/ABC1"), notFound);
+            assertEquals(2, shortCache.size(Container.class), "Container records not bounded");
+            assertEquals(1, shortCache.size(Sample.class), "Sample records affected by containers");
+        }
+        finally
+        {
+            cacheAspect.setNotFoundCache(original);
+            cacheAspect.setStatistics(originalStatistics);
+            cacheAspect.getCache(Container.class).clear();
+        }
+    }
+
+    @Test
+    public void testSingleFlight() throws Throwable
+    {
+        // Concurrent misses for the same entity make one call to the server,
+        // the other callers being given the leader's result.
+
+        final int callers = 8;
+
+        ClarityAPICacheStatistics original = cacheAspect.getStatistics();
+        ClarityAPICacheStatistics statistics = new ClarityAPICacheStatistics();
+        cacheAspect.setStatistics(statistics);
+        cacheAspect.getCache(Sample.class).clear();
+
+        String base = "http://limsdev.cri.camres.org:8080/api/v2/";
+        Sample sample = new Sample(new URI(base + "samples/ABC201"), "ABC201");
+
+        CountDownLatch release = new CountDownLatch(1);
+
+        Signature jpSig = createSignatureMock();
+
+        ProceedingJoinPoint pjp = mock(ProceedingJoinPoint.class);
+        when(pjp.getArgs()).thenReturn(new Object[] { sample.getUri(), Sample.class });
+        when(pjp.getSignature()).thenReturn(jpSig);
+        when(pjp.proceed()).thenAnswer(invocation ->
+        {
+            release.await(30, TimeUnit.SECONDS);
+            return sample;
+        });
+
+        ExecutorService executor = Executors.newFixedThreadPool(callers);
+        try
+        {
+            List<Future<Object>> results = new ArrayList<>();
+            for (int i = 0; i < callers; i++)
+            {
+                results.add(submit(executor, () -> cacheAspect.retrieve(pjp)));
+            }
+
+            // Every caller has counted its miss, so all are committed to the one fetch.
+            awaitMisses(statistics.forClass(Sample.class), callers);
+            release.countDown();
+
+            for (Future<Object> result : results)
+            {
+                assertSame(sample, result.get(30, TimeUnit.SECONDS), "Caller did not get the fetched sample");
+            }
+            verify(pjp, times(1)).proceed();
+        }
+        finally
+        {
+            release.countDown();
+            executor.shutdownNow();
+            cacheAspect.setStatistics(original);
+            cacheAspect.getCache(Sample.class).clear();
+        }
+    }
+
+    @Test
+    public void testSingleFlightFailure() throws Throwable
+    {
+        // A failure of the one call to the server reaches every caller waiting on it,
+        // and is not remembered for later calls.
+
+        final int callers = 8;
+
+        ClarityAPICacheStatistics original = cacheAspect.getStatistics();
+        ClarityAPICacheStatistics statistics = new ClarityAPICacheStatistics();
+        cacheAspect.setStatistics(statistics);
+        cacheAspect.getCache(Sample.class).clear();
+
+        String base = "http://limsdev.cri.camres.org:8080/api/v2/";
+        Sample sample = new Sample(new URI(base + "samples/ABC202"), "ABC202");
+
+        com.genologics.ri.exception.Exception ge = new com.genologics.ri.exception.Exception();
+        ge.setMessage("Server is having a bad day.");
+        ClarityException failure = new ClarityException(ge, HttpStatus.INTERNAL_SERVER_ERROR);
+
+        CountDownLatch release = new CountDownLatch(1);
+
+        Signature jpSig = createSignatureMock();
+
+        ProceedingJoinPoint pjp = mock(ProceedingJoinPoint.class);
+        when(pjp.getArgs()).thenReturn(new Object[] { sample.getUri(), Sample.class });
+        when(pjp.getSignature()).thenReturn(jpSig);
+        when(pjp.proceed()).thenAnswer(invocation ->
+        {
+            release.await(30, TimeUnit.SECONDS);
+            throw failure;
+        });
+
+        ExecutorService executor = Executors.newFixedThreadPool(callers);
+        try
+        {
+            List<Future<Object>> results = new ArrayList<>();
+            for (int i = 0; i < callers; i++)
+            {
+                results.add(submit(executor, () -> cacheAspect.retrieve(pjp)));
+            }
+
+            awaitMisses(statistics.forClass(Sample.class), callers);
+            release.countDown();
+
+            for (Future<Object> result : results)
+            {
+                ExecutionException e = assertThrows(ExecutionException.class, () -> result.get(30, TimeUnit.SECONDS));
+                assertSame(failure, e.getCause(), "Caller did not get the leader's failure");
+            }
+            verify(pjp, times(1)).proceed();
+
+            // The next call tries again.
+
+            assertSame(failure, assertThrows(ClarityException.class, () -> cacheAspect.retrieve(pjp)), "Failure not thrown");
+            verify(pjp, times(2)).proceed();
+        }
+        finally
+        {
+            release.countDown();
+            executor.shutdownNow();
+            cacheAspect.setStatistics(original);
+            cacheAspect.getCache(Sample.class).clear();
+        }
+    }
+
+    @Test
+    public void testNullUri() throws Throwable
+    {
+        // With debug logging on, a call without a URI must still reach the API
+        // for it to reject the call.
+
+        Logger originalLogger = cacheAspect.logger;
+        Logger debugLogger = mock(Logger.class);
+        when(debugLogger.isDebugEnabled()).thenReturn(true);
+        cacheAspect.logger = debugLogger;
+
+        try
+        {
+            IllegalArgumentException rejection = new IllegalArgumentException("uri cannot be null");
+
+            Signature jpSig = createSignatureMock();
+
+            ProceedingJoinPoint pjp = mock(ProceedingJoinPoint.class);
+            when(pjp.getArgs()).thenReturn(new Object[] { null, Sample.class });
+            when(pjp.getSignature()).thenReturn(jpSig);
+            when(pjp.proceed()).thenThrow(rejection);
+
+            assertSame(rejection, assertThrows(IllegalArgumentException.class, () -> cacheAspect.loadOrRetrieve(pjp, null, Sample.class)),
+                       "API's exception not thrown");
+            verify(pjp, times(1)).proceed();
+        }
+        finally
+        {
+            cacheAspect.logger = originalLogger;
+        }
+    }
+
+    /**
+     * Wait for the given number of cache misses to have been counted.
+     *
+     * @param stats The statistics for the entity class.
+     * @param misses The number of misses expected.
+     *
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    private static void awaitMisses(EntityCacheStatistics stats, int misses) throws InterruptedException
+    {
+        long giveUp = System.currentTimeMillis() + 10000L;
+        while (stats.getMisses() < misses)
+        {
+            assertTrue(System.currentTimeMillis() < giveUp, "Callers have not all missed the cache");
+            Thread.sleep(10L);
+        }
+    }
+
+    @Test
+    public void testLoadsNotSerialised() throws Throwable
+    {
+        // A retrieve and a loadAll for different entities must both be able to
+        // be calling the server at the same time.
+
+        cacheAspect.getCache(Sample.class).clear();
+
+        String base = "http://limsdev.cri.camres.org:8080/api/v2/";
+        Sample s1 = new Sample(new URI(base + "samples/ABC101"), "ABC101");
+        Sample s2 = new Sample(new URI(base + "samples/ABC102"), "ABC102");
+
+        CountDownLatch bothCalling = new CountDownLatch(2);
+
+        Signature jpSig = createSignatureMock();
+
+        ProceedingJoinPoint pjp1 = mock(ProceedingJoinPoint.class);
+        when(pjp1.getArgs()).thenReturn(new Object[] { s1.getUri(), Sample.class });
+        when(pjp1.getSignature()).thenReturn(jpSig);
+        when(pjp1.proceed()).thenAnswer(invocation ->
+        {
+            bothCalling.countDown();
+            assertTrue(bothCalling.await(10, TimeUnit.SECONDS), "Retrieve was not concurrent with loadAll");
+            return s1;
+        });
+
+        List<SampleLink> links = List.of(new SampleLink(s2.getUri()));
+
+        ProceedingJoinPoint pjp2 = mock(ProceedingJoinPoint.class);
+        when(pjp2.getArgs()).thenReturn(new Object[] { links });
+        when(pjp2.getSignature()).thenReturn(jpSig);
+        when(pjp2.proceed(any(Object[].class))).thenAnswer(invocation ->
+        {
+            bothCalling.countDown();
+            assertTrue(bothCalling.await(10, TimeUnit.SECONDS), "LoadAll was not concurrent with retrieve");
+            return List.of(s2);
+        });
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try
+        {
+            Future<Object> retrieved = submit(executor, () -> cacheAspect.retrieve(pjp1));
+            Future<List<Locatable>> loaded = submit(executor, () -> cacheAspect.<Locatable>loadAll(pjp2));
+
+            assertSame(s1, retrieved.get(30, TimeUnit.SECONDS), "Did not return s1");
+            assertEquals(List.of(s2), loaded.get(30, TimeUnit.SECONDS), "Did not return s2");
+        }
+        finally
+        {
+            executor.shutdownNow();
+            cacheAspect.getCache(Sample.class).clear();
+        }
+    }
+
+    @Test
+    public void testBehaviourChangeDuringLoad() throws Throwable
+    {
+        cacheAspect.setStatefulBehaviour(CacheStatefulBehaviour.LATEST);
+        cacheAspect.getCache(Artifact.class).clear();
+
+        String base = "http://limsdev.cri.camres.org:8080/api/v2/";
+
+        Artifact a1 = new Artifact(new URI(base + "artifacts/2-1771911?state=1294907"), "2-1771911");
+        Artifact a0 = new Artifact(new URI(base + "artifacts/2-1771911?state=1101002"), "2-1771911");
+
+        CountDownLatch calling = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        Signature jpSig = createSignatureMock();
+
+        ProceedingJoinPoint pjp1 = mock(ProceedingJoinPoint.class);
+        when(pjp1.getArgs()).thenReturn(new Object[] { a1.getUri(), Artifact.class });
+        when(pjp1.getSignature()).thenReturn(jpSig);
+        when(pjp1.proceed()).thenAnswer(invocation ->
+        {
+            calling.countDown();
+            release.await(30, TimeUnit.SECONDS);
+            return a1;
+        });
+
+        ProceedingJoinPoint pjp0 = mock(ProceedingJoinPoint.class);
+        when(pjp0.getArgs()).thenReturn(new Object[] { a0.getUri(), Artifact.class });
+        when(pjp0.getSignature()).thenReturn(jpSig);
+        when(pjp0.proceed()).thenReturn(a0);
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try
+        {
+            Future<Object> retrieved = submit(executor, () -> cacheAspect.retrieve(pjp1));
+            assertTrue(calling.await(10, TimeUnit.SECONDS), "Retrieve did not call the server");
+
+            // The change must not wait for the call to the server to finish.
+
+            assertTimeoutPreemptively(Duration.ofSeconds(5), () -> cacheAspect.setStatefulBehaviour(CacheStatefulBehaviour.EXACT),
+                                      "Changing the behaviour waited for a load in progress");
+
+            release.countDown();
+            assertSame(a1, retrieved.get(30, TimeUnit.SECONDS), "Did not return a1");
+        }
+        finally
+        {
+            release.countDown();
+            executor.shutdownNow();
+        }
+
+        // The entity fetched is in the cache and later calls follow the new behaviour:
+        // the same state is a hit, but an earlier state is fetched.
+
+        assertSame(a1, cacheAspect.retrieve(pjp1), "Did not return cached a1");
+        verify(pjp1, times(1)).proceed();
+
+        assertSame(a0, cacheAspect.retrieve(pjp0), "Did not fetch a0 with exact behaviour");
+        verify(pjp0, times(1)).proceed();
+    }
+
+    @Test
+    public void testBulkUpdatePartialFailure() throws Throwable
+    {
+        // Of three containers, the first was written and fetched back, the second
+        // was written but not fetched back and the third was not written.
+
+        cacheAspect.getCache(Container.class).clear();
+
+        String base = "http://limsdev.cri.camres.org:8080/api/v2/";
+
+        Container[] cached = new Container[3];
+        Container[] updated = new Container[3];
+        for (int i = 0; i < 3; i++)
+        {
+            URI uri = new URI(base + "containers/27-50" + i);
+            cached[i] = new Container(uri, "27-50" + i);
+            cached[i].setName("Old name " + i);
+            assertTrue(cacheAspect.storeIfAbsent(cached[i]), "Container " + i + " not stored");
+
+            updated[i] = new Container(uri, "27-50" + i);
+            updated[i].setName("New name " + i);
+        }
+
+        ClarityBulkOperationException failure =
+                new ClarityBulkOperationException("Failed", new IOException("Connection reset"), 3,
+                                                  List.of(0, 1), List.of(updated[0], updated[1]),
+                                                  List.of(new Link(updated[0]), new Link(updated[1])),
+                                                  List.of(1), List.of(updated[1]), List.of(new Link(updated[1])));
+
+        ProceedingJoinPoint pjp = mock(ProceedingJoinPoint.class);
+        when(pjp.getArgs()).thenReturn(new Object[] { Arrays.asList(updated) });
+        when(pjp.proceed()).thenThrow(failure);
+
+        try
+        {
+            assertSame(failure, assertThrows(ClarityBulkOperationException.class, () -> cacheAspect.updateAll(pjp)),
+                       "Bulk operation exception not rethrown");
+
+            var cache = cacheAspect.getCache(Container.class);
+            assertSame(updated[0], cacheAspect.getFromWrapper(cache.get(cacheAspect.keyFromLocatable(updated[0]))),
+                       "Committed container not cached");
+            assertNull(cache.get(cacheAspect.keyFromLocatable(updated[1])), "Container not fetched back is still cached");
+            assertSame(cached[2], cacheAspect.getFromWrapper(cache.get(cacheAspect.keyFromLocatable(updated[2]))),
+                       "Container not written has changed in the cache");
+        }
+        finally
+        {
+            cacheAspect.getCache(Container.class).clear();
+        }
+    }
+
     @Test
     public void testLoadOrRetrieveLatest() throws Throwable
     {
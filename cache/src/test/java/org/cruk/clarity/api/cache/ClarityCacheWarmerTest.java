@@ -0,0 +1,196 @@
+/*
+ * CRUK-CI Clarity REST API Java Client.
+ * Copyright (C) 2013 Cancer Research UK Cambridge Institute.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cruk.clarity.api.cache;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.cruk.clarity.api.ClarityAPI;
+import org.cruk.clarity.api.cache.unittests.ClarityClientCacheTestConfiguration;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.junit.jupiter.SpringJUnitConfig;
+
+import com.genologics.ri.LimsLink;
+import com.genologics.ri.Locatable;
+import com.genologics.ri.stage.Stage;
+import com.genologics.ri.workflowconfiguration.StageLink;
+import com.genologics.ri.workflowconfiguration.Workflow;
+
+@SpringJUnitConfig(classes = ClarityClientCacheTestConfiguration.class)
+public class ClarityCacheWarmerTest
+{
+    private static final String BASE = "https://claritytest.cruk.cam.ac.uk/api/v2/";
+
+    @Autowired
+    protected ClarityAPICache cacheAspect;
+
+    @TempDir
+    protected Path tempDir;
+
+    private ClarityAPI api;
+
+    private Map<URI, Locatable> server;
+
+    private Workflow workflow;
+
+    public ClarityCacheWarmerTest()
+    {
+    }
+
+    @BeforeEach
+    public void setup()
+    {
+        server = new HashMap<>();
+
+        workflow = new Workflow(URI.create(BASE + "configuration/workflows/101"), "Sequencing");
+        for (int i = 1; i <= 3; i++)
+        {
+            Stage stage = new Stage(URI.create(BASE + "configuration/workflows/101/stages/20" + i), "Stage " + i);
+            workflow.getStages().add(new StageLink(stage));
+            server.put(stage.getUri(), stage);
+        }
+        server.put(workflow.getUri(), workflow);
+
+        api = mock(ClarityAPI.class);
+        when(api.getServerApiAddress()).thenReturn(BASE);
+        when(api.listAll(Workflow.class)).thenReturn(List.<LimsLink<Workflow>>of(workflow.getLink()));
+        when(api.loadAll(any())).thenAnswer(invocation ->
+        {
+            Collection<? extends LimsLink<?>> links = invocation.getArgument(0);
+            return links.stream().map(link -> server.get(link.getUri())).toList();
+        });
+
+        cacheAspect.getCache(Workflow.class).clear();
+        cacheAspect.getCache(Stage.class).clear();
+    }
+
+    @AfterEach
+    public void cleanup()
+    {
+        cacheAspect.getCache(Workflow.class).clear();
+        cacheAspect.getCache(Stage.class).clear();
+    }
+
+    @Test
+    public void testWarmUpChildren()
+    {
+        try (ClarityCacheWarmer warmer = new ClarityCacheWarmer(api, cacheAspect))
+        {
+            int count = warmer.warmUp(Stage.class, Workflow.class);
+
+            assertEquals(4, count, "Number of entities fetched wrong");
+            verify(api, times(1)).listAll(Workflow.class);
+            verify(api, never()).listAll(Stage.class);
+            verify(api, times(2)).loadAll(any());
+        }
+    }
+
+    @Test
+    public void testSnapshot() throws IOException
+    {
+        Path snapshot = tempDir.resolve("clarity.cache");
+        List<Class<? extends Locatable>> classes = List.of(Workflow.class, Stage.class);
+
+        server.values().forEach(cacheAspect::storeIfAbsent);
+
+        try (ClarityCacheWarmer warmer = new ClarityCacheWarmer(api, cacheAspect))
+        {
+            assertFalse(warmer.readSnapshot(snapshot, Duration.ofHours(1)), "Missing snapshot used");
+
+            assertEquals(4, warmer.writeSnapshot(snapshot, classes), "Number of entities written wrong");
+            assertTrue(Files.exists(snapshot), "Snapshot not written");
+
+            cacheAspect.getCache(Workflow.class).clear();
+            cacheAspect.getCache(Stage.class).clear();
+
+            assertTrue(warmer.readSnapshot(snapshot, Duration.ofHours(1)), "Fresh snapshot not used");
+            assertEquals(1, cacheAspect.getCachedEntities(Workflow.class).size(), "Workflows not restored");
+            assertEquals(3, cacheAspect.getCachedEntities(Stage.class).size(), "Stages not restored");
+
+            Workflow restored = (Workflow)cacheAspect.getCachedEntities(Workflow.class).get(0);
+            assertEquals(workflow.getName(), restored.getName(), "Workflow name wrong");
+            assertEquals(3, restored.getStages().size(), "Workflow stages wrong");
+
+            // A snapshot with all the classes needed means no calls to the server.
+
+            assertTrue(warmer.warmUp(snapshot, Duration.ofHours(1), classes), "Snapshot not used for warm up");
+            verify(api, never()).listAll(any());
+
+        }
+    }
+
+    @Test
+    public void testSnapshotRejected() throws Exception
+    {
+        Path snapshot = tempDir.resolve("clarity.cache");
+
+        server.values().forEach(cacheAspect::storeIfAbsent);
+
+        try (ClarityCacheWarmer warmer = new ClarityCacheWarmer(api, cacheAspect))
+        {
+            warmer.writeSnapshot(snapshot, List.of(Workflow.class));
+
+            Thread.sleep(10L);
+            assertFalse(warmer.readSnapshot(snapshot, Duration.ZERO), "Stale snapshot used");
+
+            // A snapshot without all the classes needed is replaced from the server.
+
+            assertFalse(warmer.warmUp(snapshot, Duration.ofHours(1), List.of(Workflow.class, Stage.class)),
+                        "Snapshot without stages used");
+            verify(api, times(1)).listAll(Workflow.class);
+            assertTrue(warmer.readSnapshot(snapshot, Duration.ofHours(1)), "Rewritten snapshot not used");
+        }
+
+        ClarityAPI otherApi = mock(ClarityAPI.class);
+        when(otherApi.getServerApiAddress()).thenReturn("https://otherclarity.cruk.cam.ac.uk/api/v2/");
+
+        try (ClarityCacheWarmer warmer = new ClarityCacheWarmer(otherApi, cacheAspect))
+        {
+            assertFalse(warmer.readSnapshot(snapshot, Duration.ofHours(1)), "Snapshot for another server used");
+        }
+
+        Files.write(snapshot, new byte[] { 1, 2, 3 });
+
+        try (ClarityCacheWarmer warmer = new ClarityCacheWarmer(api, cacheAspect))
+        {
+            assertFalse(warmer.readSnapshot(snapshot, Duration.ofHours(1)), "Corrupt snapshot used");
+        }
+    }
+}
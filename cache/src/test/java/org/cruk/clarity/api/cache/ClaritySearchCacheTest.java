@@ -0,0 +1,201 @@
+/*
+ * CRUK-CI Clarity REST API Java Client.
+ * Copyright (C) 2013 Cancer Research UK Cambridge Institute.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cruk.clarity.api.cache;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.junit.jupiter.api.Test;
+
+import com.genologics.ri.artifact.ArtifactLink;
+import com.genologics.ri.routing.Routing;
+import com.genologics.ri.sample.Sample;
+import com.genologics.ri.sample.SampleLink;
+import com.genologics.ri.stage.ProtocolStepLink;
+
+public class ClaritySearchCacheTest
+{
+    private static final String BASE = "https://claritytest.cruk.cam.ac.uk/api/v2/";
+
+    public ClaritySearchCacheTest()
+    {
+    }
+
+    private ProceedingJoinPoint joinPoint(Object result, Object... args) throws Throwable
+    {
+        ProceedingJoinPoint pjp = mock(ProceedingJoinPoint.class);
+        when(pjp.getArgs()).thenReturn(args);
+        when(pjp.proceed()).thenReturn(result);
+        return pjp;
+    }
+
+    @Test
+    public void testFind() throws Throwable
+    {
+        ClaritySearchCache cache = new ClaritySearchCache();
+
+        List<SampleLink> links = List.of(new SampleLink(URI.create(BASE + "samples/ABC1"), "ABC1"));
+
+        Map<String, Object> terms1 = new LinkedHashMap<>();
+        terms1.put("name", List.of("Sample 1", "Sample 2"));
+        terms1.put("projectname", "Project X");
+
+        // The same terms in a different order.
+        Map<String, Object> terms2 = new LinkedHashMap<>();
+        terms2.put("projectname", "Project X");
+        terms2.put("name", List.of("Sample 2", "Sample 1"));
+
+        ProceedingJoinPoint find1 = joinPoint(links, terms1, Sample.class);
+        ProceedingJoinPoint find2 = joinPoint(links, terms2, Sample.class);
+
+        Object first = cache.find(find1);
+        Object second = cache.find(find2);
+
+        assertEquals(links, first, "First search results wrong");
+        assertEquals(links, second, "Second search results wrong");
+        assertNotSame(first, second, "Same list returned to both searches");
+        verify(find1, times(1)).proceed();
+        verify(find2, times(0)).proceed();
+        assertEquals(1L, cache.getHits(), "Hits wrong");
+        assertEquals(1L, cache.getMisses(), "Misses wrong");
+
+        // Creating a sample forgets the sample searches.
+
+        // Each search gets its own links, so changing them does not change the cache.
+
+        @SuppressWarnings("unchecked")
+        List<SampleLink> secondLinks = (List<SampleLink>)second;
+        assertNotSame(links.get(0), secondLinks.get(0), "Remembered link returned");
+        secondLinks.get(0).setLimsid("XYZ9");
+        secondLinks.clear();
+
+        @SuppressWarnings("unchecked")
+        List<SampleLink> third = (List<SampleLink>)cache.find(find2);
+        assertEquals(links, third, "Remembered results changed by the caller");
+        assertEquals("ABC1", third.get(0).getLimsid(), "Remembered link changed by the caller");
+        verify(find2, times(0)).proceed();
+
+        ProceedingJoinPoint create = joinPoint(null, new Sample());
+        cache.change(create);
+        assertEquals(0, cache.size(Sample.class), "Searches not forgotten on create");
+
+        cache.find(find2);
+        verify(find2, times(1)).proceed();
+    }
+
+    @Test
+    public void testListQueue() throws Throwable
+    {
+        ClaritySearchCache cache = new ClaritySearchCache();
+
+        List<ArtifactLink> links = List.of(new ArtifactLink(URI.create(BASE + "artifacts/2-1000"), "2-1000"));
+
+        ProtocolStepLink step1 = new ProtocolStepLink(URI.create(BASE + "configuration/protocols/1/steps/11"));
+        ProtocolStepLink step1Other = new ProtocolStepLink(URI.create("http://otherhost/api/v2/configuration/protocols/1/steps/11"));
+        ProtocolStepLink step2 = new ProtocolStepLink(URI.create(BASE + "configuration/protocols/1/steps/12"));
+
+        ProceedingJoinPoint queue1 = joinPoint(links, step1);
+        ProceedingJoinPoint queue1Other = joinPoint(links, step1Other, Map.of());
+        ProceedingJoinPoint queue2 = joinPoint(links, step2);
+
+        cache.listQueue(queue1);
+        cache.listQueue(queue1Other);
+        cache.listQueue(queue2);
+
+        verify(queue1, times(1)).proceed();
+        verify(queue1Other, times(0)).proceed();
+        verify(queue2, times(1)).proceed();
+
+        // Routing artifacts forgets the queues.
+
+        ProceedingJoinPoint route = joinPoint(null, new Routing());
+        cache.moveArtifacts(route);
+
+        cache.listQueue(queue1);
+        verify(queue1, times(2)).proceed();
+    }
+
+    @Test
+    public void testChangeDuringSearch() throws Throwable
+    {
+        ClaritySearchCache cache = new ClaritySearchCache();
+
+        List<SampleLink> links = new ArrayList<>();
+        links.add(new SampleLink(URI.create(BASE + "samples/ABC1"), "ABC1"));
+
+        ProceedingJoinPoint find = joinPoint(links, Map.of("name", "Sample 1"), Sample.class);
+
+        // A sample is changed while the search is at the server.
+        doAnswer(invocation ->
+        {
+            cache.clear(Sample.class);
+            return links;
+        })
+        .when(find).proceed();
+
+        cache.find(find);
+        assertEquals(0, cache.size(Sample.class), "Results of search overlapping a change kept");
+
+        // Changing the results after they are remembered does not change the cache.
+
+        ProceedingJoinPoint find2 = joinPoint(links, Map.of("name", "Sample 2"), Sample.class);
+        cache.find(find2);
+        links.get(0).setLimsid("XYZ9");
+        links.clear();
+
+        @SuppressWarnings("unchecked")
+        List<SampleLink> remembered = (List<SampleLink>)cache.find(find2);
+        verify(find2, times(1)).proceed();
+        assertEquals(1, remembered.size(), "Remembered results changed");
+        assertEquals("ABC1", remembered.get(0).getLimsid(), "Remembered link changed");
+    }
+
+    @Test
+    public void testExpiryAndSize() throws Throwable
+    {
+        ClaritySearchCache cache = new ClaritySearchCache(Duration.ofMillis(20), 2);
+
+        List<SampleLink> links = List.of();
+
+        ProceedingJoinPoint find = joinPoint(links, Map.of("name", "Sample 1"), Sample.class);
+        cache.find(find);
+        Thread.sleep(50L);
+        cache.find(find);
+        verify(find, times(2)).proceed();
+
+        for (int i = 0; i < 5; i++)
+        {
+            cache.find(joinPoint(links, Map.of("name", "Sample " + i), Sample.class));
+        }
+        assertEquals(2, cache.size(Sample.class), "Searches not bounded");
+    }
+}
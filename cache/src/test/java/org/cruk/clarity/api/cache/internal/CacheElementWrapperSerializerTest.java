@@ -0,0 +1,88 @@
+/*
+ * CRUK-CI Clarity REST API Java Client.
+ * Copyright (C) 2013 Cancer Research UK Cambridge Institute.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cruk.clarity.api.cache.internal;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.ObjectOutputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+
+import org.ehcache.spi.serialization.SerializerException;
+import org.junit.jupiter.api.Test;
+
+import com.genologics.ri.sample.Sample;
+import com.genologics.ri.userdefined.UDF;
+
+public class CacheElementWrapperSerializerTest
+{
+    @Test
+    public void testRoundTrip() throws Exception
+    {
+        Sample sample = new Sample(new URI("http://limsdev.cri.camres.org:8080/api/v2/samples/ABC123"), "ABC123");
+        sample.setName("Serialised");
+        sample.getUserDefinedFields().add(new UDF("Field", "Value"));
+
+        CacheElementWrapper original = new CacheElementWrapper(sample, 1234L);
+
+        CacheElementWrapperSerializer serializer = new CacheElementWrapperSerializer(getClass().getClassLoader());
+
+        ByteBuffer binary = serializer.serialize(original);
+        int position = binary.position();
+
+        CacheElementWrapper copy = serializer.read(binary);
+
+        assertEquals(position, binary.position(), "Buffer position changed by read");
+        assertEquals(1234L, copy.getVersion(), "Version wrong");
+
+        Sample copySample = (Sample)copy.getEntity();
+        assertEquals(sample.getUri(), copySample.getUri(), "URI wrong");
+        assertEquals("Serialised", copySample.getName(), "Name wrong");
+        assertEquals("Value", copySample.getUserDefinedFields().get(0).getValue(), "UDF wrong");
+
+        assertTrue(serializer.equals(original, binary), "Serialised forms not equal");
+    }
+
+    @Test
+    public void testFiltered() throws Exception
+    {
+        // An element as it would be written, but holding a class that is not part of the model.
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream dataOut = new DataOutputStream(bytes))
+        {
+            dataOut.writeLong(1L);
+            dataOut.flush();
+
+            try (ObjectOutputStream objectOut = new ObjectOutputStream(dataOut))
+            {
+                objectOut.writeObject(new File("/tmp"));
+            }
+        }
+
+        CacheElementWrapperSerializer serializer = new CacheElementWrapperSerializer(getClass().getClassLoader());
+
+        assertThrows(SerializerException.class, () -> serializer.read(ByteBuffer.wrap(bytes.toByteArray())),
+                     "Class outside the model read from the cache");
+    }
+}
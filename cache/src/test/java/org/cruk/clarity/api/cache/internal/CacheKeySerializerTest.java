@@ -0,0 +1,65 @@
+/*
+ * CRUK-CI Clarity REST API Java Client.
+ * Copyright (C) 2013 Cancer Research UK Cambridge Institute.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cruk.clarity.api.cache.internal;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.URI;
+import java.nio.ByteBuffer;
+
+import org.cruk.clarity.api.cache.CacheKey;
+import org.junit.jupiter.api.Test;
+
+import com.genologics.ri.artifact.Artifact;
+import com.genologics.ri.sample.Sample;
+
+public class CacheKeySerializerTest
+{
+    @Test
+    public void testRoundTrip() throws Exception
+    {
+        CacheKey original = CacheKey.of(Artifact.class, new URI("http://limsdev.cri.camres.org:8080/api/v2/artifacts/2-1000624?state=1234"));
+
+        CacheKeySerializer serializer = new CacheKeySerializer(getClass().getClassLoader());
+
+        ByteBuffer binary = serializer.serialize(original);
+        int position = binary.position();
+
+        CacheKey copy = serializer.read(binary);
+
+        assertEquals(position, binary.position(), "Buffer position changed by read");
+        assertSame(Artifact.class, copy.getEntityClass(), "Class wrong");
+        assertEquals("limsdev.cri.camres.org:8080", copy.getServer(), "Server wrong");
+        assertEquals("artifacts/2-1000624", copy.getPath(), "Path wrong");
+        assertEquals(original, copy, "Keys not equal");
+        assertEquals(original.hashCode(), copy.hashCode(), "Hash codes not equal");
+
+        assertTrue(serializer.equals(original, binary), "Serialised forms not equal");
+        assertFalse(serializer.equals(new CacheKey(Sample.class, "limsdev.cri.camres.org:8080", "artifacts/2-1000624"), binary),
+                    "Different class has equal serialised form");
+        assertFalse(serializer.equals(new CacheKey(Artifact.class, "otherhost:8080", "artifacts/2-1000624"), binary),
+                    "Different server has equal serialised form");
+
+        CacheKey noServer = new CacheKey(Artifact.class, "artifacts/2-1000624");
+        assertEquals(noServer, serializer.read(serializer.serialize(noServer)), "Key without a server not equal after round trip");
+    }
+}
@@ -47,6 +47,9 @@ open module org.cruk.clarity.api
 
     requires org.slf4j;
 
+    requires java.management;
+    requires static micrometer.core;
+
     requires transitive spring.aop;
     requires transitive spring.beans;
     requires transitive spring.core;
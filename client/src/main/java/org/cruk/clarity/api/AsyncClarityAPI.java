@@ -0,0 +1,478 @@
+/*
+ * CRUK-CI Clarity REST API Java Client.
+ * Copyright (C) 2013 Cancer Research UK Cambridge Institute.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cruk.clarity.api;
+
+import java.io.Closeable;
+import java.net.URI;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import com.genologics.ri.LimsEntity;
+import com.genologics.ri.LimsEntityLink;
+import com.genologics.ri.LimsLink;
+import com.genologics.ri.Linkable;
+import com.genologics.ri.Locatable;
+import com.genologics.ri.artifact.Artifact;
+import com.genologics.ri.stepconfiguration.ProtocolStep;
+
+/**
+ * Asynchronous facade over a {@link ClarityAPI}. Each method runs the equivalent
+ * call on the API on an executor and returns a {@code CompletableFuture} for its
+ * result, allowing several calls to the server to be in progress at once and
+ * composed together.
+ *
+ * <p>
+ * The calls are made through the API object given, so when this is the Spring
+ * {@code clarityAPI} bean any aspects around it (such as the cache) work exactly
+ * as they do for synchronous calls.
+ * </p>
+ *
+ * <p>
+ * As with the synchronous API, {@link #overrideStateful(StatefulOverride)} affects
+ * only the next call made through this object on the calling thread. The override
+ * is carried across to the thread that performs the call.
+ * </p>
+ *
+ * @since 2.34
+ */
+public class AsyncClarityAPI implements Closeable
+{
+    /**
+     * The API the calls are made on.
+     */
+    private final ClarityAPI api;
+
+    /**
+     * The executor the calls run on.
+     */
+    private final Executor executor;
+
+    /**
+     * Flag indicating that the executor was created by this object and so should
+     * be shut down by it.
+     */
+    private final boolean ownExecutor;
+
+    /**
+     * Override for stateful entities for the next call made on the calling thread.
+     */
+    private final ThreadLocal<StatefulOverride> statefulOverride = new ThreadLocal<StatefulOverride>();
+
+
+    /**
+     * Constructor with the API to call. A pool of daemon threads is created
+     * to make the calls.
+     *
+     * @param api The Clarity API.
+     *
+     * @throws IllegalArgumentException if {@code api} is null.
+     */
+    public AsyncClarityAPI(ClarityAPI api)
+    {
+        this(api, createDefaultExecutor(), true);
+    }
+
+    /**
+     * Constructor with the API to call and the executor to run the calls on.
+     *
+     * @param api The Clarity API.
+     * @param executor The executor to make the calls with.
+     *
+     * @throws IllegalArgumentException if either argument is null.
+     */
+    public AsyncClarityAPI(ClarityAPI api, Executor executor)
+    {
+        this(api, executor, false);
+    }
+
+    /**
+     * Internal constructor.
+     *
+     * @param api The Clarity API.
+     * @param executor The executor to make the calls with.
+     * @param ownExecutor Whether this object created the executor.
+     */
+    private AsyncClarityAPI(ClarityAPI api, Executor executor, boolean ownExecutor)
+    {
+        if (api == null)
+        {
+            throw new IllegalArgumentException("api cannot be null");
+        }
+        if (executor == null)
+        {
+            throw new IllegalArgumentException("executor cannot be null");
+        }
+        this.api = api;
+        this.executor = executor;
+        this.ownExecutor = ownExecutor;
+    }
+
+    /**
+     * Create the default executor: a cached pool of daemon threads.
+     *
+     * @return A new executor service.
+     */
+    private static ExecutorService createDefaultExecutor()
+    {
+        final AtomicInteger threadCount = new AtomicInteger();
+
+        return Executors.newCachedThreadPool(r ->
+        {
+            Thread t = new Thread(r, "clarity-async-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Get the synchronous API this object makes its calls on.
+     *
+     * @return The Clarity API.
+     */
+    public ClarityAPI getClarityAPI()
+    {
+        return api;
+    }
+
+    /**
+     * Shut down the executor if it was created by this object. An executor
+     * supplied to the constructor is left alone.
+     */
+    @Override
+    public void close()
+    {
+        if (ownExecutor)
+        {
+            ((ExecutorService)executor).shutdown();
+        }
+    }
+
+    /**
+     * Forces the API to fetch stateful entities according to the rule given for
+     * the next call made through this object on the current thread only.
+     *
+     * @param override The behaviour to use in the next call. If null, it will
+     * cancel a previously set override.
+     *
+     * @see ClarityAPI#overrideStateful(StatefulOverride)
+     */
+    public void overrideStateful(StatefulOverride override)
+    {
+        statefulOverride.set(override);
+    }
+
+    /**
+     * Run a call to the API on the executor. Any stateful override set for the
+     * current thread is taken and applied on the thread that makes the call.
+     *
+     * @param <R> The type of result from the call.
+     * @param call The call to make.
+     *
+     * @return A future for the result of the call.
+     */
+    protected <R> CompletableFuture<R> submit(Supplier<R> call)
+    {
+        final StatefulOverride override = statefulOverride.get();
+        statefulOverride.remove();
+
+        return CompletableFuture.supplyAsync(() ->
+        {
+            if (override != null)
+            {
+                api.overrideStateful(override);
+            }
+            return call.get();
+        },
+        executor);
+    }
+
+    /**
+     * Run a call to the API that has no result on the executor.
+     *
+     * @param call The call to make.
+     *
+     * @return A future that completes when the call has finished.
+     */
+    protected CompletableFuture<Void> submit(Runnable call)
+    {
+        return submit(() ->
+        {
+            call.run();
+            return null;
+        });
+    }
+
+    // Retrieval methods
+
+    /**
+     * Asynchronously list all the objects of the given entity class.
+     *
+     * @param <E> The type of LIMS entity referred to.
+     * @param entityClass The type of entity to list.
+     *
+     * @return A future for the list of links to the real entities in the LIMS.
+     *
+     * @see ClarityAPI#listAll(Class)
+     */
+    public <E extends Locatable>
+    CompletableFuture<List<LimsLink<E>>> listAllAsync(Class<E> entityClass)
+    {
+        return submit(() -> api.listAll(entityClass));
+    }
+
+    /**
+     * Asynchronously search for entities of the given type based on name value pairs.
+     *
+     * @param <E> The type of LIMS entity referred to.
+     * @param searchTerms The terms to use for the search.
+     * @param entityClass The type of entity to list.
+     *
+     * @return A future for the list of links to the real entities in the LIMS.
+     *
+     * @see ClarityAPI#find(Map, Class)
+     */
+    public <E extends Locatable>
+    CompletableFuture<List<LimsLink<E>>> findAsync(Map<String, ?> searchTerms, Class<E> entityClass)
+    {
+        return submit(() -> api.find(searchTerms, entityClass));
+    }
+
+    /**
+     * Asynchronously list the artifacts in the queue for the given protocol step.
+     *
+     * @param protocolStep The protocol step of the queue (or a link to it).
+     * @param searchTerms The terms to use for the search. May be null.
+     *
+     * @return A future for the links to the artifacts in the queue.
+     *
+     * @see ClarityAPI#listQueue(Linkable, Map)
+     */
+    public CompletableFuture<List<LimsEntityLink<Artifact>>> listQueueAsync(Linkable<ProtocolStep> protocolStep, Map<String, ?> searchTerms)
+    {
+        return submit(() -> api.listQueue(protocolStep, searchTerms));
+    }
+
+    /**
+     * Asynchronously retrieve an entity by its URI.
+     *
+     * @param <E> The type of LIMS entity referred to.
+     * @param uri The URI to retrieve.
+     * @param entityClass The type of entity to fetch.
+     *
+     * @return A future for the LIMS entity.
+     *
+     * @see ClarityAPI#retrieve(URI, Class)
+     */
+    public <E extends Locatable>
+    CompletableFuture<E> retrieveAsync(URI uri, Class<E> entityClass)
+    {
+        return submit(() -> api.retrieve(uri, entityClass));
+    }
+
+    /**
+     * Asynchronously retrieve an entity by its URI in string form.
+     *
+     * @param <E> The type of LIMS entity referred to.
+     * @param uri The URI to retrieve.
+     * @param entityClass The type of entity to fetch.
+     *
+     * @return A future for the LIMS entity.
+     *
+     * @see ClarityAPI#retrieve(String, Class)
+     */
+    public <E extends Locatable>
+    CompletableFuture<E> retrieveAsync(String uri, Class<E> entityClass)
+    {
+        return submit(() -> api.retrieve(uri, entityClass));
+    }
+
+    /**
+     * Asynchronously load an entity by its LIMS id.
+     *
+     * @param <E> The type of LIMS entity referred to.
+     * @param limsid The LIMS id of the entity.
+     * @param entityClass The type of entity to fetch.
+     *
+     * @return A future for the LIMS entity.
+     *
+     * @see ClarityAPI#load(String, Class)
+     */
+    public <E extends Locatable>
+    CompletableFuture<E> loadAsync(String limsid, Class<E> entityClass)
+    {
+        return submit(() -> api.load(limsid, entityClass));
+    }
+
+    /**
+     * Asynchronously load an entity using a link to that entity.
+     *
+     * @param <E> The type of LIMS entity referred to.
+     * @param link The link to the LIMS entity.
+     *
+     * @return A future for the LIMS entity.
+     *
+     * @see ClarityAPI#load(LimsLink)
+     */
+    public <E extends Locatable>
+    CompletableFuture<E> loadAsync(LimsLink<E> link)
+    {
+        return submit(() -> api.load(link));
+    }
+
+    /**
+     * Asynchronously fetch a collection of LIMS entities.
+     *
+     * @param <E> The type of LIMS entity referred to.
+     * @param links The collection of links to the entities.
+     *
+     * @return A future for the list of LIMS entities, in the same order as the links.
+     *
+     * @see ClarityAPI#loadAll(Collection)
+     */
+    public <E extends Locatable>
+    CompletableFuture<List<E>> loadAllAsync(Collection<? extends LimsLink<E>> links)
+    {
+        return submit(() -> api.loadAll(links));
+    }
+
+    /**
+     * Asynchronously reload an entity in-situ.
+     *
+     * @param <E> The type of LIMS entity referred to.
+     * @param entity The LimsEntity to refresh.
+     *
+     * @return A future that completes when the entity has been refreshed.
+     *
+     * @see ClarityAPI#reload(LimsEntity)
+     */
+    public <E extends LimsEntity<E>>
+    CompletableFuture<Void> reloadAsync(E entity)
+    {
+        return submit(() -> api.reload(entity));
+    }
+
+    // Create methods
+
+    /**
+     * Asynchronously create an instance of the given entity on the server.
+     *
+     * @param <E> The type of LIMS entity.
+     * @param entity The entity object to create in the LIMS.
+     *
+     * @return A future that completes when the entity has been created.
+     *
+     * @see ClarityAPI#create(Locatable)
+     */
+    public <E extends Locatable>
+    CompletableFuture<Void> createAsync(E entity)
+    {
+        return submit(() -> api.create(entity));
+    }
+
+    /**
+     * Asynchronously create a batch of entities on the server.
+     *
+     * @param <E> The type of LIMS entity.
+     * @param entities The entity objects to create in the LIMS.
+     *
+     * @return A future that completes when the entities have been created.
+     *
+     * @see ClarityAPI#createAll(Collection)
+     */
+    public <E extends Locatable>
+    CompletableFuture<Void> createAllAsync(Collection<E> entities)
+    {
+        return submit(() -> api.createAll(entities));
+    }
+
+    // Update methods
+
+    /**
+     * Asynchronously update the given entity on the server.
+     *
+     * @param <E> The type of LIMS entity.
+     * @param entity The entity to update.
+     *
+     * @return A future that completes when the entity has been updated.
+     *
+     * @see ClarityAPI#update(Locatable)
+     */
+    public <E extends Locatable>
+    CompletableFuture<Void> updateAsync(E entity)
+    {
+        return submit(() -> api.update(entity));
+    }
+
+    /**
+     * Asynchronously update a batch of entities on the server.
+     *
+     * @param <E> The type of LIMS entity.
+     * @param entities The entities to update.
+     *
+     * @return A future that completes when the entities have been updated.
+     *
+     * @see ClarityAPI#updateAll(Collection)
+     */
+    public <E extends Locatable>
+    CompletableFuture<Void> updateAllAsync(Collection<E> entities)
+    {
+        return submit(() -> api.updateAll(entities));
+    }
+
+    // Delete methods
+
+    /**
+     * Asynchronously delete an entity from the server.
+     *
+     * @param <E> The type of LIMS entity.
+     * @param entity The entity to delete.
+     *
+     * @return A future that completes when the entity has been deleted.
+     *
+     * @see ClarityAPI#delete(Locatable)
+     */
+    public <E extends Locatable>
+    CompletableFuture<Void> deleteAsync(E entity)
+    {
+        return submit(() -> api.delete(entity));
+    }
+
+    /**
+     * Asynchronously delete a batch of entities from the server.
+     *
+     * @param <E> The type of LIMS entity.
+     * @param entities The entities to delete.
+     *
+     * @return A future for the outcome of deleting each entity.
+     *
+     * @see ClarityAPI#deleteAll(Collection)
+     */
+    public <E extends Locatable>
+    CompletableFuture<DeleteResults<E>> deleteAllAsync(Collection<E> entities)
+    {
+        return submit(() -> api.deleteAll(entities));
+    }
+}
@@ -26,6 +26,8 @@ import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 import org.apache.hc.client5.http.auth.Credentials;
 import org.springframework.web.client.HttpClientErrorException;
@@ -214,6 +216,14 @@ public interface ClarityAPI
      *
      * <li>{@code batch.size} - The maximum number of objects to fetch/create/update in one call to the API
      *          (see {@link #setBulkOperationBatchSize(int)}).</li>
+     * <li>{@code batch.concurrency} - The maximum number of batches of a bulk operation to send to
+     *          the API at the same time (see {@link #setBulkOperationConcurrency(int)}).</li>
+     * <li>{@code search.max.query.length} - The longest query string, once URL encoded, to send
+     *          for searches and queue listings. Longer searches are split into several searches whose
+     *          results are merged (default 4000).</li>
+     * <li>{@code batch.coalesce.window} - The time in milliseconds that a single {@code load} or
+     *          {@code retrieve} waits for the same from other threads so they can be fetched together
+     *          with one batch retrieve. Zero (the default) turns this off.</li>
      * <li>{@code http.upload} - Whether to use the HTTP file upload mechanism introduced with Clarity 4.0
      *          (see {@link #setUploadOverHttp(boolean)}).</li>
      * <li>{@code http.upload.maximum} - The maximum size of file that can be uploaded over HTTP
@@ -223,6 +233,21 @@ public interface ClarityAPI
      * <li>{@code http.direct.download} - Whether to download files in a HTTP file store directly from
      *          their server or whether to download through the Clarity API
      *          (see {@link #setDownloadDirectFromHttpStore(boolean)}).</li>
+     *
+     * <li>{@code http.pool.max.per.route} - The maximum number of HTTP connections to the server
+     *          (default 2).</li>
+     * <li>{@code http.pool.max.total} - The maximum number of HTTP connections in total
+     *          (default 4).</li>
+     * <li>{@code http.pool.ttl} - The time in milliseconds after which a connection is not reused.
+     *          Zero or less means no limit.</li>
+     * <li>{@code http.pool.validate.after.inactivity} - The time in milliseconds a connection can be
+     *          idle before it is checked before reuse.</li>
+     * <li>{@code http.pool.idle.eviction} - The time in milliseconds after which idle connections
+     *          are closed. Zero or less means they are not closed.</li>
+     * <li>{@code http.keep.alive} - The time in milliseconds to keep connections alive between
+     *          requests, if the server doesn't specify a shorter time.</li>
+     * <li>{@code http.compression} - Whether to ask the server for gzip or deflate compressed
+     *          responses (default false).</li>
      * </ul>
      *
      * <p>
@@ -267,6 +292,42 @@ public interface ClarityAPI
      */
     void setBulkOperationBatchSize(int batchSize);
 
+    /**
+     * Set the number of batches of a bulk operation that can be sent to the
+     * Clarity API at the same time. Where a bulk operation is split into several
+     * batches (see {@link #setBulkOperationBatchSize(int)}), this many of them
+     * will be in progress at once. The results are always returned in the order
+     * requested, whatever order the batches complete in.
+     *
+     * <p>
+     * This setting also applies to listing and searching, where up to this many
+     * pages of results will be requested at the same time, to deleting, where
+     * it is the number of individual deletes in progress at once, and to
+     * {@code loadAll} for entities that have no batch retrieve, where it is the
+     * number of individual fetches in progress at once.
+     * </p>
+     *
+     * <p>
+     * The default is one, meaning batches are sent one after the other. Note that
+     * there is little to be gained from setting this higher than the number of
+     * connections the HTTP client is allowed to make to the server.
+     * </p>
+     *
+     * @param concurrency The number of batches to send at the same time.
+     * A maximum of 32 is imposed. If this argument is less than or equal to zero,
+     * batches are sent one at a time.
+     *
+     * @since 2.34
+     *
+     * @see #loadAll(Collection)
+     * @see #createAll(Collection)
+     * @see #updateAll(Collection)
+     * @see #deleteAll(Collection)
+     * @see #listAll(Class)
+     * @see #find(Map, Class)
+     */
+    void setBulkOperationConcurrency(int concurrency);
+
     /**
      * Set whether uploads over HTTP are permitted using the {@code files/id/upload}
      * API end point, or whether only SFTP uploads are allowed.
@@ -482,6 +543,14 @@ public interface ClarityAPI
      * then the search will be for entities whose <i>projectname</i> attribute is
      * "{@code projectA}" or "{@code projectB}".
      *
+     * <p>
+     * If there are so many values that the query string would be too long for
+     * a URL (see the {@code search.max.query.length} configuration property), the
+     * values of the longest multi-valued term are split into several searches.
+     * These are run concurrently and their results merged, with any entity found
+     * by more than one search listed once.
+     * </p>
+     *
      * @param <E> The type of LIMS entity referred to.
      * @param searchTerms The terms to use for the search.
      * @param entityClass The type of entity to list.
@@ -497,6 +566,58 @@ public interface ClarityAPI
      */
     <E extends Locatable> List<LimsLink<E>> find(Map<String, ?> searchTerms, Class<E> entityClass);
 
+    /**
+     * Lazily list all the objects of the given entity class. Unlike {@link #listAll(Class)},
+     * the pages of links are fetched from the server only as the stream is consumed,
+     * so a caller that stops early does not fetch the whole list and the links are
+     * not all held in memory at once.
+     *
+     * <p>
+     * The stream should be closed if it is not fully consumed, for example by using it
+     * in a try-with-resources block. No further pages will be fetched once it is closed.
+     * </p>
+     *
+     * @param <E> The type of LIMS entity referred to.
+     * @param entityClass The type of entity to list.
+     *
+     * @return A sequential, ordered stream of links to the real entities in the LIMS.
+     *
+     * @throws IllegalArgumentException if {@code entityClass} is annotated to be
+     * a part of another entity (its {@code primaryEntity} attribute is set).
+     *
+     * @since 2.34
+     */
+    <E extends Locatable> Stream<LimsLink<E>> streamAll(Class<E> entityClass);
+
+    /**
+     * Lazily search for entities of the given type based on name value pairs.
+     * The search terms work exactly as for {@link #find(Map, Class)}, but the pages
+     * of links are fetched from the server only as the stream is consumed.
+     *
+     * <p>
+     * The stream should be closed if it is not fully consumed. No further pages
+     * will be fetched once it is closed.
+     * </p>
+     *
+     * @param <E> The type of LIMS entity referred to.
+     * @param searchTerms The terms to use for the search.
+     * @param entityClass The type of entity to list.
+     *
+     * @return A sequential, ordered stream of links to the real entities in the LIMS.
+     *
+     * @throws IllegalSearchTermException if any term in {@code searchTerms} is
+     * found to be illegal. See {@link IllegalSearchTermException} for details of
+     * what is illegal.
+     *
+     * @throws IllegalArgumentException if {@code entityClass} is annotated to be
+     * a part of another entity (its {@code primaryEntity} attribute is set).
+     *
+     * @since 2.34
+     *
+     * @see ClarityStreams#findAndLoad(ClarityAPI, Map, Class)
+     */
+    <E extends Locatable> Stream<LimsLink<E>> streamFind(Map<String, ?> searchTerms, Class<E> entityClass);
+
     /**
      * Retrieve an entity using a String form of its URI.
      *
@@ -601,6 +722,54 @@ public interface ClarityAPI
      */
     <E extends Locatable> List<E> loadAll(Collection<? extends LimsLink<E>> links);
 
+    /**
+     * Lazily fetch the LIMS entities given in the collection. Where the entity type
+     * has a batch retrieve, each batch call's response is read as a stream, and each
+     * entity is unmarshalled by itself as it is read, so the whole response is never
+     * in memory at once. Operations that consume the whole stream, such as
+     * {@code forEach}, are given each entity as soon as it is read; others, such as
+     * {@code iterator} or {@code findFirst}, are given the entities of a chunk once
+     * that chunk has been read.
+     *
+     * <p>
+     * The links are sent in chunks of the bulk operation batch size, one after another
+     * as the stream is consumed. Unlike {@link #loadAll(Collection)}, the entities are
+     * in the order the server returns them, which need not be the order of
+     * {@code links}, and the chunks are not fetched concurrently. Entity types without a
+     * batch retrieve are fetched one at a time as the stream reaches them.
+     * </p>
+     *
+     * <p>
+     * The stream should be closed if it is not fully consumed, for example by using it
+     * in a try-with-resources block, so no more chunks are fetched. The batch calls are
+     * made through the client's REST template, but do not go through any aspects
+     * around this API (such as the cache) other than for this method itself.
+     * </p>
+     *
+     * @param <E> The type of LIMS entity referred to.
+     * @param links The collection of links to the entities.
+     *
+     * @return A sequential stream of the LIMS entities.
+     *
+     * @since 2.34
+     *
+     * @see #forEachLoaded(Collection, Consumer)
+     */
+    <E extends Locatable> Stream<E> streamLoadAll(Collection<? extends LimsLink<E>> links);
+
+    /**
+     * Fetch the LIMS entities given in the collection, passing each to the consumer
+     * as soon as it has been read. This is {@link #streamLoadAll(Collection)} with
+     * the stream consumed and closed by this call.
+     *
+     * @param <E> The type of LIMS entity referred to.
+     * @param links The collection of links to the entities.
+     * @param consumer The receiver of each entity as it is read.
+     *
+     * @since 2.34
+     */
+    <E extends Locatable> void forEachLoaded(Collection<? extends LimsLink<E>> links, Consumer<? super E> consumer);
+
     /**
      * Reload an entity in-situ. The given object is refreshed from the server.
      *
@@ -653,8 +822,19 @@ public interface ClarityAPI
      * this is not possible, a call is made for each object. The end result is the same.
      * </p>
      *
+     * <p>
+     * Large collections are split into batches (see {@link #setBulkOperationBatchSize(int)}),
+     * several of which may be in progress at once (see {@link #setBulkOperationConcurrency(int)}).
+     * If a batch fails after it or others have been committed in the server, a
+     * {@link ClarityBulkOperationException} is thrown that says which batches were committed
+     * and which of those could not be fetched back afterwards.
+     * </p>
+     *
      * @param <E> The type of LIMS entity.
      * @param entities The entity objects to create in the LIMS.
+     *
+     * @throws ClarityBulkOperationException if the creation fails after some
+     * batches have been committed.
      */
     <E extends Locatable> void createAll(Collection<E> entities);
 
@@ -691,8 +871,19 @@ public interface ClarityAPI
      * this is not possible, a call is made for each object. The end result is the same.
      * </p>
      *
+     * <p>
+     * Large collections are split into batches (see {@link #setBulkOperationBatchSize(int)}),
+     * several of which may be in progress at once (see {@link #setBulkOperationConcurrency(int)}).
+     * If a batch fails after it or others have been committed in the server, a
+     * {@link ClarityBulkOperationException} is thrown that says which batches were committed
+     * and which of those could not be fetched back afterwards.
+     * </p>
+     *
      * @param <E> The type of LIMS entity.
      * @param entities The entities to update.
+     *
+     * @throws ClarityBulkOperationException if the update fails after some
+     * batches have been committed.
      */
     <E extends Locatable> void updateAll(Collection<E> entities);
 
@@ -717,10 +908,24 @@ public interface ClarityAPI
      * When successful, the entity objects should no longer be used.
      * </p>
      *
+     * <p>
+     * The Clarity API has no batch delete, so each entity is deleted with its own
+     * call. Up to the bulk operation concurrency number of these calls are made at
+     * the same time (see {@link #setBulkOperationConcurrency(int)}). A failure to
+     * delete one entity does not stop the others being deleted: the outcome for each
+     * entity is recorded in the result. Use {@link DeleteResults#throwIfFailed()} to
+     * raise the first failure as an exception.
+     * </p>
+     *
      * @param <E> The type of LIMS entity.
      * @param entities The entities to delete.
+     *
+     * @return The outcome of deleting each entity.
+     *
+     * @throws ClarityUpdateException if the entities cannot be deleted through the API.
+     * No deletes are attempted in this case.
      */
-    <E extends Locatable> void deleteAll(Collection<E> entities);
+    <E extends Locatable> DeleteResults<E> deleteAll(Collection<E> entities);
 
 
     // Process execution methods.
@@ -916,6 +1121,27 @@ public interface ClarityAPI
      */
     List<LimsEntityLink<Artifact>> listQueue(Linkable<ProtocolStep> protocolStep, Map<String, ?> searchTerms);
 
+    /**
+     * Lazily list the artifacts in the queue for the given protocol step, optionally
+     * filtering using the parameters available for the "queues" end point. The search
+     * terms work as for {@link #listQueue(Linkable, Map)}, but the pages of links are
+     * fetched from the server only as the stream is consumed.
+     *
+     * <p>
+     * The stream should be closed if it is not fully consumed. No further pages
+     * will be fetched once it is closed.
+     * </p>
+     *
+     * @param protocolStep The protocol step of the queue (or a link to it).
+     * @param searchTerms The terms to use for the search. May be null.
+     *
+     * @return A sequential, ordered stream of links to the artifacts currently in
+     * the given queue that meet the criteria of the search terms.
+     *
+     * @since 2.34
+     */
+    Stream<LimsEntityLink<Artifact>> streamQueue(Linkable<ProtocolStep> protocolStep, Map<String, ?> searchTerms);
+
     // Exporting the results of a saved query.
 
     /**
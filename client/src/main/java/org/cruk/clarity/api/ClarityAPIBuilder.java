@@ -0,0 +1,424 @@
+/*
+ * CRUK-CI Clarity REST API Java Client.
+ * Copyright (C) 2013 Cancer Research UK Cambridge Institute.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.cruk.clarity.api;
+
+import static jakarta.xml.bind.Marshaller.JAXB_ENCODING;
+import static jakarta.xml.bind.Marshaller.JAXB_FORMATTED_OUTPUT;
+
+import java.io.Closeable;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.MalformedURLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.function.UnaryOperator;
+
+import org.apache.hc.client5.http.classic.HttpClient;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.auth.CredentialsProviderBuilder;
+import org.apache.hc.client5.http.impl.classic.HttpClientBuilder;
+import org.cruk.clarity.api.filestore.ClaritySFTPUploader;
+import org.cruk.clarity.api.http.ClarityFailureResponseErrorHandler;
+import org.cruk.clarity.api.http.ClarityHttpCompression;
+import org.cruk.clarity.api.http.ClarityHttpConnectionPool;
+import org.cruk.clarity.api.http.HttpComponentsClientHttpRequestFactoryBasicAuth;
+import org.cruk.clarity.api.impl.ClarityAPIImpl;
+import org.cruk.clarity.api.impl.ClarityAPIInternal;
+import org.cruk.clarity.api.impl.LatestVersionsResetAspect;
+import org.cruk.clarity.api.impl.SavedQueryRunner;
+import org.cruk.clarity.api.jaxb.JaxbUnmarshallingDecorator;
+import org.cruk.clarity.api.jaxb.LazyJaxbMarshaller;
+import org.cruk.clarity.api.jaxb.PooledJaxb2Marshaller;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.converter.FormHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.converter.xml.MarshallingHttpMessageConverter;
+import org.springframework.oxm.Marshaller;
+import org.springframework.oxm.Unmarshaller;
+import org.springframework.web.client.ResponseErrorHandler;
+import org.springframework.web.client.RestTemplate;
+
+import com.genologics.ri.Namespaces;
+
+/**
+ * Creates a working {@link ClarityAPI} without a Spring application context.
+ *
+ * <p>
+ * The Spring configuration ({@code ClarityClientConfiguration}) finds its parts by
+ * scanning the class path and applies its aspects through AOP proxies, which together
+ * take much of the run time of a short lived program such as an EPP script. This
+ * builder creates the same parts directly: the HTTP client and its connection pool,
+ * the JAXB marshaller, the error handler and the REST templates. The work of the
+ * client's aspects is done by plain decorators: the unmarshaller is wrapped with a
+ * {@link JaxbUnmarshallingDecorator}, and the API returned resets any
+ * {@linkplain ClarityAPI#overrideStateful(StatefulOverride) stateful override}
+ * after each call itself.
+ * </p>
+ *
+ * <p>
+ * The JAXB contexts are built lazily, a package at a time, unless
+ * {@link #lazyJaxbContext(boolean)} says otherwise. Further behaviour, such as the
+ * cache, can be added around the API with {@link #decorator(UnaryOperator)}.
+ * </p>
+ *
+ * <pre>
+ * ClarityAPI api = new ClarityAPIBuilder().configuration(properties).build();
+ * </pre>
+ *
+ * <p>
+ * The API returned also implements {@code Closeable}. Closing it shuts down its
+ * thread pool and HTTP connections.
+ * </p>
+ *
+ * @since 2.34
+ */
+public class ClarityAPIBuilder
+{
+    /**
+     * Time out time for HTTP connections in milliseconds, as in the Spring configuration.
+     */
+    static final int HTTP_CONNECT_TIMEOUT = 15000;
+
+    /**
+     * Time out time for socket communications in milliseconds, as in the Spring configuration.
+     */
+    static final int HTTP_SOCKET_TIMEOUT = 0;
+
+    /**
+     * The initial configuration of the API.
+     */
+    private Properties configuration;
+
+    /**
+     * Whether to build the JAXB contexts a package at a time as needed.
+     */
+    private boolean lazyJaxbContext = true;
+
+    /**
+     * The SFTP uploader, if there is one.
+     */
+    private ClaritySFTPUploader sftpUploader;
+
+    /**
+     * Decorators to apply to the API, innermost first.
+     */
+    private List<UnaryOperator<ClarityAPI>> decorators = new ArrayList<>();
+
+
+    /**
+     * Constructor.
+     */
+    public ClarityAPIBuilder()
+    {
+    }
+
+    /**
+     * Set the initial configuration of the API. The properties are those
+     * accepted by {@link ClarityAPI#setConfiguration(Properties)}.
+     *
+     * @param configuration The configuration properties.
+     *
+     * @return This builder.
+     */
+    public ClarityAPIBuilder configuration(Properties configuration)
+    {
+        this.configuration = configuration;
+        return this;
+    }
+
+    /**
+     * Set whether to build the JAXB contexts for each package of the model only
+     * when they are needed, rather than one context for all of them when the API
+     * is built. The default is to build them as needed.
+     *
+     * @param lazy Whether to build the JAXB contexts lazily.
+     *
+     * @return This builder.
+     *
+     * @see LazyJaxbMarshaller
+     */
+    public ClarityAPIBuilder lazyJaxbContext(boolean lazy)
+    {
+        this.lazyJaxbContext = lazy;
+        return this;
+    }
+
+    /**
+     * Set the SFTP uploader for uploading files to the file store. Without
+     * one, files can only be uploaded over HTTP.
+     *
+     * @param uploader The SFTP uploader.
+     *
+     * @return This builder.
+     */
+    public ClarityAPIBuilder sftpUploader(ClaritySFTPUploader uploader)
+    {
+        this.sftpUploader = uploader;
+        return this;
+    }
+
+    /**
+     * Add a decorator to wrap around the API. Decorators are applied in the order
+     * they are added, so the first added is closest to the API. The object each is
+     * given also implements {@link ClarityAPIInternal}.
+     *
+     * @param decorator A function returning an API that wraps the one given.
+     *
+     * @return This builder.
+     *
+     * @throws IllegalArgumentException if {@code decorator} is null.
+     */
+    public ClarityAPIBuilder decorator(UnaryOperator<ClarityAPI> decorator)
+    {
+        if (decorator == null)
+        {
+            throw new IllegalArgumentException("decorator cannot be null");
+        }
+        decorators.add(decorator);
+        return this;
+    }
+
+    /**
+     * Create the API and everything it uses.
+     *
+     * @return A new API object, wrapped by any decorators given.
+     */
+    public ClarityAPI build()
+    {
+        Map<String, Object> marshallerProps = new HashMap<>();
+        marshallerProps.put(JAXB_FORMATTED_OUTPUT, true);
+        marshallerProps.put(JAXB_ENCODING, "UTF-8");
+
+        Set<String> packages = new LinkedHashSet<>(Namespaces.getNamespacePackages().values());
+
+        Marshaller marshaller;
+        List<Class<?>> jaxbClasses;
+        if (lazyJaxbContext)
+        {
+            LazyJaxbMarshaller lazyJaxb = new LazyJaxbMarshaller(getClass().getClassLoader(), packages, marshallerProps);
+            marshaller = lazyJaxb;
+            jaxbClasses = lazyJaxb.getKnownClasses();
+        }
+        else
+        {
+            PooledJaxb2Marshaller jaxb2 = new PooledJaxb2Marshaller();
+            jaxb2.setPackagesToScan(packages.toArray(new String[packages.size()]));
+            jaxb2.setMarshallerProperties(marshallerProps);
+            jaxb2.getJaxbContext();
+            marshaller = jaxb2;
+            jaxbClasses = Arrays.asList(jaxb2.getClassesToBeBound());
+        }
+        Unmarshaller unmarshaller = new JaxbUnmarshallingDecorator((Unmarshaller)marshaller);
+
+        ClarityHttpConnectionPool pool = new ClarityHttpConnectionPool(HTTP_CONNECT_TIMEOUT, HTTP_SOCKET_TIMEOUT);
+        ClarityHttpCompression compression = new ClarityHttpCompression();
+        HttpClient httpClient = createHttpClient(pool, compression);
+
+        var requestFactory = new HttpComponentsClientHttpRequestFactoryBasicAuth(httpClient, CredentialsProviderBuilder.create().build());
+        requestFactory.setHttpCompression(compression);
+
+        ResponseErrorHandler errorHandler = new ClarityFailureResponseErrorHandler(unmarshaller);
+
+        var xmlConverter = new MarshallingHttpMessageConverter(marshaller, unmarshaller);
+        var formConverter = new FormHttpMessageConverter();
+        formConverter.setSupportedMediaTypes(Collections.singletonList(MediaType.MULTIPART_FORM_DATA));
+
+        SavedQueryRunner savedQueryRunner = new SavedQueryRunner();
+        savedQueryRunner.setHttpRequestFactory(requestFactory);
+        savedQueryRunner.setErrorHandler(errorHandler);
+
+        ClarityAPIImpl impl = new ClarityAPIImpl(configuration);
+        impl.setJaxbConfig(jaxbClasses);
+        impl.setJaxbMarshaller(marshaller);
+        impl.setJaxbUnmarshaller(unmarshaller);
+        impl.setRestClient(createRestTemplate(requestFactory, errorHandler, xmlConverter));
+        impl.setFileUploadClient(createRestTemplate(requestFactory, errorHandler, formConverter));
+        impl.setHttpConnectionPool(pool);
+        impl.setHttpCompression(compression);
+        impl.setHttpClient(httpClient);
+        impl.setHttpRequestFactory(requestFactory);
+        impl.setSavedQueryRunner(savedQueryRunner);
+        if (sftpUploader != null)
+        {
+            sftpUploader.setTimeout(HTTP_CONNECT_TIMEOUT);
+            impl.setFilestoreSFTPUploader(sftpUploader);
+        }
+
+        try
+        {
+            impl.afterInitialisation();
+        }
+        catch (MalformedURLException e)
+        {
+            throw new IllegalArgumentException("The server address is not a valid URL.", e);
+        }
+
+        ClarityAPI api = new ClarityAPIHandler(impl, pool).createProxy();
+        for (UnaryOperator<ClarityAPI> decorator : decorators)
+        {
+            api = decorator.apply(api);
+        }
+        return api;
+    }
+
+    /**
+     * Create the HTTP client, configured as the Spring configuration does.
+     *
+     * @param pool The connection pool.
+     * @param compression The response compression control.
+     *
+     * @return A new HTTP client.
+     */
+    private static HttpClient createHttpClient(ClarityHttpConnectionPool pool, ClarityHttpCompression compression)
+    {
+        var requestBuilder = RequestConfig.custom();
+        requestBuilder.setAuthenticationEnabled(true);
+        requestBuilder.setRedirectsEnabled(true);
+        requestBuilder.setContentCompressionEnabled(false);
+        requestBuilder.setTargetPreferredAuthSchemes(Collections.singleton("Basic"));
+
+        HttpClientBuilder clientBuilder = HttpClientBuilder.create();
+        clientBuilder.setDefaultRequestConfig(requestBuilder.build());
+        clientBuilder.setConnectionManager(pool.getConnectionManager());
+        clientBuilder.setKeepAliveStrategy(pool);
+
+        compression.install(clientBuilder);
+
+        return clientBuilder.build();
+    }
+
+    /**
+     * Create a REST template with a single message converter.
+     *
+     * @param requestFactory The HTTP request factory.
+     * @param errorHandler The error handler.
+     * @param converter The message converter.
+     *
+     * @return A new REST template.
+     */
+    private static RestTemplate createRestTemplate(ClientHttpRequestFactory requestFactory,
+                                                   ResponseErrorHandler errorHandler,
+                                                   HttpMessageConverter<?> converter)
+    {
+        List<HttpMessageConverter<?>> converters = Arrays.asList(converter);
+
+        RestTemplate template = new RestTemplate(requestFactory);
+        template.setMessageConverters(converters);
+        template.setErrorHandler(errorHandler);
+        return template;
+    }
+
+    /**
+     * Invocation handler for the API object returned. Calls straight through to the
+     * implementation, then resets any stateful override as
+     * {@link LatestVersionsResetAspect} does, and handles {@code Closeable.close}.
+     */
+    private static class ClarityAPIHandler implements InvocationHandler
+    {
+        /**
+         * The API implementation.
+         */
+        private final ClarityAPIImpl api;
+
+        /**
+         * The connection pool to close with the API.
+         */
+        private final ClarityHttpConnectionPool pool;
+
+        /**
+         * Resets the stateful override after calls.
+         */
+        private final LatestVersionsResetAspect latestVersionsReset;
+
+        /**
+         * Constructor.
+         *
+         * @param api The API implementation.
+         * @param pool The connection pool to close with the API.
+         */
+        ClarityAPIHandler(ClarityAPIImpl api, ClarityHttpConnectionPool pool)
+        {
+            this.api = api;
+            this.pool = pool;
+            latestVersionsReset = new LatestVersionsResetAspect(api);
+        }
+
+        /**
+         * Create a proxy for the API interfaces that calls this handler.
+         *
+         * @return The proxy.
+         */
+        ClarityAPI createProxy()
+        {
+            Class<?>[] interfaces = { ClarityAPI.class, ClarityAPIInternal.class, Closeable.class };
+            return (ClarityAPI)Proxy.newProxyInstance(ClarityAPIBuilder.class.getClassLoader(), interfaces, this);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+        {
+            if (method.getDeclaringClass() == Object.class)
+            {
+                switch (method.getName())
+                {
+                    case "equals":
+                        return proxy == args[0];
+
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+
+                    default:
+                        return "ClarityAPI[" + api + "]";
+                }
+            }
+
+            if (method.getDeclaringClass() == Closeable.class)
+            {
+                api.shutdown();
+                pool.close();
+                return null;
+            }
+
+            try
+            {
+                return method.invoke(api, args);
+            }
+            catch (InvocationTargetException e)
+            {
+                throw e.getCause();
+            }
+            finally
+            {
+                latestVersionsReset.cancelStatefulOverride(method.getName());
+            }
+        }
+    }
+}
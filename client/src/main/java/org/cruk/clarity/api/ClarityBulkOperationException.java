@@ -0,0 +1,226 @@
+/*
+ * CRUK-CI Clarity REST API Java Client.
+ * Copyright (C) 2013 Cancer Research UK Cambridge Institute.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cruk.clarity.api;
+
+import java.io.Serial;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.genologics.ri.Link;
+import com.genologics.ri.Locatable;
+
+/**
+ * Exception thrown when a bulk create or update fails after some of its
+ * chunks have already been committed in the server. The exception records
+ * which chunks were committed so the caller can tell which entities now exist
+ * (or have been changed) in the LIMS and which need to be submitted again.
+ *
+ * <p>
+ * Chunks are numbered from zero in the order of the collection given to the
+ * bulk operation, each being at most the bulk operation batch size. The
+ * exception that caused the failure is available from {@link #getCause()}.
+ * </p>
+ *
+ * <p>
+ * A committed chunk whose entities could not be fetched back after the write
+ * is also listed among the {@link #getUnreloadedChunks() unreloaded chunks}.
+ * The original entity objects of such a chunk have not been updated from the
+ * server (new entities have no URIs), so the {@link #getUnreloadedLinks() links}
+ * the server returned for it are the only record of what was written.
+ * </p>
+ *
+ * @since 2.34
+ *
+ * @see ClarityAPI#createAll(java.util.Collection)
+ * @see ClarityAPI#updateAll(java.util.Collection)
+ * @see ClarityAPI#setBulkOperationBatchSize(int)
+ */
+public class ClarityBulkOperationException extends ClarityUpdateException
+{
+    /**
+     * Class version for serialisation.
+     */
+    @Serial private static final long serialVersionUID = 3604751906382740125L;
+
+    /**
+     * The number of chunks the operation was split into.
+     */
+    private int chunkCount;
+
+    /**
+     * The indexes of the chunks that were committed in the server.
+     */
+    private ArrayList<Integer> committedChunks;
+
+    /**
+     * The original entity objects in the committed chunks.
+     */
+    private ArrayList<Locatable> committedEntities;
+
+    /**
+     * The links returned by the server for the committed chunks.
+     */
+    private ArrayList<Link> committedLinks;
+
+    /**
+     * The indexes of the committed chunks whose entities were not fetched back.
+     */
+    private ArrayList<Integer> unreloadedChunks;
+
+    /**
+     * The original entity objects in the unreloaded chunks.
+     */
+    private ArrayList<Locatable> unreloadedEntities;
+
+    /**
+     * The links returned by the server for the unreloaded chunks.
+     */
+    private ArrayList<Link> unreloadedLinks;
+
+
+    /**
+     * Constructor.
+     *
+     * @param message The error message.
+     * @param cause The exception that caused the operation to fail.
+     * @param chunkCount The number of chunks the operation was split into.
+     * @param committedChunks The indexes of the chunks that were committed.
+     * @param committedEntities The original entity objects in the committed chunks.
+     * @param committedLinks The links returned by the server for the committed chunks.
+     */
+    public ClarityBulkOperationException(String message, Throwable cause, int chunkCount,
+                                         List<Integer> committedChunks,
+                                         List<? extends Locatable> committedEntities,
+                                         List<Link> committedLinks)
+    {
+        this(message, cause, chunkCount, committedChunks, committedEntities, committedLinks,
+             Collections.emptyList(), Collections.emptyList(), Collections.emptyList());
+    }
+
+    /**
+     * Constructor for when some committed chunks could not be fetched back.
+     *
+     * @param message The error message.
+     * @param cause The exception that caused the operation to fail.
+     * @param chunkCount The number of chunks the operation was split into.
+     * @param committedChunks The indexes of the chunks that were committed.
+     * @param committedEntities The original entity objects in the committed chunks.
+     * @param committedLinks The links returned by the server for the committed chunks.
+     * @param unreloadedChunks The indexes of the committed chunks that were not
+     * fetched back.
+     * @param unreloadedEntities The original entity objects in the unreloaded chunks.
+     * @param unreloadedLinks The links returned by the server for the unreloaded chunks.
+     */
+    public ClarityBulkOperationException(String message, Throwable cause, int chunkCount,
+                                         List<Integer> committedChunks,
+                                         List<? extends Locatable> committedEntities,
+                                         List<Link> committedLinks,
+                                         List<Integer> unreloadedChunks,
+                                         List<? extends Locatable> unreloadedEntities,
+                                         List<Link> unreloadedLinks)
+    {
+        super(message, cause);
+        this.chunkCount = chunkCount;
+        this.committedChunks = new ArrayList<Integer>(committedChunks);
+        this.committedEntities = new ArrayList<Locatable>(committedEntities);
+        this.committedLinks = new ArrayList<Link>(committedLinks);
+        this.unreloadedChunks = new ArrayList<Integer>(unreloadedChunks);
+        this.unreloadedEntities = new ArrayList<Locatable>(unreloadedEntities);
+        this.unreloadedLinks = new ArrayList<Link>(unreloadedLinks);
+    }
+
+    /**
+     * Get the number of chunks the operation was split into.
+     *
+     * @return The total number of chunks.
+     */
+    public int getChunkCount()
+    {
+        return chunkCount;
+    }
+
+    /**
+     * Get the indexes of the chunks that were committed in the server,
+     * in ascending order.
+     *
+     * @return An unmodifiable list of chunk indexes.
+     */
+    public List<Integer> getCommittedChunks()
+    {
+        return Collections.unmodifiableList(committedChunks);
+    }
+
+    /**
+     * Get the original entity objects that were in the committed chunks.
+     * Where the entities could also be fetched back after the write, these
+     * objects will have been updated from the server (so newly created entities
+     * will have their URIs set).
+     *
+     * @return An unmodifiable list of the committed entities.
+     */
+    public List<Locatable> getCommittedEntities()
+    {
+        return Collections.unmodifiableList(committedEntities);
+    }
+
+    /**
+     * Get the links the server returned for the entities in the committed chunks.
+     *
+     * @return An unmodifiable list of links.
+     */
+    public List<Link> getCommittedLinks()
+    {
+        return Collections.unmodifiableList(committedLinks);
+    }
+
+    /**
+     * Get the indexes of the chunks that were committed in the server but
+     * whose entities could not be fetched back afterwards, in ascending order.
+     * These are also in the {@link #getCommittedChunks() committed chunks}.
+     *
+     * @return An unmodifiable list of chunk indexes.
+     */
+    public List<Integer> getUnreloadedChunks()
+    {
+        return Collections.unmodifiableList(unreloadedChunks);
+    }
+
+    /**
+     * Get the original entity objects that were in the unreloaded chunks.
+     * These have not been updated from the server.
+     *
+     * @return An unmodifiable list of the unreloaded entities.
+     */
+    public List<Locatable> getUnreloadedEntities()
+    {
+        return Collections.unmodifiableList(unreloadedEntities);
+    }
+
+    /**
+     * Get the links the server returned for the entities in the unreloaded
+     * chunks. These are the URIs of the entities written.
+     *
+     * @return An unmodifiable list of links.
+     */
+    public List<Link> getUnreloadedLinks()
+    {
+        return Collections.unmodifiableList(unreloadedLinks);
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * CRUK-CI Clarity REST API Java Client.
+ * Copyright (C) 2013 Cancer Research UK Cambridge Institute.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cruk.clarity.api;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import com.genologics.ri.LimsLink;
+import com.genologics.ri.Locatable;
+
+/**
+ * Helper methods for working with the lazy streams of links from the
+ * {@link ClarityAPI}, loading the entities they refer to in batches as
+ * the stream is consumed.
+ *
+ * <p>
+ * These are static methods taking the API rather than methods on the API itself
+ * so that the loading of each batch goes through the API bean as any other call
+ * would, including any aspects (such as the cache) wrapped around it.
+ * </p>
+ *
+ * @since 2.34
+ */
+public final class ClarityStreams
+{
+    /**
+     * The default number of links loaded in each call to {@code loadAll}.
+     * This is the same as the number of links in each page of results from
+     * the Clarity API.
+     */
+    public static final int DEFAULT_LOAD_BATCH_SIZE = 500;
+
+    /**
+     * Private constructor: static methods only.
+     */
+    private ClarityStreams()
+    {
+    }
+
+    /**
+     * Search for entities of the given type and lazily load them. Pages of links
+     * are fetched as needed and each batch of links is loaded with
+     * {@link ClarityAPI#loadAll(java.util.Collection)} as the stream reaches it.
+     *
+     * @param <E> The type of LIMS entity referred to.
+     * @param api The Clarity API.
+     * @param searchTerms The terms to use for the search.
+     * @param entityClass The type of entity to search for.
+     *
+     * @return A sequential, ordered stream of the entities found.
+     *
+     * @throws IllegalArgumentException if {@code api} is null.
+     *
+     * @see ClarityAPI#streamFind(Map, Class)
+     */
+    public static <E extends Locatable>
+    Stream<E> findAndLoad(ClarityAPI api, Map<String, ?> searchTerms, Class<E> entityClass)
+    {
+        if (api == null)
+        {
+            throw new IllegalArgumentException("api cannot be null");
+        }
+
+        return loadAll(api, api.streamFind(searchTerms, entityClass), DEFAULT_LOAD_BATCH_SIZE);
+    }
+
+    /**
+     * Lazily load the entities from a stream of links. The links are gathered into
+     * batches of up to {@code batchSize} and each batch is loaded with
+     * {@link ClarityAPI#loadAll(java.util.Collection)} when the stream reaches it.
+     * Closing the returned stream closes the stream of links.
+     *
+     * @param <E> The type of LIMS entity referred to.
+     * @param api The Clarity API.
+     * @param links The stream of links to load.
+     * @param batchSize The number of links to load in each call to the API.
+     *
+     * @return A sequential, ordered stream of the entities, in the order of the links.
+     *
+     * @throws IllegalArgumentException if {@code api} or {@code links} is null,
+     * or if {@code batchSize} is less than one.
+     */
+    public static <E extends Locatable>
+    Stream<E> loadAll(ClarityAPI api, Stream<? extends LimsLink<E>> links, int batchSize)
+    {
+        if (api == null)
+        {
+            throw new IllegalArgumentException("api cannot be null");
+        }
+        if (links == null)
+        {
+            throw new IllegalArgumentException("links cannot be null");
+        }
+        if (batchSize < 1)
+        {
+            throw new IllegalArgumentException("batchSize must be at least one");
+        }
+
+        Iterator<E> loader = new BatchLoadingIterator<E>(api, links.iterator(), batchSize);
+
+        Spliterator<E> spliterator =
+                Spliterators.spliteratorUnknownSize(loader, Spliterator.ORDERED | Spliterator.NONNULL);
+
+        return StreamSupport.stream(spliterator, false).onClose(links::close);
+    }
+
+    /**
+     * Iterator that takes links from another iterator in batches, loads them
+     * and returns the entities.
+     *
+     * @param <E> The type of LIMS entity referred to.
+     */
+    private static class BatchLoadingIterator<E extends Locatable> implements Iterator<E>
+    {
+        /**
+         * The Clarity API.
+         */
+        private final ClarityAPI api;
+
+        /**
+         * The source of links.
+         */
+        private final Iterator<? extends LimsLink<E>> links;
+
+        /**
+         * The number of links to load at once.
+         */
+        private final int batchSize;
+
+        /**
+         * The entities from the current batch.
+         */
+        private Iterator<E> current = Collections.emptyIterator();
+
+        /**
+         * Constructor.
+         *
+         * @param api The Clarity API.
+         * @param links The source of links.
+         * @param batchSize The number of links to load at once.
+         */
+        BatchLoadingIterator(ClarityAPI api, Iterator<? extends LimsLink<E>> links, int batchSize)
+        {
+            this.api = api;
+            this.links = links;
+            this.batchSize = batchSize;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean hasNext()
+        {
+            while (!current.hasNext() && links.hasNext())
+            {
+                List<LimsLink<E>> batch = new ArrayList<LimsLink<E>>(batchSize);
+                while (links.hasNext() && batch.size() < batchSize)
+                {
+                    batch.add(links.next());
+                }
+
+                current = api.loadAll(batch).iterator();
+            }
+            return current.hasNext();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public E next()
+        {
+            if (!hasNext())
+            {
+                throw new NoSuchElementException();
+            }
+            return current.next();
+        }
+    }
+}
@@ -53,4 +53,16 @@ public class ClarityUpdateException extends RuntimeException
         super(message);
     }
 
+    /**
+     * Initialise with an error message and the exception that caused the failure.
+     *
+     * @param message The error message.
+     * @param cause The underlying cause of the failure.
+     *
+     * @since 2.34
+     */
+    public ClarityUpdateException(String message, Throwable cause)
+    {
+        super(message, cause);
+    }
 }
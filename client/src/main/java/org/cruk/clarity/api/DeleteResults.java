@@ -0,0 +1,296 @@
+/*
+ * CRUK-CI Clarity REST API Java Client.
+ * Copyright (C) 2013 Cancer Research UK Cambridge Institute.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cruk.clarity.api;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.genologics.ri.Locatable;
+
+/**
+ * The result of deleting a collection of entities with
+ * {@link ClarityAPI#deleteAll(java.util.Collection)}. Records, for each entity
+ * in the order given, whether it was deleted, was already absent from the
+ * server, or could not be deleted.
+ *
+ * @param <E> The type of LIMS entity deleted.
+ *
+ * @since 2.34
+ */
+public class DeleteResults<E extends Locatable>
+{
+    /**
+     * The possible outcomes of deleting an entity.
+     */
+    public enum Outcome
+    {
+        /**
+         * The entity was deleted from the server.
+         */
+        DELETED,
+
+        /**
+         * The entity did not exist in the server (HTTP 404).
+         */
+        NOT_FOUND,
+
+        /**
+         * The delete failed for any other reason.
+         */
+        FAILED;
+    }
+
+    /**
+     * The result of deleting one entity.
+     *
+     * @param <E> The type of LIMS entity deleted.
+     */
+    public static class Result<E extends Locatable>
+    {
+        /**
+         * The entity.
+         */
+        private final E entity;
+
+        /**
+         * What happened when deleting the entity.
+         */
+        private final Outcome outcome;
+
+        /**
+         * The exception thrown if the delete failed.
+         */
+        private final RuntimeException failure;
+
+        /**
+         * Constructor.
+         *
+         * @param entity The entity.
+         * @param outcome What happened when deleting the entity.
+         * @param failure The exception thrown if the delete failed or the
+         * entity was not found. May be null.
+         *
+         * @throws IllegalArgumentException if {@code entity} or {@code outcome} is null,
+         * or if {@code outcome} is {@code FAILED} and there is no {@code failure}.
+         */
+        public Result(E entity, Outcome outcome, RuntimeException failure)
+        {
+            if (entity == null)
+            {
+                throw new IllegalArgumentException("entity cannot be null");
+            }
+            if (outcome == null)
+            {
+                throw new IllegalArgumentException("outcome cannot be null");
+            }
+            if (outcome == Outcome.FAILED && failure == null)
+            {
+                throw new IllegalArgumentException("failure must be given for a failed delete");
+            }
+            this.entity = entity;
+            this.outcome = outcome;
+            this.failure = failure;
+        }
+
+        /**
+         * Get the entity.
+         *
+         * @return The entity.
+         */
+        public E getEntity()
+        {
+            return entity;
+        }
+
+        /**
+         * Get what happened when deleting the entity.
+         *
+         * @return The outcome.
+         */
+        public Outcome getOutcome()
+        {
+            return outcome;
+        }
+
+        /**
+         * Get the exception thrown when the entity could not be deleted.
+         *
+         * @return The exception, or null if the entity was deleted.
+         */
+        public RuntimeException getFailure()
+        {
+            return failure;
+        }
+
+        /**
+         * Test whether the entity is no longer in the server, either
+         * because it was deleted or because it was not there.
+         *
+         * @return true if the entity is gone from the server.
+         */
+        public boolean isGone()
+        {
+            return outcome != Outcome.FAILED;
+        }
+    }
+
+    /**
+     * The result for each entity, in the order given to the delete.
+     */
+    private final List<Result<E>> results;
+
+
+    /**
+     * Constructor.
+     *
+     * @param results The result for each entity.
+     *
+     * @throws IllegalArgumentException if {@code results} is null.
+     */
+    public DeleteResults(List<Result<E>> results)
+    {
+        if (results == null)
+        {
+            throw new IllegalArgumentException("results cannot be null");
+        }
+        this.results = Collections.unmodifiableList(new ArrayList<Result<E>>(results));
+    }
+
+    /**
+     * Get the result for every entity.
+     *
+     * @return An unmodifiable list of results, in the order the entities
+     * were given.
+     */
+    public List<Result<E>> getResults()
+    {
+        return results;
+    }
+
+    /**
+     * Get the number of entities in the delete.
+     *
+     * @return The number of entities.
+     */
+    public int size()
+    {
+        return results.size();
+    }
+
+    /**
+     * Get the entities with the given outcome.
+     *
+     * @param outcome The outcome wanted.
+     *
+     * @return A list of the entities with that outcome, in the order given.
+     */
+    public List<E> getEntities(Outcome outcome)
+    {
+        List<E> entities = new ArrayList<E>();
+        for (Result<E> result : results)
+        {
+            if (result.getOutcome() == outcome)
+            {
+                entities.add(result.getEntity());
+            }
+        }
+        return entities;
+    }
+
+    /**
+     * Get the entities that were deleted.
+     *
+     * @return A list of the deleted entities.
+     */
+    public List<E> getDeleted()
+    {
+        return getEntities(Outcome.DELETED);
+    }
+
+    /**
+     * Get the entities that were not found in the server.
+     *
+     * @return A list of the entities that were not found.
+     */
+    public List<E> getNotFound()
+    {
+        return getEntities(Outcome.NOT_FOUND);
+    }
+
+    /**
+     * Get the entities that could not be deleted.
+     *
+     * @return A list of the entities whose delete failed.
+     */
+    public List<E> getFailed()
+    {
+        return getEntities(Outcome.FAILED);
+    }
+
+    /**
+     * Test whether any delete failed. Entities that were not found are
+     * not counted as failures.
+     *
+     * @return true if at least one entity could not be deleted.
+     */
+    public boolean hasFailures()
+    {
+        return results.stream().anyMatch(r -> r.getOutcome() == Outcome.FAILED);
+    }
+
+    /**
+     * Rethrow the exception from the first entity that could not be deleted,
+     * if there is one. This gives the behaviour of stopping at the first
+     * error, except that all the other deletes have been attempted.
+     *
+     * @throws RuntimeException the first failure, if there is one.
+     */
+    public void throwIfFailed()
+    {
+        for (Result<E> result : results)
+        {
+            if (result.getOutcome() == Outcome.FAILED)
+            {
+                throw result.getFailure();
+            }
+        }
+    }
+
+    /**
+     * Provide a summary of the outcomes.
+     *
+     * @return The number of entities with each outcome.
+     */
+    @Override
+    public String toString()
+    {
+        StringBuilder str = new StringBuilder();
+        for (Outcome outcome : Outcome.values())
+        {
+            if (str.length() > 0)
+            {
+                str.append(", ");
+            }
+            long count = results.stream().filter(r -> r.getOutcome() == outcome).count();
+            str.append(outcome.name().toLowerCase().replace('_', ' ')).append(' ').append(count);
+        }
+        return str.toString();
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * CRUK-CI Clarity REST API Java Client.
+ * Copyright (C) 2013 Cancer Research UK Cambridge Institute.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cruk.clarity.api;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.genologics.ri.Locatable;
+
+/**
+ * The entities fetched by a {@link GraphLoader}. Each entity appears once, no matter
+ * how many links lead to it, so links from different entities to the same thing
+ * resolve to the same object.
+ *
+ * <p>
+ * Entities are identified by the path of their URI, so links that differ only in
+ * their query (such as the {@code state} parameter on artifact links) resolve to
+ * the same entity.
+ * </p>
+ *
+ * @since 2.34
+ */
+public class EntityGraph
+{
+    /**
+     * The entity the graph was loaded from.
+     */
+    private final Locatable root;
+
+    /**
+     * All the entities in the graph, keyed by URI path, in the order fetched.
+     */
+    private final Map<String, Locatable> entities = new LinkedHashMap<String, Locatable>();
+
+    /**
+     * Each entity in the graph once, in the order fetched.
+     */
+    private final List<Locatable> distinctEntities = new ArrayList<Locatable>();
+
+    /**
+     * The entities in the graph, compared by identity.
+     */
+    private final Set<Locatable> identities = Collections.newSetFromMap(new IdentityHashMap<Locatable, Boolean>());
+
+
+    /**
+     * Constructor.
+     *
+     * @param root The entity the graph is loaded from.
+     *
+     * @throws IllegalArgumentException if {@code root} is null or has no URI.
+     */
+    EntityGraph(Locatable root)
+    {
+        if (root == null)
+        {
+            throw new IllegalArgumentException("root cannot be null");
+        }
+        if (root.getUri() == null)
+        {
+            throw new IllegalArgumentException("root has no URI set.");
+        }
+        this.root = root;
+        entities.put(root.getUri().getPath(), root);
+        distinctEntities.add(root);
+        identities.add(root);
+    }
+
+    /**
+     * Add an entity to the graph under the path of the link that was used
+     * to fetch it, and under its own path if that is different.
+     *
+     * @param linkUri The URI of the link the entity was fetched with.
+     * @param entity The entity.
+     */
+    void add(URI linkUri, Locatable entity)
+    {
+        entities.putIfAbsent(linkUri.getPath(), entity);
+        if (entity.getUri() != null)
+        {
+            entities.putIfAbsent(entity.getUri().getPath(), entity);
+        }
+        if (identities.add(entity))
+        {
+            distinctEntities.add(entity);
+        }
+    }
+
+    /**
+     * Get the entity the graph was loaded from.
+     *
+     * @return The root entity.
+     */
+    public Locatable getRoot()
+    {
+        return root;
+    }
+
+    /**
+     * Test whether the graph has the entity a link refers to.
+     *
+     * @param link The link to the entity. Anything with a URI will do.
+     *
+     * @return true if the entity is in the graph, false if not.
+     */
+    public boolean contains(Locatable link)
+    {
+        return link != null && link.getUri() != null && entities.containsKey(link.getUri().getPath());
+    }
+
+    /**
+     * Get the entity with the given URI.
+     *
+     * @param uri The URI of the entity.
+     *
+     * @return The entity, or null if it is not in the graph.
+     */
+    public Locatable get(URI uri)
+    {
+        return uri == null ? null : entities.get(uri.getPath());
+    }
+
+    /**
+     * Get the entity a link refers to.
+     *
+     * @param <E> The type of the entity.
+     * @param link The link to the entity.
+     * @param entityClass The class of the entity.
+     *
+     * @return The entity, or null if it is not in the graph.
+     *
+     * @throws ClassCastException if the entity at the link's URI is not
+     * of the class given.
+     */
+    public <E extends Locatable>
+    E get(Locatable link, Class<E> entityClass)
+    {
+        return link == null ? null : entityClass.cast(get(link.getUri()));
+    }
+
+    /**
+     * Resolve a collection of links into the entities in this graph.
+     *
+     * @param <E> The type of the entities.
+     * @param links The links to the entities.
+     * @param entityClass The class of the entities.
+     *
+     * @return A list of the entities, in the same order as the links. An entry
+     * is null if the link's entity is not in the graph.
+     */
+    public <E extends Locatable>
+    List<E> resolve(Collection<? extends Locatable> links, Class<E> entityClass)
+    {
+        List<E> resolved = new ArrayList<E>(links.size());
+        for (Locatable link : links)
+        {
+            resolved.add(get(link, entityClass));
+        }
+        return resolved;
+    }
+
+    /**
+     * Get all the entities of the given class in the graph.
+     *
+     * @param <E> The type of the entities.
+     * @param entityClass The class of the entities.
+     *
+     * @return A list of the entities of the class, in the order fetched.
+     */
+    public <E extends Locatable>
+    List<E> getAll(Class<E> entityClass)
+    {
+        return distinctEntities.stream().filter(entityClass::isInstance).map(entityClass::cast).toList();
+    }
+
+    /**
+     * Get all the entities in the graph.
+     *
+     * @return An unmodifiable collection of all the entities, in the order fetched.
+     */
+    public Collection<Locatable> getEntities()
+    {
+        return Collections.unmodifiableList(distinctEntities);
+    }
+
+    /**
+     * Get the number of entities in the graph, including the root.
+     *
+     * @return The number of entities.
+     */
+    public int size()
+    {
+        return distinctEntities.size();
+    }
+}
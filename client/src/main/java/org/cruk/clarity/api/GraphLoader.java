@@ -0,0 +1,624 @@
+/*
+ * CRUK-CI Clarity REST API Java Client.
+ * Copyright (C) 2013 Cancer Research UK Cambridge Institute.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cruk.clarity.api;
+
+import static org.apache.commons.lang3.ClassUtils.getShortClassName;
+
+import java.io.Closeable;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+
+import org.apache.commons.beanutils.PropertyUtils;
+import org.apache.commons.lang3.StringUtils;
+
+import com.genologics.ri.LimsLink;
+import com.genologics.ri.Locatable;
+import com.genologics.ri.process.ClarityProcess;
+import com.genologics.ri.process.ProcessLink;
+import com.genologics.ri.step.ProcessStep;
+
+/**
+ * Loads the neighbourhood of an entity by following paths of links from it,
+ * fetching each generation of links with as few calls as possible.
+ *
+ * <p>
+ * A path is a list of property names separated by slashes. Each name is a
+ * property of the entities reached so far that gives a link, a collection of
+ * links or null, and may itself be a dotted path through objects that are
+ * not entities (collections are followed element by element). For example,
+ * starting from a {@code ProcessStep}:
+ * </p>
+ *
+ * <pre>
+ * process/inputOutputMaps.input/samples/project
+ * process/inputOutputMaps.output/location.container
+ * </pre>
+ *
+ * <p>
+ * fetches the step's process, its input and output artifacts, the samples of
+ * the inputs and their projects, and the containers of the outputs. Paths with
+ * a common start share their fetches. {@code process} on a {@code ProcessStep}
+ * is provided here, as a step has no link to its process; other such links can
+ * be added with {@link #addLinkResolver(Class, String, Function)}.
+ * </p>
+ *
+ * <p>
+ * All the links found at one depth are gathered, duplicates (and entities already
+ * fetched) removed, and the entities of each class fetched with
+ * {@link ClarityAPI#loadAll(Collection)}, the classes in parallel. So each level of
+ * the paths costs one batch call per entity class, rather than one call per link.
+ * The result is an {@link EntityGraph} in which every entity appears once.
+ * </p>
+ *
+ * <p>
+ * As with the API, {@link #overrideStateful(StatefulOverride)} affects only the
+ * next load made by this object on the calling thread, and applies to all the
+ * fetches made for it.
+ * </p>
+ *
+ * @since 2.34
+ */
+public class GraphLoader implements Closeable
+{
+    /**
+     * The path separator between generations.
+     */
+    private static final char GENERATION_SEPARATOR = '/';
+
+    /**
+     * The asynchronous API used to make the fetches.
+     */
+    private final AsyncClarityAPI async;
+
+    /**
+     * Flag indicating that the asynchronous API was created by this object and so
+     * should be closed by it.
+     */
+    private final boolean ownAsync;
+
+    /**
+     * Functions giving links that are not properties of an entity, by
+     * entity class then name.
+     */
+    private final Map<Class<?>, Map<String, Function<Object, ?>>> linkResolvers =
+            new ConcurrentHashMap<Class<?>, Map<String, Function<Object, ?>>>();
+
+    /**
+     * Override for stateful entities for the next load made on the calling thread.
+     */
+    private final ThreadLocal<StatefulOverride> statefulOverride = new ThreadLocal<StatefulOverride>();
+
+
+    /**
+     * Constructor with the API to fetch through. A pool of daemon threads is
+     * created to make the fetches in parallel.
+     *
+     * @param api The Clarity API.
+     *
+     * @throws IllegalArgumentException if {@code api} is null.
+     */
+    public GraphLoader(ClarityAPI api)
+    {
+        this(new AsyncClarityAPI(api), true);
+    }
+
+    /**
+     * Constructor with the API to fetch through and the executor to run the
+     * fetches on.
+     *
+     * @param api The Clarity API.
+     * @param executor The executor to make the fetches with.
+     *
+     * @throws IllegalArgumentException if either argument is null.
+     */
+    public GraphLoader(ClarityAPI api, Executor executor)
+    {
+        this(new AsyncClarityAPI(api, executor), false);
+    }
+
+    /**
+     * Constructor with an existing asynchronous API.
+     *
+     * @param async The asynchronous Clarity API.
+     *
+     * @throws IllegalArgumentException if {@code async} is null.
+     */
+    public GraphLoader(AsyncClarityAPI async)
+    {
+        this(async, false);
+    }
+
+    /**
+     * Internal constructor.
+     *
+     * @param async The asynchronous Clarity API.
+     * @param ownAsync Whether this object created {@code async}.
+     */
+    private GraphLoader(AsyncClarityAPI async, boolean ownAsync)
+    {
+        if (async == null)
+        {
+            throw new IllegalArgumentException("async cannot be null");
+        }
+        this.async = async;
+        this.ownAsync = ownAsync;
+
+        addLinkResolver(ProcessStep.class, "process",
+                step -> new ProcessLink(async.getClarityAPI().limsIdToUri(step.getLimsid(), ClarityProcess.class), step.getLimsid()));
+    }
+
+    /**
+     * Close the asynchronous API if it was created by this object.
+     */
+    @Override
+    public void close()
+    {
+        if (ownAsync)
+        {
+            async.close();
+        }
+    }
+
+    /**
+     * Add a named link that is not a property of an entity. When a path
+     * reaches an entity of the given class (or a subclass), the name is looked
+     * up here before the entity's properties.
+     *
+     * @param <E> The type of entity.
+     * @param entityClass The class of entity the link is from.
+     * @param name The name of the link in paths.
+     * @param resolver A function taking the entity and returning a link, a
+     * collection of links or null.
+     *
+     * @throws IllegalArgumentException if any argument is null, or if {@code name}
+     * contains a slash.
+     */
+    public <E extends Locatable>
+    void addLinkResolver(Class<E> entityClass, String name, Function<? super E, ?> resolver)
+    {
+        if (entityClass == null)
+        {
+            throw new IllegalArgumentException("entityClass cannot be null");
+        }
+        if (StringUtils.isEmpty(name))
+        {
+            throw new IllegalArgumentException("name cannot be null or empty");
+        }
+        if (name.indexOf(GENERATION_SEPARATOR) >= 0)
+        {
+            throw new IllegalArgumentException("name cannot contain '" + GENERATION_SEPARATOR + "'");
+        }
+        if (resolver == null)
+        {
+            throw new IllegalArgumentException("resolver cannot be null");
+        }
+
+        linkResolvers.computeIfAbsent(entityClass, c -> new ConcurrentHashMap<String, Function<Object, ?>>())
+                     .put(name, entity -> resolver.apply(entityClass.cast(entity)));
+    }
+
+    /**
+     * Forces the fetches of the next load made through this object on the current
+     * thread to treat stateful entities according to the rule given.
+     *
+     * @param override The behaviour to use in the next load. If null, it will
+     * cancel a previously set override.
+     *
+     * @see ClarityAPI#overrideStateful(StatefulOverride)
+     */
+    public void overrideStateful(StatefulOverride override)
+    {
+        statefulOverride.set(override);
+    }
+
+    /**
+     * Load the entities reached by following the given paths from an entity.
+     *
+     * @param root The entity to start from. If this is a link, the entity
+     * it refers to is fetched first.
+     * @param paths The paths to follow.
+     *
+     * @return The graph of entities fetched, including the root.
+     *
+     * @throws IllegalArgumentException if {@code root} is null or has no URI,
+     * or if a path names a property that does not exist or does not lead to links.
+     */
+    public EntityGraph load(Locatable root, String... paths)
+    {
+        return load(root, Arrays.asList(paths));
+    }
+
+    /**
+     * Load the entities reached by following the given paths from an entity.
+     *
+     * @param root The entity to start from. If this is a link, the entity
+     * it refers to is fetched first.
+     * @param paths The paths to follow.
+     *
+     * @return The graph of entities fetched, including the root.
+     *
+     * @throws IllegalArgumentException if {@code root} is null or has no URI,
+     * or if a path names a property that does not exist or does not lead to links.
+     */
+    public EntityGraph load(Locatable root, Collection<String> paths)
+    {
+        if (root == null)
+        {
+            throw new IllegalArgumentException("root cannot be null");
+        }
+        if (paths == null)
+        {
+            throw new IllegalArgumentException("paths cannot be null");
+        }
+
+        final StatefulOverride override = statefulOverride.get();
+        statefulOverride.remove();
+
+        PathStep tree = parsePaths(paths);
+
+        if (root instanceof LimsLink<?> link)
+        {
+            root = join(fetch(Collections.singletonList(link), override)).get(0);
+        }
+
+        EntityGraph graph = new EntityGraph(root);
+
+        // The entities reached, keyed by the step to follow from them next.
+
+        Map<PathStep, List<Locatable>> generation = new LinkedHashMap<PathStep, List<Locatable>>();
+        generation.put(tree, Collections.singletonList(root));
+
+        while (!generation.isEmpty())
+        {
+            // Gather the links from every entity in this generation.
+
+            Map<PathStep, List<LimsLink<?>>> found = new LinkedHashMap<PathStep, List<LimsLink<?>>>();
+            Map<Class<?>, Map<String, LimsLink<?>>> toFetch = new LinkedHashMap<Class<?>, Map<String, LimsLink<?>>>();
+
+            generation.forEach((step, entities) ->
+            {
+                for (PathStep child : step.children.values())
+                {
+                    List<LimsLink<?>> links = found.computeIfAbsent(child, c -> new ArrayList<LimsLink<?>>());
+                    for (Locatable entity : entities)
+                    {
+                        for (LimsLink<?> link : findLinks(entity, child.name))
+                        {
+                            links.add(link);
+                            if (!graph.contains(link))
+                            {
+                                toFetch.computeIfAbsent(link.getEntityClass(), c -> new LinkedHashMap<String, LimsLink<?>>())
+                                       .putIfAbsent(link.getUri().getPath(), link);
+                            }
+                        }
+                    }
+                }
+            });
+
+            // Fetch each class of entity in parallel.
+
+            List<List<LimsLink<?>>> fetchLinks = new ArrayList<List<LimsLink<?>>>(toFetch.size());
+            List<CompletableFuture<List<Locatable>>> fetches = new ArrayList<CompletableFuture<List<Locatable>>>(toFetch.size());
+            for (Map<String, LimsLink<?>> classLinks : toFetch.values())
+            {
+                List<LimsLink<?>> links = new ArrayList<LimsLink<?>>(classLinks.values());
+                fetchLinks.add(links);
+                fetches.add(fetch(links, override));
+            }
+
+            for (int i = 0; i < fetches.size(); i++)
+            {
+                List<LimsLink<?>> links = fetchLinks.get(i);
+                List<Locatable> entities = join(fetches.get(i));
+                for (int j = 0; j < links.size(); j++)
+                {
+                    graph.add(links.get(j).getUri(), entities.get(j));
+                }
+            }
+
+            // The next generation is the entities found from steps that go further.
+
+            Map<PathStep, List<Locatable>> next = new LinkedHashMap<PathStep, List<Locatable>>();
+            found.forEach((step, links) ->
+            {
+                if (!step.children.isEmpty())
+                {
+                    List<Locatable> entities = new ArrayList<Locatable>(links.size());
+                    Set<Locatable> seen = Collections.newSetFromMap(new IdentityHashMap<Locatable, Boolean>());
+                    for (LimsLink<?> link : links)
+                    {
+                        Locatable entity = graph.get(link.getUri());
+                        if (entity != null && seen.add(entity))
+                        {
+                            entities.add(entity);
+                        }
+                    }
+                    if (!entities.isEmpty())
+                    {
+                        next.put(step, entities);
+                    }
+                }
+            });
+
+            generation = next;
+        }
+
+        return graph;
+    }
+
+    /**
+     * Start fetching the entities for a list of links of the same class.
+     *
+     * @param links The links to fetch.
+     * @param override The stateful override to apply, or null.
+     *
+     * @return A future for the entities, in the same order as the links.
+     */
+    private CompletableFuture<List<Locatable>> fetch(List<? extends LimsLink<?>> links, StatefulOverride override)
+    {
+        if (override != null)
+        {
+            async.overrideStateful(override);
+        }
+        return async.loadAllAsync(locatableLinks(links));
+    }
+
+    /**
+     * View a list of links to entities of one class as links to {@code Locatable}
+     * objects, so they can be given to {@code loadAllAsync} whatever their class.
+     *
+     * @param links The links.
+     *
+     * @return The same list.
+     */
+    @SuppressWarnings("unchecked")
+    private static List<LimsLink<Locatable>> locatableLinks(List<? extends LimsLink<?>> links)
+    {
+        return (List<LimsLink<Locatable>>)links;
+    }
+
+    /**
+     * Wait for a fetch, unwrapping any exception it threw.
+     *
+     * @param <T> The type of result.
+     * @param future The future for the fetch.
+     *
+     * @return The result of the fetch.
+     */
+    private static <T> T join(CompletableFuture<T> future)
+    {
+        try
+        {
+            return future.join();
+        }
+        catch (CompletionException e)
+        {
+            if (e.getCause() instanceof RuntimeException re)
+            {
+                throw re;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Find the links from an entity for one step of a path.
+     *
+     * @param entity The entity.
+     * @param name The name of the step: a link resolver name or a dotted
+     * property path.
+     *
+     * @return The links found, which may be empty.
+     *
+     * @throws IllegalArgumentException if a property does not exist or
+     * the values found are not links.
+     */
+    private List<LimsLink<?>> findLinks(Locatable entity, String name)
+    {
+        List<Object> values = new ArrayList<Object>();
+
+        Function<Object, ?> resolver = findResolver(entity.getClass(), name);
+        if (resolver != null)
+        {
+            addValues(values, resolver.apply(entity));
+        }
+        else
+        {
+            values.add(entity);
+            for (String property : StringUtils.split(name, '.'))
+            {
+                List<Object> propertyValues = new ArrayList<Object>();
+                for (Object value : values)
+                {
+                    addValues(propertyValues, getProperty(value, property, name));
+                }
+                values = propertyValues;
+            }
+        }
+
+        List<LimsLink<?>> links = new ArrayList<LimsLink<?>>(values.size());
+        for (Object value : values)
+        {
+            if (!(value instanceof LimsLink<?> link))
+            {
+                throw new IllegalArgumentException("'" + name + "' on " + getShortClassName(entity.getClass()) +
+                                                   " gives a " + getShortClassName(value.getClass()) + ", not a link.");
+            }
+            if (link.getUri() != null)
+            {
+                links.add(link);
+            }
+        }
+        return links;
+    }
+
+    /**
+     * Find the link resolver for a name on a class of entity, looking at the
+     * class and its superclasses.
+     *
+     * @param entityClass The class of the entity.
+     * @param name The name of the link.
+     *
+     * @return The resolver, or null if there is none.
+     */
+    private Function<Object, ?> findResolver(Class<?> entityClass, String name)
+    {
+        for (Class<?> c = entityClass; c != null; c = c.getSuperclass())
+        {
+            Map<String, Function<Object, ?>> resolvers = linkResolvers.get(c);
+            if (resolvers != null && resolvers.containsKey(name))
+            {
+                return resolvers.get(name);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get a property from an object.
+     *
+     * @param bean The object.
+     * @param property The name of the property.
+     * @param path The full path step, for error messages.
+     *
+     * @return The value of the property.
+     *
+     * @throws IllegalArgumentException if the object has no such property.
+     */
+    private static Object getProperty(Object bean, String property, String path)
+    {
+        try
+        {
+            return PropertyUtils.getProperty(bean, property);
+        }
+        catch (NoSuchMethodException e)
+        {
+            throw new IllegalArgumentException(getShortClassName(bean.getClass()) + " has no property '" + property +
+                                               "' (in '" + path + "').");
+        }
+        catch (IllegalAccessException e)
+        {
+            throw new AssertionError("Cannot get property " + property + " from " + bean.getClass().getName());
+        }
+        catch (InvocationTargetException e)
+        {
+            throw new RuntimeException("Exception while getting " + property + " from " + getShortClassName(bean.getClass()),
+                                       e.getTargetException());
+        }
+    }
+
+    /**
+     * Add a value to a list, expanding collections and arrays and skipping nulls.
+     *
+     * @param values The list to add to.
+     * @param value The value.
+     */
+    private static void addValues(List<Object> values, Object value)
+    {
+        if (value instanceof Collection<?> collection)
+        {
+            for (Object v : collection)
+            {
+                addValues(values, v);
+            }
+        }
+        else if (value instanceof Object[] array)
+        {
+            for (Object v : array)
+            {
+                addValues(values, v);
+            }
+        }
+        else if (value != null)
+        {
+            values.add(value);
+        }
+    }
+
+    /**
+     * Turn a collection of paths into a tree of steps.
+     *
+     * @param paths The paths.
+     *
+     * @return The root of the tree, which has no name.
+     *
+     * @throws IllegalArgumentException if any path is empty or has an empty step.
+     */
+    private static PathStep parsePaths(Collection<String> paths)
+    {
+        PathStep root = new PathStep(null);
+        for (String path : paths)
+        {
+            if (StringUtils.isBlank(path))
+            {
+                throw new IllegalArgumentException("paths cannot contain null or empty paths");
+            }
+
+            PathStep step = root;
+            for (String name : StringUtils.splitPreserveAllTokens(path.trim(), GENERATION_SEPARATOR))
+            {
+                if (name.isEmpty())
+                {
+                    throw new IllegalArgumentException("Path '" + path + "' has an empty step.");
+                }
+                step = step.children.computeIfAbsent(name, PathStep::new);
+            }
+        }
+        return root;
+    }
+
+    /**
+     * A step in the tree of paths to follow.
+     */
+    private static class PathStep
+    {
+        /**
+         * The link name or property path for this step.
+         */
+        final String name;
+
+        /**
+         * The steps that follow this one, by name.
+         */
+        final Map<String, PathStep> children = new LinkedHashMap<String, PathStep>();
+
+        /**
+         * Constructor.
+         *
+         * @param name The link name or property path for this step.
+         */
+        PathStep(String name)
+        {
+            this.name = name;
+        }
+    }
+}
@@ -0,0 +1,401 @@
+/*
+ * CRUK-CI Clarity REST API Java Client.
+ * Copyright (C) 2013 Cancer Research UK Cambridge Institute.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cruk.clarity.api;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import com.genologics.ri.LimsLink;
+import com.genologics.ri.Linkable;
+import com.genologics.ri.Locatable;
+import com.genologics.ri.artifact.Artifact;
+import com.genologics.ri.process.ClarityProcess;
+import com.genologics.ri.process.InputOutputMap;
+
+/**
+ * Walks the lineage of artifacts, up through their ancestors or down through
+ * their descendants, a generation at a time.
+ *
+ * <p>
+ * Each generation costs a fixed number of calls however many artifacts it has:
+ * one {@link ClarityAPI#loadAll(Collection)} for the processes linking it to the
+ * next generation and one for the artifacts of the next generation (plus, going
+ * down, one {@link ClarityAPI#find(Map, Class)} for the processes that used the
+ * artifacts as inputs). Processes cannot be fetched in batches, so set the API's
+ * bulk operation concurrency to fetch them in parallel.
+ * </p>
+ *
+ * <p>
+ * The artifacts and processes fetched are remembered by this object (by URI path,
+ * so regardless of state), so walks over overlapping parts of the lineage do not
+ * fetch the same thing twice. Call {@link #clear()} to forget them. Each walk visits
+ * an artifact only once, even if it is reached by several routes (such as through
+ * pools).
+ * </p>
+ *
+ * <p>
+ * The walks return streams of generations that are fetched only as the stream
+ * is consumed, so a walk can be stopped early by short-circuiting the stream.
+ * </p>
+ *
+ * @since 2.34
+ */
+public class LineageWalker
+{
+    /**
+     * The search term for processes by their input artifacts.
+     */
+    private static final String INPUT_ARTIFACT_TERM = "inputartifactlimsid";
+
+    /**
+     * The API to fetch through.
+     */
+    private final ClarityAPI api;
+
+    /**
+     * Artifacts fetched so far, by URI path.
+     */
+    private final Map<String, Artifact> artifacts = new ConcurrentHashMap<String, Artifact>();
+
+    /**
+     * Processes fetched so far, by URI path.
+     */
+    private final Map<String, ClarityProcess> processes = new ConcurrentHashMap<String, ClarityProcess>();
+
+
+    /**
+     * Constructor.
+     *
+     * @param api The Clarity API to fetch through.
+     *
+     * @throws IllegalArgumentException if {@code api} is null.
+     */
+    public LineageWalker(ClarityAPI api)
+    {
+        if (api == null)
+        {
+            throw new IllegalArgumentException("api cannot be null");
+        }
+        this.api = api;
+    }
+
+    /**
+     * Forget the artifacts and processes fetched so far.
+     */
+    public void clear()
+    {
+        artifacts.clear();
+        processes.clear();
+    }
+
+    /**
+     * Walk up the lineage of the given artifacts, giving each generation of
+     * ancestors in turn. The first generation is the inputs to the processes
+     * that created the starting artifacts.
+     *
+     * @param start The artifacts (or links to them) to start from.
+     *
+     * @return A stream of the generations of ancestors, nearest first. No
+     * artifact appears more than once, and the starting artifacts are not included.
+     *
+     * @throws IllegalArgumentException if {@code start} is null or contains a null
+     * or an artifact without a URI.
+     */
+    public Stream<List<Artifact>> ancestorGenerations(Collection<? extends Linkable<Artifact>> start)
+    {
+        return walk(start, this::parents);
+    }
+
+    /**
+     * Walk up the lineage of the given artifacts, giving each ancestor.
+     *
+     * @param start The artifacts (or links to them) to start from.
+     *
+     * @return A stream of the ancestors, generation by generation, nearest first.
+     *
+     * @throws IllegalArgumentException if {@code start} is null or contains a null
+     * or an artifact without a URI.
+     *
+     * @see #ancestorGenerations(Collection)
+     */
+    public Stream<Artifact> ancestors(Collection<? extends Linkable<Artifact>> start)
+    {
+        return ancestorGenerations(start).flatMap(List::stream);
+    }
+
+    /**
+     * Walk down the lineage of the given artifacts, giving each generation of
+     * descendants in turn. The first generation is the outputs of the processes
+     * that used the starting artifacts as inputs.
+     *
+     * @param start The artifacts (or links to them) to start from.
+     *
+     * @return A stream of the generations of descendants, nearest first. No
+     * artifact appears more than once, and the starting artifacts are not included.
+     *
+     * @throws IllegalArgumentException if {@code start} is null or contains a null
+     * or an artifact without a URI.
+     */
+    public Stream<List<Artifact>> descendantGenerations(Collection<? extends Linkable<Artifact>> start)
+    {
+        return walk(start, this::children);
+    }
+
+    /**
+     * Walk down the lineage of the given artifacts, giving each descendant.
+     *
+     * @param start The artifacts (or links to them) to start from.
+     *
+     * @return A stream of the descendants, generation by generation, nearest first.
+     *
+     * @throws IllegalArgumentException if {@code start} is null or contains a null
+     * or an artifact without a URI.
+     *
+     * @see #descendantGenerations(Collection)
+     */
+    public Stream<Artifact> descendants(Collection<? extends Linkable<Artifact>> start)
+    {
+        return descendantGenerations(start).flatMap(List::stream);
+    }
+
+    /**
+     * Create the stream of generations for a walk.
+     *
+     * @param start The artifacts (or links to them) to start from.
+     * @param step The function giving the next generation from the current one
+     * and the paths of the artifacts visited so far.
+     *
+     * @return A lazy stream of generations.
+     */
+    private Stream<List<Artifact>> walk(Collection<? extends Linkable<Artifact>> start,
+                                        BiFunction<List<Artifact>, Set<String>, List<Artifact>> step)
+    {
+        if (start == null)
+        {
+            throw new IllegalArgumentException("start cannot be null");
+        }
+
+        Map<String, LimsLink<Artifact>> startLinks = new LinkedHashMap<String, LimsLink<Artifact>>();
+        for (Linkable<Artifact> linkable : start)
+        {
+            if (linkable == null)
+            {
+                throw new IllegalArgumentException("start cannot contain nulls");
+            }
+            if (linkable.getUri() == null)
+            {
+                throw new IllegalArgumentException("start contains an artifact with no URI");
+            }
+            if (linkable instanceof Artifact artifact)
+            {
+                artifacts.putIfAbsent(artifact.getUri().getPath(), artifact);
+            }
+            startLinks.putIfAbsent(linkable.getUri().getPath(), linkable.getLink());
+        }
+
+        Spliterator<List<Artifact>> generations =
+                new Spliterators.AbstractSpliterator<List<Artifact>>(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL)
+        {
+            private final Set<String> visited = new HashSet<String>(startLinks.keySet());
+
+            private List<Artifact> current;
+
+            @Override
+            public boolean tryAdvance(Consumer<? super List<Artifact>> action)
+            {
+                if (current == null)
+                {
+                    current = fetch(startLinks, artifacts);
+                }
+                if (!current.isEmpty())
+                {
+                    current = step.apply(current, visited);
+                }
+                if (current.isEmpty())
+                {
+                    return false;
+                }
+                action.accept(current);
+                return true;
+            }
+        };
+
+        return StreamSupport.stream(generations, false);
+    }
+
+    /**
+     * Find the parents of a generation of artifacts.
+     *
+     * @param generation The artifacts.
+     * @param visited The paths of the artifacts already visited in this walk.
+     * The parents found are added to this.
+     *
+     * @return The parents that have not been visited before.
+     */
+    private List<Artifact> parents(List<Artifact> generation, Set<String> visited)
+    {
+        Map<String, LimsLink<ClarityProcess>> processLinks = new LinkedHashMap<String, LimsLink<ClarityProcess>>();
+        for (Artifact artifact : generation)
+        {
+            if (artifact.getParentProcess() != null && artifact.getParentProcess().getUri() != null)
+            {
+                processLinks.putIfAbsent(artifact.getParentProcess().getUri().getPath(), artifact.getParentProcess());
+            }
+        }
+
+        return related(generation, fetch(processLinks, processes), visited, false);
+    }
+
+    /**
+     * Find the children of a generation of artifacts.
+     *
+     * @param generation The artifacts.
+     * @param visited The paths of the artifacts already visited in this walk.
+     * The children found are added to this.
+     *
+     * @return The children that have not been visited before.
+     */
+    private List<Artifact> children(List<Artifact> generation, Set<String> visited)
+    {
+        List<String> limsids = new ArrayList<String>(generation.size());
+        for (Artifact artifact : generation)
+        {
+            if (artifact.getLimsid() != null)
+            {
+                limsids.add(artifact.getLimsid());
+            }
+        }
+
+        if (limsids.isEmpty())
+        {
+            return Collections.emptyList();
+        }
+
+        Map<String, LimsLink<ClarityProcess>> processLinks = new LinkedHashMap<String, LimsLink<ClarityProcess>>();
+        for (LimsLink<ClarityProcess> link : api.find(Collections.singletonMap(INPUT_ARTIFACT_TERM, limsids), ClarityProcess.class))
+        {
+            processLinks.putIfAbsent(link.getUri().getPath(), link);
+        }
+
+        return related(generation, fetch(processLinks, processes), visited, true);
+    }
+
+    /**
+     * Find the artifacts on the other side of the given processes from a
+     * generation of artifacts.
+     *
+     * @param generation The artifacts.
+     * @param linkingProcesses The processes linking the generation to the next.
+     * @param visited The paths of the artifacts already visited in this walk.
+     * The artifacts found are added to this.
+     * @param down true to go from inputs to outputs, false to go from outputs
+     * to inputs.
+     *
+     * @return The artifacts of the next generation that have not been visited before.
+     */
+    private List<Artifact> related(List<Artifact> generation, List<ClarityProcess> linkingProcesses,
+                                   Set<String> visited, boolean down)
+    {
+        Set<String> generationPaths = new HashSet<String>();
+        for (Artifact artifact : generation)
+        {
+            generationPaths.add(artifact.getUri().getPath());
+        }
+
+        Map<String, LimsLink<Artifact>> nextLinks = new LinkedHashMap<String, LimsLink<Artifact>>();
+        for (ClarityProcess process : linkingProcesses)
+        {
+            for (InputOutputMap io : process.getInputOutputMaps())
+            {
+                LimsLink<Artifact> from = down ? io.getInput() : io.getOutput();
+                LimsLink<Artifact> to = down ? io.getOutput() : io.getInput();
+
+                if (from != null && to != null && from.getUri() != null && to.getUri() != null &&
+                    generationPaths.contains(from.getUri().getPath()))
+                {
+                    String path = to.getUri().getPath();
+                    if (visited.add(path))
+                    {
+                        nextLinks.put(path, to);
+                    }
+                }
+            }
+        }
+
+        return fetch(nextLinks, artifacts);
+    }
+
+    /**
+     * Get the entities for the given links, fetching those not already
+     * fetched in one call.
+     *
+     * @param <E> The type of entity.
+     * @param links The links to the entities, keyed by URI path.
+     * @param memo The entities already fetched, keyed by URI path.
+     *
+     * @return The entities, in the same order as the links.
+     */
+    private <E extends Locatable>
+    List<E> fetch(Map<String, ? extends LimsLink<E>> links, Map<String, E> memo)
+    {
+        List<String> missingPaths = new ArrayList<String>();
+        List<LimsLink<E>> missing = new ArrayList<LimsLink<E>>();
+        links.forEach((path, link) ->
+        {
+            if (!memo.containsKey(path))
+            {
+                missingPaths.add(path);
+                missing.add(link);
+            }
+        });
+
+        if (!missing.isEmpty())
+        {
+            List<E> fetched = api.loadAll(missing);
+            for (int i = 0; i < fetched.size(); i++)
+            {
+                memo.put(missingPaths.get(i), fetched.get(i));
+            }
+        }
+
+        List<E> entities = new ArrayList<E>(links.size());
+        for (String path : links.keySet())
+        {
+            E entity = memo.get(path);
+            if (entity != null)
+            {
+                entities.add(entity);
+            }
+        }
+        return entities;
+    }
+}
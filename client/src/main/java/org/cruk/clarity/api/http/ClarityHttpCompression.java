@@ -0,0 +1,354 @@
+/*
+ * CRUK-CI Clarity REST API Java Client.
+ * Copyright (C) 2013 Cancer Research UK Cambridge Institute.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cruk.clarity.api.http;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.hc.client5.http.classic.ExecChain;
+import org.apache.hc.client5.http.classic.ExecChainHandler;
+import org.apache.hc.client5.http.impl.ChainElement;
+import org.apache.hc.client5.http.impl.classic.HttpClientBuilder;
+import org.apache.hc.core5.http.ClassicHttpRequest;
+import org.apache.hc.core5.http.ClassicHttpResponse;
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.HttpEntity;
+import org.apache.hc.core5.http.HttpException;
+import org.apache.hc.core5.http.HttpHeaders;
+import org.apache.hc.core5.http.io.entity.HttpEntityWrapper;
+
+/**
+ * Control of HTTP response compression for the Clarity client, and statistics
+ * on the compressed responses received.
+ *
+ * <p>
+ * When enabled, requests made through the client's request factory (the REST
+ * templates, saved query exports and file downloads) ask the server for gzip or
+ * deflate compressed responses with an {@code Accept-Encoding} header. Compressed
+ * responses are decompressed by the HTTP client as they are read, so nothing is
+ * held in memory beyond the normal buffers. Compression is off by default, as it
+ * costs CPU time at both ends and only pays on slow links.
+ * </p>
+ *
+ * <p>
+ * The statistics count the bytes of compressed responses as received and after
+ * decompression, whether compression is enabled or not (they stay at zero when
+ * it is not).
+ * </p>
+ *
+ * @since 2.34
+ *
+ * @see org.cruk.clarity.api.ClarityAPI#setConfiguration(java.util.Properties)
+ */
+@SuppressWarnings("exports")
+public class ClarityHttpCompression
+{
+    /**
+     * The content encodings the HTTP client can decompress.
+     */
+    private static final Set<String> DECODABLE_ENCODINGS = Set.of("gzip", "x-gzip", "deflate");
+
+    /**
+     * Whether compressed responses are requested.
+     */
+    private volatile boolean enabled;
+
+    /**
+     * The number of compressed responses received.
+     */
+    private final LongAdder compressedResponses = new LongAdder();
+
+    /**
+     * The number of bytes of compressed responses read as received from the server.
+     */
+    private final LongAdder compressedBytes = new LongAdder();
+
+    /**
+     * The number of bytes of compressed responses read after decompression.
+     */
+    private final LongAdder decompressedBytes = new LongAdder();
+
+    /**
+     * Flag set by the handler nearer the network, for the handler on the other
+     * side of the decompression step, to say the response was compressed.
+     * The classic exec chain runs on the calling thread, so a thread local
+     * links the two.
+     */
+    private final ThreadLocal<Boolean> responseCompressed = new ThreadLocal<Boolean>();
+
+
+    /**
+     * Constructor. Compression starts disabled.
+     */
+    public ClarityHttpCompression()
+    {
+    }
+
+    /**
+     * Add the handlers that gather the compression statistics to the
+     * builder of an HTTP client. The builder must not have content
+     * compression disabled.
+     *
+     * @param builder The HTTP client builder.
+     */
+    public void install(HttpClientBuilder builder)
+    {
+        builder.addExecInterceptorBefore(ChainElement.COMPRESS.name(), "clarity-decompressed-bytes", new DecompressedSideHandler());
+        builder.addExecInterceptorAfter(ChainElement.COMPRESS.name(), "clarity-compressed-bytes", new CompressedSideHandler());
+    }
+
+    /**
+     * Whether compressed responses are requested from the server.
+     *
+     * @return true if compression is enabled, false if not.
+     */
+    public boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    /**
+     * Set whether compressed responses should be requested from the server.
+     *
+     * @param enabled true to ask for compressed responses, false not to.
+     */
+    public void setEnabled(boolean enabled)
+    {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Get the number of compressed responses received.
+     *
+     * @return The number of compressed responses.
+     */
+    public long getCompressedResponses()
+    {
+        return compressedResponses.sum();
+    }
+
+    /**
+     * Get the number of bytes of compressed responses read, as they came
+     * from the server.
+     *
+     * @return The number of compressed bytes.
+     */
+    public long getCompressedBytes()
+    {
+        return compressedBytes.sum();
+    }
+
+    /**
+     * Get the number of bytes of compressed responses read, after decompression.
+     *
+     * @return The number of decompressed bytes.
+     */
+    public long getDecompressedBytes()
+    {
+        return decompressedBytes.sum();
+    }
+
+    /**
+     * Reset the statistics to zero.
+     */
+    public void resetStatistics()
+    {
+        compressedResponses.reset();
+        compressedBytes.reset();
+        decompressedBytes.reset();
+    }
+
+    /**
+     * Exec chain handler between the decompression step and the network,
+     * counting the bytes of compressed responses as received.
+     */
+    private class CompressedSideHandler implements ExecChainHandler
+    {
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public ClassicHttpResponse execute(ClassicHttpRequest request, ExecChain.Scope scope, ExecChain chain)
+        throws IOException, HttpException
+        {
+            ClassicHttpResponse response = chain.proceed(request, scope);
+
+            HttpEntity entity = response.getEntity();
+            Header encoding = response.getFirstHeader(HttpHeaders.CONTENT_ENCODING);
+
+            if (entity != null && encoding != null &&
+                scope.clientContext.getRequestConfigOrDefault().isContentCompressionEnabled() &&
+                DECODABLE_ENCODINGS.contains(encoding.getValue().trim().toLowerCase(Locale.ROOT)))
+            {
+                compressedResponses.increment();
+                response.setEntity(new CountingEntity(entity, compressedBytes));
+                responseCompressed.set(Boolean.TRUE);
+            }
+
+            return response;
+        }
+    }
+
+    /**
+     * Exec chain handler between the client and the decompression step,
+     * counting the bytes of compressed responses after decompression.
+     */
+    private class DecompressedSideHandler implements ExecChainHandler
+    {
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public ClassicHttpResponse execute(ClassicHttpRequest request, ExecChain.Scope scope, ExecChain chain)
+        throws IOException, HttpException
+        {
+            responseCompressed.remove();
+            try
+            {
+                ClassicHttpResponse response = chain.proceed(request, scope);
+
+                if (Boolean.TRUE.equals(responseCompressed.get()) && response.getEntity() != null)
+                {
+                    response.setEntity(new CountingEntity(response.getEntity(), decompressedBytes));
+                }
+
+                return response;
+            }
+            finally
+            {
+                responseCompressed.remove();
+            }
+        }
+    }
+
+    /**
+     * Entity wrapper that counts the bytes read from the wrapped entity.
+     */
+    private static class CountingEntity extends HttpEntityWrapper
+    {
+        /**
+         * The counter to add to.
+         */
+        private final LongAdder counter;
+
+        /**
+         * Constructor.
+         *
+         * @param entity The entity to wrap.
+         * @param counter The counter to add to.
+         */
+        CountingEntity(HttpEntity entity, LongAdder counter)
+        {
+            super(entity);
+            this.counter = counter;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public InputStream getContent() throws IOException
+        {
+            InputStream content = super.getContent();
+            return content == null ? null : new CountingInputStream(content, counter);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void writeTo(OutputStream outStream) throws IOException
+        {
+            try (InputStream in = getContent())
+            {
+                if (in != null)
+                {
+                    in.transferTo(outStream);
+                }
+            }
+        }
+    }
+
+    /**
+     * Input stream that counts the bytes read through it.
+     */
+    private static class CountingInputStream extends FilterInputStream
+    {
+        /**
+         * The counter to add to.
+         */
+        private final LongAdder counter;
+
+        /**
+         * Constructor.
+         *
+         * @param in The stream to read from.
+         * @param counter The counter to add to.
+         */
+        CountingInputStream(InputStream in, LongAdder counter)
+        {
+            super(in);
+            this.counter = counter;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int read() throws IOException
+        {
+            int b = super.read();
+            if (b >= 0)
+            {
+                counter.increment();
+            }
+            return b;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException
+        {
+            int n = super.read(b, off, len);
+            if (n > 0)
+            {
+                counter.add(n);
+            }
+            return n;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public long skip(long n) throws IOException
+        {
+            long skipped = super.skip(n);
+            counter.add(skipped);
+            return skipped;
+        }
+    }
+}
@@ -0,0 +1,456 @@
+/*
+ * CRUK-CI Clarity REST API Java Client.
+ * Copyright (C) 2013 Cancer Research UK Cambridge Institute.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cruk.clarity.api.http;
+
+import java.io.Closeable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.hc.client5.http.ConnectionKeepAliveStrategy;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.impl.DefaultConnectionKeepAliveStrategy;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.core5.http.HttpResponse;
+import org.apache.hc.core5.http.io.SocketConfig;
+import org.apache.hc.core5.http.protocol.HttpContext;
+import org.apache.hc.core5.pool.PoolStats;
+import org.apache.hc.core5.util.TimeValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Holder for the pool of HTTP connections used by the Clarity client, allowing
+ * the pool to be tuned after the HTTP client has been created. This includes the
+ * maximum number of connections, how long connections live and how idle connections
+ * are dealt with. It also gives access to the statistics of the pool.
+ *
+ * <p>
+ * This object also acts as the keep alive strategy for the HTTP client, so the
+ * keep alive time can be changed at any time.
+ * </p>
+ *
+ * <p>
+ * The state of the pool can be published through JMX with {@link #registerMBean(MBeanServer)},
+ * as an MBean named "{@value #JMX_NAME},id=<n>", where {@code n} numbers the pools
+ * in the JVM, or to a Micrometer registry with
+ * {@link ClarityHttpConnectionPoolMeterBinder}.
+ * </p>
+ *
+ * @since 2.34
+ *
+ * @see org.cruk.clarity.api.ClarityAPI#setConfiguration(java.util.Properties)
+ */
+@SuppressWarnings("exports")
+public class ClarityHttpConnectionPool implements ConnectionKeepAliveStrategy, Closeable, ClarityHttpConnectionPoolMXBean
+{
+    /**
+     * The JMX object name for the pools' MBeans, less the "{@code id}" key that
+     * distinguishes one pool from another.
+     */
+    public static final String JMX_NAME = "org.cruk.clarity.api:type=ClarityHttpConnectionPool";
+
+    /**
+     * Source of the ids of pools registered as MBeans.
+     */
+    private static final AtomicInteger MBEAN_IDS = new AtomicInteger();
+
+    /**
+     * The default maximum number of connections to a single server.
+     */
+    public static final int DEFAULT_MAX_PER_ROUTE = 2;
+
+    /**
+     * The default maximum number of connections in total.
+     */
+    public static final int DEFAULT_MAX_TOTAL = 4;
+
+    /**
+     * Logger.
+     */
+    private Logger logger = LoggerFactory.getLogger(ClarityHttpConnectionPool.class);
+
+    /**
+     * The HTTP connection manager that is the pool.
+     */
+    private final PoolingHttpClientConnectionManager connectionManager;
+
+    /**
+     * The connection configuration currently applied to the pool. Kept here as
+     * the connection manager does not give access to it.
+     */
+    private ConnectionConfig connectionConfig;
+
+    /**
+     * The time to keep connections alive for. If null, use the server's
+     * keep alive header or the client's default.
+     */
+    private volatile TimeValue keepAlive;
+
+    /**
+     * The time after which idle connections are closed. If null, idle connections
+     * are not closed by this object.
+     */
+    private TimeValue idleEvictionTime;
+
+    /**
+     * Thread service for closing idle and expired connections.
+     */
+    private ScheduledExecutorService evictionService;
+
+    /**
+     * The regular task closing idle and expired connections.
+     */
+    private ScheduledFuture<?> evictionTask;
+
+    /**
+     * The MBean server this pool is registered with, if any.
+     */
+    private MBeanServer mbeanServer;
+
+    /**
+     * The name this pool is registered under, if it is registered.
+     */
+    private ObjectName mbeanName;
+
+
+    /**
+     * Constructor.
+     *
+     * @param connectTimeout The time out for making HTTP connections, in milliseconds.
+     * @param socketTimeout The time out for socket communications, in milliseconds.
+     */
+    public ClarityHttpConnectionPool(int connectTimeout, int socketTimeout)
+    {
+        var connectionBuilder = ConnectionConfig.custom();
+        connectionBuilder.setConnectTimeout(connectTimeout, TimeUnit.MILLISECONDS);
+        connectionBuilder.setSocketTimeout(socketTimeout, TimeUnit.MILLISECONDS);
+        connectionConfig = connectionBuilder.build();
+
+        var socketBuilder = SocketConfig.custom();
+        socketBuilder.setSoTimeout(socketTimeout, TimeUnit.MILLISECONDS);
+
+        var managerBuilder = PoolingHttpClientConnectionManagerBuilder.create();
+        managerBuilder.setMaxConnPerRoute(DEFAULT_MAX_PER_ROUTE);
+        managerBuilder.setMaxConnTotal(DEFAULT_MAX_TOTAL);
+        managerBuilder.setDefaultConnectionConfig(connectionConfig);
+        managerBuilder.setDefaultSocketConfig(socketBuilder.build());
+
+        connectionManager = managerBuilder.build();
+    }
+
+    /**
+     * Get the connection manager for giving to the HTTP client.
+     *
+     * @return The pooling connection manager.
+     */
+    public PoolingHttpClientConnectionManager getConnectionManager()
+    {
+        return connectionManager;
+    }
+
+    /**
+     * Set the maximum number of connections that can be open to a single server.
+     *
+     * @param max The maximum number of connections per server.
+     *
+     * @throws IllegalArgumentException if {@code max} is less than one.
+     */
+    public void setMaxPerRoute(int max)
+    {
+        if (max < 1)
+        {
+            throw new IllegalArgumentException("Maximum connections per route must be positive.");
+        }
+        connectionManager.setDefaultMaxPerRoute(max);
+    }
+
+    /**
+     * Set the maximum number of connections that can be open in total.
+     *
+     * @param max The maximum number of connections.
+     *
+     * @throws IllegalArgumentException if {@code max} is less than one.
+     */
+    public void setMaxTotal(int max)
+    {
+        if (max < 1)
+        {
+            throw new IllegalArgumentException("Maximum total connections must be positive.");
+        }
+        connectionManager.setMaxTotal(max);
+    }
+
+    /**
+     * Set the maximum time a connection can live for, after which it will
+     * not be reused.
+     *
+     * @param millis The time to live in milliseconds. Zero or less means
+     * connections can live indefinitely.
+     */
+    public synchronized void setTimeToLive(long millis)
+    {
+        connectionConfig = ConnectionConfig.copy(connectionConfig)
+                .setTimeToLive(millis <= 0 ? null : TimeValue.ofMilliseconds(millis))
+                .build();
+        connectionManager.setDefaultConnectionConfig(connectionConfig);
+    }
+
+    /**
+     * Set the time a connection can be idle in the pool before it is checked
+     * for still being usable before being leased again.
+     *
+     * @param millis The inactivity time in milliseconds. A negative value
+     * means connections are never validated.
+     */
+    public synchronized void setValidateAfterInactivity(long millis)
+    {
+        connectionConfig = ConnectionConfig.copy(connectionConfig)
+                .setValidateAfterInactivity(TimeValue.ofMilliseconds(millis))
+                .build();
+        connectionManager.setDefaultConnectionConfig(connectionConfig);
+    }
+
+    /**
+     * Set the time to keep connections alive for between requests.
+     *
+     * @param millis The keep alive time in milliseconds. If the server sends its own
+     * keep alive time and it is shorter, the server's time is used. Zero or less
+     * reverts to the HTTP client's default behaviour.
+     */
+    public void setKeepAlive(long millis)
+    {
+        keepAlive = millis <= 0 ? null : TimeValue.ofMilliseconds(millis);
+    }
+
+    /**
+     * Set the time after which connections that have not been used are closed.
+     * A background thread checks the pool for idle (and expired) connections
+     * regularly.
+     *
+     * @param millis The idle time in milliseconds. Zero or less stops closing
+     * idle connections.
+     */
+    public synchronized void setIdleEvictionTime(long millis)
+    {
+        if (evictionTask != null)
+        {
+            evictionTask.cancel(false);
+            evictionTask = null;
+        }
+
+        idleEvictionTime = millis <= 0 ? null : TimeValue.ofMilliseconds(millis);
+
+        if (idleEvictionTime != null)
+        {
+            if (evictionService == null)
+            {
+                evictionService = Executors.newSingleThreadScheduledExecutor(r ->
+                {
+                    Thread t = new Thread(r, "clarity-http-connection-evictor");
+                    t.setDaemon(true);
+                    return t;
+                });
+            }
+
+            // Check at half the idle time, but not ridiculously often.
+            long period = Math.max(millis / 2, 1000L);
+
+            evictionTask = evictionService.scheduleWithFixedDelay(this::closeIdleConnections, period, period, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Close connections in the pool that have expired or have been idle for longer
+     * than the idle eviction time.
+     */
+    public void closeIdleConnections()
+    {
+        connectionManager.closeExpired();
+
+        TimeValue idle = idleEvictionTime;
+        if (idle != null)
+        {
+            connectionManager.closeIdle(idle);
+        }
+    }
+
+    /**
+     * Get the statistics for the pool as a whole.
+     *
+     * @return The pool statistics: the number of leased, available and pending
+     * connections, and the maximum allowed.
+     */
+    public PoolStats getTotalStats()
+    {
+        return connectionManager.getTotalStats();
+    }
+
+    /**
+     * Get the number of connections currently in use.
+     *
+     * @return The number of leased connections.
+     */
+    @Override
+    public int getLeased()
+    {
+        return getTotalStats().getLeased();
+    }
+
+    /**
+     * Get the number of connections open but not in use.
+     *
+     * @return The number of available connections.
+     */
+    @Override
+    public int getAvailable()
+    {
+        return getTotalStats().getAvailable();
+    }
+
+    /**
+     * Get the number of requests waiting for a connection.
+     *
+     * @return The number of pending connection requests.
+     */
+    @Override
+    public int getPending()
+    {
+        return getTotalStats().getPending();
+    }
+
+    /**
+     * Get the maximum number of connections that can be open in total.
+     *
+     * @return The maximum number of connections.
+     */
+    @Override
+    public int getMaxTotal()
+    {
+        return connectionManager.getMaxTotal();
+    }
+
+    /**
+     * Get the maximum number of connections that can be open to a single server.
+     *
+     * @return The maximum number of connections per server.
+     */
+    @Override
+    public int getMaxPerRoute()
+    {
+        return connectionManager.getDefaultMaxPerRoute();
+    }
+
+    /**
+     * Register this pool as an MBean with the given server, under the name
+     * {@link #JMX_NAME} with an "{@code id}" key unique to this pool in the JVM.
+     * It is unregistered when the pool is closed.
+     *
+     * @param server The MBean server, usually the platform MBean server.
+     *
+     * @return The name the pool is registered under, or null if it could not
+     * be registered.
+     */
+    public synchronized ObjectName registerMBean(MBeanServer server)
+    {
+        if (server == null)
+        {
+            throw new IllegalArgumentException("server cannot be null");
+        }
+        if (mbeanServer != null)
+        {
+            throw new IllegalStateException("The connection pool is already registered with an MBean server.");
+        }
+
+        try
+        {
+            ObjectName name = new ObjectName(JMX_NAME + ",id=" + MBEAN_IDS.incrementAndGet());
+            server.registerMBean(this, name);
+            mbeanServer = server;
+            mbeanName = name;
+            return name;
+        }
+        catch (JMException e)
+        {
+            logger.warn("Could not register HTTP connection pool MBean: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public TimeValue getKeepAliveDuration(HttpResponse response, HttpContext context)
+    {
+        TimeValue serverValue = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+
+        TimeValue configured = keepAlive;
+        if (configured == null)
+        {
+            return serverValue;
+        }
+
+        boolean serverSpecified = response != null && response.containsHeader("Keep-Alive");
+
+        return serverSpecified && serverValue.compareTo(configured) < 0 ? serverValue : configured;
+    }
+
+    /**
+     * Stop the background thread closing idle connections and unregister the
+     * pool's MBean. The connection manager itself is closed by the HTTP client.
+     */
+    @Override
+    public synchronized void close()
+    {
+        MBeanServer server = mbeanServer;
+        if (server != null)
+        {
+            ObjectName name = mbeanName;
+            mbeanServer = null;
+            mbeanName = null;
+            try
+            {
+                if (server.isRegistered(name))
+                {
+                    server.unregisterMBean(name);
+                }
+            }
+            catch (JMException e)
+            {
+                logger.warn("Could not unregister HTTP connection pool MBean: {}", e.getMessage());
+            }
+        }
+
+        if (evictionService != null)
+        {
+            logger.debug("Stopping HTTP connection evictor.");
+            evictionService.shutdownNow();
+            evictionService = null;
+            evictionTask = null;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * CRUK-CI Clarity REST API Java Client.
+ * Copyright (C) 2013 Cancer Research UK Cambridge Institute.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cruk.clarity.api.http;
+
+/**
+ * JMX view of the state of the Clarity client's HTTP connection pool.
+ *
+ * @since 2.34
+ *
+ * @see ClarityHttpConnectionPool
+ */
+public interface ClarityHttpConnectionPoolMXBean
+{
+    /**
+     * Get the number of connections currently in use.
+     *
+     * @return The number of leased connections.
+     */
+    int getLeased();
+
+    /**
+     * Get the number of connections open but not in use.
+     *
+     * @return The number of available connections.
+     */
+    int getAvailable();
+
+    /**
+     * Get the number of requests waiting for a connection.
+     *
+     * @return The number of pending connection requests.
+     */
+    int getPending();
+
+    /**
+     * Get the maximum number of connections that can be open in total.
+     *
+     * @return The maximum number of connections.
+     */
+    int getMaxTotal();
+
+    /**
+     * Get the maximum number of connections that can be open to a single server.
+     *
+     * @return The maximum number of connections per server.
+     */
+    int getMaxPerRoute();
+}
@@ -0,0 +1,97 @@
+/*
+ * CRUK-CI Clarity REST API Java Client.
+ * Copyright (C) 2013 Cancer Research UK Cambridge Institute.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cruk.clarity.api.http;
+
+import java.util.function.ToDoubleFunction;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * Publishes the state of the HTTP connection pool to a Micrometer registry
+ * as gauges named "{@code clarity.http.connections.<state>}".
+ *
+ * <p>
+ * Micrometer is an optional dependency of the client; this class can only
+ * be used if it is on the class path.
+ * </p>
+ *
+ * <pre>
+ * new ClarityHttpConnectionPoolMeterBinder(pool).bindTo(meterRegistry);
+ * </pre>
+ *
+ * @since 2.34
+ */
+@SuppressWarnings("exports")
+public class ClarityHttpConnectionPoolMeterBinder implements MeterBinder
+{
+    /**
+     * The prefix for the meter names.
+     */
+    public static final String METER_PREFIX = "clarity.http.connections.";
+
+    /**
+     * The pool to publish.
+     */
+    private final ClarityHttpConnectionPool pool;
+
+
+    /**
+     * Constructor.
+     *
+     * @param pool The connection pool to publish.
+     */
+    public ClarityHttpConnectionPoolMeterBinder(ClarityHttpConnectionPool pool)
+    {
+        if (pool == null)
+        {
+            throw new IllegalArgumentException("pool cannot be null");
+        }
+        this.pool = pool;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void bindTo(MeterRegistry registry)
+    {
+        gauge(registry, "leased", "Connections in use", ClarityHttpConnectionPool::getLeased);
+        gauge(registry, "available", "Connections open but not in use", ClarityHttpConnectionPool::getAvailable);
+        gauge(registry, "pending", "Requests waiting for a connection", ClarityHttpConnectionPool::getPending);
+        gauge(registry, "max", "Maximum number of connections", ClarityHttpConnectionPool::getMaxTotal);
+    }
+
+    /**
+     * Register a gauge of one of the pool's figures.
+     *
+     * @param registry The registry.
+     * @param name The name of the gauge, less the prefix.
+     * @param description The description of the gauge.
+     * @param value Function to read the gauge's value from the pool.
+     */
+    private void gauge(MeterRegistry registry, String name, String description,
+                       ToDoubleFunction<ClarityHttpConnectionPool> value)
+    {
+        Gauge.builder(METER_PREFIX + name, pool, value)
+             .description(description)
+             .register(registry);
+    }
+}
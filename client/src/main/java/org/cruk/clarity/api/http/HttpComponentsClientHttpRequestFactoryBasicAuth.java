@@ -26,9 +26,12 @@ import org.apache.hc.client5.http.auth.Credentials;
 import org.apache.hc.client5.http.auth.CredentialsProvider;
 import org.apache.hc.client5.http.auth.CredentialsStore;
 import org.apache.hc.client5.http.classic.HttpClient;
+import org.apache.hc.client5.http.classic.methods.HttpUriRequestBase;
+import org.apache.hc.client5.http.config.RequestConfig;
 import org.apache.hc.client5.http.impl.auth.BasicAuthCache;
 import org.apache.hc.client5.http.impl.auth.BasicScheme;
 import org.apache.hc.client5.http.protocol.HttpClientContext;
+import org.apache.hc.core5.http.ClassicHttpRequest;
 import org.apache.hc.core5.http.HttpHost;
 import org.apache.hc.core5.http.protocol.HttpContext;
 import org.slf4j.Logger;
@@ -84,6 +87,23 @@ implements AuthenticatingClientHttpRequestFactory
         context.setAuthCache(authenticationCache);
     }
 
+    /**
+     * Response compression control. If null, compression is never requested.
+     */
+    private ClarityHttpCompression compression;
+
+    /**
+     * The request configuration for requests asking for compressed responses.
+     * Created when first needed.
+     */
+    private volatile RequestConfig compressedConfig;
+
+    /**
+     * The request configuration for requests not asking for compressed responses.
+     * Created when first needed.
+     */
+    private volatile RequestConfig uncompressedConfig;
+
     /**
      * Constructor.
      */
@@ -134,6 +154,95 @@ implements AuthenticatingClientHttpRequestFactory
         context.setCredentialsProvider(credentialsProvider);
     }
 
+    /**
+     * Get the response compression control used by this factory.
+     *
+     * @return The compression control, or null if there is none.
+     *
+     * @since 2.34
+     */
+    public ClarityHttpCompression getHttpCompression()
+    {
+        return compression;
+    }
+
+    /**
+     * Set the response compression control. Requests created by this factory
+     * ask for compressed responses when it is enabled.
+     *
+     * @param compression The compression control. May be null.
+     *
+     * @since 2.34
+     */
+    public void setHttpCompression(ClarityHttpCompression compression)
+    {
+        this.compression = compression;
+    }
+
+    /**
+     * Set the request configuration on each request to turn response compression
+     * on or off, according to the compression control. This is always set on the
+     * request, because the HTTP client copies a request's configuration into the
+     * shared context, where it would otherwise apply to later requests.
+     *
+     * @param request The request to configure.
+     *
+     * @since 2.34
+     */
+    @Override
+    protected void postProcessHttpRequest(ClassicHttpRequest request)
+    {
+        if (compression != null && request instanceof HttpUriRequestBase configurable)
+        {
+            configurable.setConfig(compression.isEnabled() ? getCompressedConfig() : getUncompressedConfig());
+        }
+    }
+
+    /**
+     * Get the request configuration asking for compressed responses.
+     *
+     * @return The request configuration.
+     */
+    private RequestConfig getCompressedConfig()
+    {
+        RequestConfig config = compressedConfig;
+        if (config == null)
+        {
+            compressedConfig = config = createCompressionConfig(true);
+        }
+        return config;
+    }
+
+    /**
+     * Get the request configuration not asking for compressed responses.
+     *
+     * @return The request configuration.
+     */
+    private RequestConfig getUncompressedConfig()
+    {
+        RequestConfig config = uncompressedConfig;
+        if (config == null)
+        {
+            uncompressedConfig = config = createCompressionConfig(false);
+        }
+        return config;
+    }
+
+    /**
+     * Create a request configuration from the HTTP client's default with
+     * content compression set as given.
+     *
+     * @param compressed Whether to ask for compressed content.
+     *
+     * @return The request configuration.
+     */
+    private RequestConfig createCompressionConfig(boolean compressed)
+    {
+        RequestConfig base = createRequestConfig(getHttpClient());
+        RequestConfig.Builder builder = base == null ? RequestConfig.custom() : RequestConfig.copy(base);
+        return builder.setContentCompressionEnabled(compressed).build();
+    }
+
     /**
      * Provide the HTTP context set up for basic authentication by this
      * factory. Despite the method being called "create", the same
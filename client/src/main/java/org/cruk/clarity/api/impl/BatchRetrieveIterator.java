@@ -0,0 +1,334 @@
+/*
+ * CRUK-CI Clarity REST API Java Client.
+ * Copyright (C) 2013 Cancer Research UK Cambridge Institute.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cruk.clarity.api.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.Consumer;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.transform.stax.StAXSource;
+import javax.xml.transform.stream.StreamResult;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.oxm.Marshaller;
+import org.springframework.oxm.Unmarshaller;
+import org.springframework.web.client.RestOperations;
+
+import com.genologics.ri.Links;
+import com.genologics.ri.Locatable;
+
+/**
+ * Iterator over the entities returned from a series of batch retrieve calls
+ * that reads each response as a stream. The {@code details} document is read
+ * with StAX and each entity element in it is unmarshalled by itself as it
+ * is reached, so the whole response is never held in memory.
+ *
+ * <p>
+ * Each chunk of links is posted through the client's REST template, so the
+ * calls are seen by anything watching it, and only when the entities of the
+ * previous chunk have all been read. {@link #forEachRemaining(Consumer)} hands
+ * each entity on as it is read from the response; {@link #next()} gives the
+ * entities of a chunk one at a time after the chunk has been read, so then no
+ * more than one chunk of entities is held at once.
+ * </p>
+ *
+ * @param <E> The type of the entity.
+ *
+ * @since 2.34
+ */
+class BatchRetrieveIterator<E extends Locatable> implements Iterator<E>, AutoCloseable
+{
+    /**
+     * Factory for the StAX readers. Documents from the server are not allowed
+     * to have DTDs or external entities.
+     */
+    private static final XMLInputFactory INPUT_FACTORY = createInputFactory();
+
+    /**
+     * Logger.
+     */
+    private Logger logger = LoggerFactory.getLogger(ClarityAPIImpl.class);
+
+    /**
+     * The REST template to make the calls with.
+     */
+    private final RestOperations restClient;
+
+    /**
+     * Marshaller for the links posted in each request.
+     */
+    private final Marshaller marshaller;
+
+    /**
+     * Unmarshaller for the entity elements.
+     */
+    private final Unmarshaller unmarshaller;
+
+    /**
+     * The batch retrieve URI.
+     */
+    private final URI uri;
+
+    /**
+     * The type of entity being fetched.
+     */
+    private final Class<E> entityClass;
+
+    /**
+     * The chunks of links still to be fetched.
+     */
+    private final Iterator<Links> chunks;
+
+    /**
+     * The entities of the chunk last fetched by {@link #hasNext()} that have
+     * not yet been returned. Null between chunks.
+     */
+    private Iterator<E> fetched;
+
+    /**
+     * Flag indicating no more chunks should be fetched.
+     */
+    private boolean closed;
+
+
+    /**
+     * Constructor.
+     *
+     * @param restClient The REST template to make the calls with.
+     * @param marshaller Marshaller for the links posted in each request.
+     * @param unmarshaller Unmarshaller for the entity elements.
+     * @param uri The batch retrieve URI.
+     * @param entityClass The type of entity being fetched.
+     * @param chunks The chunks of links to fetch.
+     */
+    BatchRetrieveIterator(RestOperations restClient, Marshaller marshaller, Unmarshaller unmarshaller,
+                          URI uri, Class<E> entityClass, List<Links> chunks)
+    {
+        this.restClient = restClient;
+        this.marshaller = marshaller;
+        this.unmarshaller = unmarshaller;
+        this.uri = uri;
+        this.entityClass = entityClass;
+        this.chunks = chunks.iterator();
+    }
+
+    /**
+     * Create the StAX input factory.
+     *
+     * @return A new XMLInputFactory that does not support DTDs.
+     */
+    private static XMLInputFactory createInputFactory()
+    {
+        XMLInputFactory factory = XMLInputFactory.newFactory();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean hasNext()
+    {
+        while (!closed && (fetched == null || !fetched.hasNext()))
+        {
+            fetched = null;
+
+            if (!chunks.hasNext())
+            {
+                return false;
+            }
+
+            List<E> entities = new ArrayList<E>();
+            fetchChunk(chunks.next(), entities::add);
+            fetched = entities.iterator();
+        }
+        return !closed;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public E next()
+    {
+        if (!hasNext())
+        {
+            throw new NoSuchElementException();
+        }
+        return fetched.next();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * Entities of chunks not yet fetched are given to {@code action} as they
+     * are read from the response.
+     * </p>
+     */
+    @Override
+    public void forEachRemaining(Consumer<? super E> action)
+    {
+        while (!closed && fetched != null && fetched.hasNext())
+        {
+            action.accept(fetched.next());
+        }
+        fetched = null;
+
+        while (!closed && chunks.hasNext())
+        {
+            fetchChunk(chunks.next(), action);
+        }
+    }
+
+    /**
+     * Stop fetching entities.
+     */
+    @Override
+    public void close()
+    {
+        closed = true;
+        fetched = null;
+    }
+
+    /**
+     * Post a chunk of links and pass each entity in the response to the given
+     * action as it is read.
+     *
+     * @param links The links to fetch.
+     * @param action The action to take for each entity.
+     */
+    private void fetchChunk(Links links, Consumer<? super E> action)
+    {
+        logger.debug("Streaming batch retrieve of {} entities from {}", links.getSize(), uri);
+
+        try
+        {
+            restClient.execute(uri, HttpMethod.POST,
+                request ->
+                {
+                    request.getHeaders().setContentType(MediaType.APPLICATION_XML);
+                    request.getHeaders().setAccept(List.of(MediaType.APPLICATION_XML));
+                    marshaller.marshal(links, new StreamResult(request.getBody()));
+                },
+                response ->
+                {
+                    readEntities(response.getBody(), action);
+                    return null;
+                });
+        }
+        catch (RuntimeException e)
+        {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Read the entities from a batch retrieve response.
+     *
+     * @param body The body of the response.
+     * @param action The action to take for each entity.
+     *
+     * @throws IOException if the response cannot be read or is not well
+     * formed XML.
+     */
+    private void readEntities(InputStream body, Consumer<? super E> action) throws IOException
+    {
+        XMLStreamReader reader = null;
+        try
+        {
+            reader = INPUT_FACTORY.createXMLStreamReader(body);
+
+            // Move to the root element.
+
+            reader.nextTag();
+
+            if ("exception".equals(reader.getLocalName()))
+            {
+                // A Clarity error with a success status. The unmarshalling aspect
+                // will throw it as an exception.
+                unmarshaller.unmarshal(new StAXSource(reader));
+            }
+
+            reader.next();
+            skipToElement(reader);
+
+            while (!closed && reader.getEventType() == XMLStreamConstants.START_ELEMENT)
+            {
+                // Unmarshalling from the reader consumes the element and leaves the reader
+                // on the event following its end tag.
+
+                action.accept(entityClass.cast(unmarshaller.unmarshal(new StAXSource(reader))));
+                skipToElement(reader);
+            }
+        }
+        catch (XMLStreamException e)
+        {
+            throw new IOException("Failed to read batch retrieve response from " + uri, e);
+        }
+        finally
+        {
+            if (reader != null)
+            {
+                try
+                {
+                    reader.close();
+                }
+                catch (XMLStreamException e)
+                {
+                    // Ignore.
+                }
+            }
+        }
+    }
+
+    /**
+     * Move the reader to the start of the next element or to the end of the
+     * enclosing (root) element, passing over any text or comments between them.
+     *
+     * @param reader The reader over the response.
+     *
+     * @throws XMLStreamException if the response is not well formed XML.
+     */
+    private static void skipToElement(XMLStreamReader reader) throws XMLStreamException
+    {
+        int event = reader.getEventType();
+        while (event != XMLStreamConstants.START_ELEMENT &&
+               event != XMLStreamConstants.END_ELEMENT &&
+               event != XMLStreamConstants.END_DOCUMENT)
+        {
+            event = reader.next();
+        }
+    }
+}
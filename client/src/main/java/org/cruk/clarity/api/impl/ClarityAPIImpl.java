@@ -31,7 +31,6 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Modifier;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URISyntaxException;
@@ -45,15 +44,31 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import jakarta.annotation.PostConstruct;
-import jakarta.xml.bind.annotation.XmlTransient;
+import jakarta.annotation.PreDestroy;
 
 import org.apache.commons.beanutils.ConvertUtils;
 import org.apache.commons.beanutils.PropertyUtils;
@@ -63,14 +78,18 @@ import org.apache.hc.client5.http.auth.Credentials;
 import org.apache.hc.client5.http.auth.UsernamePasswordCredentials;
 import org.apache.hc.client5.http.classic.HttpClient;
 import org.cruk.clarity.api.ClarityAPI;
+import org.cruk.clarity.api.ClarityBulkOperationException;
 import org.cruk.clarity.api.ClarityException;
 import org.cruk.clarity.api.ClarityUpdateException;
+import org.cruk.clarity.api.DeleteResults;
 import org.cruk.clarity.api.IllegalSearchTermException;
 import org.cruk.clarity.api.InvalidURIException;
 import org.cruk.clarity.api.SavedQuerySummary;
 import org.cruk.clarity.api.StatefulOverride;
 import org.cruk.clarity.api.filestore.ClaritySFTPUploader;
 import org.cruk.clarity.api.http.AuthenticatingClientHttpRequestFactory;
+import org.cruk.clarity.api.http.ClarityHttpCompression;
+import org.cruk.clarity.api.http.ClarityHttpConnectionPool;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -82,6 +101,8 @@ import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.http.client.ClientHttpRequest;
 import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.oxm.Marshaller;
+import org.springframework.oxm.Unmarshaller;
 import org.springframework.stereotype.Service;
 import org.springframework.util.LinkedMultiValueMap;
 import org.springframework.util.MultiValueMap;
@@ -139,20 +160,28 @@ public class ClarityAPIImpl implements ClarityAPI, ClarityAPIInternal
      */
     protected static final String API_PATH_BASE = "/api/v2/";
 
-    /**
-     * Combined mask for fields that need to be copied from updated objects to the
-     * originals provided for PUT and POST operations.
-     *
-     * @see #reflectiveUpdate(Object, Object)
-     */
-    private static final int REFLECTIVE_UPDATE_MODIFIER_MASK = Modifier.TRANSIENT | Modifier.STATIC | Modifier.FINAL;
-
     /**
      * Hard limit on the maximum number of links or objects per batch
      * for the bulk operations.
      */
     private static final int BULK_OPERATION_BATCH_SIZE_HARD_LIMIT = 10000;
 
+    /**
+     * Hard limit on the number of batches that can be sent to the server
+     * at the same time for the bulk operations.
+     */
+    private static final int BULK_OPERATION_CONCURRENCY_HARD_LIMIT = 32;
+
+    /**
+     * The default maximum length of the query string of a search URI.
+     */
+    public static final int DEFAULT_MAXIMUM_QUERY_LENGTH = 4000;
+
+    /**
+     * The smallest maximum query string length that can be set.
+     */
+    private static final int MINIMUM_QUERY_LENGTH_LIMIT = 256;
+
     /**
      * The protocols in URIs and URLs for HTTP (includes HTTPS).
      */
@@ -175,6 +204,12 @@ public class ClarityAPIImpl implements ClarityAPI, ClarityAPIInternal
      */
     private static final Pattern AMPERSAND_SPLIT = Pattern.compile("&");
 
+    /**
+     * Regular expression for finding the start index parameter in a list URI.
+     * @see #predictPageUris(URI, long, int)
+     */
+    private static final Pattern START_INDEX_PATTERN = Pattern.compile("([?&]start-index=)(\\d+)");
+
 
     /**
      * Logger.
@@ -196,11 +231,37 @@ public class ClarityAPIImpl implements ClarityAPI, ClarityAPIInternal
      */
     protected AuthenticatingClientHttpRequestFactory httpRequestFactory;
 
+    /**
+     * The HTTP client's connection pool, for configuring it.
+     */
+    protected ClarityHttpConnectionPool httpConnectionPool;
+
+    /**
+     * The HTTP response compression control.
+     *
+     * @since 2.34
+     */
+    protected ClarityHttpCompression httpCompression;
+
     /**
      * Adapted REST client for uploading files through the HTTP mechanism.
      */
     protected RestOperations fileUploadClient;
 
+    /**
+     * The JAXB marshaller, for requests made without the REST client.
+     *
+     * @since 2.34
+     */
+    protected Marshaller jaxbMarshaller;
+
+    /**
+     * The JAXB unmarshaller, for responses read without the REST client.
+     *
+     * @since 2.34
+     */
+    protected Unmarshaller jaxbUnmarshaller;
+
     /**
      * Session factory for SSH connections to the file store over SFTP.
      */
@@ -258,6 +319,44 @@ public class ClarityAPIImpl implements ClarityAPI, ClarityAPIInternal
      */
     private int bulkOperationBatchSize = 500;
 
+    /**
+     * The number of batches of a bulk operation that can be sent to the Clarity
+     * API at the same time.
+     *
+     * @see ClarityAPI#setBulkOperationConcurrency(int)
+     */
+    private int bulkOperationConcurrency = 1;
+
+    /**
+     * The maximum length, once URL encoded, of the query string of a search.
+     * Searches with longer query strings are split into several searches.
+     *
+     * @see #setMaximumQueryLength(int)
+     */
+    private int maximumQueryLength = DEFAULT_MAXIMUM_QUERY_LENGTH;
+
+    /**
+     * Gathers single retrievals from several threads into batch retrievals.
+     * Null when retrievals are not coalesced (the default).
+     *
+     * @see #setRetrieveCoalescingWindow(long)
+     */
+    private volatile RetrieveCoalescer retrieveCoalescer;
+
+    /**
+     * Executor for running the batches of bulk operations concurrently.
+     * Created on first use if one is not provided.
+     *
+     * @see #setBulkOperationExecutor(ExecutorService)
+     */
+    private ExecutorService bulkOperationExecutor;
+
+    /**
+     * Flag indicating that the bulk operation executor was created by this
+     * object and so should be shut down by it.
+     */
+    private boolean ownBulkOperationExecutor;
+
     /**
      * Whether files can be uploaded using HTTP to the {@code files/id/upload} API end point.
      * This will by default be true unless an SFTP uploader is available, when if so the
@@ -315,14 +414,6 @@ public class ClarityAPIImpl implements ClarityAPI, ClarityAPIInternal
      */
     protected Map<Class<? extends Locatable>, Class<?>> entityToBatchRetrieveClassMap;
 
-    /**
-     * Cache of fields to update by reflective examination of an updated object
-     * from the server. Maps the artifact class to a map of field names to
-     * {@code java.lang.reflect.Field} objects.
-     */
-    protected Map<Class<?>, Map<String, java.lang.reflect.Field>> updaterFields =
-            Collections.synchronizedMap(new HashMap<Class<?>, Map<String, java.lang.reflect.Field>>());
-
     /**
      * Thread local flag indicating whether the next call on the thread should
      * fetch stateful entities according to a different rule to the normal.
@@ -451,6 +542,96 @@ public class ClarityAPIImpl implements ClarityAPI, ClarityAPIInternal
         this.fileUploadClient = fileUploadClient;
     }
 
+    /**
+     * Set the JAXB marshaller used for requests made directly through the
+     * request factory.
+     *
+     * @param marshaller The JAXB marshaller.
+     *
+     * @since 2.34
+     */
+    @Autowired
+    @Qualifier("clarityJaxbMarshaller")
+    @SuppressWarnings("exports")
+    public void setJaxbMarshaller(Marshaller marshaller)
+    {
+        requireNonNull(marshaller, "marshaller cannot be set to null.");
+        this.jaxbMarshaller = marshaller;
+    }
+
+    /**
+     * Set the JAXB unmarshaller used for responses read directly from the
+     * request factory.
+     *
+     * @param unmarshaller The JAXB unmarshaller.
+     *
+     * @since 2.34
+     */
+    @Autowired
+    @Qualifier("clarityJaxbUnmarshaller")
+    @SuppressWarnings("exports")
+    public void setJaxbUnmarshaller(Unmarshaller unmarshaller)
+    {
+        requireNonNull(unmarshaller, "unmarshaller cannot be set to null.");
+        this.jaxbUnmarshaller = unmarshaller;
+    }
+
+    /**
+     * Set the HTTP client's connection pool. This is optional, but without it
+     * the pool cannot be configured through {@link #setConfiguration(Properties)}.
+     *
+     * @param pool The HTTP connection pool.
+     *
+     * @since 2.34
+     */
+    @Autowired(required = false)
+    @Qualifier("clarityHttpConnectionPool")
+    public void setHttpConnectionPool(ClarityHttpConnectionPool pool)
+    {
+        this.httpConnectionPool = pool;
+    }
+
+    /**
+     * Get the HTTP client's connection pool, through which the pool
+     * statistics can be read.
+     *
+     * @return The HTTP connection pool, or null if it has not been set.
+     *
+     * @since 2.34
+     */
+    public ClarityHttpConnectionPool getHttpConnectionPool()
+    {
+        return httpConnectionPool;
+    }
+
+    /**
+     * Set the HTTP response compression control. This is optional, but without
+     * it compression cannot be configured through {@link #setConfiguration(Properties)}.
+     *
+     * @param compression The HTTP compression control.
+     *
+     * @since 2.34
+     */
+    @Autowired(required = false)
+    @Qualifier("clarityHttpCompression")
+    public void setHttpCompression(ClarityHttpCompression compression)
+    {
+        this.httpCompression = compression;
+    }
+
+    /**
+     * Get the HTTP response compression control, through which the compression
+     * statistics can be read.
+     *
+     * @return The HTTP compression control, or null if it has not been set.
+     *
+     * @since 2.34
+     */
+    public ClarityHttpCompression getHttpCompression()
+    {
+        return httpCompression;
+    }
+
     /**
      * Set the HTTP client. If the credentials are already known at this point,
      * those are set on the client.
@@ -683,11 +864,22 @@ public class ClarityAPIImpl implements ClarityAPI, ClarityAPIInternal
                 String filestorePass = configuration.getProperty("filestore.pass");
 
                 String batchSize = configuration.getProperty("batch.size");
+                String batchConcurrency = configuration.getProperty("batch.concurrency");
+                String maxQueryLength = configuration.getProperty("search.max.query.length");
+                String coalesceWindow = configuration.getProperty("batch.coalesce.window");
                 String httpUpload = configuration.getProperty("http.upload");
                 String httpUploadLimit = configuration.getProperty("http.upload.maximum");
                 String revertToSftp = configuration.getProperty("revert.to.sftp.upload");
                 String httpDirect = configuration.getProperty("http.direct.download");
 
+                String poolMaxPerRoute = configuration.getProperty("http.pool.max.per.route");
+                String poolMaxTotal = configuration.getProperty("http.pool.max.total");
+                String poolTimeToLive = configuration.getProperty("http.pool.ttl");
+                String poolValidate = configuration.getProperty("http.pool.validate.after.inactivity");
+                String poolIdleEviction = configuration.getProperty("http.pool.idle.eviction");
+                String keepAlive = configuration.getProperty("http.keep.alive");
+                String httpCompress = configuration.getProperty("http.compression");
+
                 if (isNotBlank(apiServer))
                 {
                     try
@@ -723,6 +915,39 @@ public class ClarityAPIImpl implements ClarityAPI, ClarityAPIInternal
                         logger.warn("Configuration property 'batch.size' is not a number.");
                     }
                 }
+                if (isNotBlank(batchConcurrency))
+                {
+                    try
+                    {
+                        setBulkOperationConcurrency(Integer.parseInt(batchConcurrency));
+                    }
+                    catch (NumberFormatException e)
+                    {
+                        logger.warn("Configuration property 'batch.concurrency' is not a number.");
+                    }
+                }
+                if (isNotBlank(maxQueryLength))
+                {
+                    try
+                    {
+                        setMaximumQueryLength(Integer.parseInt(maxQueryLength));
+                    }
+                    catch (NumberFormatException e)
+                    {
+                        logger.warn("Configuration property 'search.max.query.length' is not a number.");
+                    }
+                }
+                if (isNotBlank(coalesceWindow))
+                {
+                    try
+                    {
+                        setRetrieveCoalescingWindow(Long.parseLong(coalesceWindow));
+                    }
+                    catch (NumberFormatException e)
+                    {
+                        logger.warn("Configuration property 'batch.coalesce.window' is not a number.");
+                    }
+                }
                 if (isNotBlank(httpUpload))
                 {
                     setUploadOverHttp(Boolean.parseBoolean(httpUpload));
@@ -746,6 +971,86 @@ public class ClarityAPIImpl implements ClarityAPI, ClarityAPIInternal
                 {
                     setDownloadDirectFromHttpStore(Boolean.parseBoolean(httpDirect));
                 }
+
+                if (httpCompression != null && isNotBlank(httpCompress))
+                {
+                    httpCompression.setEnabled(Boolean.parseBoolean(httpCompress));
+                }
+
+                if (httpConnectionPool != null)
+                {
+                    if (isNotBlank(poolMaxPerRoute))
+                    {
+                        try
+                        {
+                            httpConnectionPool.setMaxPerRoute(Integer.parseInt(poolMaxPerRoute));
+                        }
+                        catch (NumberFormatException e)
+                        {
+                            logger.warn("Configuration property 'http.pool.max.per.route' is not a number.");
+                        }
+                    }
+                    if (isNotBlank(poolMaxTotal))
+                    {
+                        try
+                        {
+                            httpConnectionPool.setMaxTotal(Integer.parseInt(poolMaxTotal));
+                        }
+                        catch (NumberFormatException e)
+                        {
+                            logger.warn("Configuration property 'http.pool.max.total' is not a number.");
+                        }
+                    }
+                    if (isNotBlank(poolTimeToLive))
+                    {
+                        try
+                        {
+                            httpConnectionPool.setTimeToLive(Long.parseLong(poolTimeToLive));
+                        }
+                        catch (NumberFormatException e)
+                        {
+                            logger.warn("Configuration property 'http.pool.ttl' is not a number.");
+                        }
+                    }
+                    if (isNotBlank(poolValidate))
+                    {
+                        try
+                        {
+                            httpConnectionPool.setValidateAfterInactivity(Long.parseLong(poolValidate));
+                        }
+                        catch (NumberFormatException e)
+                        {
+                            logger.warn("Configuration property 'http.pool.validate.after.inactivity' is not a number.");
+                        }
+                    }
+                    if (isNotBlank(poolIdleEviction))
+                    {
+                        try
+                        {
+                            httpConnectionPool.setIdleEvictionTime(Long.parseLong(poolIdleEviction));
+                        }
+                        catch (NumberFormatException e)
+                        {
+                            logger.warn("Configuration property 'http.pool.idle.eviction' is not a number.");
+                        }
+                    }
+                    if (isNotBlank(keepAlive))
+                    {
+                        try
+                        {
+                            httpConnectionPool.setKeepAlive(Long.parseLong(keepAlive));
+                        }
+                        catch (NumberFormatException e)
+                        {
+                            logger.warn("Configuration property 'http.keep.alive' is not a number.");
+                        }
+                    }
+                }
+                else if (isNotBlank(poolMaxPerRoute) || isNotBlank(poolMaxTotal) || isNotBlank(poolTimeToLive) ||
+                         isNotBlank(poolValidate) || isNotBlank(poolIdleEviction) || isNotBlank(keepAlive))
+                {
+                    logger.warn("HTTP connection pool properties are set but there is no connection pool to configure.");
+                }
             }
             else
             {
@@ -777,6 +1082,180 @@ public class ClarityAPIImpl implements ClarityAPI, ClarityAPIInternal
                 batchSize <= 0
                     ? BULK_OPERATION_BATCH_SIZE_HARD_LIMIT
                     : Math.min(batchSize, BULK_OPERATION_BATCH_SIZE_HARD_LIMIT);
+
+        RetrieveCoalescer coalescer = retrieveCoalescer;
+        if (coalescer != null)
+        {
+            coalescer.setMaximumBatchSize(bulkOperationBatchSize);
+        }
+    }
+
+    /**
+     * Set the window for coalescing individual retrievals into batch retrievals.
+     *
+     * <p>
+     * When this is greater than zero, {@code retrieve} and {@code load} calls for
+     * a single entity of a type that can be fetched in batches do not go to the
+     * server straight away. The first call waits for up to this many milliseconds
+     * for calls from other threads for the same type of entity, then all of them
+     * are fetched with one batch retrieve (of no more than the bulk operation batch
+     * size) and each caller is given its own entity. This turns many concurrent
+     * single fetches, such as from a parallel stream or {@code AsyncClarityAPI},
+     * into a few batch calls. Calls made one after another from a single thread
+     * gain nothing and are delayed by the window, so only set this when loads are
+     * made concurrently.
+     * </p>
+     *
+     * <p>
+     * If a batch fetch fails (for example because one of the entities does not
+     * exist), each caller retrieves its entity individually, so errors are reported
+     * to the caller they belong to.
+     * </p>
+     *
+     * @param windowMillis The coalescing window in milliseconds. Zero or less turns
+     * coalescing off, which is the default.
+     *
+     * @since 2.34
+     */
+    public void setRetrieveCoalescingWindow(long windowMillis)
+    {
+        if (windowMillis <= 0)
+        {
+            retrieveCoalescer = null;
+        }
+        else
+        {
+            RetrieveCoalescer coalescer = retrieveCoalescer;
+            if (coalescer == null)
+            {
+                retrieveCoalescer = new RetrieveCoalescer(this::coalescedBatchRetrieve, windowMillis, bulkOperationBatchSize);
+            }
+            else
+            {
+                coalescer.setWindow(windowMillis);
+            }
+        }
+    }
+
+    /**
+     * Get whether single retrievals are being coalesced into batch retrievals.
+     *
+     * @return true if retrievals are coalesced, false if not.
+     *
+     * @since 2.34
+     *
+     * @see #setRetrieveCoalescingWindow(long)
+     */
+    public boolean isCoalescingRetrievals()
+    {
+        return retrieveCoalescer != null;
+    }
+
+    /**
+     * Get the number of batches of a bulk operation that can be sent to the
+     * server at the same time.
+     *
+     * @return The number of concurrent batches.
+     *
+     * @since 2.34
+     *
+     * @see ClarityAPI#setBulkOperationConcurrency(int)
+     */
+    public int getBulkOperationConcurrency()
+    {
+        return bulkOperationConcurrency;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setBulkOperationConcurrency(int concurrency)
+    {
+        bulkOperationConcurrency =
+                concurrency <= 0
+                    ? 1
+                    : Math.min(concurrency, BULK_OPERATION_CONCURRENCY_HARD_LIMIT);
+    }
+
+    /**
+     * Get the maximum length of the query string of a search.
+     *
+     * @return The maximum query string length, in characters once URL encoded.
+     *
+     * @since 2.34
+     *
+     * @see #setMaximumQueryLength(int)
+     */
+    public int getMaximumQueryLength()
+    {
+        return maximumQueryLength;
+    }
+
+    /**
+     * Set the maximum length of the query string of a search. Searches by
+     * {@code find}, {@code listQueue} and their streaming equivalents whose
+     * query string would be longer than this are split into several searches
+     * over parts of the longest multi-valued search term, and the results merged.
+     *
+     * @param length The maximum query string length, in characters once URL encoded.
+     * Values less than 256 are raised to 256.
+     *
+     * @since 2.34
+     */
+    public void setMaximumQueryLength(int length)
+    {
+        maximumQueryLength = Math.max(length, MINIMUM_QUERY_LENGTH_LIMIT);
+    }
+
+    /**
+     * Set the executor used to run batches of bulk operations concurrently.
+     * If this is not set, a pool of daemon threads is created when first needed.
+     *
+     * @param executor The executor service. If null, the default pool will be
+     * created when needed.
+     *
+     * @since 2.34
+     *
+     * @see #setBulkOperationConcurrency(int)
+     */
+    @Autowired(required = false)
+    @Qualifier("clarityBulkOperationExecutor")
+    public synchronized void setBulkOperationExecutor(ExecutorService executor)
+    {
+        if (ownBulkOperationExecutor && bulkOperationExecutor != null)
+        {
+            bulkOperationExecutor.shutdown();
+        }
+        bulkOperationExecutor = executor;
+        ownBulkOperationExecutor = false;
+    }
+
+    /**
+     * Get the executor for running batches of bulk operations, creating
+     * the default pool if one has not been set.
+     *
+     * @return The executor service.
+     *
+     * @since 2.34
+     */
+    protected synchronized ExecutorService getBulkOperationExecutor()
+    {
+        if (bulkOperationExecutor == null)
+        {
+            final ThreadFactory defaultFactory = Executors.defaultThreadFactory();
+            final AtomicInteger threadCount = new AtomicInteger();
+
+            bulkOperationExecutor = Executors.newCachedThreadPool(r ->
+            {
+                Thread t = defaultFactory.newThread(r);
+                t.setName("clarity-bulk-" + threadCount.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+            ownBulkOperationExecutor = true;
+        }
+        return bulkOperationExecutor;
     }
 
     /**
@@ -849,6 +1328,23 @@ public class ClarityAPIImpl implements ClarityAPI, ClarityAPIInternal
         initialisingConfiguration = null;
     }
 
+    /**
+     * Release resources held by this object when it is being disposed of.
+     * Shuts down the bulk operation thread pool if this object created it.
+     *
+     * @since 2.34
+     */
+    @PreDestroy
+    public synchronized void shutdown()
+    {
+        if (ownBulkOperationExecutor && bulkOperationExecutor != null)
+        {
+            bulkOperationExecutor.shutdown();
+            bulkOperationExecutor = null;
+            ownBulkOperationExecutor = false;
+        }
+    }
+
     // Internal consistency methods.
 
     /**
@@ -1317,6 +1813,85 @@ public class ClarityAPIImpl implements ClarityAPI, ClarityAPIInternal
     @Override
     public <E extends Locatable>
     List<LimsLink<E>> find(Map<String, ?> searchTerms, Class<E> entityClass)
+    {
+        List<String> uris = makeFindUris(searchTerms, entityClass);
+
+        if (uris.size() == 1)
+        {
+            return doList(uris.get(0), entityClass, Integer.MAX_VALUE);
+        }
+
+        // The search is too big for one URI, so search for each part and merge.
+
+        List<Supplier<List<LimsLink<E>>>> tasks = new ArrayList<Supplier<List<LimsLink<E>>>>(uris.size());
+        for (String uri : uris)
+        {
+            tasks.add(() -> doList(uri, entityClass, Integer.MAX_VALUE));
+        }
+
+        return mergeLinkLists(runBulkTasks(tasks));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public <E extends Locatable>
+    Stream<LimsLink<E>> streamAll(Class<E> entityClass)
+    {
+        ClarityEntity entityAnno = checkEntityAnnotated(entityClass);
+
+        checkServerSet();
+
+        String startUri = apiRoot + entityAnno.uriSection();
+
+        Class<? extends Batch<? extends LimsLink<E>>> batchClass = getQueryResultsClassForEntity(entityClass);
+
+        return doStream(startUri, entityClass, batchClass);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public <E extends Locatable>
+    Stream<LimsLink<E>> streamFind(Map<String, ?> searchTerms, Class<E> entityClass)
+    {
+        List<String> uris = makeFindUris(searchTerms, entityClass);
+
+        Class<? extends Batch<? extends LimsLink<E>>> batchClass = getQueryResultsClassForEntity(entityClass);
+
+        if (uris.size() == 1)
+        {
+            return doStream(uris.get(0), entityClass, batchClass);
+        }
+
+        return distinctLinks(uris.stream().flatMap(uri -> doStream(uri, entityClass, batchClass)));
+    }
+
+    /**
+     * Assemble the URIs for a search for entities of the given type. Normally
+     * there is one URI, but there will be more if the search terms make the URI
+     * too long.
+     *
+     * @param searchTerms The terms to use for the search.
+     * @param entityClass The type of entity to search for.
+     *
+     * @param <E> The type of the entity.
+     *
+     * @return The URIs for the first page of each part of the search.
+     *
+     * @throws IllegalSearchTermException if any term in {@code searchTerms} is
+     * found to be illegal.
+     *
+     * @throws IllegalArgumentException if {@code entityClass} is annotated to be
+     * a part of another entity (its {@code primaryEntity} attribute is set).
+     *
+     * @see #find(Map, Class)
+     * @see #streamFind(Map, Class)
+     */
+    private <E extends Locatable>
+    List<String> makeFindUris(Map<String, ?> searchTerms, Class<E> entityClass)
     {
         ClarityEntity entityAnno = checkEntityAnnotated(entityClass);
 
@@ -1332,16 +1907,126 @@ public class ClarityAPIImpl implements ClarityAPI, ClarityAPIInternal
 
         checkServerSet();
 
-        StringBuilder query = expandSearchTerms(searchTerms);
+        return makeSearchUris(apiRoot + entityAnno.uriSection(), searchTerms);
+    }
 
-        StringBuilder uri = new StringBuilder(256 + query.length());
-        uri.append(apiRoot).append(entityAnno.uriSection());
-        if (query.length() > 0)
+    /**
+     * Assemble the URIs for a search from the base URI and the search terms.
+     * If the query string would be longer than the maximum query length, the
+     * search is split into several URIs.
+     *
+     * @param base The URI to add the query to.
+     * @param searchTerms The terms to use for the search.
+     *
+     * @return The URIs for the search.
+     *
+     * @throws IllegalSearchTermException if any term in {@code searchTerms} is
+     * found to be illegal.
+     *
+     * @see #expandSearchTermsInParts(Map, int)
+     */
+    private List<String> makeSearchUris(String base, Map<String, ?> searchTerms)
+    {
+        List<StringBuilder> queries = expandSearchTermsInParts(searchTerms, maximumQueryLength);
+
+        List<String> uris = new ArrayList<String>(queries.size());
+        for (StringBuilder query : queries)
+        {
+            StringBuilder uri = new StringBuilder(base.length() + 1 + query.length());
+            uri.append(base);
+            if (query.length() > 0)
+            {
+                uri.append('?').append(query);
+            }
+            uris.add(uri.toString());
+        }
+        return uris;
+    }
+
+    /**
+     * Merge the lists of links from the parts of a split search, removing
+     * links to the same entity (compared by URI path).
+     *
+     * @param <L> The type of link.
+     * @param lists The lists of links.
+     *
+     * @return A single list of the distinct links, in the order first found.
+     *
+     * @since 2.34
+     */
+    private <L extends Locatable>
+    List<L> mergeLinkLists(List<List<L>> lists)
+    {
+        Map<String, L> merged = new LinkedHashMap<String, L>();
+        for (List<L> list : lists)
+        {
+            for (L link : list)
+            {
+                merged.putIfAbsent(link.getUri().getPath(), link);
+            }
+        }
+        return new ArrayList<L>(merged.values());
+    }
+
+    /**
+     * Filter a stream of links from the parts of a split search so only the first
+     * link to each entity (compared by URI path) passes.
+     *
+     * @param <L> The type of link.
+     * @param links The links from all parts of the search.
+     *
+     * @return A stream of the distinct links.
+     *
+     * @since 2.34
+     */
+    private <L extends Locatable>
+    Stream<L> distinctLinks(Stream<L> links)
+    {
+        Set<String> seen = new HashSet<String>();
+        return links.filter(link -> seen.add(link.getUri().getPath()));
+    }
+
+    /**
+     * Create a lazy stream of links from a list or search operation. Pages of
+     * results are fetched from the server as the stream is consumed.
+     *
+     * @param uri The URI to use for the list.
+     * @param entityClass The type of entities required (or rather links to such entities).
+     * @param batchClass The type of object to use for fetching the links.
+     *
+     * @param <E> The type of the entity.
+     * @param <BH> The type of the batch fetch object that holds the list of links
+     * to these entities.
+     *
+     * @return A stream of links to the entities found.
+     *
+     * @throws IllegalArgumentException if {@code entityClass} is annotated to be
+     * a part of another entity (its {@code primaryEntity} attribute is set).
+     *
+     * @since 2.34
+     */
+    private <E extends Locatable, BH extends Batch<? extends LimsLink<E>>>
+    Stream<LimsLink<E>> doStream(String uri, Class<E> entityClass, Class<BH> batchClass)
+    {
+        ClarityEntity entityAnno = checkEntityAnnotated(entityClass);
+
+        String entityClassName = getShortClassName(entityClass);
+
+        if (entityAnno.primaryEntity() != void.class)
         {
-            uri.append('?').append(query);
+            String primaryName = getShortClassName(entityAnno.primaryEntity());
+
+            throw new IllegalArgumentException(
+                    "Cannot list all " + entityClassName + "s as they are part of " + primaryName + ". " +
+                    "A " + primaryName + " should supply a list of its relevant " + entityClassName + "s.");
         }
 
-        return doList(uri.toString(), entityClass, Integer.MAX_VALUE);
+        PagedLinkIterator<E, BH> iterator = new PagedLinkIterator<E, BH>(restClient, uri, batchClass, entityClassName);
+
+        Spliterator<LimsLink<E>> spliterator =
+                Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.NONNULL);
+
+        return StreamSupport.stream(spliterator, false).onClose(iterator::close);
     }
 
     /**
@@ -1383,6 +2068,12 @@ public class ClarityAPIImpl implements ClarityAPI, ClarityAPIInternal
      * the API returns them in.
      * </p>
      *
+     * <p>
+     * If the bulk operation concurrency is greater than one, pages after the
+     * next are fetched at the same time as it, up to the concurrency limit and
+     * no more than are needed for {@code number} links.
+     * </p>
+     *
      * @param uri The URI to use for the list.
      * @param entityClass The type of entities required (or rather links to such entities).
      * @param batchClass The type of object to use for fetching the links.
@@ -1421,51 +2112,221 @@ public class ClarityAPIImpl implements ClarityAPI, ClarityAPIInternal
         // into %2B escaped characters. So for subsequent pages, take the URI
         // as given from the response.
 
-        URI nextPageUri = null;
-        do
+        logger.debug("Fetching first batch of {} links from {}", entityClassName, uri);
+
+        // First page
+        BH firstBatch = restClient.getForEntity(uri, batchClass).getBody();
+
+        addLinksFromPage(allLinks, firstBatch, number);
+
+        URI nextPageUri = getNextPageUri(firstBatch);
+        long pageStart = getStartIndex(uri, 0L);
+
+        while (nextPageUri != null && allLinks.size() < number)
         {
-            ResponseEntity<BH> response;
-            if (nextPageUri == null)
+            // Later batches. The first in each round is the page the server has told us
+            // comes next. If we are allowed to, fetch more pages ahead of it by advancing
+            // the start index in the server's URI by the page size.
+
+            List<URI> pageUris = predictPageUris(nextPageUri, pageStart, number - allLinks.size());
+
+            List<Supplier<BH>> tasks = new ArrayList<Supplier<BH>>(pageUris.size());
+            for (int i = 0; i < pageUris.size(); i++)
             {
-                logger.debug("Fetching first batch of {} links from {}", entityClassName, uri);
+                final URI pageUri = pageUris.get(i);
+                final boolean speculative = i > 0;
 
-                // First page
-                response = restClient.getForEntity(uri, batchClass);
+                tasks.add(() ->
+                {
+                    logger.debug("Fetching further batch of {} links from {}", entityClassName, pageUri);
+
+                    try
+                    {
+                        ResponseEntity<BH> response = restClient.getForEntity(pageUri, batchClass);
+                        return response == null ? null : response.getBody();
+                    }
+                    catch (RuntimeException e)
+                    {
+                        if (!speculative)
+                        {
+                            throw e;
+                        }
+                        // A page fetched ahead may be beyond the end of the list. It is
+                        // not needed if so, and if it is needed it will be fetched again.
+                        logger.debug("Fetching ahead to {} failed: {}", pageUri, e.getMessage());
+                        return null;
+                    }
+                });
             }
-            else
+
+            List<BH> pages = runBulkTasks(tasks);
+
+            nextPageUri = null;
+            for (int i = 0; i < pages.size() && allLinks.size() < number; i++)
             {
-                logger.debug("Fetching further batch of {} links from {}", entityClassName, nextPageUri);
+                BH batch = pages.get(i);
+                if (batch == null)
+                {
+                    // Only possible for pages fetched ahead. Fetch it again as the
+                    // page the server says should be next.
+                    nextPageUri = pageUris.get(i);
+                    break;
+                }
+
+                addLinksFromPage(allLinks, batch, number);
 
-                // Later batches.
-                response = restClient.getForEntity(nextPageUri, batchClass);
+                pageStart = getStartIndex(pageUris.get(i).toString(), pageStart);
+                nextPageUri = getNextPageUri(batch);
+
+                if (nextPageUri == null ||
+                    i + 1 >= pageUris.size() ||
+                    !nextPageUri.toString().equals(pageUris.get(i + 1).toString()))
+                {
+                    // Either the end of the list, the end of this round, or the server's
+                    // idea of the next page is not what was predicted. In the last case,
+                    // throw away the later pages and continue from where the server says.
+                    break;
+                }
+                nextPageUri = null;
             }
+        }
+
+        allLinks.trimToSize();
+        return allLinks;
+    }
 
-            BH batch = response.getBody();
+    /**
+     * Add the links from a page of results to the list being assembled, up to
+     * the number required.
+     *
+     * @param allLinks The list of links being assembled.
+     * @param batch The page of results from the server.
+     * @param number The maximum number of links required.
+     *
+     * @param <E> The type of the entity.
+     *
+     * @since 2.34
+     */
+    private <E extends Locatable>
+    void addLinksFromPage(ArrayList<LimsLink<E>> allLinks, Batch<? extends LimsLink<E>> batch, int number)
+    {
+        Iterator<? extends LimsLink<E>> iter = batch.iterator();
+        int toAdd = Math.min(batch.getSize(), number - allLinks.size());
 
-            Iterator<? extends LimsLink<E>> iter = batch.iterator();
-            int toAdd = Math.min(batch.getSize(), number - allLinks.size());
+        allLinks.ensureCapacity(allLinks.size() + toAdd);
 
-            allLinks.ensureCapacity(allLinks.size() + toAdd);
+        for (; iter.hasNext() && toAdd > 0; toAdd--)
+        {
+            allLinks.add(iter.next());
+        }
+    }
+
+    /**
+     * Get the URI of the next page of results from a batch, if the batch is
+     * paginated and there is a next page.
+     *
+     * @param batch The batch returned from the server.
+     *
+     * @return The URI of the next page, exactly as given by the server,
+     * or null if there are no more pages.
+     *
+     * @since 2.34
+     */
+    private URI getNextPageUri(Batch<?> batch)
+    {
+        URI nextPageUri = null;
+        if (batch instanceof PaginatedBatch<?> paginatedBatch && paginatedBatch.getNextPage() != null)
+        {
+            nextPageUri = paginatedBatch.getNextPage().getUri();
+        }
+        return nextPageUri;
+    }
 
-            for (; iter.hasNext() && toAdd > 0; toAdd--)
+    /**
+     * Get the value of the {@code start-index} parameter from a list URI.
+     *
+     * @param uri The URI string.
+     * @param defaultValue The value to return if the URI does not have a start index.
+     *
+     * @return The start index from the URI, or {@code defaultValue} if there isn't one.
+     *
+     * @since 2.34
+     */
+    private long getStartIndex(String uri, long defaultValue)
+    {
+        Matcher m = START_INDEX_PATTERN.matcher(uri);
+        if (m.find())
+        {
+            try
+            {
+                return Long.parseLong(m.group(2));
+            }
+            catch (NumberFormatException e)
             {
-                allLinks.add(iter.next());
+                // Fall through to default.
             }
+        }
+        return defaultValue;
+    }
 
-            nextPageUri = null;
-            if (PaginatedBatch.class.isAssignableFrom(batchClass))
+    /**
+     * Work out the URIs of the pages to fetch in the next round of a list
+     * operation. The first is always the next page URI given by the server. If
+     * the bulk operation concurrency allows, the URIs of following pages are
+     * predicted by advancing the {@code start-index} parameter of the server's URI
+     * by the page size.
+     *
+     * <p>
+     * The predicted URIs are made by substituting the start index in the text of
+     * the server's URI, so the rest of the URI is exactly as the server gave it.
+     * It is never decoded and encoded again.
+     * </p>
+     *
+     * @param nextPageUri The next page URI given by the server.
+     * @param pageStart The start index of the page that gave {@code nextPageUri}.
+     * @param remaining The number of links still required.
+     *
+     * @return A list of page URIs, starting with {@code nextPageUri}.
+     *
+     * @since 2.34
+     *
+     * @see #setBulkOperationConcurrency(int)
+     */
+    private List<URI> predictPageUris(URI nextPageUri, long pageStart, int remaining)
+    {
+        List<URI> pageUris = new ArrayList<URI>(bulkOperationConcurrency);
+        pageUris.add(nextPageUri);
+
+        if (bulkOperationConcurrency > 1)
+        {
+            String template = nextPageUri.toString();
+            Matcher m = START_INDEX_PATTERN.matcher(template);
+            if (m.find())
             {
-                PaginatedBatch<?> paginatedBatch = (PaginatedBatch<?>)batch;
-                if (paginatedBatch.getNextPage() != null)
+                long nextStart = getStartIndex(template, -1L);
+                long pageSize = nextStart - pageStart;
+
+                if (nextStart >= 0 && pageSize > 0)
                 {
-                    nextPageUri = paginatedBatch.getNextPage().getUri();
+                    // The number of pages needed, counting the one the server gave, to get
+                    // what is required.
+                    long pagesNeeded = (remaining + pageSize - 1) / pageSize;
+                    long pages = Math.min(bulkOperationConcurrency, pagesNeeded);
+
+                    for (int page = 1; page < pages; page++)
+                    {
+                        StringBuilder sb = new StringBuilder(template.length() + 8);
+                        sb.append(template, 0, m.start(2));
+                        sb.append(nextStart + page * pageSize);
+                        sb.append(template, m.end(2), template.length());
+
+                        pageUris.add(toURI(sb));
+                    }
                 }
             }
         }
-        while (nextPageUri != null && allLinks.size() < number);
 
-        allLinks.trimToSize();
-        return allLinks;
+        return pageUris;
     }
 
     /**
@@ -1501,10 +2362,51 @@ public class ClarityAPIImpl implements ClarityAPI, ClarityAPIInternal
             uri = removeStateParameter(uri);
         }
 
+        RetrieveCoalescer coalescer = retrieveCoalescer;
+        if (coalescer != null && isEmpty(anno.uriSubsection()) && getBatchRetrieveClassForEntity(entityClass) != null)
+        {
+            E entity = coalescer.retrieve(uri, entityClass);
+            if (entity != null)
+            {
+                return entity;
+            }
+        }
+
         ResponseEntity<E> response = restClient.getForEntity(uri, entityClass);
         return response.getBody();
     }
 
+    /**
+     * Fetch a group of entities gathered by the retrieve coalescer with one
+     * batch retrieve. The URIs are sent exactly as given, as any state parameters
+     * have already been dealt with by the threads that asked for them.
+     *
+     * @param <E> The type of the entities.
+     * @param entityClass The class of the entities.
+     * @param uris The URIs of the entities.
+     *
+     * @return The entities fetched, in any order.
+     *
+     * @see #setRetrieveCoalescingWindow(long)
+     */
+    private <E extends Locatable>
+    List<E> coalescedBatchRetrieve(Class<E> entityClass, List<URI> uris)
+    {
+        Class<Batch<E>> batchFetchResultClass = getBatchRetrieveClassForEntity(entityClass);
+        ClarityEntity entityAnno = checkEntityAnnotated(entityClass);
+        checkServerSet();
+
+        Links links = new Links(uris.size());
+        for (URI uri : uris)
+        {
+            links.add(new Link(entityAnno.uriSection(), uri));
+        }
+
+        String uri = apiRoot + entityAnno.uriSection() + "/batch/retrieve";
+        ResponseEntity<Batch<E>> response = restClient.postForEntity(uri, links, batchFetchResultClass);
+        return response.getBody().getList();
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -1571,34 +2473,41 @@ public class ClarityAPIImpl implements ClarityAPI, ClarityAPIInternal
 
                 boolean stripState = entityAnno.stateful() && isFetchLatestVersions();
 
-                final int batchCapacity = Math.min(bulkOperationBatchSize, links.size());
-                List<LimsLink<E>> batch = new ArrayList<LimsLink<E>>(batchCapacity);
+                List<List<LimsLink<E>>> batches = splitIntoBatches(links);
 
-                Iterator<? extends LimsLink<E>> linkIter = links.iterator();
-
-                while (linkIter.hasNext())
+                List<Supplier<List<E>>> tasks = new ArrayList<Supplier<List<E>>>(batches.size());
+                for (List<LimsLink<E>> batch : batches)
                 {
-                    batch.clear();
-
-                    while (linkIter.hasNext() && batch.size() < batchCapacity)
+                    tasks.add(() ->
                     {
-                        batch.add(linkIter.next());
-                    }
-
-                    ResponseEntity<Batch<E>> response = restClient.postForEntity(uri, toLinks(batch, stripState), batchFetchResultClass);
+                        ResponseEntity<Batch<E>> response = restClient.postForEntity(uri, toLinks(batch, stripState), batchFetchResultClass);
+                        return response.getBody().getList();
+                    });
+                }
 
-                    entities.addAll(response.getBody().getList());
+                for (List<E> fetched : runBulkTasks(tasks))
+                {
+                    entities.addAll(fetched);
                 }
 
                 reorderBatchFetchList(links, entities);
             }
             else
             {
+                // No batch fetch, so fetch each entity individually (concurrently
+                // if allowed). Whether to strip the state must be decided on this
+                // thread as that's where any stateful override is set.
+
+                boolean stripState = checkEntityAnnotated(entityClass).stateful() && isFetchLatestVersions();
+
+                List<Supplier<E>> tasks = new ArrayList<Supplier<E>>(links.size());
                 for (LimsLink<E> limsLink : links)
                 {
-                    E entity = retrieve(limsLink.getUri(), limsLink.getEntityClass());
-                    entities.add(entity);
+                    URI uri = stripState ? removeStateParameter(limsLink.getUri()) : limsLink.getUri();
+                    tasks.add(() -> restClient.getForEntity(uri, entityClass).getBody());
                 }
+
+                entities.addAll(runBulkTasks(tasks));
             }
         }
         return entities;
@@ -1608,20 +2517,99 @@ public class ClarityAPIImpl implements ClarityAPI, ClarityAPIInternal
      * {@inheritDoc}
      */
     @Override
-    public <E extends LimsEntity<E>>
-    void reload(E entity)
+    public <E extends Locatable>
+    Stream<E> streamLoadAll(Collection<? extends LimsLink<E>> links)
     {
-        if (entity != null)
+        if (links == null || links.isEmpty())
         {
-            if (entity.getUri() == null)
-            {
-                throw new IllegalArgumentException("entity has no URI set. It has not yet been created.");
-            }
+            return Stream.empty();
+        }
 
-            @SuppressWarnings("unchecked")
-            E newCopy = (E)retrieve(entity.getUri(), entity.getClass());
+        Class<E> entityClass = checkLinkCollectionHomogeneousAndUnique(links);
 
-            reflectiveUpdate(entity, newCopy);
+        assert entityClass != null : "entityClass is null when collection is not empty";
+
+        // Whether to strip the state must be decided now, on this thread, as the
+        // stateful override will have been cleared by the time the stream is read.
+
+        ClarityEntity entityAnno = checkEntityAnnotated(entityClass);
+        boolean stripState = entityAnno.stateful() && isFetchLatestVersions();
+
+        if (getBatchRetrieveClassForEntity(entityClass) == null)
+        {
+            // No batch fetch, so fetch each entity as the stream reaches it.
+
+            List<URI> uris = new ArrayList<URI>(links.size());
+            for (LimsLink<E> limsLink : links)
+            {
+                uris.add(stripState ? removeStateParameter(limsLink.getUri()) : limsLink.getUri());
+            }
+
+            return uris.stream().map(uri -> restClient.getForEntity(uri, entityClass).getBody());
+        }
+
+        checkServerSet();
+
+        if (jaxbMarshaller == null || jaxbUnmarshaller == null)
+        {
+            throw new IllegalStateException("JAXB marshaller and unmarshaller have not been set.");
+        }
+
+        List<List<LimsLink<E>>> batches = splitIntoBatches(links);
+
+        List<Links> chunks = new ArrayList<Links>(batches.size());
+        for (List<LimsLink<E>> batch : batches)
+        {
+            chunks.add(toLinks(batch, stripState));
+        }
+
+        URI uri = toURI(apiRoot + entityAnno.uriSection() + "/batch/retrieve");
+
+        BatchRetrieveIterator<E> iterator =
+                new BatchRetrieveIterator<E>(restClient, jaxbMarshaller, jaxbUnmarshaller, uri, entityClass, chunks);
+
+        Spliterator<E> spliterator =
+                Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.NONNULL);
+
+        return StreamSupport.stream(spliterator, false).onClose(iterator::close);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public <E extends Locatable>
+    void forEachLoaded(Collection<? extends LimsLink<E>> links, Consumer<? super E> consumer)
+    {
+        if (consumer == null)
+        {
+            throw new IllegalArgumentException("consumer cannot be null");
+        }
+
+        try (Stream<E> entities = streamLoadAll(links))
+        {
+            entities.forEach(consumer);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public <E extends LimsEntity<E>>
+    void reload(E entity)
+    {
+        if (entity != null)
+        {
+            if (entity.getUri() == null)
+            {
+                throw new IllegalArgumentException("entity has no URI set. It has not yet been created.");
+            }
+
+            @SuppressWarnings("unchecked")
+            E newCopy = (E)retrieve(entity.getUri(), entity.getClass());
+
+            reflectiveUpdate(entity, newCopy);
         }
     }
 
@@ -1821,80 +2809,49 @@ public class ClarityAPIImpl implements ClarityAPI, ClarityAPIInternal
             {
                 try
                 {
-                    List<E> createdEntities = new ArrayList<E>(entities.size());
-                    Links createdLinks = new Links(entities.size());
-
-                    final int batchCapacity = Math.min(bulkOperationBatchSize, entities.size());
-                    List<E> batch = new ArrayList<E>(batchCapacity);
+                    Constructor<BH> batchRetrieveConstructor = batchRetrieveClass.getConstructor();
 
-                    Iterator<E> entityIter = entities.iterator();
-
-                    while (entityIter.hasNext())
+                    List<BulkWriteChunk<E, BH>> chunks = new ArrayList<BulkWriteChunk<E, BH>>();
+                    for (List<E> batch : splitIntoBatches(entities))
                     {
-                        batch.clear();
-
-                        while (entityIter.hasNext() && batch.size() < batchCapacity)
-                        {
-                            batch.add(entityIter.next());
-                        }
-
-                        Constructor<BH> batchRetrieveConstructor = batchRetrieveClass.getConstructor();
                         BH details = batchRetrieveConstructor.newInstance();
-
                         details.addForCreate(batch);
+                        chunks.add(new BulkWriteChunk<E, BH>(batch, details));
+                    }
 
-                        String url = apiRoot + entityAnno.uriSection() + "/batch/create";
-
-                        ResponseEntity<Links> createReply =
-                                restClient.exchange(url, HttpMethod.POST, new HttpEntity<BH>(details), Links.class);
-                        Links replyLinks = createReply.getBody();
-
-                        assert replyLinks.getSize() == batch.size() :
-                            "Have " + replyLinks.getSize() + " links returned for " + batch.size() + " submitted entities.";
-
-                        // Need to record the links as they are returned from the create call
-                        // in the order they are returned (see below).
-
-                        createdLinks.addAll(replyLinks);
-
-                        // Fetch the new objects to make sure all the properties are correct.
+                    String createUrl = apiRoot + entityAnno.uriSection() + "/batch/create";
+                    String retrieveUrl = apiRoot + entityAnno.uriSection() + "/batch/retrieve";
 
-                        url = apiRoot + entityAnno.uriSection() + "/batch/retrieve";
+                    runBulkWrite(chunks, createUrl, retrieveUrl, batchRetrieveClass, "create", chunk ->
+                    {
+                        if (Sample.class.equals(entityClass))
+                        {
+                            // Special case for samples because we've found in tests that these do
+                            // not have their URIs returned in the correct order from the batch
+                            // create call. We can though use their location to match up the originals
+                            // to the new copies.
 
-                        ResponseEntity<BH> reloadReply =
-                                restClient.exchange(url, HttpMethod.POST, new HttpEntity<Links>(replyLinks), batchRetrieveClass);
+                            updateFromNewSamples(chunk.entities, chunk.reloaded);
+                        }
+                        else
+                        {
+                            // The fetch of the entities using the Links may not bring them back in
+                            // the order originally requested, so sort based on the order defined in
+                            // the links returned from the create call for this chunk.
 
-                        createdEntities.addAll(reloadReply.getBody().getList());
-                    }
+                            reorderBatchFetchList(chunk.written.getLinks(), chunk.reloaded);
 
-                    if (Sample.class.equals(entityClass))
-                    {
-                        // Special case for samples because we've found in tests that these do
-                        // not have their URIs returned in the correct order from the batch
-                        // create call. We can though use their location to match up the originals
-                        // to the new copies.
+                            // We must assume that the order of the URIs returned in the Links object
+                            // received after the creation POST is the same order as the original
+                            // objects were submitted. The entities returned after the load of those
+                            // objects may not be. So use the order of the Links URIs to update the
+                            // original entities.
+                            // This seems to hold true for containers, where every test (so far) sees
+                            // them coming back in the right order.
 
-                        updateFromNewSamples(entities, createdEntities);
-                    }
-                    else
-                    {
-                        // The fetch of the entities using the Links may not bring them back in
-                        // the order originally requested, so sort based on the order defined in
-                        // the createdLinks object (now a collection of the links from all the
-                        // batch call replies).
-
-                        reorderBatchFetchList(createdLinks.getLinks(), createdEntities);
-
-                        // We must assume that the order of the URIs returned in the Links object
-                        // received after the creation POST is the same order as the original
-                        // objects were submitted. The entities returned after the load of those
-                        // objects may not be. So use the order of the Links URIs to update the
-                        // original entities.
-                        // This seems to hold true for containers, where every test (so far) sees
-                        // them coming back in the right order.
-
-                        reflectiveCollectionUpdate(entities, createdEntities);
-                    }
+                            reflectiveCollectionUpdate(chunk.entities, chunk.reloaded);
+                        }
+                    });
                 }
                 catch (NoSuchMethodException e)
                 {
@@ -2128,54 +3085,29 @@ public class ClarityAPIImpl implements ClarityAPI, ClarityAPIInternal
             {
                 try
                 {
-                    List<E> updatedEntities = new ArrayList<E>(entities.size());
-
-                    final int batchCapacity = Math.min(bulkOperationBatchSize, entities.size());
-                    List<E> batch = new ArrayList<E>(batchCapacity);
-
-                    Iterator<E> entityIter = entities.iterator();
+                    Constructor<BH> batchUpdateConstructor = batchUpdateClass.getConstructor();
 
-                    while (entityIter.hasNext())
+                    List<BulkWriteChunk<E, BH>> chunks = new ArrayList<BulkWriteChunk<E, BH>>();
+                    for (List<E> batch : splitIntoBatches(entities))
                     {
-                        batch.clear();
-
-                        while (entityIter.hasNext() && batch.size() < batchCapacity)
-                        {
-                            batch.add(entityIter.next());
-                        }
-
-                        Constructor<BH> batchUpdateConstructor = batchUpdateClass.getConstructor();
                         BH details = batchUpdateConstructor.newInstance();
                         details.addForUpdate(batch);
-
-                        String url = apiRoot + entityAnno.uriSection() + "/batch/update";
-
-                        ResponseEntity<Links> updateReply =
-                                restClient.exchange(url, HttpMethod.POST, new HttpEntity<BH>(details), Links.class);
-                        Links replyLinks = updateReply.getBody();
-
-                        assert replyLinks.getSize() == batch.size() :
-                            "Have " + replyLinks.getSize() + " links returned for " + batch.size() + " submitted entities.";
-
-                        // Fetch the updated objects to make sure all the properties are correct.
-                        // Some may be disallowed or just not updated in the LIMS.
-
-                        url = apiRoot + entityAnno.uriSection() + "/batch/retrieve";
-
-                        ResponseEntity<BH> reloadReply =
-                                restClient.exchange(url, HttpMethod.POST, new HttpEntity<Links>(replyLinks), batchUpdateClass);
-
-                        updatedEntities.addAll(reloadReply.getBody().getList());
+                        chunks.add(new BulkWriteChunk<E, BH>(batch, details));
                     }
 
+                    String updateUrl = apiRoot + entityAnno.uriSection() + "/batch/update";
+                    String retrieveUrl = apiRoot + entityAnno.uriSection() + "/batch/retrieve";
+
                     // The fetch of the entities using the Links object may not bring them back in
                     // the order originally requested, so sort based on the order of the original
                     // entities. As these entities already existed, they will all have URIs to
                     // compare. We can then update the originals.
 
-                    reorderBatchFetchList(entities, updatedEntities);
-
-                    reflectiveCollectionUpdate(entities, updatedEntities);
+                    runBulkWrite(chunks, updateUrl, retrieveUrl, batchUpdateClass, "update", chunk ->
+                    {
+                        reorderBatchFetchList(chunk.entities, chunk.reloaded);
+                        reflectiveCollectionUpdate(chunk.entities, chunk.reloaded);
+                    });
                 }
                 catch (NoSuchMethodException e)
                 {
@@ -2237,20 +3169,53 @@ public class ClarityAPIImpl implements ClarityAPI, ClarityAPIInternal
      */
     @Override
     public <E extends Locatable>
-    void deleteAll(Collection<E> entities)
+    DeleteResults<E> deleteAll(Collection<E> entities)
     {
-        if (entities != null && !entities.isEmpty())
+        if (entities == null || entities.isEmpty())
+        {
+            return new DeleteResults<E>(Collections.<DeleteResults.Result<E>>emptyList());
+        }
+
+        checkCollectionHomogeneousAndUnique(entities, true);
+        Class<? extends Locatable> entityClass = classOfEntity(entities.iterator().next());
+
+        checkRemovable(entityClass);
+
+        // There is no batch delete, so send the individual deletes concurrently.
+        // Each task records its outcome rather than failing, so all are attempted.
+
+        List<Supplier<DeleteResults.Result<E>>> tasks = new ArrayList<Supplier<DeleteResults.Result<E>>>(entities.size());
+        for (E entity : entities)
         {
-            checkCollectionHomogeneousAndUnique(entities, true);
-            Class<? extends Locatable> entityClass = classOfEntity(entities.iterator().next());
+            assert entity != null : "Have null entity after check";
 
-            // There is no batch delete.
-            for (E entity : entities)
+            tasks.add(() ->
             {
-                assert entity != null : "Have null entity after check";
-                doDelete(entity.getUri(), entityClass);
-            }
+                try
+                {
+                    restClient.delete(entity.getUri());
+                    return new DeleteResults.Result<E>(entity, DeleteResults.Outcome.DELETED, null);
+                }
+                catch (ClarityException e)
+                {
+                    DeleteResults.Outcome outcome = e.isNotFound() ? DeleteResults.Outcome.NOT_FOUND : DeleteResults.Outcome.FAILED;
+                    return new DeleteResults.Result<E>(entity, outcome, e);
+                }
+                catch (RuntimeException e)
+                {
+                    return new DeleteResults.Result<E>(entity, DeleteResults.Outcome.FAILED, e);
+                }
+            });
         }
+
+        DeleteResults<E> results = new DeleteResults<E>(runBulkTasks(tasks));
+
+        if (results.hasFailures())
+        {
+            logger.warn("Deleting {} {} entities: {}", entities.size(), getShortClassName(entityClass), results);
+        }
+
+        return results;
     }
 
     /**
@@ -2298,6 +3263,25 @@ public class ClarityAPIImpl implements ClarityAPI, ClarityAPIInternal
      */
     private <E extends Locatable>
     void doDelete(URI uri, Class<E> entityClass)
+    {
+        checkRemovable(entityClass);
+
+        restClient.delete(uri);
+    }
+
+    /**
+     * Check that entities of the given class can be deleted through the API.
+     *
+     * @param <E> The type of the entity.
+     * @param entityClass The type of entity to delete.
+     *
+     * @throws ClarityUpdateException if the entities cannot be deleted via the API
+     * (as determined by the {@link ClarityEntity#removable()} flag).
+     *
+     * @since 2.34
+     */
+    private <E extends Locatable>
+    void checkRemovable(Class<E> entityClass)
     {
         ClarityEntity entityAnno = checkEntityAnnotated(entityClass);
 
@@ -2308,8 +3292,6 @@ public class ClarityAPIImpl implements ClarityAPI, ClarityAPIInternal
 
         assert entityAnno.primaryEntity() == void.class :
             entityClass.getName() + " has a primary entity set, but such things cannot be deleted through the API.";
-
-        restClient.delete(uri);
     }
 
 
@@ -2878,6 +3860,67 @@ public class ClarityAPIImpl implements ClarityAPI, ClarityAPIInternal
      */
     @Override
     public List<LimsEntityLink<Artifact>> listQueue(Linkable<ProtocolStep> protocolStep, Map<String, ?> searchTerms)
+    {
+        List<String> uris = makeQueueUris(protocolStep, searchTerms);
+
+        // The results list will always contain links that are LimsEntityLinks,
+        // actually com.genologics.ri.queue.ArtifactLink
+        // It is safe to recast the type of this list without copying.
+
+        List<?> results;
+        if (uris.size() == 1)
+        {
+            results = doList(uris.get(0), Artifact.class, Queue.class, Integer.MAX_VALUE);
+        }
+        else
+        {
+            List<Supplier<List<LimsLink<Artifact>>>> tasks = new ArrayList<Supplier<List<LimsLink<Artifact>>>>(uris.size());
+            for (String uri : uris)
+            {
+                tasks.add(() -> doList(uri, Artifact.class, Queue.class, Integer.MAX_VALUE));
+            }
+            results = mergeLinkLists(runBulkTasks(tasks));
+        }
+
+        @SuppressWarnings("unchecked")
+        List<LimsEntityLink<Artifact>> properLinks = (List<LimsEntityLink<Artifact>>)results;
+
+        return properLinks;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Stream<LimsEntityLink<Artifact>> streamQueue(Linkable<ProtocolStep> protocolStep, Map<String, ?> searchTerms)
+    {
+        List<String> uris = makeQueueUris(protocolStep, searchTerms);
+
+        // As with listQueue, the links will always be LimsEntityLinks.
+
+        Stream<?> links = uris.size() == 1
+                ? doStream(uris.get(0), Artifact.class, Queue.class)
+                : distinctLinks(uris.stream().flatMap(uri -> doStream(uri, Artifact.class, Queue.class)));
+
+        @SuppressWarnings("unchecked")
+        Stream<LimsEntityLink<Artifact>> properLinks = (Stream<LimsEntityLink<Artifact>>)links;
+
+        return properLinks;
+    }
+
+    /**
+     * Assemble the URIs for listing the contents of a queue. Normally there is
+     * one URI, but there will be more if the search terms make the URI too long.
+     *
+     * @param protocolStep The protocol step of the queue (or a link to it).
+     * @param searchTerms The terms to use for the search.
+     *
+     * @return The URIs for the first page of each part of the queue.
+     *
+     * @see #listQueue(Linkable, Map)
+     * @see #streamQueue(Linkable, Map)
+     */
+    private List<String> makeQueueUris(Linkable<ProtocolStep> protocolStep, Map<String, ?> searchTerms)
     {
         if (protocolStep == null)
         {
@@ -2899,25 +3942,7 @@ public class ClarityAPIImpl implements ClarityAPI, ClarityAPIInternal
                     "/ (is \"" + protocolStep.getUri() + "\").");
         }
 
-        StringBuilder query = expandSearchTerms(searchTerms);
-
-        StringBuilder uri = new StringBuilder(256 + query.length());
-        uri.append(apiRoot).append("queues/").append(m.group(2));
-        if (query.length() > 0)
-        {
-            uri.append('?').append(query);
-        }
-
-        // The results list will always contain links that are LimsEntityLinks,
-        // actually com.genologics.ri.queue.ArtifactLink
-        // It is safe to recast the type of this list without copying.
-
-        List<?> results = doList(uri.toString(), Artifact.class, Queue.class, Integer.MAX_VALUE);
-
-        @SuppressWarnings("unchecked")
-        List<LimsEntityLink<Artifact>> properLinks = (List<LimsEntityLink<Artifact>>)results;
-
-        return properLinks;
+        return makeSearchUris(apiRoot + "queues/" + m.group(2), searchTerms);
     }
 
 
@@ -3012,6 +4037,293 @@ public class ClarityAPIImpl implements ClarityAPI, ClarityAPIInternal
         return uri;
     }
 
+    /**
+     * Split a collection of objects into lists of no more than the bulk
+     * operation batch size.
+     *
+     * @param <T> The type of object in the collection.
+     * @param things The objects to split.
+     *
+     * @return A list of batches, in the order of the original collection.
+     *
+     * @since 2.34
+     *
+     * @see #setBulkOperationBatchSize(int)
+     */
+    protected <T>
+    List<List<T>> splitIntoBatches(Collection<? extends T> things)
+    {
+        final int batchCapacity = Math.min(bulkOperationBatchSize, things.size());
+
+        List<List<T>> batches = new ArrayList<List<T>>(things.size() / Math.max(batchCapacity, 1) + 1);
+        List<T> batch = null;
+
+        for (T thing : things)
+        {
+            if (batch == null || batch.size() >= batchCapacity)
+            {
+                batch = new ArrayList<T>(batchCapacity);
+                batches.add(batch);
+            }
+            batch.add(thing);
+        }
+
+        return batches;
+    }
+
+    /**
+     * Run the tasks making up a bulk operation, allowing up to the bulk operation
+     * concurrency number of tasks to run at the same time. The calling thread
+     * takes part in running the tasks.
+     *
+     * <p>
+     * If any task fails, no further tasks are started and, once those already
+     * running have finished, the first failure is rethrown.
+     * </p>
+     *
+     * <p>
+     * Tasks may themselves run bulk tasks (a split search fetching several pages
+     * of each part, for example). With a bounded executor the extra workers
+     * submitted for the inner tasks may never start, so once the calling thread
+     * finds no more tasks to take, workers that have not yet started are
+     * cancelled rather than waited for.
+     * </p>
+     *
+     * @param <T> The type of result from each task.
+     * @param tasks The tasks to run.
+     *
+     * @return A list of the results of the tasks, in the same order as the tasks.
+     *
+     * @since 2.34
+     *
+     * @see #setBulkOperationConcurrency(int)
+     */
+    protected <T>
+    List<T> runBulkTasks(List<? extends Supplier<? extends T>> tasks)
+    {
+        final int workers = Math.min(bulkOperationConcurrency, tasks.size());
+
+        List<T> results = new ArrayList<T>(tasks.size());
+
+        if (workers <= 1)
+        {
+            for (Supplier<? extends T> task : tasks)
+            {
+                results.add(task.get());
+            }
+            return results;
+        }
+
+        final Object[] taskResults = new Object[tasks.size()];
+        final AtomicInteger nextTask = new AtomicInteger();
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+        Runnable worker = () ->
+        {
+            int index;
+            while (failure.get() == null && (index = nextTask.getAndIncrement()) < tasks.size())
+            {
+                try
+                {
+                    taskResults[index] = tasks.get(index).get();
+                }
+                catch (Throwable e)
+                {
+                    failure.compareAndSet(null, e);
+                }
+            }
+        };
+
+        ExecutorService executor = getBulkOperationExecutor();
+
+        List<AtomicBoolean> started = new ArrayList<AtomicBoolean>(workers - 1);
+        List<Future<?>> futures = new ArrayList<Future<?>>(workers - 1);
+        for (int w = 1; w < workers; w++)
+        {
+            final AtomicBoolean workerStarted = new AtomicBoolean();
+            started.add(workerStarted);
+            futures.add(executor.submit(() ->
+            {
+                if (workerStarted.compareAndSet(false, true))
+                {
+                    worker.run();
+                }
+            }));
+        }
+
+        worker.run();
+
+        boolean interrupted = false;
+        for (int w = 0; w < futures.size(); w++)
+        {
+            Future<?> future = futures.get(w);
+
+            if (started.get(w).compareAndSet(false, true))
+            {
+                // Still waiting for a thread, and there is nothing left for it to do.
+                future.cancel(false);
+                continue;
+            }
+
+            while (true)
+            {
+                try
+                {
+                    future.get();
+                    break;
+                }
+                catch (InterruptedException e)
+                {
+                    interrupted = true;
+                }
+                catch (CancellationException e)
+                {
+                    break;
+                }
+                catch (ExecutionException e)
+                {
+                    failure.compareAndSet(null, e.getCause());
+                    break;
+                }
+            }
+        }
+        if (interrupted)
+        {
+            Thread.currentThread().interrupt();
+        }
+
+        Throwable e = failure.get();
+        if (e instanceof RuntimeException re)
+        {
+            throw re;
+        }
+        if (e instanceof Error err)
+        {
+            throw err;
+        }
+        if (e != null)
+        {
+            throw new IllegalStateException("Unexpected checked exception from a bulk operation task.", e);
+        }
+
+        for (Object result : taskResults)
+        {
+            @SuppressWarnings("unchecked")
+            T typed = (T)result;
+            results.add(typed);
+        }
+
+        return results;
+    }
+
+    /**
+     * Run a bulk create or update, writing each chunk and then fetching the
+     * written entities back. Up to the bulk operation concurrency number of chunks
+     * are in progress at any time, so one chunk can be written while the entities
+     * of another are being fetched.
+     *
+     * <p>
+     * If a chunk fails, no further chunks are started. If no chunk had been
+     * committed in the server at that point, the original exception is rethrown.
+     * Otherwise a {@code ClarityBulkOperationException} is thrown recording which
+     * chunks were committed, and which of those were written but could not be
+     * fetched back.
+     * </p>
+     *
+     * @param <E> The type of the entity.
+     * @param <BH> The type of the object that is sent to perform the bulk write.
+     * @param chunks The chunks to write.
+     * @param writeUrl The URL to post each chunk's details to.
+     * @param retrieveUrl The batch retrieve URL for the entities.
+     * @param batchClass The class of the batch retrieve result.
+     * @param operation The name of the operation, for messages.
+     * @param completion Action to update the original entities in a chunk from
+     * those fetched back from the server. This is called on the thread that
+     * processed the chunk.
+     *
+     * @throws ClarityBulkOperationException if the operation fails after some
+     * chunks have been committed.
+     *
+     * @since 2.34
+     */
+    private <E extends Locatable, BH extends BatchUpdate<E>>
+    void runBulkWrite(List<BulkWriteChunk<E, BH>> chunks, String writeUrl, String retrieveUrl,
+                      Class<BH> batchClass, String operation, Consumer<BulkWriteChunk<E, BH>> completion)
+    {
+        List<Supplier<Void>> tasks = new ArrayList<Supplier<Void>>(chunks.size());
+        for (BulkWriteChunk<E, BH> chunk : chunks)
+        {
+            tasks.add(() ->
+            {
+                ResponseEntity<Links> writeReply =
+                        restClient.exchange(writeUrl, HttpMethod.POST, new HttpEntity<BH>(chunk.details), Links.class);
+                chunk.written = writeReply.getBody();
+
+                assert chunk.written.getSize() == chunk.entities.size() :
+                    "Have " + chunk.written.getSize() + " links returned for " + chunk.entities.size() + " submitted entities.";
+
+                // Fetch the new or updated objects to make sure all the properties are correct.
+                // Some may be disallowed or just not updated in the LIMS.
+
+                ResponseEntity<BH> reloadReply =
+                        restClient.exchange(retrieveUrl, HttpMethod.POST, new HttpEntity<Links>(chunk.written), batchClass);
+                chunk.reloaded = reloadReply.getBody().getList();
+
+                completion.accept(chunk);
+                chunk.completed = true;
+                return null;
+            });
+        }
+
+        try
+        {
+            runBulkTasks(tasks);
+        }
+        catch (RuntimeException e)
+        {
+            List<Integer> committedChunks = new ArrayList<Integer>();
+            List<E> committedEntities = new ArrayList<E>();
+            List<Link> committedLinks = new ArrayList<Link>();
+            List<Integer> unreloadedChunks = new ArrayList<Integer>();
+            List<E> unreloadedEntities = new ArrayList<E>();
+            List<Link> unreloadedLinks = new ArrayList<Link>();
+
+            for (int i = 0; i < chunks.size(); i++)
+            {
+                BulkWriteChunk<E, BH> chunk = chunks.get(i);
+                if (chunk.written != null)
+                {
+                    committedChunks.add(i);
+                    committedEntities.addAll(chunk.entities);
+                    committedLinks.addAll(chunk.written.getLinks());
+
+                    if (!chunk.completed)
+                    {
+                        unreloadedChunks.add(i);
+                        unreloadedEntities.addAll(chunk.entities);
+                        unreloadedLinks.addAll(chunk.written.getLinks());
+                    }
+                }
+            }
+
+            if (committedChunks.isEmpty())
+            {
+                throw e;
+            }
+
+            String entityName = getShortClassName(chunks.get(0).entities.get(0).getClass());
+
+            logger.error("Bulk {} of {} failed with {} of {} chunks committed ({} not fetched back): {}",
+                         operation, entityName, committedChunks.size(), chunks.size(), unreloadedChunks.size(), e.getMessage());
+
+            throw new ClarityBulkOperationException(
+                    "Bulk " + operation + " of " + entityName + " failed after " + committedChunks.size() +
+                    " of " + chunks.size() + " chunks were committed: " + e.getMessage(),
+                    e, chunks.size(), committedChunks, committedEntities, committedLinks,
+                    unreloadedChunks, unreloadedEntities, unreloadedLinks);
+        }
+    }
+
     /**
      * Create a {@code Links} object containing the URIs of the link objects
      * given. Use in batch fetch operations.
@@ -3116,6 +4428,167 @@ public class ClarityAPIImpl implements ClarityAPI, ClarityAPIInternal
         return query;
     }
 
+    /**
+     * Expand a map of search terms into one or more query strings, each no longer
+     * than the given length once URL encoded. If the whole query is too long, the
+     * values of the multi-valued term that takes up the most space are divided
+     * between several queries, each of which has all the other terms. As values of
+     * the same term are alternatives, the results of searching with all the queries
+     * together are the same as for the whole query.
+     *
+     * <p>
+     * If the query cannot be split enough (for example if the other terms are
+     * already too long), queries longer than the limit are returned.
+     * </p>
+     *
+     * @param searchTerms The terms to use for the search. A null value here
+     * is the same as an empty map.
+     * @param maximumLength The maximum URL encoded length of each query string.
+     *
+     * @return The query strings created from the search terms.
+     *
+     * @throws IllegalSearchTermException if any term in {@code searchTerms} is
+     * found to be illegal.
+     *
+     * @since 2.34
+     *
+     * @see #expandSearchTerms(Map)
+     */
+    protected List<StringBuilder> expandSearchTermsInParts(Map<String, ?> searchTerms, int maximumLength)
+    {
+        StringBuilder whole = expandSearchTerms(searchTerms);
+
+        if (encodedLength(whole) <= maximumLength)
+        {
+            return Collections.singletonList(whole);
+        }
+
+        // Find the multi-valued term that takes up the most space.
+
+        String splitParam = null;
+        List<Object> splitValues = null;
+        long splitLength = 0;
+
+        for (Map.Entry<String, ?> term : searchTerms.entrySet())
+        {
+            Object value = term.getValue();
+            List<Object> values = null;
+
+            if (value.getClass().isArray())
+            {
+                values = Arrays.asList((Object[])value);
+            }
+            else if (value instanceof Iterable<?> iterable)
+            {
+                values = new ArrayList<Object>();
+                for (Object v : iterable)
+                {
+                    values.add(v);
+                }
+            }
+
+            if (values != null && values.size() > 1)
+            {
+                StringBuilder part = new StringBuilder();
+                for (Object v : values)
+                {
+                    appendQueryTerm(part, term.getKey().toString(), v);
+                }
+                long length = encodedLength(part);
+                if (length > splitLength)
+                {
+                    splitParam = term.getKey().toString();
+                    splitValues = values;
+                    splitLength = length;
+                }
+            }
+        }
+
+        if (splitParam == null)
+        {
+            return Collections.singletonList(whole);
+        }
+
+        Map<String, Object> otherTerms = new LinkedHashMap<String, Object>();
+        for (Map.Entry<String, ?> term : searchTerms.entrySet())
+        {
+            if (!splitParam.equals(term.getKey().toString()))
+            {
+                otherTerms.put(term.getKey().toString(), term.getValue());
+            }
+        }
+
+        final StringBuilder common = expandSearchTerms(otherTerms);
+        final long commonLength = encodedLength(common);
+
+        List<StringBuilder> queries = new ArrayList<StringBuilder>();
+        StringBuilder query = null;
+        long queryLength = 0;
+
+        for (Object v : splitValues)
+        {
+            StringBuilder term = new StringBuilder();
+            appendQueryTerm(term, splitParam, v);
+            long termLength = encodedLength(term) + 1;
+
+            if (query == null || queryLength + termLength > maximumLength)
+            {
+                query = new StringBuilder(maximumLength);
+                query.append(common);
+                queryLength = commonLength;
+                queries.add(query);
+            }
+
+            if (query.length() > 0)
+            {
+                query.append('&');
+            }
+            query.append(term);
+            queryLength += termLength;
+        }
+
+        return queries;
+    }
+
+    /**
+     * Calculate the length of a query string once it has been URL encoded.
+     * Characters that are not unreserved in URIs (nor the separating '=' and '&amp;')
+     * take three characters for each of their UTF-8 bytes.
+     *
+     * @param query The query string.
+     *
+     * @return The length of the query string when encoded.
+     *
+     * @since 2.34
+     */
+    private static long encodedLength(CharSequence query)
+    {
+        long length = 0;
+        for (int i = 0; i < query.length(); i++)
+        {
+            char c = query.charAt(i);
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') ||
+                c == '-' || c == '.' || c == '_' || c == '~' || c == '=' || c == '&')
+            {
+                length++;
+            }
+            else if (c < 0x80)
+            {
+                length += 3;
+            }
+            else if (c < 0x800 || Character.isSurrogate(c))
+            {
+                // Surrogate pairs are four bytes in total, so six each.
+                length += 6;
+            }
+            else
+            {
+                length += 9;
+            }
+        }
+        return length;
+    }
+
     /**
      * Helper method to {@code expandSearchTerms}: builds up a query string with
      * joining ampersands and converts the value given into a string.
@@ -3221,22 +4694,18 @@ public class ClarityAPIImpl implements ClarityAPI, ClarityAPIInternal
      * object reference to {@code original}, which may be referenced in many places.
      *
      * <p>
-     * Where a field is a Collection, the existing collection is emptied and all the
-     * objects from that field in {@code updated} are added in the same order to the
-     * collection in {@code original}. Whether this order is maintained depends on
-     * the type of collection in {@code original} (a list will maintain order, a set
-     * typically won't).
-     * </p>
-     *
-     * <p>
      * Fields that are static, transient or final are ignored, as are any fields annotated
      * with the {@code @XmlTransient} annotation.
      * </p>
      *
      * <p>
      * Note that fields within the original object that are objects themselves (as opposed to
-     * primitives) are replaced with the new versions. References to sub objects are therefore
-     * no longer valid.
+     * primitives), including collections, are replaced with the new versions. References to
+     * sub objects are therefore no longer valid.
+     * </p>
+     *
+     * <p>
+     * The copying is done by an {@link EntityCopier}, created once for each class.
      * </p>
      *
      * @param original The original object that was provided in the call and needs updating.
@@ -3245,7 +4714,6 @@ public class ClarityAPIImpl implements ClarityAPI, ClarityAPIInternal
      * @throws IllegalArgumentException if either {@code original} or {@code updated}
      * are null, or are of different classes.
      */
-    @SuppressWarnings({"unchecked", "rawtypes"})
     protected void reflectiveUpdate(Object original, Object updated)
     {
         if (original == null)
@@ -3262,105 +4730,7 @@ public class ClarityAPIImpl implements ClarityAPI, ClarityAPIInternal
             throw new IllegalArgumentException("original and updated are of different classes");
         }
 
-        Class<?> clazz = original.getClass();
-
-        do
-        {
-            Map<String, java.lang.reflect.Field> fieldMap = updaterFields.get(clazz);
-            if (fieldMap == null)
-            {
-                fieldMap = Collections.synchronizedMap(new HashMap<String, java.lang.reflect.Field>());
-                updaterFields.put(clazz, fieldMap);
-
-                Class<?> currentClass = clazz;
-                while (!Object.class.equals(currentClass))
-                {
-                    for (java.lang.reflect.Field field : currentClass.getDeclaredFields())
-                    {
-                        // Skip transient and XmlTransient fields.
-                        if ((field.getModifiers() & REFLECTIVE_UPDATE_MODIFIER_MASK) == 0 &&
-                                field.getAnnotation(XmlTransient.class) == null)
-                        {
-                            field.setAccessible(true);
-                            java.lang.reflect.Field clash = fieldMap.put(field.getName(), field);
-                            if (clash != null)
-                            {
-                                throw new AssertionError("There is more than one field with the name '" + field.getName() +
-                                             " in the class hierarchy of " + clazz.getName() +
-                                             " (" + getShortClassName(field.getDeclaringClass()) + " and " +
-                                             getShortClassName(clash.getDeclaringClass()) + ")");
-                            }
-                        }
-                    }
-                    currentClass = currentClass.getSuperclass();
-                }
-            }
-
-            for (java.lang.reflect.Field field : fieldMap.values())
-            {
-                try
-                {
-                    Object originalValue = field.get(original);
-                    Object updatedValue = field.get(updated);
-
-                    if (Collection.class.isAssignableFrom(field.getDeclaringClass()))
-                    {
-                        Collection originalCollection = (Collection)originalValue;
-                        Collection updatedCollection = (Collection)updatedValue;
-
-                        if (originalCollection != null)
-                        {
-                            originalCollection.clear();
-                            if (updatedCollection != null)
-                            {
-                                originalCollection.addAll(updatedCollection);
-                            }
-                        }
-                        else
-                        {
-                            if (updatedCollection != null)
-                            {
-                                // Getting as a property should create the collection object.
-                                originalCollection = (Collection)PropertyUtils.getProperty(original, field.getName());
-                                originalCollection.addAll(updatedCollection);
-                            }
-                        }
-                    }
-                    else if (Map.class.isAssignableFrom(field.getDeclaringClass()))
-                    {
-                        throw new AssertionError("I didn't think we'd be dealing with maps: field " + field.getName() +
-                                                 " on class " + field.getDeclaringClass().getName());
-                    }
-                    else
-                    {
-                        field.set(original, updatedValue);
-                    }
-                }
-                catch (IllegalAccessException e)
-                {
-                    logger.error("Cannot access the property {} on the class {}",
-                                 field.getName(), field.getDeclaringClass().getName());
-                    fieldMap.remove(field.getName());
-                }
-                catch (NoSuchMethodException e)
-                {
-                    logger.error("There is no getter method for the property {} on the class {}",
-                                 field.getName(), field.getDeclaringClass().getName());
-                    fieldMap.remove(field.getName());
-                }
-                catch (InvocationTargetException e)
-                {
-                    logger.error("Error while getting collection property {}", field.getName(), e.getTargetException());
-                }
-                catch (ClassCastException e)
-                {
-                    logger.error("Cannot cast a {} to a Collection.", e.getMessage());
-                }
-            }
-
-            clazz = clazz.getSuperclass();
-        }
-        while (!Object.class.equals(clazz));
+        EntityCopier.forClass(original.getClass()).update(original, updated);
     }
 
     /**
@@ -3554,4 +4924,53 @@ public class ClarityAPIImpl implements ClarityAPI, ClarityAPIInternal
             return null;
         }
     }
+
+    /**
+     * The state of one chunk of a bulk create or update.
+     *
+     * @param <E> The type of the entity.
+     * @param <BH> The type of the object that is sent to perform the bulk write.
+     *
+     * @since 2.34
+     */
+    private static class BulkWriteChunk<E extends Locatable, BH extends BatchUpdate<E>>
+    {
+        /**
+         * The original entities in this chunk.
+         */
+        final List<E> entities;
+
+        /**
+         * The object sent to the server to write the entities.
+         */
+        final BH details;
+
+        /**
+         * The links returned by the server once the chunk has been written.
+         * Null until the server has committed the chunk.
+         */
+        volatile Links written;
+
+        /**
+         * The entities fetched back from the server after the write.
+         */
+        volatile List<E> reloaded;
+
+        /**
+         * Whether the original entities have been updated from those fetched back.
+         */
+        volatile boolean completed;
+
+        /**
+         * Constructor.
+         *
+         * @param entities The original entities in this chunk.
+         * @param details The object to send to the server.
+         */
+        BulkWriteChunk(List<E> entities, BH details)
+        {
+            this.entities = entities;
+            this.details = details;
+        }
+    }
 }
@@ -0,0 +1,244 @@
+/*
+ * CRUK-CI Clarity REST API Java Client.
+ * Copyright (C) 2013 Cancer Research UK Cambridge Institute.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cruk.clarity.api.impl;
+
+import static java.lang.invoke.MethodType.methodType;
+import static org.apache.commons.lang3.ClassUtils.getShortClassName;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import jakarta.xml.bind.annotation.XmlTransient;
+
+/**
+ * Copies the state of one object onto another of exactly the same class.
+ * This is used to update the objects given to create and update calls with
+ * the versions returned from the server.
+ *
+ * <p>
+ * A copier is built once for each class, the first time it is needed, and
+ * is thereafter shared by all threads. The copying is done by a single method
+ * handle that reads each field of the source object and writes it into the
+ * target, so there is no reflective look up or access checking when an object
+ * is copied.
+ * </p>
+ *
+ * <p>
+ * Fields that are static, transient or final are ignored, as are any fields annotated
+ * with the {@code @XmlTransient} annotation. Fields holding objects (including
+ * collections) are copied by reference.
+ * </p>
+ *
+ * @since 2.34
+ */
+public final class EntityCopier
+{
+    /**
+     * Combined mask for fields that are not to be copied.
+     */
+    private static final int IGNORED_FIELD_MODIFIER_MASK = Modifier.TRANSIENT | Modifier.STATIC | Modifier.FINAL;
+
+    /**
+     * The type of the copy handle: {@code (Object target, Object source)void}.
+     */
+    private static final MethodType COPY_TYPE = methodType(void.class, Object.class, Object.class);
+
+    /**
+     * The copiers created so far, one per class.
+     */
+    private static final ClassValue<EntityCopier> COPIERS = new ClassValue<EntityCopier>()
+    {
+        @Override
+        protected EntityCopier computeValue(Class<?> type)
+        {
+            return new EntityCopier(type);
+        }
+    };
+
+    /**
+     * The class this copier works with.
+     */
+    private final Class<?> type;
+
+    /**
+     * The fields this copier copies.
+     */
+    private final List<Field> fields;
+
+    /**
+     * Method handle that copies all the fields from one object to another.
+     */
+    private final MethodHandle copyHandle;
+
+
+    /**
+     * Constructor. Builds the copy handle for the given class.
+     *
+     * @param type The class of object to copy.
+     */
+    private EntityCopier(Class<?> type)
+    {
+        this.type = type;
+
+        Map<String, Field> fieldMap = new HashMap<String, Field>();
+        List<Field> copyFields = new ArrayList<Field>();
+
+        for (Class<?> currentClass = type; currentClass != null && !Object.class.equals(currentClass); currentClass = currentClass.getSuperclass())
+        {
+            for (Field field : currentClass.getDeclaredFields())
+            {
+                // Skip transient and XmlTransient fields.
+                if ((field.getModifiers() & IGNORED_FIELD_MODIFIER_MASK) == 0 &&
+                        field.getAnnotation(XmlTransient.class) == null)
+                {
+                    Field clash = fieldMap.put(field.getName(), field);
+                    if (clash != null)
+                    {
+                        throw new AssertionError("There is more than one field with the name '" + field.getName() +
+                                     " in the class hierarchy of " + type.getName() +
+                                     " (" + getShortClassName(field.getDeclaringClass()) + " and " +
+                                     getShortClassName(clash.getDeclaringClass()) + ")");
+                    }
+                    copyFields.add(field);
+                }
+            }
+        }
+
+        fields = Collections.unmodifiableList(copyFields);
+
+        MethodHandle handle = MethodHandles.empty(COPY_TYPE);
+
+        try
+        {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+            for (Field field : copyFields)
+            {
+                MethodHandles.Lookup fieldLookup =
+                        MethodHandles.privateLookupIn(field.getDeclaringClass(), lookup);
+
+                // (Object source)Object
+                MethodHandle getter = fieldLookup.unreflectGetter(field)
+                        .asType(methodType(Object.class, Object.class));
+
+                // (Object target, Object value)void
+                MethodHandle setter = fieldLookup.unreflectSetter(field)
+                        .asType(methodType(void.class, Object.class, Object.class));
+
+                // (Object target, Object source)void
+                MethodHandle fieldCopy = MethodHandles.filterArguments(setter, 1, getter);
+
+                // Runs this field's copy before all the others.
+                handle = MethodHandles.foldArguments(handle, fieldCopy);
+            }
+        }
+        catch (IllegalAccessException e)
+        {
+            throw new IllegalStateException("Cannot access the fields of " + type.getName(), e);
+        }
+
+        copyHandle = handle;
+    }
+
+    /**
+     * Get the copier for the given class.
+     *
+     * @param type The class of object to copy.
+     *
+     * @return The copier for {@code type}.
+     *
+     * @throws IllegalArgumentException if {@code type} is null.
+     */
+    public static EntityCopier forClass(Class<?> type)
+    {
+        if (type == null)
+        {
+            throw new IllegalArgumentException("type cannot be null");
+        }
+        return COPIERS.get(type);
+    }
+
+    /**
+     * Get the class this copier works with.
+     *
+     * @return The class of object copied.
+     */
+    public Class<?> getType()
+    {
+        return type;
+    }
+
+    /**
+     * Get the fields this copier copies.
+     *
+     * @return An unmodifiable list of fields.
+     */
+    public List<Field> getFields()
+    {
+        return fields;
+    }
+
+    /**
+     * Update the {@code original} object with the values from {@code updated},
+     * making the former the same as the latter.
+     *
+     * @param original The object to update.
+     * @param updated The object with the current state.
+     *
+     * @throws IllegalArgumentException if either object is null or is not
+     * exactly of this copier's class.
+     */
+    public void update(Object original, Object updated)
+    {
+        if (original == null)
+        {
+            throw new IllegalArgumentException("original cannot be null");
+        }
+        if (updated == null)
+        {
+            throw new IllegalArgumentException("updated cannot be null");
+        }
+        if (original.getClass() != type || updated.getClass() != type)
+        {
+            throw new IllegalArgumentException("Objects must both be of class " + type.getName());
+        }
+
+        try
+        {
+            copyHandle.invokeExact(original, updated);
+        }
+        catch (RuntimeException | Error e)
+        {
+            throw e;
+        }
+        catch (Throwable e)
+        {
+            throw new UndeclaredThrowableException(e);
+        }
+    }
+}
@@ -64,7 +64,7 @@ public class LatestVersionsResetAspect
         Set<String> names = new HashSet<String>();
         names.add("overrideStateful");
         names.add("setOverrideStateful");
-        for (Method method : ClarityAPIInternal.class.getMethods())
+        for (Method method : ClarityAPIInternal.class.getDeclaredMethods())
         {
             names.add(method.getName());
         }
@@ -111,8 +111,20 @@ public class LatestVersionsResetAspect
     @After("execution(public * *(..)) and bean(clarityAPI)")
     public void cancelStatefulOverride(JoinPoint jp)
     {
-        String methodName = jp.getSignature().getName();
+        cancelStatefulOverride(jp.getSignature().getName());
+    }
 
+    /**
+     * Not to fetch the latest versions of stateful entities on the next call,
+     * after a call to the named API method. This is for calls made without
+     * the aspect being applied.
+     *
+     * @param methodName The name of the API method called.
+     *
+     * @since 2.34
+     */
+    public void cancelStatefulOverride(String methodName)
+    {
         if (!NO_RESET_METHODS.contains(methodName))
         {
             api.cancelStatefulOverride(methodName);
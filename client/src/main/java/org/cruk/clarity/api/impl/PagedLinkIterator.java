@@ -0,0 +1,176 @@
+/*
+ * CRUK-CI Clarity REST API Java Client.
+ * Copyright (C) 2013 Cancer Research UK Cambridge Institute.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cruk.clarity.api.impl;
+
+import java.net.URI;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.client.RestOperations;
+
+import com.genologics.ri.Batch;
+import com.genologics.ri.LimsLink;
+import com.genologics.ri.Locatable;
+import com.genologics.ri.PaginatedBatch;
+
+/**
+ * Iterator over the links returned from a list or search operation that fetches
+ * the pages of results from the server only as they are needed. Nothing is fetched
+ * until the first call to {@link #hasNext()} or {@link #next()}.
+ *
+ * <p>
+ * As with {@code ClarityAPIImpl.doList}, the URIs of the second and subsequent
+ * pages are taken exactly as given by the server so they are not re-encoded.
+ * </p>
+ *
+ * @param <E> The type of the entity.
+ * @param <BH> The type of the batch object that holds the links to these entities.
+ *
+ * @since 2.34
+ */
+class PagedLinkIterator<E extends Locatable, BH extends Batch<? extends LimsLink<E>>>
+implements Iterator<LimsLink<E>>, AutoCloseable
+{
+    /**
+     * Logger.
+     */
+    private Logger logger = LoggerFactory.getLogger(ClarityAPIImpl.class);
+
+    /**
+     * The REST client to fetch pages with.
+     */
+    private final RestOperations restClient;
+
+    /**
+     * The type of object holding each page of links.
+     */
+    private final Class<BH> batchClass;
+
+    /**
+     * The name of the entity class, for logging.
+     */
+    private final String entityClassName;
+
+    /**
+     * The URI of the first page. Null once it has been fetched.
+     */
+    private String firstPageUri;
+
+    /**
+     * The URI of the next page to fetch, or null if there are no more pages.
+     */
+    private URI nextPageUri;
+
+    /**
+     * Iterator over the links in the current page.
+     */
+    private Iterator<? extends LimsLink<E>> currentPage = Collections.emptyIterator();
+
+    /**
+     * Flag indicating no more pages should be fetched.
+     */
+    private boolean closed;
+
+
+    /**
+     * Constructor.
+     *
+     * @param restClient The REST client to fetch pages with.
+     * @param uri The URI of the first page of the list or search.
+     * @param batchClass The type of object holding each page of links.
+     * @param entityClassName The name of the entity type, for logging.
+     */
+    PagedLinkIterator(RestOperations restClient, String uri, Class<BH> batchClass, String entityClassName)
+    {
+        this.restClient = restClient;
+        this.firstPageUri = uri;
+        this.batchClass = batchClass;
+        this.entityClassName = entityClassName;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean hasNext()
+    {
+        while (!currentPage.hasNext() && !closed && (firstPageUri != null || nextPageUri != null))
+        {
+            fetchPage();
+        }
+        return currentPage.hasNext();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public LimsLink<E> next()
+    {
+        if (!hasNext())
+        {
+            throw new NoSuchElementException();
+        }
+        return currentPage.next();
+    }
+
+    /**
+     * Stop fetching pages. Any links remaining in the current page can still
+     * be read.
+     */
+    @Override
+    public void close()
+    {
+        closed = true;
+        firstPageUri = null;
+        nextPageUri = null;
+    }
+
+    /**
+     * Fetch the next page of links from the server.
+     */
+    private void fetchPage()
+    {
+        BH batch;
+        if (firstPageUri != null)
+        {
+            logger.debug("Fetching first batch of {} links from {}", entityClassName, firstPageUri);
+
+            batch = restClient.getForEntity(firstPageUri, batchClass).getBody();
+            firstPageUri = null;
+        }
+        else
+        {
+            logger.debug("Fetching further batch of {} links from {}", entityClassName, nextPageUri);
+
+            batch = restClient.getForEntity(nextPageUri, batchClass).getBody();
+        }
+
+        currentPage = batch.iterator();
+
+        nextPageUri = null;
+        if (batch instanceof PaginatedBatch<?> paginatedBatch && paginatedBatch.getNextPage() != null)
+        {
+            nextPageUri = paginatedBatch.getNextPage().getUri();
+        }
+    }
+}
@@ -0,0 +1,328 @@
+/*
+ * CRUK-CI Clarity REST API Java Client.
+ * Copyright (C) 2013 Cancer Research UK Cambridge Institute.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cruk.clarity.api.impl;
+
+import static org.apache.commons.lang3.ClassUtils.getShortClassName;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.genologics.ri.Locatable;
+
+/**
+ * Gathers single entity retrievals made from several threads at about the same
+ * time into batch retrievals, in the manner of a "data loader".
+ *
+ * <p>
+ * The first thread to ask for an entity of a given class opens a group for that
+ * class and waits for the coalescing window to pass (or for the group to fill up).
+ * Threads asking for entities of the same class while the group is open add their
+ * URIs to it and wait. The first thread then fetches the whole group in one call
+ * and hands each waiting thread its own entity. No threads are created here: the
+ * thread that opens a group does the fetch.
+ * </p>
+ *
+ * <p>
+ * If a batch fetch fails, or an entity asked for is not in its result, the
+ * threads affected are told to retrieve their entity individually so each gets
+ * exactly the result (or exception) it would have had without coalescing.
+ * Whatever happens in the fetch, every thread waiting on a group is released.
+ * </p>
+ *
+ * @since 2.34
+ */
+class RetrieveCoalescer
+{
+    /**
+     * Logger.
+     */
+    private Logger logger = LoggerFactory.getLogger(ClarityAPIImpl.class);
+
+    /**
+     * The function that fetches a list of entities of a class in one call.
+     * The entities can be returned in any order.
+     */
+    private final BiFunction<Class<? extends Locatable>, List<URI>, List<? extends Locatable>> batchFetcher;
+
+    /**
+     * The open groups, by entity class. Also the monitor for all group changes.
+     */
+    private final Map<Class<?>, Group> openGroups = new HashMap<Class<?>, Group>();
+
+    /**
+     * How long, in nanoseconds, a group stays open for more requests.
+     */
+    private volatile long windowNanos;
+
+    /**
+     * The maximum number of entities fetched in one batch.
+     */
+    private volatile int maximumBatchSize;
+
+    /**
+     * Constructor.
+     *
+     * @param batchFetcher The function to fetch a list of entities of one
+     * class in a single call.
+     * @param windowMillis How long, in milliseconds, to wait for other requests
+     * before fetching.
+     * @param maximumBatchSize The largest number of entities to fetch at once.
+     */
+    RetrieveCoalescer(BiFunction<Class<? extends Locatable>, List<URI>, List<? extends Locatable>> batchFetcher,
+                      long windowMillis, int maximumBatchSize)
+    {
+        this.batchFetcher = batchFetcher;
+        setWindow(windowMillis);
+        setMaximumBatchSize(maximumBatchSize);
+    }
+
+    /**
+     * Set how long the first thread asking for an entity waits for others.
+     *
+     * @param windowMillis The coalescing window, in milliseconds.
+     */
+    void setWindow(long windowMillis)
+    {
+        windowNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(windowMillis, 0L));
+    }
+
+    /**
+     * Set the largest number of entities that can be fetched in one group.
+     *
+     * @param size The maximum batch size.
+     */
+    void setMaximumBatchSize(int size)
+    {
+        maximumBatchSize = Math.max(size, 1);
+    }
+
+    /**
+     * Retrieve an entity as part of a group of retrievals.
+     *
+     * @param <E> The type of the entity.
+     * @param uri The URI of the entity. This should be exactly as it would be
+     * fetched individually (i.e. with or without the state parameter as required).
+     * @param entityClass The class of the entity.
+     *
+     * @return The entity, or null if the caller should retrieve the entity itself.
+     */
+    <E extends Locatable>
+    E retrieve(URI uri, Class<E> entityClass)
+    {
+        String path = uri.getPath();
+        Request request = new Request(uri);
+        Group group;
+        boolean leader = false;
+
+        synchronized (openGroups)
+        {
+            group = openGroups.get(entityClass);
+            if (group == null)
+            {
+                group = new Group(entityClass);
+                openGroups.put(entityClass, group);
+                leader = true;
+            }
+
+            if (group.requests.putIfAbsent(path, request) != null)
+            {
+                // Already being fetched for another thread. Each thread must
+                // get its own object, so fetch this one separately.
+                return null;
+            }
+
+            if (group.requests.size() >= maximumBatchSize)
+            {
+                close(group);
+            }
+        }
+
+        if (leader)
+        {
+            awaitWindow(group);
+            fetch(group);
+        }
+
+        Locatable result = request.future.join();
+        return entityClass.cast(result);
+    }
+
+    /**
+     * Wait until the given group's window has passed or the group has been
+     * closed because it is full, then close it.
+     *
+     * @param group The group to wait for.
+     */
+    private void awaitWindow(Group group)
+    {
+        long deadline = System.nanoTime() + windowNanos;
+
+        synchronized (openGroups)
+        {
+            try
+            {
+                long remaining;
+                while (!group.closed && (remaining = deadline - System.nanoTime()) > 0)
+                {
+                    TimeUnit.NANOSECONDS.timedWait(openGroups, remaining);
+                }
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+            finally
+            {
+                close(group);
+            }
+        }
+    }
+
+    /**
+     * Close a group to further requests. Must be called while holding the
+     * {@code openGroups} monitor.
+     *
+     * @param group The group to close.
+     */
+    private void close(Group group)
+    {
+        if (!group.closed)
+        {
+            group.closed = true;
+            openGroups.remove(group.entityClass, group);
+            openGroups.notifyAll();
+        }
+    }
+
+    /**
+     * Fetch the entities for a closed group and complete each request, either
+     * with its entity or with null to have its thread fetch it individually.
+     * The requests are completed even if the fetch fails with an error, which
+     * is then thrown to the thread doing the fetch.
+     *
+     * @param group The group to fetch.
+     */
+    private void fetch(Group group)
+    {
+        Map<String, Locatable> fetched = new HashMap<String, Locatable>();
+
+        try
+        {
+            if (group.requests.size() > 1)
+            {
+                List<URI> uris = new ArrayList<URI>(group.requests.size());
+                for (Request request : group.requests.values())
+                {
+                    uris.add(request.uri);
+                }
+
+                try
+                {
+                    for (Locatable entity : batchFetcher.apply(group.entityClass, uris))
+                    {
+                        if (entity != null && entity.getUri() != null)
+                        {
+                            fetched.put(entity.getUri().getPath(), entity);
+                        }
+                    }
+
+                    logger.debug("Coalesced {} {} retrievals into one batch retrieve.",
+                                 uris.size(), getShortClassName(group.entityClass));
+                }
+                catch (RuntimeException e)
+                {
+                    logger.debug("Coalesced batch retrieve of {} {}s failed ({}). Retrieving individually.",
+                                 uris.size(), getShortClassName(group.entityClass), e.getMessage());
+                }
+            }
+        }
+        finally
+        {
+            group.requests.forEach((path, request) -> request.future.complete(fetched.get(path)));
+        }
+    }
+
+    /**
+     * A group of requests for entities of one class that will be fetched together.
+     */
+    private static class Group
+    {
+        /**
+         * The class of entity requested.
+         */
+        final Class<? extends Locatable> entityClass;
+
+        /**
+         * The requests in the group, keyed by URI path.
+         */
+        final Map<String, Request> requests = new LinkedHashMap<String, Request>();
+
+        /**
+         * Whether the group has been closed to more requests.
+         */
+        boolean closed;
+
+        /**
+         * Constructor.
+         *
+         * @param entityClass The class of entity requested.
+         */
+        Group(Class<? extends Locatable> entityClass)
+        {
+            this.entityClass = entityClass;
+        }
+    }
+
+    /**
+     * A single request for an entity.
+     */
+    private static class Request
+    {
+        /**
+         * The URI of the entity.
+         */
+        final URI uri;
+
+        /**
+         * The result for the thread asking. Completed with null if the thread
+         * should fetch its entity itself.
+         */
+        final CompletableFuture<Locatable> future = new CompletableFuture<Locatable>();
+
+        /**
+         * Constructor.
+         *
+         * @param uri The URI of the entity.
+         */
+        Request(URI uri)
+        {
+            this.uri = uri;
+        }
+    }
+}
@@ -37,6 +37,7 @@ import org.springframework.stereotype.Component;
  * @see com.genologics.ri.exception.Exception
  * @see ClarityException
  * @see JAXBElement
+ * @see JaxbUnmarshallingDecorator
  */
 @Aspect
 @Component("clarityUnmarshallingAspect")
@@ -63,17 +64,6 @@ public class JaxbUnmarshallingAspect
     @Around("execution(public * unmarshal(..)) and bean(clarityJaxbUnmarshaller)")
     public Object objectUnmarshalled(ProceedingJoinPoint pjp) throws Throwable
     {
-        Object unmarshalled = pjp.proceed();
-
-        if (unmarshalled instanceof JAXBElement<?> element)
-        {
-            unmarshalled = element.getValue();
-        }
-        if (unmarshalled instanceof com.genologics.ri.exception.Exception ge)
-        {
-            throw new ClarityException(ge);
-        }
-
-        return unmarshalled;
+        return JaxbUnmarshallingDecorator.processUnmarshalled(pjp.proceed());
     }
 }
@@ -0,0 +1,115 @@
+/*
+ * CRUK-CI Clarity REST API Java Client.
+ * Copyright (C) 2013 Cancer Research UK Cambridge Institute.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.cruk.clarity.api.jaxb;
+
+import java.io.IOException;
+
+import javax.xml.transform.Source;
+
+import jakarta.xml.bind.JAXBElement;
+
+import org.cruk.clarity.api.ClarityException;
+import org.springframework.oxm.Unmarshaller;
+import org.springframework.oxm.XmlMappingException;
+
+/**
+ * Unmarshaller that does the job of {@link JaxbUnmarshallingAspect} without
+ * Spring's AOP: it unmarshals with another unmarshaller, changes a returned
+ * {@code JAXBElement} to the object it holds and, if the reply is an exception
+ * from the API, throws it as a {@link ClarityException}.
+ *
+ * @see ClarityException
+ * @see org.cruk.clarity.api.ClarityAPIBuilder
+ *
+ * @since 2.34
+ */
+public class JaxbUnmarshallingDecorator implements Unmarshaller
+{
+    /**
+     * The unmarshaller that does the work.
+     */
+    private final Unmarshaller unmarshaller;
+
+
+    /**
+     * Constructor.
+     *
+     * @param unmarshaller The unmarshaller that does the work.
+     */
+    public JaxbUnmarshallingDecorator(Unmarshaller unmarshaller)
+    {
+        if (unmarshaller == null)
+        {
+            throw new IllegalArgumentException("unmarshaller cannot be null");
+        }
+        this.unmarshaller = unmarshaller;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean supports(Class<?> clazz)
+    {
+        return unmarshaller.supports(clazz);
+    }
+
+    /**
+     * Unmarshal the given source, returning the real object rather
+     * than a {@code JAXBElement}.
+     *
+     * @param source The source to unmarshal from.
+     *
+     * @return The object graph.
+     *
+     * @throws ClarityException if the XML is an error message from the API.
+     * @throws XmlMappingException if the given source cannot be mapped to an object.
+     * @throws IOException if an I/O exception occurs.
+     */
+    @Override
+    public Object unmarshal(Source source) throws XmlMappingException, IOException
+    {
+        return processUnmarshalled(unmarshaller.unmarshal(source));
+    }
+
+    /**
+     * Replace a JAXBElement object with the real object it contains, then test
+     * whether that object is an error and, if so, throw a Java exception.
+     *
+     * @param unmarshalled The object returned from unmarshalling.
+     *
+     * @return The real object extracted from {@code unmarshalled}
+     * (if {@code unmarshalled} is a JAXBElement).
+     *
+     * @throws ClarityException if {@code unmarshalled} is an error
+     * message. It is created with the fields from the XML error.
+     */
+    public static Object processUnmarshalled(Object unmarshalled)
+    {
+        if (unmarshalled instanceof JAXBElement<?> element)
+        {
+            unmarshalled = element.getValue();
+        }
+        if (unmarshalled instanceof com.genologics.ri.exception.Exception ge)
+        {
+            throw new ClarityException(ge);
+        }
+
+        return unmarshalled;
+    }
+}
@@ -0,0 +1,579 @@
+/*
+ * CRUK-CI Clarity REST API Java Client.
+ * Copyright (C) 2013 Cancer Research UK Cambridge Institute.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.cruk.clarity.api.jaxb;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.events.XMLEvent;
+import javax.xml.transform.Result;
+import javax.xml.transform.Source;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stax.StAXSource;
+import javax.xml.transform.stream.StreamSource;
+
+import jakarta.xml.bind.JAXBElement;
+import jakarta.xml.bind.annotation.XmlRootElement;
+import jakarta.xml.bind.annotation.XmlSchema;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.annotation.AnnotationUtils;
+import org.springframework.oxm.Marshaller;
+import org.springframework.oxm.Unmarshaller;
+import org.springframework.oxm.UnmarshallingFailureException;
+import org.springframework.oxm.XmlMappingException;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+
+/**
+ * JAXB marshaller and unmarshaller that builds a separate JAXB context for each
+ * package of model classes, and only when that package is first needed.
+ *
+ * <p>
+ * Building one JAXB context for every Clarity model package takes most of the
+ * time needed to start the client. A program that only handles samples and artifacts
+ * needs just the contexts for those packages (and the classes they refer to), so
+ * this class puts off building each context until an object from its package is
+ * marshalled or a document in its namespace is unmarshalled. Objects are marshalled
+ * with the context for the package of their class. Documents are unmarshalled with
+ * the context for the package whose {@code XmlSchema} namespace matches that of the
+ * document's root element, which is found by reading just far enough into the document
+ * to reach it.
+ * </p>
+ *
+ * <p>
+ * Anything that cannot be matched to a single package this way is handled by a
+ * context over all the packages, which is also only built if it is needed.
+ * </p>
+ *
+ * @since 2.34
+ */
+public class LazyJaxbMarshaller implements Marshaller, Unmarshaller
+{
+    /**
+     * Factory for the StAX readers used to find the root element. Documents are not
+     * allowed to have DTDs or external entities, as with {@code Jaxb2Marshaller}.
+     */
+    private static final XMLInputFactory INPUT_FACTORY = createInputFactory();
+
+    /**
+     * Logger.
+     */
+    private Logger logger = LoggerFactory.getLogger(LazyJaxbMarshaller.class);
+
+    /**
+     * The class loader for the JAXB classes.
+     */
+    private final ClassLoader classLoader;
+
+    /**
+     * The packages handled.
+     */
+    private final Set<String> packages;
+
+    /**
+     * Properties set on every JAXB marshaller created.
+     */
+    private final Map<String, ?> marshallerProperties;
+
+    /**
+     * The marshallers for each package, created when first needed.
+     */
+    private final Map<String, PooledJaxb2Marshaller> delegates = new ConcurrentHashMap<>();
+
+    /**
+     * Map of XML namespace to the package that holds its classes. Created on first
+     * use. Namespaces shared by more than one package are not included.
+     */
+    private volatile Map<String, String> namespacePackages;
+
+    /**
+     * The marshaller over all the packages, created when first needed.
+     */
+    private volatile PooledJaxb2Marshaller fullMarshaller;
+
+    /**
+     * The classes known to be handled, found when first asked for.
+     */
+    private volatile List<Class<?>> knownClasses;
+
+
+    /**
+     * Constructor.
+     *
+     * @param classLoader The class loader for the JAXB classes.
+     * @param packages The names of the packages of JAXB classes handled.
+     * @param marshallerProperties Properties to set on every JAXB marshaller created.
+     * May be null.
+     */
+    public LazyJaxbMarshaller(ClassLoader classLoader, Collection<String> packages, Map<String, ?> marshallerProperties)
+    {
+        if (classLoader == null)
+        {
+            throw new IllegalArgumentException("classLoader cannot be null");
+        }
+        if (packages == null)
+        {
+            throw new IllegalArgumentException("packages cannot be null");
+        }
+        this.classLoader = classLoader;
+        this.packages = Collections.unmodifiableSet(new LinkedHashSet<>(packages));
+        this.marshallerProperties = marshallerProperties == null ? Collections.emptyMap() : marshallerProperties;
+    }
+
+    /**
+     * Create the StAX input factory for the documents to unmarshal.
+     *
+     * @return A new StAX input factory.
+     */
+    private static XMLInputFactory createInputFactory()
+    {
+        XMLInputFactory factory = XMLInputFactory.newFactory();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
+    }
+
+    /**
+     * Get the names of the packages handled.
+     *
+     * @return An unmodifiable set of package names.
+     */
+    public Set<String> getPackages()
+    {
+        return packages;
+    }
+
+    /**
+     * Get the names of the packages that have been used so far, and so have
+     * their own JAXB context.
+     *
+     * @return A set of package names.
+     */
+    public Set<String> getLoadedPackages()
+    {
+        return Collections.unmodifiableSet(delegates.keySet());
+    }
+
+    /**
+     * Get the classes that are known to be handled. These are the classes that
+     * the {@code ObjectFactory} of each package creates; the classes of a package
+     * without an {@code ObjectFactory} are found by building its context.
+     * The classes are found on the first call.
+     *
+     * @return An unmodifiable list of classes.
+     */
+    public List<Class<?>> getKnownClasses()
+    {
+        List<Class<?>> classes = knownClasses;
+        if (classes == null)
+        {
+            synchronized (this)
+            {
+                classes = knownClasses;
+                if (classes == null)
+                {
+                    Set<Class<?>> found = new LinkedHashSet<>();
+                    for (String packageName : packages)
+                    {
+                        Class<?> objectFactory = findClass(packageName + ".ObjectFactory");
+                        if (objectFactory == null)
+                        {
+                            PooledJaxb2Marshaller delegate = getDelegate(packageName);
+                            delegate.getJaxbContext();
+                            if (delegate.getClassesToBeBound() != null)
+                            {
+                                Collections.addAll(found, delegate.getClassesToBeBound());
+                            }
+                        }
+                        else
+                        {
+                            for (Method method : objectFactory.getMethods())
+                            {
+                                if (method.getDeclaringClass() == objectFactory &&
+                                    method.getParameterCount() == 0 &&
+                                    !Modifier.isStatic(method.getModifiers()) &&
+                                    method.getName().startsWith("create"))
+                                {
+                                    found.add(method.getReturnType());
+                                }
+                            }
+                        }
+                    }
+                    knownClasses = classes = Collections.unmodifiableList(new ArrayList<>(found));
+                }
+            }
+        }
+        return classes;
+    }
+
+    /**
+     * Tells whether this marshaller can handle objects of the given class.
+     * Such classes must be JAXB root elements in one of the packages handled.
+     *
+     * @param clazz The class in question.
+     *
+     * @return {@code true} if {@code clazz} can be marshalled and unmarshalled,
+     * {@code false} if not.
+     */
+    @Override
+    public boolean supports(Class<?> clazz)
+    {
+        if (JAXBElement.class.isAssignableFrom(clazz))
+        {
+            return true;
+        }
+        return packages.contains(clazz.getPackageName()) &&
+               AnnotationUtils.findAnnotation(clazz, XmlRootElement.class) != null;
+    }
+
+    /**
+     * Marshal the object graph with the context for the package of its class.
+     *
+     * @param graph The root of the object graph to marshal.
+     * @param result The result to marshal to.
+     *
+     * @throws XmlMappingException if the given object cannot be marshalled to the result.
+     * @throws IOException if an I/O exception occurs.
+     */
+    @Override
+    public void marshal(Object graph, Result result) throws XmlMappingException, IOException
+    {
+        Object root = graph instanceof JAXBElement<?> element ? element.getValue() : graph;
+        String packageName = root == null ? null : root.getClass().getPackageName();
+
+        PooledJaxb2Marshaller delegate = packages.contains(packageName) ? getDelegate(packageName) : getFullMarshaller();
+        delegate.marshal(graph, result);
+    }
+
+    /**
+     * Unmarshal the given source with the context for the package matching the
+     * namespace of its root element.
+     *
+     * @param source The source to unmarshal from.
+     *
+     * @return The object graph.
+     *
+     * @throws XmlMappingException if the given source cannot be mapped to an object.
+     * @throws IOException if an I/O exception occurs.
+     */
+    @Override
+    public Object unmarshal(Source source) throws XmlMappingException, IOException
+    {
+        if (source instanceof StreamSource streamSource)
+        {
+            return unmarshalStream(streamSource);
+        }
+
+        String namespace = null;
+        try
+        {
+            if (source instanceof StAXSource staxSource)
+            {
+                namespace = findNamespace(staxSource);
+            }
+            else if (source instanceof DOMSource domSource)
+            {
+                Node node = domSource.getNode();
+                if (node instanceof Document document)
+                {
+                    node = document.getDocumentElement();
+                }
+                namespace = node == null ? null : node.getNamespaceURI();
+            }
+        }
+        catch (XMLStreamException e)
+        {
+            throw new UnmarshallingFailureException("Cannot find the root element of the XML", e);
+        }
+
+        return getDelegateForNamespace(namespace).unmarshal(source);
+    }
+
+    /**
+     * Unmarshal a stream source. The stream is read with a StAX reader, which
+     * is positioned on the root element when handed to the package's context.
+     *
+     * @param source The source to unmarshal from.
+     *
+     * @return The object graph.
+     *
+     * @throws XmlMappingException if the given source cannot be mapped to an object.
+     * @throws IOException if an I/O exception occurs.
+     */
+    private Object unmarshalStream(StreamSource source) throws XmlMappingException, IOException
+    {
+        InputStream opened = null;
+        XMLStreamReader reader = null;
+        try
+        {
+            if (source.getInputStream() != null)
+            {
+                reader = INPUT_FACTORY.createXMLStreamReader(source.getInputStream());
+            }
+            else if (source.getReader() != null)
+            {
+                reader = INPUT_FACTORY.createXMLStreamReader(source.getReader());
+            }
+            else if (source.getSystemId() != null)
+            {
+                opened = URI.create(source.getSystemId()).toURL().openStream();
+                reader = INPUT_FACTORY.createXMLStreamReader(source.getSystemId(), opened);
+            }
+            else
+            {
+                return getFullMarshaller().unmarshal(source);
+            }
+
+            reader.nextTag();
+
+            return getDelegateForNamespace(reader.getNamespaceURI()).unmarshal(new StAXSource(reader));
+        }
+        catch (XMLStreamException e)
+        {
+            throw new UnmarshallingFailureException("Cannot read the root element of the XML", e);
+        }
+        finally
+        {
+            if (reader != null)
+            {
+                try
+                {
+                    reader.close();
+                }
+                catch (XMLStreamException e)
+                {
+                    logger.debug("Could not close XML reader: {}", e.getMessage());
+                }
+            }
+            if (opened != null)
+            {
+                opened.close();
+            }
+        }
+    }
+
+    /**
+     * Find the namespace of the root element of a StAX source, moving its
+     * reader forward to that element if it is not there already.
+     *
+     * @param source The StAX source.
+     *
+     * @return The namespace URI of the root element, or null if it cannot be found.
+     *
+     * @throws XMLStreamException if there is a problem reading the XML.
+     */
+    private static String findNamespace(StAXSource source) throws XMLStreamException
+    {
+        XMLStreamReader reader = source.getXMLStreamReader();
+        if (reader != null)
+        {
+            if (!reader.isStartElement())
+            {
+                reader.nextTag();
+            }
+            return reader.getNamespaceURI();
+        }
+
+        XMLEventReader events = source.getXMLEventReader();
+        if (events != null)
+        {
+            while (events.hasNext())
+            {
+                XMLEvent event = events.peek();
+                if (event.isStartElement())
+                {
+                    return event.asStartElement().getName().getNamespaceURI();
+                }
+                events.nextEvent();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the marshaller to use for a document whose root element is in the
+     * given namespace.
+     *
+     * @param namespace The namespace URI. May be null.
+     *
+     * @return The marshaller for the namespace's package, or the marshaller over
+     * all the packages if the namespace doesn't belong to just one package.
+     */
+    private PooledJaxb2Marshaller getDelegateForNamespace(String namespace)
+    {
+        String packageName = namespace == null ? null : getNamespacePackages().get(namespace);
+        return packageName == null ? getFullMarshaller() : getDelegate(packageName);
+    }
+
+    /**
+     * Get the map of namespace to package, creating it on the first call from the
+     * {@code XmlSchema} annotation of each package.
+     *
+     * @return The namespace to package map.
+     */
+    private Map<String, String> getNamespacePackages()
+    {
+        Map<String, String> map = namespacePackages;
+        if (map == null)
+        {
+            map = new HashMap<>();
+            Set<String> shared = new LinkedHashSet<>();
+            for (String packageName : packages)
+            {
+                Class<?> packageInfo = findClass(packageName + ".package-info");
+                XmlSchema schema = packageInfo == null ? null : packageInfo.getAnnotation(XmlSchema.class);
+                if (schema != null && !schema.namespace().isEmpty())
+                {
+                    if (map.putIfAbsent(schema.namespace(), packageName) != null)
+                    {
+                        shared.add(schema.namespace());
+                    }
+                }
+            }
+            map.keySet().removeAll(shared);
+            namespacePackages = map = Collections.unmodifiableMap(map);
+        }
+        return map;
+    }
+
+    /**
+     * Get the marshaller for a single package, creating it if there isn't one yet.
+     * Its JAXB context is built when it is first used. Packages with an
+     * {@code ObjectFactory} are given as a context path; those without are scanned.
+     *
+     * @param packageName The name of the package.
+     *
+     * @return The marshaller for the package.
+     */
+    private PooledJaxb2Marshaller getDelegate(String packageName)
+    {
+        return delegates.computeIfAbsent(packageName, p ->
+        {
+            PooledJaxb2Marshaller delegate = createMarshaller();
+            if (findClass(p + ".ObjectFactory") != null)
+            {
+                // A context path is only that package, not those below it too.
+                delegate.setContextPath(p);
+            }
+            else
+            {
+                delegate.setPackagesToScan(p);
+            }
+            return initialise(delegate);
+        });
+    }
+
+    /**
+     * Get the marshaller over all the packages, creating it on the first call.
+     *
+     * @return The marshaller for all the packages.
+     */
+    private PooledJaxb2Marshaller getFullMarshaller()
+    {
+        PooledJaxb2Marshaller marshaller = fullMarshaller;
+        if (marshaller == null)
+        {
+            synchronized (this)
+            {
+                marshaller = fullMarshaller;
+                if (marshaller == null)
+                {
+                    logger.debug("Creating the JAXB context for all packages.");
+
+                    marshaller = createMarshaller();
+                    marshaller.setPackagesToScan(packages.toArray(new String[packages.size()]));
+                    fullMarshaller = marshaller = initialise(marshaller);
+                }
+            }
+        }
+        return marshaller;
+    }
+
+    /**
+     * Create a new marshaller with lazy initialisation and the properties given
+     * for this object.
+     *
+     * @return A new, unconfigured marshaller.
+     */
+    private PooledJaxb2Marshaller createMarshaller()
+    {
+        PooledJaxb2Marshaller marshaller = new PooledJaxb2Marshaller();
+        marshaller.setBeanClassLoader(classLoader);
+        marshaller.setLazyInit(true);
+        marshaller.setMarshallerProperties(marshallerProperties);
+        return marshaller;
+    }
+
+    /**
+     * Complete the set up of a marshaller. As it is lazily initialised,
+     * this does not create its JAXB context.
+     *
+     * @param marshaller The marshaller.
+     *
+     * @return The marshaller.
+     */
+    private static PooledJaxb2Marshaller initialise(PooledJaxb2Marshaller marshaller)
+    {
+        try
+        {
+            marshaller.afterPropertiesSet();
+        }
+        catch (Exception e)
+        {
+            throw new IllegalStateException("Cannot set up JAXB marshaller", e);
+        }
+        return marshaller;
+    }
+
+    /**
+     * Load a class by name without initialising it.
+     *
+     * @param className The fully qualified class name.
+     *
+     * @return The class, or null if there is no such class.
+     */
+    private Class<?> findClass(String className)
+    {
+        try
+        {
+            return Class.forName(className, false, classLoader);
+        }
+        catch (ClassNotFoundException e)
+        {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,257 @@
+/*
+ * CRUK-CI Clarity REST API Java Client.
+ * Copyright (C) 2013 Cancer Research UK Cambridge Institute.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cruk.clarity.api.jaxb;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import javax.xml.transform.Result;
+import javax.xml.transform.Source;
+
+import jakarta.xml.bind.Marshaller;
+import jakarta.xml.bind.Unmarshaller;
+
+import org.springframework.oxm.XmlMappingException;
+import org.springframework.oxm.jaxb.Jaxb2Marshaller;
+import org.springframework.oxm.mime.MimeContainer;
+
+/**
+ * Spring JAXB marshaller that reuses the JAXB {@code Marshaller} and
+ * {@code Unmarshaller} objects it creates rather than creating new ones
+ * for every message.
+ *
+ * <p>
+ * {@code Jaxb2Marshaller} creates and configures a new JAXB marshaller or unmarshaller
+ * for each call. These are not thread safe, but can be used any number of times
+ * by one thread at a time. This class keeps those no longer in use in a pool from
+ * which the next call, on any thread, takes one. The pool never blocks: if it is empty
+ * a new object is created, and if it is full when one is returned that object is
+ * dropped. Objects used in a call that failed are not returned, nor are those used
+ * with a MIME container.
+ * </p>
+ *
+ * @since 2.34
+ */
+public class PooledJaxb2Marshaller extends Jaxb2Marshaller
+{
+    /**
+     * The default maximum number of each of marshallers and unmarshallers kept.
+     */
+    public static final int DEFAULT_POOL_SIZE = 32;
+
+    /**
+     * Marshallers available for use.
+     */
+    private final BlockingQueue<Marshaller> marshallers;
+
+    /**
+     * Unmarshallers available for use.
+     */
+    private final BlockingQueue<Unmarshaller> unmarshallers;
+
+    /**
+     * The marshaller taken from the pool for the call in progress on each thread,
+     * handed to {@link #createMarshaller()} when the superclass asks for one.
+     */
+    private final ThreadLocal<Marshaller> currentMarshaller = new ThreadLocal<Marshaller>();
+
+    /**
+     * The unmarshaller taken from the pool for the call in progress on each thread,
+     * handed to {@link #createUnmarshaller()} when the superclass asks for one.
+     */
+    private final ThreadLocal<Unmarshaller> currentUnmarshaller = new ThreadLocal<Unmarshaller>();
+
+
+    /**
+     * Constructor with the default pool size.
+     */
+    public PooledJaxb2Marshaller()
+    {
+        this(DEFAULT_POOL_SIZE);
+    }
+
+    /**
+     * Constructor with a given pool size.
+     *
+     * @param poolSize The maximum number of each of marshallers and unmarshallers
+     * kept for reuse.
+     */
+    public PooledJaxb2Marshaller(int poolSize)
+    {
+        if (poolSize < 1)
+        {
+            throw new IllegalArgumentException("poolSize must be at least one");
+        }
+        marshallers = new ArrayBlockingQueue<Marshaller>(poolSize);
+        unmarshallers = new ArrayBlockingQueue<Unmarshaller>(poolSize);
+    }
+
+    /**
+     * Get the number of marshallers currently waiting in the pool.
+     *
+     * @return The number of idle marshallers.
+     */
+    public int getIdleMarshallers()
+    {
+        return marshallers.size();
+    }
+
+    /**
+     * Get the number of unmarshallers currently waiting in the pool.
+     *
+     * @return The number of idle unmarshallers.
+     */
+    public int getIdleUnmarshallers()
+    {
+        return unmarshallers.size();
+    }
+
+    /**
+     * Marshal the object graph using a marshaller from the pool.
+     *
+     * @param graph The root of the object graph to marshal.
+     * @param result The result to marshal to.
+     * @param mimeContainer The MIME container for optimised binary data, if any.
+     *
+     * @throws XmlMappingException if the given object cannot be marshalled to the result.
+     */
+    @Override
+    public void marshal(Object graph, Result result, MimeContainer mimeContainer) throws XmlMappingException
+    {
+        if (mimeContainer != null)
+        {
+            // Attachment marshallers are set on the object, so it's not clean afterwards.
+            super.marshal(graph, result, mimeContainer);
+            return;
+        }
+
+        Marshaller previous = currentMarshaller.get();
+        Marshaller marshaller = marshallers.poll();
+        if (marshaller == null)
+        {
+            marshaller = super.createMarshaller();
+        }
+
+        currentMarshaller.set(marshaller);
+        try
+        {
+            super.marshal(graph, result, null);
+            marshallers.offer(marshaller);
+        }
+        finally
+        {
+            restore(currentMarshaller, previous);
+        }
+    }
+
+    /**
+     * Unmarshal the given source using an unmarshaller from the pool.
+     *
+     * @param source The source to unmarshal from.
+     * @param mimeContainer The MIME container for optimised binary data, if any.
+     *
+     * @return The object graph.
+     *
+     * @throws XmlMappingException if the given source cannot be mapped to an object.
+     */
+    @Override
+    public Object unmarshal(Source source, MimeContainer mimeContainer) throws XmlMappingException
+    {
+        if (mimeContainer != null)
+        {
+            return super.unmarshal(source, mimeContainer);
+        }
+
+        Unmarshaller previous = currentUnmarshaller.get();
+        Unmarshaller unmarshaller = unmarshallers.poll();
+        if (unmarshaller == null)
+        {
+            unmarshaller = super.createUnmarshaller();
+        }
+
+        currentUnmarshaller.set(unmarshaller);
+        try
+        {
+            Object result = super.unmarshal(source, null);
+            unmarshallers.offer(unmarshaller);
+            return result;
+        }
+        finally
+        {
+            restore(currentUnmarshaller, previous);
+        }
+    }
+
+    /**
+     * Get the marshaller for the call in progress on this thread, or
+     * create a new one if there isn't such a call.
+     *
+     * @return A configured JAXB marshaller.
+     */
+    @Override
+    public Marshaller createMarshaller()
+    {
+        Marshaller marshaller = currentMarshaller.get();
+        if (marshaller != null)
+        {
+            // Only once: a nested call must not share it.
+            currentMarshaller.remove();
+            return marshaller;
+        }
+        return super.createMarshaller();
+    }
+
+    /**
+     * Get the unmarshaller for the call in progress on this thread, or
+     * create a new one if there isn't such a call.
+     *
+     * @return A configured JAXB unmarshaller.
+     */
+    @Override
+    public Unmarshaller createUnmarshaller()
+    {
+        Unmarshaller unmarshaller = currentUnmarshaller.get();
+        if (unmarshaller != null)
+        {
+            currentUnmarshaller.remove();
+            return unmarshaller;
+        }
+        return super.createUnmarshaller();
+    }
+
+    /**
+     * Put back the value a thread local had before a call.
+     *
+     * @param <T> The type of object held.
+     * @param local The thread local.
+     * @param previous The value it held before, or null if it had none.
+     */
+    private static <T>
+    void restore(ThreadLocal<T> local, T previous)
+    {
+        if (previous == null)
+        {
+            local.remove();
+        }
+        else
+        {
+            local.set(previous);
+        }
+    }
+}
@@ -3,16 +3,17 @@ package org.cruk.clarity.api.spring;
 import static jakarta.xml.bind.Marshaller.JAXB_ENCODING;
 import static jakarta.xml.bind.Marshaller.JAXB_FORMATTED_OUTPUT;
 
+import java.lang.management.ManagementFactory;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -21,16 +22,17 @@ import jakarta.annotation.PostConstruct;
 import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.ObjectUtils;
 import org.apache.hc.client5.http.classic.HttpClient;
-import org.apache.hc.client5.http.config.ConnectionConfig;
 import org.apache.hc.client5.http.config.RequestConfig;
 import org.apache.hc.client5.http.impl.auth.CredentialsProviderBuilder;
 import org.apache.hc.client5.http.impl.classic.HttpClientBuilder;
-import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
-import org.apache.hc.core5.http.io.SocketConfig;
 import org.cruk.clarity.api.filestore.ClaritySFTPUploader;
 import org.cruk.clarity.api.http.AuthenticatingClientHttpRequestFactory;
 import org.cruk.clarity.api.http.ClarityFailureResponseErrorHandler;
+import org.cruk.clarity.api.http.ClarityHttpCompression;
+import org.cruk.clarity.api.http.ClarityHttpConnectionPool;
 import org.cruk.clarity.api.http.HttpComponentsClientHttpRequestFactoryBasicAuth;
+import org.cruk.clarity.api.jaxb.LazyJaxbMarshaller;
+import org.cruk.clarity.api.jaxb.PooledJaxb2Marshaller;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
@@ -49,6 +51,7 @@ import org.springframework.web.client.RestOperations;
 import org.springframework.web.client.RestTemplate;
 
 import com.genologics.ri.Locatable;
+import com.genologics.ri.Namespaces;
 
 /**
  * Main Spring configuration for the Clarity Client.
@@ -76,10 +79,16 @@ public class ClarityClientConfiguration
     final int httpSocketTimeout = 0;
 
     /**
-     * Spring JAXB marshaller and unmarshaller.
+     * Spring JAXB marshaller and unmarshaller, reusing the JAXB objects it creates.
      */
     private Jaxb2Marshaller jaxb2;
 
+    /**
+     * Marshaller and unmarshaller building a JAXB context per package when needed,
+     * used instead of {@link #jaxb2} in the faster starting mode.
+     */
+    private LazyJaxbMarshaller lazyJaxb;
+
     /**
      * SFTP uploader implementation, if provided.
      */
@@ -104,17 +113,53 @@ public class ClarityClientConfiguration
      */
     protected ClarityClientConfiguration(Class<?>... additionalPackageClasses)
     {
+        this(false, additionalPackageClasses);
+    }
+
+    /**
+     * Constructor allowing the faster starting JAXB mode to be chosen, and additional
+     * package classes to be given for the JAXB context. These classes have their
+     * <em>package</em> added to the context, not just the class itself.
+     *
+     * <p>
+     * Normally one JAXB context is built for all the packages when the configuration is
+     * created. With {@code lazyJaxbContext} set, a context is built for each package only
+     * when it is first needed (see {@link LazyJaxbMarshaller}). This saves most of the start
+     * up time for programs that deal with only a few types of entity. Subclass this
+     * configuration, or use {@link LazyClarityClientConfiguration}, to use it.
+     * </p>
+     *
+     * @param lazyJaxbContext Whether to build the JAXB contexts for each package
+     * as they are needed rather than a single context now.
+     * @param additionalPackageClasses The classes representing the packages to add to
+     * the JAXB context.
+     *
+     * @since 2.34
+     */
+    protected ClarityClientConfiguration(boolean lazyJaxbContext, Class<?>... additionalPackageClasses)
+    {
+        Map<String, Object> marshallerProps = new HashMap<>();
+        marshallerProps.put(JAXB_FORMATTED_OUTPUT, true);
+        marshallerProps.put(JAXB_ENCODING, "UTF-8");
+
+        if (lazyJaxbContext)
+        {
+            // The module's packages are only those loaded so far if the model is on the class path,
+            // so take them from the namespaces instead.
+            Set<String> packages = new LinkedHashSet<>(Namespaces.getNamespacePackages().values());
+            Stream.of(additionalPackageClasses).map(c -> c.getPackageName()).forEach(p -> packages.add(p));
+
+            lazyJaxb = new LazyJaxbMarshaller(getClass().getClassLoader(), packages, marshallerProps);
+            return;
+        }
+
         Module module = Locatable.class.getModule();
         Set<String> packages = module.getPackages().stream()
                 .filter(p -> p.startsWith("com.genologics.ri"))
                 .collect(Collectors.toSet());
         Stream.of(additionalPackageClasses).map(c -> c.getPackageName()).forEach(p -> packages.add(p));
 
-        Map<String, Object> marshallerProps = new HashMap<>();
-        marshallerProps.put(JAXB_FORMATTED_OUTPUT, true);
-        marshallerProps.put(JAXB_ENCODING, "UTF-8");
-
-        jaxb2 = new Jaxb2Marshaller();
+        jaxb2 = new PooledJaxb2Marshaller();
         jaxb2.setPackagesToScan(packages.toArray(new String[packages.size()]));
         jaxb2.setMarshallerProperties(marshallerProps);
 
@@ -139,6 +184,40 @@ public class ClarityClientConfiguration
         }
     }
 
+    /**
+     * Clarity HTTP connection pool. If the system property {@code clarity.http.jmx}
+     * is "true", the pool is registered as an MBean on the platform MBean server.
+     *
+     * @return The pool of HTTP connections used by the HTTP client.
+     *
+     * @since 2.34
+     *
+     * @see ClarityHttpConnectionPool#JMX_NAME
+     */
+    @Bean
+    public ClarityHttpConnectionPool clarityHttpConnectionPool()
+    {
+        ClarityHttpConnectionPool pool = new ClarityHttpConnectionPool(httpConnectTimeout, httpSocketTimeout);
+        if (Boolean.getBoolean("clarity.http.jmx"))
+        {
+            pool.registerMBean(ManagementFactory.getPlatformMBeanServer());
+        }
+        return pool;
+    }
+
+    /**
+     * Clarity HTTP response compression control and statistics.
+     *
+     * @return The object controlling compression of HTTP responses.
+     *
+     * @since 2.34
+     */
+    @Bean
+    public ClarityHttpCompression clarityHttpCompression()
+    {
+        return new ClarityHttpCompression();
+    }
+
     /**
      * Clarity HTTP client.
      *
@@ -147,18 +226,7 @@ public class ClarityClientConfiguration
     @Bean
     public HttpClient clarityHttpClient()
     {
-        var connectionBuilder = ConnectionConfig.custom();
-        connectionBuilder.setConnectTimeout(httpConnectTimeout, TimeUnit.MILLISECONDS);
-        connectionBuilder.setSocketTimeout(httpSocketTimeout, TimeUnit.MILLISECONDS);
-
-        var socketBuilder = SocketConfig.custom();
-        socketBuilder.setSoTimeout(httpSocketTimeout, TimeUnit.MILLISECONDS);
-
-        var managerBuilder = PoolingHttpClientConnectionManagerBuilder.create();
-        managerBuilder.setMaxConnPerRoute(2);
-        managerBuilder.setMaxConnTotal(4);
-        managerBuilder.setDefaultConnectionConfig(connectionBuilder.build());
-        managerBuilder.setDefaultSocketConfig(socketBuilder.build());
+        ClarityHttpConnectionPool pool = clarityHttpConnectionPool();
 
         var requestBuilder = RequestConfig.custom();
         requestBuilder.setAuthenticationEnabled(true);
@@ -168,8 +236,12 @@ public class ClarityClientConfiguration
 
         HttpClientBuilder clientBuilder = HttpClientBuilder.create();
         clientBuilder.setDefaultRequestConfig(requestBuilder.build());
-        clientBuilder.setConnectionManager(managerBuilder.build());
-        clientBuilder.disableContentCompression();
+        clientBuilder.setConnectionManager(pool.getConnectionManager());
+        clientBuilder.setKeepAliveStrategy(pool);
+
+        // Content compression is off in the default request configuration. The
+        // request factory turns it on per request when it is enabled.
+        clarityHttpCompression().install(clientBuilder);
 
         return clientBuilder.build();
     }
@@ -184,7 +256,9 @@ public class ClarityClientConfiguration
     {
         var credentialsProvider = CredentialsProviderBuilder.create().build();
 
-        return new HttpComponentsClientHttpRequestFactoryBasicAuth(clarityHttpClient(), credentialsProvider);
+        var factory = new HttpComponentsClientHttpRequestFactoryBasicAuth(clarityHttpClient(), credentialsProvider);
+        factory.setHttpCompression(clarityHttpCompression());
+        return factory;
     }
 
     /**
@@ -195,7 +269,8 @@ public class ClarityClientConfiguration
     @Bean
     public Marshaller clarityJaxbMarshaller()
     {
-        return new PassThroughInvocationHandler<>(jaxb2, Marshaller.class).createProxy();
+        Marshaller marshaller = lazyJaxb == null ? jaxb2 : lazyJaxb;
+        return new PassThroughInvocationHandler<>(marshaller, Marshaller.class).createProxy();
     }
 
     /**
@@ -206,7 +281,8 @@ public class ClarityClientConfiguration
     @Bean
     public Unmarshaller clarityJaxbUnmarshaller()
     {
-        return new PassThroughInvocationHandler<>(jaxb2, Unmarshaller.class).createProxy();
+        Unmarshaller unmarshaller = lazyJaxb == null ? jaxb2 : lazyJaxb;
+        return new PassThroughInvocationHandler<>(unmarshaller, Unmarshaller.class).createProxy();
     }
 
     /**
@@ -217,7 +293,7 @@ public class ClarityClientConfiguration
     @Bean
     public List<Class<?>> clarityJaxbClasses()
     {
-        return Arrays.asList(jaxb2.getClassesToBeBound());
+        return lazyJaxb == null ? Arrays.asList(jaxb2.getClassesToBeBound()) : lazyJaxb.getKnownClasses();
     }
 
     /**
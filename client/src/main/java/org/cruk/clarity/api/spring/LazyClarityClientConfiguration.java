@@ -0,0 +1,43 @@
+/*
+ * CRUK-CI Clarity REST API Java Client.
+ * Copyright (C) 2013 Cancer Research UK Cambridge Institute.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.cruk.clarity.api.spring;
+
+import org.cruk.clarity.api.jaxb.LazyJaxbMarshaller;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Spring configuration for the Clarity Client that starts faster by building
+ * the JAXB context for each package of the model only when it is first needed.
+ * Use it in place of {@link ClarityClientConfiguration}; everything else is
+ * the same.
+ *
+ * @see LazyJaxbMarshaller
+ *
+ * @since 2.34
+ */
+@Configuration
+public class LazyClarityClientConfiguration extends ClarityClientConfiguration
+{
+    /**
+     * Constructor.
+     */
+    public LazyClarityClientConfiguration()
+    {
+        super(true);
+    }
+}
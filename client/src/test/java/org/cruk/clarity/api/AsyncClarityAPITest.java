@@ -0,0 +1,125 @@
+/*
+ * CRUK-CI Clarity REST API Java Client.
+ * Copyright (C) 2013 Cancer Research UK Cambridge Institute.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cruk.clarity.api;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.genologics.ri.sample.Sample;
+
+public class AsyncClarityAPITest
+{
+    private ExecutorService executor;
+
+    private ClarityAPI api;
+
+    private AsyncClarityAPI async;
+
+    @BeforeEach
+    public void setup()
+    {
+        executor = Executors.newSingleThreadExecutor();
+        api = mock(ClarityAPI.class);
+        async = new AsyncClarityAPI(api, executor);
+    }
+
+    @AfterEach
+    public void cleanup()
+    {
+        async.close();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testLoadAsync() throws Exception
+    {
+        Sample sample = new Sample();
+        AtomicReference<Thread> callThread = new AtomicReference<>();
+
+        when(api.load("ABC123", Sample.class)).then(invocation ->
+        {
+            callThread.set(Thread.currentThread());
+            return sample;
+        });
+
+        assertSame(sample, async.loadAsync("ABC123", Sample.class).get(), "Wrong sample returned");
+        assertNotEquals(Thread.currentThread(), callThread.get(), "Call not made on the executor");
+        verify(api, never()).overrideStateful(any());
+    }
+
+    @Test
+    public void testStatefulOverrideOnWorkerThread() throws Exception
+    {
+        AtomicReference<Thread> overrideThread = new AtomicReference<>();
+        AtomicReference<Thread> callThread = new AtomicReference<>();
+
+        doAnswer(invocation ->
+        {
+            overrideThread.set(Thread.currentThread());
+            return null;
+        }).when(api).overrideStateful(StatefulOverride.EXACT);
+
+        when(api.retrieve("http://server/api/v2/samples/ABC123", Sample.class)).then(invocation ->
+        {
+            callThread.set(Thread.currentThread());
+            return new Sample();
+        });
+
+        async.overrideStateful(StatefulOverride.EXACT);
+        async.retrieveAsync("http://server/api/v2/samples/ABC123", Sample.class).get();
+
+        assertEquals(callThread.get(), overrideThread.get(), "Override not applied on the calling thread");
+
+        // The override only applies to one call.
+        async.retrieveAsync("http://server/api/v2/samples/ABC123", Sample.class).get();
+        verify(api).overrideStateful(StatefulOverride.EXACT);
+    }
+
+    @Test
+    public void testFailure()
+    {
+        Sample sample = new Sample();
+        IllegalStateException failure = new IllegalStateException("Update failed");
+
+        doAnswer(invocation ->
+        {
+            throw failure;
+        }).when(api).update(sample);
+
+        CompletionException thrown = assertThrows(CompletionException.class, () -> async.updateAsync(sample).join());
+        assertSame(failure, thrown.getCause(), "Failure not passed through");
+    }
+}
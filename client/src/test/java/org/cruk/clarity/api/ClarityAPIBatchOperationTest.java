@@ -20,10 +20,15 @@ package org.cruk.clarity.api;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.atMost;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.reset;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoInteractions;
@@ -31,6 +36,7 @@ import static org.mockito.Mockito.when;
 
 import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.PushbackInputStream;
 import java.io.StringWriter;
@@ -38,8 +44,17 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Random;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
 
 import javax.xml.transform.stream.StreamResult;
 import javax.xml.transform.stream.StreamSource;
@@ -61,10 +76,13 @@ import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.client.ClientHttpRequest;
 import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.ResponseEntity;
 import org.springframework.http.client.ClientHttpResponse;
 import org.springframework.oxm.Marshaller;
 import org.springframework.oxm.Unmarshaller;
 import org.springframework.test.context.junit.jupiter.SpringJUnitConfig;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestOperations;
 import org.springframework.web.client.RestTemplate;
 
 import com.genologics.ri.LimsLink;
@@ -73,6 +91,7 @@ import com.genologics.ri.Links;
 import com.genologics.ri.artifact.Artifact;
 import com.genologics.ri.artifact.ArtifactBatchFetchResult;
 import com.genologics.ri.artifact.ArtifactLink;
+import com.genologics.ri.container.Container;
 
 /*
  * Can't use the wired standard configuration as it's all changed around with the mocks.
@@ -200,6 +219,200 @@ public class ClarityAPIBatchOperationTest
         verify(httpRequest, atMost(2)).getBody();
     }
 
+    @Test
+    public void testArtifactStreamingBatchFetch() throws Exception
+    {
+        List<LimsLink<Artifact>> links = new ArrayList<LimsLink<Artifact>>();
+
+        links.add(new ArtifactLink(new URI("http://limsdev.cri.camres.org:8080/api/v2/artifacts/2-1000624")));
+        links.add(new ArtifactLink(new URI("http://limsdev.cri.camres.org:8080/api/v2/artifacts/2-1000622")));
+        links.add(new ArtifactLink(new URI("http://limsdev.cri.camres.org:8080/api/v2/artifacts/2-1000605")));
+        links.add(new ArtifactLink(new URI("http://limsdev.cri.camres.org:8080/api/v2/artifacts/2-1000623")));
+        links.add(new ArtifactLink(new URI("http://limsdev.cri.camres.org:8080/api/v2/artifacts/2-1000625")));
+
+        File expectedResultFile = new File("src/test/xml/batchtestreordering-artifacts.xml");
+        byte[] expectedReply = FileUtils.readFileToByteArray(expectedResultFile);
+
+        URI uri = new URI("http://limsdev.cri.camres.org:8080/api/v2/artifacts/batch/retrieve");
+
+        HttpHeaders headers = new HttpHeaders();
+
+        // Every chunk gets the same reply: it's only the reading of it being tested.
+
+        ClientHttpResponse httpResponse = mock(ClientHttpResponse.class);
+        when(httpResponse.getStatusCode()).thenReturn(HttpStatus.OK);
+        when(httpResponse.getHeaders()).thenReturn(headers);
+        when(httpResponse.getBody()).thenAnswer(invocation -> new ByteArrayInputStream(expectedReply));
+
+        ClientHttpRequest httpRequest = mock(ClientHttpRequest.class);
+        when(httpRequest.getHeaders()).thenReturn(headers);
+        when(httpRequest.getBody()).thenReturn(NullOutputStream.INSTANCE);
+        when(httpRequest.execute()).thenReturn(httpResponse);
+
+        // The requests must go through the REST template, not straight to the client's factory.
+
+        ClientHttpRequestFactory mockFactory = mock(ClientHttpRequestFactory.class);
+        when(mockFactory.createRequest(uri, HttpMethod.POST)).thenReturn(httpRequest);
+        restTemplate.setRequestFactory(mockFactory);
+
+        AuthenticatingClientHttpRequestFactory clientFactory = mock(AuthenticatingClientHttpRequestFactory.class);
+
+        var impl = new ClarityAPIImpl();
+        impl.setRestClient(restTemplate);
+        impl.setHttpRequestFactory(clientFactory);
+        impl.setJaxbConfig(jaxbClasses);
+        impl.setJaxbMarshaller(marshaller);
+        impl.setJaxbUnmarshaller(unmarshaller);
+        impl.setServerURI(new URI("http://limsdev.cri.camres.org:8080"));
+
+        List<Artifact> artifacts = new ArrayList<Artifact>();
+        impl.forEachLoaded(links, artifacts::add);
+
+        assertEquals(links.size(), artifacts.size(), "Wrong number of artifacts");
+        assertEquals("2-1000622", artifacts.get(0).getLimsid(), "Artifacts not in response order");
+        assertEquals("2-1000605", artifacts.get(4).getLimsid(), "Artifacts not in response order");
+        assertTrue(artifacts.get(0).getUri().toString().startsWith(links.get(1).getUri().toString()),
+                   "Artifact wrong: " + artifacts.get(0).getUri());
+        assertEquals("SLX-7443", artifacts.get(0).getName(), "Artifact name not read");
+        assertEquals(4, artifacts.get(0).getSamples().size(), "Artifact samples not read");
+
+        verify(mockFactory, times(1)).createRequest(uri, HttpMethod.POST);
+        verify(httpResponse, times(1)).close();
+        verify(clientFactory, never()).createRequest(any(), any());
+
+        // In two chunks, the second is only sent when the first has been read.
+
+        reset(mockFactory, httpResponse);
+        when(httpResponse.getStatusCode()).thenReturn(HttpStatus.OK);
+        when(httpResponse.getHeaders()).thenReturn(headers);
+        when(httpResponse.getBody()).thenAnswer(invocation -> new ByteArrayInputStream(expectedReply));
+        when(mockFactory.createRequest(uri, HttpMethod.POST)).thenReturn(httpRequest);
+
+        impl.setBulkOperationBatchSize(3);
+
+        try (Stream<Artifact> stream = impl.streamLoadAll(links))
+        {
+            Spliterator<Artifact> spliterator = stream.spliterator();
+            assertTrue(spliterator.hasCharacteristics(Spliterator.ORDERED), "Stream not ordered");
+
+            Iterator<Artifact> iter = Spliterators.iterator(spliterator);
+
+            verifyNoInteractions(mockFactory);
+
+            for (int i = 0; i < 5; i++)
+            {
+                assertTrue(iter.hasNext(), "Artifact " + i + " missing from first chunk");
+                iter.next();
+            }
+            verify(mockFactory, times(1)).createRequest(uri, HttpMethod.POST);
+            verify(httpResponse, times(1)).close();
+
+            assertTrue(iter.hasNext(), "Second chunk missing");
+            assertEquals("2-1000622", iter.next().getLimsid(), "Second chunk read wrongly");
+
+            verify(mockFactory, times(2)).createRequest(uri, HttpMethod.POST);
+            verify(httpResponse, times(2)).close();
+        }
+
+        // Closing the stream part way through stops further chunks being fetched.
+
+        impl.setBulkOperationBatchSize(2);
+
+        try (Stream<Artifact> stream = impl.streamLoadAll(links))
+        {
+            Iterator<Artifact> iter = stream.iterator();
+            assertTrue(iter.hasNext(), "First chunk missing");
+            iter.next();
+        }
+        verify(mockFactory, times(3)).createRequest(uri, HttpMethod.POST);
+        verify(httpResponse, times(3)).close();
+    }
+
+    @Test
+    public void testArtifactBatchFetchConcurrent() throws Exception
+    {
+        List<LimsLink<Artifact>> links = new ArrayList<LimsLink<Artifact>>();
+
+        links.add(new ArtifactLink(new URI("http://limsdev.cri.camres.org:8080/api/v2/artifacts/2-1000624")));
+        links.add(new ArtifactLink(new URI("http://limsdev.cri.camres.org:8080/api/v2/artifacts/2-1000622")));
+        links.add(new ArtifactLink(new URI("http://limsdev.cri.camres.org:8080/api/v2/artifacts/2-1000605")));
+        links.add(new ArtifactLink(new URI("http://limsdev.cri.camres.org:8080/api/v2/artifacts/2-1000623")));
+        links.add(new ArtifactLink(new URI("http://limsdev.cri.camres.org:8080/api/v2/artifacts/2-1000625")));
+
+        File expectedResultFile = new File("src/test/xml/batchtestreordering-artifacts.xml");
+
+        ArtifactBatchFetchResult allArtifacts =
+                (ArtifactBatchFetchResult)unmarshaller.unmarshal(new StreamSource(expectedResultFile));
+
+        URI uri = new URI("http://limsdev.cri.camres.org:8080/api/v2/artifacts/batch/retrieve");
+
+        // Three batches of two, two and one artifacts. Which response is given to which
+        // request doesn't matter, as the final list is put back into the order of the links.
+
+        HttpHeaders headers = new HttpHeaders();
+
+        List<Artifact> artifacts = allArtifacts.getArtifacts();
+        List<ClientHttpResponse> responses = new ArrayList<ClientHttpResponse>();
+        List<ClientHttpRequest> requests = new ArrayList<ClientHttpRequest>();
+
+        for (int start = 0; start < artifacts.size(); start += 2)
+        {
+            var batchResult = new ArtifactBatchFetchResult(artifacts.subList(start, Math.min(start + 2, artifacts.size())));
+
+            StringWriter batchXML = new StringWriter();
+            marshaller.marshal(batchResult, new StreamResult(batchXML));
+
+            InputStream responseStream = new PushbackInputStream(new ByteArrayInputStream(batchXML.toString().getBytes()));
+
+            ClientHttpResponse httpResponse = mock(ClientHttpResponse.class);
+            when(httpResponse.getStatusCode()).thenReturn(HttpStatus.OK);
+            when(httpResponse.getHeaders()).thenReturn(headers);
+            when(httpResponse.getBody()).thenReturn(responseStream);
+
+            ClientHttpRequest httpRequest = mock(ClientHttpRequest.class);
+            when(httpRequest.getHeaders()).thenReturn(headers);
+            when(httpRequest.getBody()).thenReturn(NullOutputStream.INSTANCE);
+            when(httpRequest.execute()).thenReturn(httpResponse);
+
+            responses.add(httpResponse);
+            requests.add(httpRequest);
+        }
+
+        ClientHttpRequestFactory mockFactory = mock(ClientHttpRequestFactory.class);
+        when(mockFactory.createRequest(uri, HttpMethod.POST))
+            .thenReturn(requests.get(0), requests.get(1), requests.get(2));
+
+        restTemplate.setRequestFactory(mockFactory);
+
+        api.setBulkOperationBatchSize(2);
+        api.setBulkOperationConcurrency(3);
+        try
+        {
+            List<Artifact> fetched = api.loadAll(links);
+
+            assertEquals(links.size(), fetched.size(), "Wrong number of artifacts");
+
+            for (int i = 0; i < links.size(); i++)
+            {
+                assertTrue(fetched.get(i).getUri().toString().startsWith(links.get(i).getUri().toString()),
+                           "Artifact " + i + " wrong: " + fetched.get(i).getUri());
+            }
+        }
+        finally
+        {
+            api.setBulkOperationBatchSize(500);
+            api.setBulkOperationConcurrency(1);
+        }
+
+        verify(mockFactory, times(3)).createRequest(uri, HttpMethod.POST);
+
+        for (ClientHttpResponse httpResponse : responses)
+        {
+            verify(httpResponse, times(1)).getBody();
+            verify(httpResponse, times(1)).close();
+        }
+    }
+
     @Test
     public void testArtifactBatchUpdate() throws Exception
     {
@@ -296,6 +509,390 @@ public class ClarityAPIBatchOperationTest
         verify(mockFactory, times(1)).createRequest(retrieveUri, HttpMethod.POST);
     }
 
+    @Test
+    public void testArtifactBatchUpdatePartialFailure() throws Exception
+    {
+        File expectedResultFile = new File("src/test/xml/batchtestreordering-artifacts.xml");
+
+        ArtifactBatchFetchResult updateArtifactsFetch =
+                (ArtifactBatchFetchResult)unmarshaller.unmarshal(new StreamSource(expectedResultFile));
+
+        List<Artifact> artifacts = updateArtifactsFetch.getArtifacts().subList(0, 4);
+        List<Artifact> firstChunk = artifacts.subList(0, 2);
+
+        // The first chunk of two updates and reloads. The second fails.
+
+        Links confirmLinks = new Links();
+        for (Artifact a : firstChunk)
+        {
+            confirmLinks.getLinks().add(new Link(a));
+        }
+
+        StringWriter linksXML = new StringWriter();
+        marshaller.marshal(confirmLinks, new StreamResult(linksXML));
+
+        StringWriter reloadXML = new StringWriter();
+        marshaller.marshal(new ArtifactBatchFetchResult(firstChunk), new StreamResult(reloadXML));
+
+        URI updateUri = new URI("http://limsdev.cri.camres.org:8080/api/v2/artifacts/batch/update");
+        URI retrieveUri = new URI("http://limsdev.cri.camres.org:8080/api/v2/artifacts/batch/retrieve");
+
+        HttpHeaders headers = new HttpHeaders();
+
+        ClientHttpResponse httpResponse1 = mock(ClientHttpResponse.class);
+        when(httpResponse1.getStatusCode()).thenReturn(HttpStatus.OK);
+        when(httpResponse1.getHeaders()).thenReturn(headers);
+        when(httpResponse1.getBody()).thenReturn(new PushbackInputStream(new ByteArrayInputStream(linksXML.toString().getBytes())));
+
+        ClientHttpRequest httpRequest1 = mock(ClientHttpRequest.class);
+        when(httpRequest1.getHeaders()).thenReturn(headers);
+        when(httpRequest1.getBody()).thenReturn(NullOutputStream.INSTANCE);
+        when(httpRequest1.execute()).thenReturn(httpResponse1);
+
+        ClientHttpResponse httpResponse2 = mock(ClientHttpResponse.class);
+        when(httpResponse2.getStatusCode()).thenReturn(HttpStatus.OK);
+        when(httpResponse2.getHeaders()).thenReturn(headers);
+        when(httpResponse2.getBody()).thenReturn(new PushbackInputStream(new ByteArrayInputStream(reloadXML.toString().getBytes())));
+
+        ClientHttpRequest httpRequest2 = mock(ClientHttpRequest.class);
+        when(httpRequest2.getHeaders()).thenReturn(headers);
+        when(httpRequest2.getBody()).thenReturn(NullOutputStream.INSTANCE);
+        when(httpRequest2.execute()).thenReturn(httpResponse2);
+
+        ClientHttpRequest httpRequest3 = mock(ClientHttpRequest.class);
+        when(httpRequest3.getHeaders()).thenReturn(headers);
+        when(httpRequest3.getBody()).thenReturn(NullOutputStream.INSTANCE);
+        when(httpRequest3.execute()).thenThrow(new IOException("Connection reset"));
+
+        ClientHttpRequestFactory mockFactory = mock(ClientHttpRequestFactory.class);
+        when(mockFactory.createRequest(updateUri, HttpMethod.POST)).thenReturn(httpRequest1, httpRequest3);
+        when(mockFactory.createRequest(retrieveUri, HttpMethod.POST)).thenReturn(httpRequest2);
+
+        restTemplate.setRequestFactory(mockFactory);
+
+        api.setBulkOperationBatchSize(2);
+        try
+        {
+            api.updateAll(artifacts);
+            fail("Update succeeded when the second chunk failed.");
+        }
+        catch (ClarityBulkOperationException e)
+        {
+            assertEquals(2, e.getChunkCount(), "Wrong number of chunks");
+            assertEquals(List.of(0), e.getCommittedChunks(), "Wrong chunks committed");
+            assertEquals(firstChunk, e.getCommittedEntities(), "Wrong entities committed");
+            assertEquals(2, e.getCommittedLinks().size(), "Wrong number of committed links");
+            assertTrue(e.getUnreloadedChunks().isEmpty(), "Committed chunk is reported as not fetched back");
+            assertTrue(e.getCause() instanceof ResourceAccessException, "Cause is not the original failure");
+        }
+        finally
+        {
+            api.setBulkOperationBatchSize(500);
+        }
+
+        verify(mockFactory, times(2)).createRequest(updateUri, HttpMethod.POST);
+        verify(mockFactory, times(1)).createRequest(retrieveUri, HttpMethod.POST);
+    }
+
+    @Test
+    public void testArtifactBatchUpdateReloadFailure() throws Exception
+    {
+        File expectedResultFile = new File("src/test/xml/batchtestreordering-artifacts.xml");
+
+        ArtifactBatchFetchResult updateArtifactsFetch =
+                (ArtifactBatchFetchResult)unmarshaller.unmarshal(new StreamSource(expectedResultFile));
+
+        List<Artifact> artifacts = updateArtifactsFetch.getArtifacts().subList(0, 4);
+        List<Artifact> firstChunk = artifacts.subList(0, 2);
+        List<Artifact> secondChunk = artifacts.subList(2, 4);
+
+        // Both chunks are written. The first is fetched back, but fetching the second fails.
+
+        Links confirmLinks1 = new Links();
+        firstChunk.forEach(a -> confirmLinks1.getLinks().add(new Link(a)));
+
+        Links confirmLinks2 = new Links();
+        secondChunk.forEach(a -> confirmLinks2.getLinks().add(new Link(a)));
+
+        StringWriter linksXML1 = new StringWriter();
+        marshaller.marshal(confirmLinks1, new StreamResult(linksXML1));
+
+        StringWriter linksXML2 = new StringWriter();
+        marshaller.marshal(confirmLinks2, new StreamResult(linksXML2));
+
+        StringWriter reloadXML = new StringWriter();
+        marshaller.marshal(new ArtifactBatchFetchResult(firstChunk), new StreamResult(reloadXML));
+
+        URI updateUri = new URI("http://limsdev.cri.camres.org:8080/api/v2/artifacts/batch/update");
+        URI retrieveUri = new URI("http://limsdev.cri.camres.org:8080/api/v2/artifacts/batch/retrieve");
+
+        HttpHeaders headers = new HttpHeaders();
+
+        ClientHttpRequest writeRequest1 = mockRequest(headers, linksXML1.toString());
+        ClientHttpRequest writeRequest2 = mockRequest(headers, linksXML2.toString());
+        ClientHttpRequest reloadRequest1 = mockRequest(headers, reloadXML.toString());
+
+        ClientHttpRequest reloadRequest2 = mock(ClientHttpRequest.class);
+        when(reloadRequest2.getHeaders()).thenReturn(headers);
+        when(reloadRequest2.getBody()).thenReturn(NullOutputStream.INSTANCE);
+        when(reloadRequest2.execute()).thenThrow(new IOException("Connection reset"));
+
+        ClientHttpRequestFactory mockFactory = mock(ClientHttpRequestFactory.class);
+        when(mockFactory.createRequest(updateUri, HttpMethod.POST)).thenReturn(writeRequest1, writeRequest2);
+        when(mockFactory.createRequest(retrieveUri, HttpMethod.POST)).thenReturn(reloadRequest1, reloadRequest2);
+
+        restTemplate.setRequestFactory(mockFactory);
+
+        api.setBulkOperationBatchSize(2);
+        try
+        {
+            api.updateAll(artifacts);
+            fail("Update succeeded when fetching the second chunk failed.");
+        }
+        catch (ClarityBulkOperationException e)
+        {
+            assertEquals(List.of(0, 1), e.getCommittedChunks(), "Wrong chunks committed");
+            assertEquals(artifacts, e.getCommittedEntities(), "Wrong entities committed");
+            assertEquals(List.of(1), e.getUnreloadedChunks(), "Wrong chunks not fetched back");
+            assertEquals(secondChunk, e.getUnreloadedEntities(), "Wrong entities not fetched back");
+            assertEquals(2, e.getUnreloadedLinks().size(), "Wrong number of links not fetched back");
+            assertEquals(secondChunk.get(0).getUri(), e.getUnreloadedLinks().get(0).getUri(), "Wrong link not fetched back");
+            assertTrue(e.getCause() instanceof ResourceAccessException, "Cause is not the original failure");
+        }
+        finally
+        {
+            api.setBulkOperationBatchSize(500);
+        }
+
+        verify(mockFactory, times(2)).createRequest(updateUri, HttpMethod.POST);
+        verify(mockFactory, times(2)).createRequest(retrieveUri, HttpMethod.POST);
+    }
+
+    /**
+     * Create a mock request that replies successfully with the given body.
+     *
+     * @param headers The HTTP headers for the request and response.
+     * @param body The body of the response.
+     *
+     * @return The mock request.
+     *
+     * @throws IOException never, but declared by the mocked methods.
+     */
+    private ClientHttpRequest mockRequest(HttpHeaders headers, String body) throws IOException
+    {
+        ClientHttpResponse response = mock(ClientHttpResponse.class);
+        when(response.getStatusCode()).thenReturn(HttpStatus.OK);
+        when(response.getHeaders()).thenReturn(headers);
+        when(response.getBody()).thenReturn(new PushbackInputStream(new ByteArrayInputStream(body.getBytes())));
+
+        ClientHttpRequest request = mock(ClientHttpRequest.class);
+        when(request.getHeaders()).thenReturn(headers);
+        when(request.getBody()).thenReturn(NullOutputStream.INSTANCE);
+        when(request.execute()).thenReturn(response);
+        return request;
+    }
+
+    @Test
+    public void testContainerDeleteAll() throws Exception
+    {
+        List<Container> containers = new ArrayList<Container>();
+        for (int i = 1; i <= 3; i++)
+        {
+            containers.add(new Container(new URI("http://limsdev.cri.camres.org:8080/api/v2/containers/27-" + i), "27-" + i));
+        }
+
+        HttpHeaders headers = new HttpHeaders();
+
+        // First is deleted, second is not found, third fails to connect.
+
+        ClientHttpResponse httpResponse1 = mock(ClientHttpResponse.class);
+        when(httpResponse1.getStatusCode()).thenReturn(HttpStatus.NO_CONTENT);
+        when(httpResponse1.getHeaders()).thenReturn(headers);
+
+        ClientHttpRequest httpRequest1 = mock(ClientHttpRequest.class);
+        when(httpRequest1.getHeaders()).thenReturn(headers);
+        when(httpRequest1.execute()).thenReturn(httpResponse1);
+
+        byte[] notFoundBody = FileUtils.readFileToByteArray(new File("src/test/xml/exceptionaspecttest-exception.xml"));
+
+        ClientHttpResponse httpResponse2 = mock(ClientHttpResponse.class);
+        when(httpResponse2.getStatusCode()).thenReturn(HttpStatus.NOT_FOUND);
+        when(httpResponse2.getHeaders()).thenReturn(headers);
+        when(httpResponse2.getBody()).thenReturn(new ByteArrayInputStream(notFoundBody));
+
+        ClientHttpRequest httpRequest2 = mock(ClientHttpRequest.class);
+        when(httpRequest2.getHeaders()).thenReturn(headers);
+        when(httpRequest2.execute()).thenReturn(httpResponse2);
+
+        ClientHttpRequest httpRequest3 = mock(ClientHttpRequest.class);
+        when(httpRequest3.getHeaders()).thenReturn(headers);
+        when(httpRequest3.execute()).thenThrow(new IOException("Connection reset"));
+
+        ClientHttpRequestFactory mockFactory = mock(ClientHttpRequestFactory.class);
+        when(mockFactory.createRequest(containers.get(0).getUri(), HttpMethod.DELETE)).thenReturn(httpRequest1);
+        when(mockFactory.createRequest(containers.get(1).getUri(), HttpMethod.DELETE)).thenReturn(httpRequest2);
+        when(mockFactory.createRequest(containers.get(2).getUri(), HttpMethod.DELETE)).thenReturn(httpRequest3);
+
+        restTemplate.setRequestFactory(mockFactory);
+
+        api.setBulkOperationConcurrency(2);
+        try
+        {
+            DeleteResults<Container> results = api.deleteAll(containers);
+
+            assertEquals(3, results.size(), "Wrong number of results");
+            assertEquals(List.of(containers.get(0)), results.getDeleted(), "Wrong deleted containers");
+            assertEquals(List.of(containers.get(1)), results.getNotFound(), "Wrong not found containers");
+            assertEquals(List.of(containers.get(2)), results.getFailed(), "Wrong failed containers");
+            assertTrue(results.hasFailures(), "Failure not reported");
+
+            assertEquals(DeleteResults.Outcome.NOT_FOUND, results.getResults().get(1).getOutcome(), "Results out of order");
+            assertTrue(results.getResults().get(2).getFailure() instanceof ResourceAccessException, "Failure cause wrong");
+
+            try
+            {
+                results.throwIfFailed();
+                fail("Failure not rethrown");
+            }
+            catch (ResourceAccessException e)
+            {
+                // Correct.
+            }
+        }
+        finally
+        {
+            api.setBulkOperationConcurrency(1);
+        }
+
+        for (Container c : containers)
+        {
+            verify(mockFactory, times(1)).createRequest(c.getUri(), HttpMethod.DELETE);
+        }
+    }
+
+    @Test
+    public void testCoalescedLoads() throws Exception
+    {
+        final String batchUri = "http://limsdev.cri.camres.org:8080/api/v2/artifacts/batch/retrieve";
+
+        RestOperations restMock = mock(RestOperations.class);
+
+        when(restMock.postForEntity(eq(batchUri), any(Links.class), eq(ArtifactBatchFetchResult.class))).thenAnswer(invocation ->
+        {
+            Links links = invocation.getArgument(1);
+            List<Artifact> artifacts = new ArrayList<Artifact>();
+            for (Link link : links)
+            {
+                String path = link.getUri().getPath();
+                artifacts.add(new Artifact(link.getUri(), path.substring(path.lastIndexOf('/') + 1)));
+            }
+            // Batch results are not in request order.
+            Collections.reverse(artifacts);
+            return new ResponseEntity<ArtifactBatchFetchResult>(new ArtifactBatchFetchResult(artifacts), HttpStatus.OK);
+        });
+
+        var impl = new ClarityAPIImpl();
+        impl.setRestClient(restMock);
+        impl.setHttpRequestFactory(httpRequestFactory);
+        impl.setJaxbConfig(jaxbClasses);
+        impl.setServerURI(new URI("http://limsdev.cri.camres.org:8080"));
+        impl.setBulkOperationBatchSize(4);
+
+        // A long window: the group is fetched as soon as it is full.
+        impl.setRetrieveCoalescingWindow(30000);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try
+        {
+            List<Future<Artifact>> futures = new ArrayList<Future<Artifact>>();
+            for (int i = 0; i < 4; i++)
+            {
+                String limsid = "2-100" + i;
+                futures.add(executor.submit(() -> impl.load(limsid, Artifact.class)));
+            }
+
+            for (int i = 0; i < 4; i++)
+            {
+                Artifact a = futures.get(i).get(10, TimeUnit.SECONDS);
+                assertEquals("2-100" + i, a.getLimsid(), "Wrong artifact given to caller " + i);
+            }
+
+            verify(restMock, times(1)).postForEntity(eq(batchUri), any(Links.class), eq(ArtifactBatchFetchResult.class));
+            verify(restMock, never()).getForEntity(any(URI.class), eq(Artifact.class));
+
+            // If the batch fails, each caller fetches individually.
+
+            ClarityException notFound = new ClarityException(new com.genologics.ri.exception.Exception(), HttpStatus.NOT_FOUND);
+
+            reset(restMock);
+            when(restMock.postForEntity(eq(batchUri), any(Links.class), eq(ArtifactBatchFetchResult.class))).thenThrow(notFound);
+            when(restMock.getForEntity(any(URI.class), eq(Artifact.class))).thenAnswer(invocation ->
+            {
+                URI uri = invocation.getArgument(0);
+                if (uri.getPath().endsWith("2-1000"))
+                {
+                    throw notFound;
+                }
+                return new ResponseEntity<Artifact>(new Artifact(uri, "2-1001"), HttpStatus.OK);
+            });
+
+            impl.setBulkOperationBatchSize(2);
+
+            Future<Artifact> missing = executor.submit(() -> impl.load("2-1000", Artifact.class));
+            Future<Artifact> present = executor.submit(() -> impl.load("2-1001", Artifact.class));
+
+            assertEquals("2-1001", present.get(10, TimeUnit.SECONDS).getLimsid(), "Wrong artifact after batch failure");
+            try
+            {
+                missing.get(10, TimeUnit.SECONDS);
+                fail("Load of a missing artifact succeeded.");
+            }
+            catch (ExecutionException e)
+            {
+                assertSame(notFound, e.getCause(), "Missing artifact error not given to its caller");
+            }
+
+            verify(restMock, times(2)).getForEntity(any(URI.class), eq(Artifact.class));
+
+            // If the batch fails with an error, the thread doing the fetch gets the
+            // error but the others are not left waiting.
+
+            AssertionError broken = new AssertionError("Broken batch");
+
+            reset(restMock);
+            when(restMock.postForEntity(eq(batchUri), any(Links.class), eq(ArtifactBatchFetchResult.class))).thenThrow(broken);
+            when(restMock.getForEntity(any(URI.class), eq(Artifact.class))).thenAnswer(invocation ->
+            {
+                URI uri = invocation.getArgument(0);
+                String path = uri.getPath();
+                return new ResponseEntity<Artifact>(new Artifact(uri, path.substring(path.lastIndexOf('/') + 1)), HttpStatus.OK);
+            });
+
+            List<Future<Artifact>> afterError = new ArrayList<Future<Artifact>>();
+            afterError.add(executor.submit(() -> impl.load("2-1002", Artifact.class)));
+            afterError.add(executor.submit(() -> impl.load("2-1003", Artifact.class)));
+
+            int loaded = 0;
+            for (Future<Artifact> future : afterError)
+            {
+                try
+                {
+                    future.get(10, TimeUnit.SECONDS);
+                    loaded++;
+                }
+                catch (ExecutionException e)
+                {
+                    assertSame(broken, e.getCause(), "Unexpected failure after batch error");
+                }
+            }
+            assertEquals(1, loaded, "Caller waiting on the failed batch did not retrieve individually");
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
     @Configuration
     static class MyConfiguration extends ClarityClientConfiguration
     {
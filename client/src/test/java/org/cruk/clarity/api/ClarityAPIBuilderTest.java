@@ -0,0 +1,152 @@
+/*
+ * CRUK-CI Clarity REST API Java Client.
+ * Copyright (C) 2013 Cancer Research UK Cambridge Institute.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.cruk.clarity.api;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.cruk.clarity.api.impl.ClarityAPIInternal;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.genologics.ri.artifact.Artifact;
+
+public class ClarityAPIBuilderTest
+{
+    private static final String ARTIFACT_XML =
+        "<art:artifact xmlns:art=\"http://genologics.com/ri/artifact\" limsid=\"2-1\" " +
+        "uri=\"http://localhost/api/v2/artifacts/2-1?state=10\"><name>Built</name></art:artifact>";
+
+    private static final String EXCEPTION_XML =
+        "<exc:exception xmlns:exc=\"http://genologics.com/ri/exception\" category=\"Bad Request\" code=\"404\">" +
+        "<message>Artifact 2-2 does not exist.</message></exc:exception>";
+
+    private ServerSocket server;
+
+    private ClarityAPI api;
+
+    @BeforeEach
+    public void setup() throws IOException
+    {
+        // A minimal HTTP server, answering each request on its own connection.
+
+        server = new ServerSocket(0, 5, InetAddress.getLoopbackAddress());
+        Thread serverThread = new Thread(() ->
+        {
+            while (!server.isClosed())
+            {
+                try (Socket socket = server.accept())
+                {
+                    respond(socket);
+                }
+                catch (IOException e)
+                {
+                    // Closed.
+                }
+            }
+        });
+        serverThread.setDaemon(true);
+        serverThread.start();
+
+        Properties configuration = new Properties();
+        configuration.setProperty("api.server", "http://localhost:" + server.getLocalPort());
+        configuration.setProperty("api.user", "apiuser");
+        configuration.setProperty("api.pass", "apipass");
+
+        AtomicReference<ClarityAPI> decorated = new AtomicReference<>();
+
+        api = new ClarityAPIBuilder()
+                .configuration(configuration)
+                .decorator(a -> { decorated.set(a); return a; })
+                .build();
+
+        assertTrue(decorated.get() instanceof ClarityAPIInternal, "Decorator not given the API");
+    }
+
+    @AfterEach
+    public void cleanup() throws IOException
+    {
+        ((Closeable)api).close();
+        server.close();
+    }
+
+    private void respond(Socket socket) throws IOException
+    {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), US_ASCII));
+        String requestLine = reader.readLine();
+        String line;
+        while ((line = reader.readLine()) != null && !line.isEmpty())
+        {
+            // Ignore headers.
+        }
+
+        boolean found = requestLine != null && requestLine.startsWith("GET /api/v2/artifacts/2-1 ");
+        byte[] content = (found ? ARTIFACT_XML : EXCEPTION_XML).getBytes(UTF_8);
+
+        OutputStream out = socket.getOutputStream();
+        out.write(((found ? "HTTP/1.1 200 OK" : "HTTP/1.1 404 Not Found") + "\r\n" +
+                   "Content-Type: application/xml\r\nConnection: close\r\n" +
+                   "Content-Length: " + content.length + "\r\n\r\n").getBytes(US_ASCII));
+        out.write(content);
+        out.flush();
+    }
+
+    @Test
+    public void testLoad()
+    {
+        Artifact artifact = api.load("2-1", Artifact.class);
+        assertEquals("2-1", artifact.getLimsid(), "Wrong artifact loaded");
+        assertEquals("Built", artifact.getName(), "Wrong artifact loaded");
+    }
+
+    @Test
+    public void testClarityException()
+    {
+        ClarityException e = assertThrows(ClarityException.class, () -> api.load("2-2", Artifact.class),
+                                          "Error reply not turned into an exception");
+        assertEquals("Artifact 2-2 does not exist.", e.getMessage(), "Wrong exception message");
+    }
+
+    @Test
+    public void testStatefulOverrideReset()
+    {
+        ClarityAPIInternal internal = (ClarityAPIInternal)api;
+
+        api.overrideStateful(StatefulOverride.LATEST);
+        assertEquals(StatefulOverride.LATEST, internal.getStatefulOverride(), "Override not set");
+
+        api.load("2-1", Artifact.class);
+        assertNull(internal.getStatefulOverride(), "Override not reset after a call");
+    }
+}
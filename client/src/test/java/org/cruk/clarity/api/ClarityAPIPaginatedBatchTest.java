@@ -19,11 +19,16 @@
 package org.cruk.clarity.api;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.atLeast;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
 
 import java.io.BufferedInputStream;
@@ -35,8 +40,14 @@ import java.io.OutputStream;
 import java.lang.reflect.Constructor;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import javax.xml.transform.stream.StreamSource;
 
@@ -76,6 +87,7 @@ import org.springframework.web.client.RestOperations;
 import org.springframework.web.client.RestTemplate;
 
 import com.genologics.ri.sample.Sample;
+import com.genologics.ri.sample.SampleLink;
 import com.genologics.ri.sample.Samples;
 
 /*
@@ -242,6 +254,122 @@ public class ClarityAPIPaginatedBatchTest
         verify(restMock, never()).getForEntity(uri3, Samples.class);
     }
 
+    @Test
+    public void testMultipageFetchFindConcurrent() throws Exception
+    {
+        // With concurrency allowed, pages two and three are fetched together
+        // (and a speculative page four that does not exist).
+
+        RestOperations restMock = mock(RestOperations.class);
+
+        final String uri1 = "http://lims.cri.camres.org:8080/api/v2/samples?projectname=Run 1030";
+        final URI uri2 = new URI("http://lims.cri.camres.org:8080/api/v2/samples?start-index=500&projectname=Run+1030");
+        final URI uri3 = new URI("http://lims.cri.camres.org:8080/api/v2/samples?start-index=1000&projectname=Run+1030");
+
+        when(restMock.getForEntity(uri1, Samples.class)).thenReturn(response1);
+        when(restMock.getForEntity(uri2, Samples.class)).thenReturn(response2);
+        when(restMock.getForEntity(uri3, Samples.class)).thenReturn(response3);
+
+        localApi.setRestClient(restMock);
+        localApi.setServerURI(new URI("http://lims.cri.camres.org:8080"));
+        localApi.setBulkOperationConcurrency(3);
+
+        try
+        {
+            Map<String, Object> terms = new HashMap<>();
+            terms.put("projectname", "Run 1030");
+
+            var links = localApi.find(terms, Sample.class);
+
+            assertEquals(1150, links.size(), "Expected 1150 sample links returned");
+            assertEquals("http://lims.cri.camres.org:8080/api/v2/samples/BOW252A1001", links.get(1000).getUri().toString(),
+                         "Links are not in page order");
+        }
+        finally
+        {
+            localApi.setBulkOperationConcurrency(1);
+        }
+
+        verify(restMock, times(1)).getForEntity(uri1, Samples.class);
+        verify(restMock, times(1)).getForEntity(uri2, Samples.class);
+        verify(restMock, times(1)).getForEntity(uri3, Samples.class);
+    }
+
+    @Test
+    public void testMultipageFetchListSomeConcurrent() throws Exception
+    {
+        // Even with concurrency allowed, page three is not needed so shouldn't be fetched.
+
+        final String uri1 = "http://lims.cri.camres.org:8080/api/v2/samples?start-index=0";
+        final URI uri2 = new URI("http://lims.cri.camres.org:8080/api/v2/samples?start-index=500&projectname=Run+1030");
+        final URI uri3 = new URI("http://lims.cri.camres.org:8080/api/v2/samples?start-index=1000&projectname=Run+1030");
+
+        RestOperations restMock = mock(RestOperations.class);
+
+        when(restMock.getForEntity(uri1, Samples.class)).thenReturn(response1);
+        when(restMock.getForEntity(uri2, Samples.class)).thenReturn(response2);
+
+        localApi.setRestClient(restMock);
+        localApi.setServerURI(new URI("http://lims.cri.camres.org:8080"));
+        localApi.setBulkOperationConcurrency(3);
+
+        try
+        {
+            var links = localApi.listSome(Sample.class, 0, 750);
+
+            assertEquals(750, links.size(), "Expected 750 sample links returned");
+        }
+        finally
+        {
+            localApi.setBulkOperationConcurrency(1);
+        }
+
+        verify(restMock, times(1)).getForEntity(uri1, Samples.class);
+        verify(restMock, times(1)).getForEntity(uri2, Samples.class);
+        verify(restMock, never()).getForEntity(uri3, Samples.class);
+    }
+
+    @Test
+    public void testMultipageStreamFind() throws Exception
+    {
+        RestOperations restMock = mock(RestOperations.class);
+
+        final String uri1 = "http://lims.cri.camres.org:8080/api/v2/samples?projectname=Run 1030";
+        final URI uri2 = new URI("http://lims.cri.camres.org:8080/api/v2/samples?start-index=500&projectname=Run+1030");
+        final URI uri3 = new URI("http://lims.cri.camres.org:8080/api/v2/samples?start-index=1000&projectname=Run+1030");
+
+        when(restMock.getForEntity(uri1, Samples.class)).thenReturn(response1);
+        when(restMock.getForEntity(uri2, Samples.class)).thenReturn(response2);
+        when(restMock.getForEntity(uri3, Samples.class)).thenReturn(response3);
+
+        localApi.setRestClient(restMock);
+        localApi.setServerURI(new URI("http://lims.cri.camres.org:8080"));
+
+        Map<String, Object> terms = new HashMap<>();
+        terms.put("projectname", "Run 1030");
+
+        // Nothing should be fetched until the stream is used, and only as
+        // many pages as needed.
+
+        try (var links = localApi.streamFind(terms, Sample.class))
+        {
+            verifyNoInteractions(restMock);
+
+            assertEquals(600, links.limit(600).count(), "Expected 600 sample links returned");
+        }
+
+        verify(restMock, times(1)).getForEntity(uri1, Samples.class);
+        verify(restMock, times(1)).getForEntity(uri2, Samples.class);
+        verify(restMock, never()).getForEntity(uri3, Samples.class);
+
+        try (var links = localApi.streamFind(terms, Sample.class))
+        {
+            assertEquals(1150, links.count(), "Expected 1150 sample links returned");
+        }
+
+        verify(restMock, times(1)).getForEntity(uri3, Samples.class);
+    }
+
     @Test
     public void testMultipageFetchListSome2() throws Exception
     {
@@ -292,6 +420,125 @@ public class ClarityAPIPaginatedBatchTest
     }
 
 
+    @Test
+    public void testSplitFind() throws Exception
+    {
+        // A search with too many names for one URI is split. Each part returns the
+        // samples named plus one common sample, which should appear once in the results.
+
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < 100; i++)
+        {
+            names.add(String.format("Sample name %03d with a fairly long description", i));
+        }
+
+        RestOperations restMock = mock(RestOperations.class);
+        List<String> requested = Collections.synchronizedList(new ArrayList<>());
+
+        when(restMock.getForEntity(anyString(), eq(Samples.class))).thenAnswer(invocation ->
+        {
+            String uri = invocation.getArgument(0);
+            requested.add(uri);
+
+            Samples page = new Samples();
+            page.getSamples().add(new SampleLink(new URI("http://lims.cri.camres.org:8080/api/v2/samples/COMMON")));
+            for (String term : uri.substring(uri.indexOf('?') + 1).split("&"))
+            {
+                if (term.startsWith("name="))
+                {
+                    String id = term.substring(5, 20).replace(' ', '_');
+                    page.getSamples().add(new SampleLink(new URI("http://lims.cri.camres.org:8080/api/v2/samples/" + id)));
+                }
+            }
+            return new ResponseEntity<Samples>(page, HttpStatus.OK);
+        });
+
+        localApi.setRestClient(restMock);
+        localApi.setServerURI(new URI("http://lims.cri.camres.org:8080"));
+        localApi.setMaximumQueryLength(1000);
+        localApi.setBulkOperationConcurrency(2);
+
+        try
+        {
+            Map<String, Object> terms = new HashMap<>();
+            terms.put("name", names);
+            terms.put("projectname", "Run 1030");
+
+            var links = localApi.find(terms, Sample.class);
+
+            assertTrue(requested.size() > 1, "Search was not split");
+            for (String uri : requested)
+            {
+                assertTrue(uri.contains("projectname=Run 1030"), "Unsplit term missing from " + uri);
+                assertTrue(uri.length() < 1100, "Search part is too long: " + uri.length());
+            }
+
+            assertEquals(names.size() + 1, links.size(), "Links are not merged without duplicates");
+            assertEquals("http://lims.cri.camres.org:8080/api/v2/samples/COMMON", links.get(0).getUri().toString(),
+                         "Common link is not first");
+            assertEquals("http://lims.cri.camres.org:8080/api/v2/samples/Sample_name_000", links.get(1).getUri().toString(),
+                         "Links are not in search order");
+            assertEquals("http://lims.cri.camres.org:8080/api/v2/samples/Sample_name_099", links.get(names.size()).getUri().toString(),
+                         "Links are not in search order");
+        }
+        finally
+        {
+            localApi.setMaximumQueryLength(ClarityAPIImpl.DEFAULT_MAXIMUM_QUERY_LENGTH);
+            localApi.setBulkOperationConcurrency(1);
+        }
+    }
+
+    @Test
+    public void testSplitFindBoundedExecutor() throws Exception
+    {
+        // Each part of a split search fetches its later pages concurrently from
+        // within a bulk task. With fewer threads than the concurrency allowed,
+        // this must not wait for workers that will never get a thread.
+
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < 100; i++)
+        {
+            names.add(String.format("Sample name %03d with a fairly long description", i));
+        }
+
+        final URI uri2 = new URI("http://lims.cri.camres.org:8080/api/v2/samples?start-index=500&projectname=Run+1030");
+        final URI uri3 = new URI("http://lims.cri.camres.org:8080/api/v2/samples?start-index=1000&projectname=Run+1030");
+
+        RestOperations restMock = mock(RestOperations.class);
+
+        when(restMock.getForEntity(anyString(), eq(Samples.class))).thenReturn(response1);
+        when(restMock.getForEntity(uri2, Samples.class)).thenReturn(response2);
+        when(restMock.getForEntity(uri3, Samples.class)).thenReturn(response3);
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+
+        localApi.setRestClient(restMock);
+        localApi.setServerURI(new URI("http://lims.cri.camres.org:8080"));
+        localApi.setMaximumQueryLength(1000);
+        localApi.setBulkOperationConcurrency(3);
+        localApi.setBulkOperationExecutor(executor);
+
+        try
+        {
+            Map<String, Object> terms = new HashMap<>();
+            terms.put("name", names);
+            terms.put("projectname", "Run 1030");
+
+            var links = assertTimeoutPreemptively(Duration.ofSeconds(30), () -> localApi.find(terms, Sample.class),
+                                                  "Split search with a bounded executor has deadlocked");
+
+            assertEquals(1150, links.size(), "Expected 1150 sample links returned");
+            verify(restMock, atLeast(3)).getForEntity(anyString(), eq(Samples.class));
+        }
+        finally
+        {
+            localApi.setMaximumQueryLength(ClarityAPIImpl.DEFAULT_MAXIMUM_QUERY_LENGTH);
+            localApi.setBulkOperationConcurrency(1);
+            localApi.setBulkOperationExecutor(null);
+            executor.shutdownNow();
+        }
+    }
+
     private ClassicHttpResponse createMultipageFetchResponse(File responseFile)
     {
         BasicClassicHttpResponse response = new BasicClassicHttpResponse(200, "OK");
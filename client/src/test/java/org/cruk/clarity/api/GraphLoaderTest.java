@@ -0,0 +1,217 @@
+/*
+ * CRUK-CI Clarity REST API Java Client.
+ * Copyright (C) 2013 Cancer Research UK Cambridge Institute.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cruk.clarity.api;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.genologics.ri.LimsLink;
+import com.genologics.ri.Location;
+import com.genologics.ri.Locatable;
+import com.genologics.ri.artifact.Artifact;
+import com.genologics.ri.artifact.SampleLink;
+import com.genologics.ri.container.Container;
+import com.genologics.ri.container.ContainerLink;
+import com.genologics.ri.process.ArtifactLink;
+import com.genologics.ri.process.ClarityProcess;
+import com.genologics.ri.process.InputOutputMap;
+import com.genologics.ri.project.Project;
+import com.genologics.ri.sample.ProjectLink;
+import com.genologics.ri.sample.Sample;
+import com.genologics.ri.step.ProcessStep;
+
+public class GraphLoaderTest
+{
+    private static final String API = "http://lims.cri.camres.org:8080/api/v2/";
+
+    private ExecutorService executor;
+
+    private ClarityAPI api;
+
+    private GraphLoader loader;
+
+    private Map<Class<?>, List<Integer>> loadSizes = new ConcurrentHashMap<>();
+
+    @BeforeEach
+    public void setup()
+    {
+        executor = Executors.newFixedThreadPool(4);
+        api = mock(ClarityAPI.class);
+        loader = new GraphLoader(api, executor);
+
+        when(api.limsIdToUri("24-100", ClarityProcess.class)).thenReturn(URI.create(API + "processes/24-100"));
+
+        when(api.loadAll(anyCollection())).then(invocation ->
+        {
+            Collection<LimsLink<?>> links = invocation.getArgument(0);
+            List<Locatable> entities = new ArrayList<>();
+            for (LimsLink<?> link : links)
+            {
+                loadSizes.computeIfAbsent(link.getEntityClass(), c -> new ArrayList<>());
+                entities.add(create(link));
+            }
+            loadSizes.get(links.iterator().next().getEntityClass()).add(links.size());
+            return entities;
+        });
+    }
+
+    @AfterEach
+    public void cleanup()
+    {
+        loader.close();
+        executor.shutdownNow();
+    }
+
+    private Locatable create(LimsLink<?> link)
+    {
+        String path = link.getUri().getPath();
+        String limsid = path.substring(path.lastIndexOf('/') + 1);
+        URI uri = URI.create(API + path.substring(path.indexOf("/api/v2/") + 8));
+
+        if (link.getEntityClass() == ClarityProcess.class)
+        {
+            ClarityProcess process = new ClarityProcess(uri, limsid);
+            process.getInputOutputMaps().add(new InputOutputMap(artifact("2-1?state=1"), artifact("2-3")));
+            process.getInputOutputMaps().add(new InputOutputMap(artifact("2-1?state=2"), artifact("2-4")));
+            process.getInputOutputMaps().add(new InputOutputMap(artifact("2-2"), artifact("2-5")));
+            return process;
+        }
+        if (link.getEntityClass() == Artifact.class)
+        {
+            Artifact artifact = new Artifact(uri, limsid);
+            if (limsid.equals("2-1") || limsid.equals("2-2"))
+            {
+                artifact.getSamples().add(new SampleLink(URI.create(API + "samples/S" + limsid.substring(2))));
+            }
+            else
+            {
+                artifact.setLocation(new Location(new ContainerLink(URI.create(API + "containers/27-1")), "A:1"));
+            }
+            return artifact;
+        }
+        if (link.getEntityClass() == Sample.class)
+        {
+            Sample sample = new Sample(uri, limsid);
+            sample.setProject(new ProjectLink(URI.create(API + "projects/P1")));
+            return sample;
+        }
+        if (link.getEntityClass() == Project.class)
+        {
+            return new Project(uri, limsid);
+        }
+        if (link.getEntityClass() == Container.class)
+        {
+            return new Container(uri, limsid);
+        }
+        throw new AssertionError("Unexpected load of " + link.getUri());
+    }
+
+    private ArtifactLink artifact(String id)
+    {
+        return new ArtifactLink(URI.create(API + "artifacts/" + id));
+    }
+
+    @Test
+    public void testStepNeighbourhood()
+    {
+        ProcessStep step = new ProcessStep(URI.create(API + "steps/24-100"), "24-100");
+
+        EntityGraph graph = loader.load(step,
+                                        "process/inputOutputMaps.input/samples/project",
+                                        "process/inputOutputMaps.output/location.container");
+
+        assertSame(step, graph.getRoot(), "Root wrong");
+        assertEquals(1, graph.getAll(ClarityProcess.class).size(), "Wrong number of processes");
+        assertEquals(5, graph.getAll(Artifact.class).size(), "Wrong number of artifacts");
+        assertEquals(2, graph.getAll(Sample.class).size(), "Wrong number of samples");
+        assertEquals(1, graph.getAll(Project.class).size(), "Wrong number of projects");
+        assertEquals(1, graph.getAll(Container.class).size(), "Wrong number of containers");
+        assertEquals(11, graph.size(), "Wrong graph size");
+
+        // One fetch per class per generation, with no duplicated links.
+
+        assertEquals(List.of(1), loadSizes.get(ClarityProcess.class), "Process fetches wrong");
+        assertEquals(List.of(5), loadSizes.get(Artifact.class), "Artifact fetches wrong");
+        assertEquals(List.of(2), loadSizes.get(Sample.class), "Sample fetches wrong");
+        assertEquals(List.of(1), loadSizes.get(Project.class), "Project fetches wrong");
+        assertEquals(List.of(1), loadSizes.get(Container.class), "Container fetches wrong");
+        verify(api, times(5)).loadAll(anyCollection());
+
+        // Links resolve to the same objects.
+
+        ClarityProcess process = graph.getAll(ClarityProcess.class).get(0);
+        Artifact first = graph.get(process.getInputOutputMaps().get(0).getInput(), Artifact.class);
+        Artifact second = graph.get(process.getInputOutputMaps().get(1).getInput(), Artifact.class);
+        assertSame(first, second, "Links to the same artifact in different states not resolved to one object");
+
+        List<Sample> samples = graph.resolve(first.getSamples(), Sample.class);
+        assertSame(graph.getAll(Project.class).get(0), graph.get(samples.get(0).getProject(), Project.class),
+                   "Project not resolved");
+        assertTrue(graph.contains(new ContainerLink(URI.create(API + "containers/27-1"))), "Container not in graph");
+    }
+
+    @Test
+    public void testBadPath()
+    {
+        ProcessStep step = new ProcessStep(URI.create(API + "steps/24-100"), "24-100");
+
+        assertThrows(IllegalArgumentException.class, () -> loader.load(step, "process/noSuchProperty"),
+                     "Unknown property accepted");
+        assertThrows(IllegalArgumentException.class, () -> loader.load(step, "process//samples"),
+                     "Empty path step accepted");
+        assertThrows(IllegalArgumentException.class, () -> loader.load(step, "process/inputOutputMaps"),
+                     "Property that is not a link accepted");
+    }
+
+    @Test
+    public void testStatefulOverride()
+    {
+        ProcessStep step = new ProcessStep(URI.create(API + "steps/24-100"), "24-100");
+
+        loader.overrideStateful(StatefulOverride.EXACT);
+        loader.load(step, "process");
+
+        verify(api, times(1)).overrideStateful(StatefulOverride.EXACT);
+
+        loader.load(step, "process");
+
+        verify(api, times(1)).overrideStateful(any());
+    }
+}
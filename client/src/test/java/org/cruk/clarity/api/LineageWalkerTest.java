@@ -0,0 +1,174 @@
+/*
+ * CRUK-CI Clarity REST API Java Client.
+ * Copyright (C) 2013 Cancer Research UK Cambridge Institute.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cruk.clarity.api;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.genologics.ri.LimsLink;
+import com.genologics.ri.Locatable;
+import com.genologics.ri.artifact.Artifact;
+import com.genologics.ri.artifact.ParentProcessLink;
+import com.genologics.ri.process.ArtifactLink;
+import com.genologics.ri.process.ClarityProcess;
+import com.genologics.ri.process.InputOutputMap;
+import com.genologics.ri.process.ProcessLink;
+
+public class LineageWalkerTest
+{
+    private static final String API = "http://lims.cri.camres.org:8080/api/v2/";
+
+    private ClarityAPI api;
+
+    private LineageWalker walker;
+
+    /*
+     * R1 and R2 are submitted artifacts. Process P1 makes A1 from R1 and A2 from R2.
+     * Process P2 pools A1 and A2 into L1.
+     */
+    private Map<String, String[][]> processMaps = new HashMap<>();
+
+    @BeforeEach
+    public void setup()
+    {
+        processMaps.put("P1", new String[][] { { "R1", "A1" }, { "R2", "A2" } });
+        processMaps.put("P2", new String[][] { { "A1?state=5", "L1" }, { "A2", "L1" } });
+
+        api = mock(ClarityAPI.class);
+        walker = new LineageWalker(api);
+
+        when(api.loadAll(anyCollection())).then(invocation ->
+        {
+            Collection<LimsLink<?>> links = invocation.getArgument(0);
+            List<Locatable> entities = new ArrayList<>();
+            for (LimsLink<?> link : links)
+            {
+                String path = link.getUri().getPath();
+                String id = path.substring(path.lastIndexOf('/') + 1);
+                if (link.getEntityClass() == ClarityProcess.class)
+                {
+                    ClarityProcess process = new ClarityProcess(link.getUri(), id);
+                    for (String[] io : processMaps.get(id))
+                    {
+                        process.getInputOutputMaps().add(new InputOutputMap(artifactLink(io[0]), artifactLink(io[1])));
+                    }
+                    entities.add(process);
+                }
+                else
+                {
+                    Artifact artifact = new Artifact(URI.create(API + "artifacts/" + id), id);
+                    if (id.startsWith("A"))
+                    {
+                        artifact.setParentProcess(new ParentProcessLink(URI.create(API + "processes/P1")));
+                    }
+                    if (id.startsWith("L"))
+                    {
+                        artifact.setParentProcess(new ParentProcessLink(URI.create(API + "processes/P2")));
+                    }
+                    entities.add(artifact);
+                }
+            }
+            return entities;
+        });
+
+        when(api.find(anyMap(), eq(ClarityProcess.class))).then(invocation ->
+        {
+            Map<String, List<String>> terms = invocation.getArgument(0);
+            List<LimsLink<ClarityProcess>> found = new ArrayList<>();
+            processMaps.forEach((id, maps) ->
+            {
+                for (String[] io : maps)
+                {
+                    if (terms.get("inputartifactlimsid").contains(io[0].replaceAll("\\?.*", "")))
+                    {
+                        found.add(new ProcessLink(URI.create(API + "processes/" + id)));
+                        break;
+                    }
+                }
+            });
+            return found;
+        });
+    }
+
+    private static ArtifactLink artifactLink(String id)
+    {
+        return new ArtifactLink(URI.create(API + "artifacts/" + id));
+    }
+
+    private static List<List<String>> ids(List<List<Artifact>> generations)
+    {
+        return generations.stream().map(g -> g.stream().map(Artifact::getLimsid).collect(Collectors.toList())).toList();
+    }
+
+    @Test
+    public void testAncestors()
+    {
+        var generations = walker.ancestorGenerations(List.of(artifactLink("L1"))).toList();
+
+        assertEquals(List.of(List.of("A1", "A2"), List.of("R1", "R2")), ids(generations), "Ancestor generations wrong");
+
+        // L1; P2; A1 and A2; P1; R1 and R2.
+        verify(api, times(5)).loadAll(anyCollection());
+
+        // Everything is remembered for a second walk.
+
+        assertEquals(List.of("A1", "A2", "R1", "R2"),
+                     walker.ancestors(List.of(artifactLink("L1"))).map(Artifact::getLimsid).toList(),
+                     "Ancestors wrong");
+        verify(api, times(5)).loadAll(anyCollection());
+    }
+
+    @Test
+    public void testDescendants()
+    {
+        var generations = walker.descendantGenerations(List.of(artifactLink("R1"), artifactLink("R2"))).toList();
+
+        assertEquals(List.of(List.of("A1", "A2"), List.of("L1")), ids(generations), "Descendant generations wrong");
+
+        // One search per generation, including the last that finds nothing.
+        verify(api, times(3)).find(anyMap(), eq(ClarityProcess.class));
+    }
+
+    @Test
+    public void testLazy()
+    {
+        assertEquals(List.of("A1", "A2"), walker.descendants(List.of(artifactLink("R1"), artifactLink("R2")))
+                     .limit(2).map(Artifact::getLimsid).toList(), "First generation wrong");
+
+        // Only the first generation has been fetched.
+        verify(api, times(1)).find(anyMap(), eq(ClarityProcess.class));
+    }
+}
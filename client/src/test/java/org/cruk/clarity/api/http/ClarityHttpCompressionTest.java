@@ -0,0 +1,175 @@
+/*
+ * CRUK-CI Clarity REST API Java Client.
+ * Copyright (C) 2013 Cancer Research UK Cambridge Institute.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cruk.clarity.api.http;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.GZIPOutputStream;
+
+import org.cruk.clarity.api.unittests.ClarityClientTestConfiguration;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.test.context.junit.jupiter.SpringJUnitConfig;
+
+@SpringJUnitConfig(classes = ClarityClientTestConfiguration.class)
+public class ClarityHttpCompressionTest
+{
+    private static final String BODY = "<artifacts>" + "<artifact limsid=\"2-1\"/>".repeat(2000) + "</artifacts>";
+
+    private ServerSocket server;
+
+    private Thread serverThread;
+
+    private AtomicReference<String> acceptEncoding = new AtomicReference<>();
+
+    @Autowired
+    @Qualifier("clarityClientHttpRequestFactory")
+    private HttpComponentsClientHttpRequestFactoryBasicAuth factory;
+
+    @Autowired
+    @Qualifier("clarityHttpCompression")
+    private ClarityHttpCompression compression;
+
+    private URI uri;
+
+    @BeforeEach
+    public void setup() throws IOException
+    {
+        // A minimal HTTP server, answering each request on its own connection.
+
+        server = new ServerSocket(0, 5, InetAddress.getLoopbackAddress());
+        serverThread = new Thread(() ->
+        {
+            while (!server.isClosed())
+            {
+                try (Socket socket = server.accept())
+                {
+                    respond(socket);
+                }
+                catch (IOException e)
+                {
+                    // Closed.
+                }
+            }
+        });
+        serverThread.setDaemon(true);
+        serverThread.start();
+
+        uri = URI.create("http://localhost:" + server.getLocalPort() + "/api/v2/artifacts");
+
+        compression.setEnabled(false);
+        compression.resetStatistics();
+    }
+
+    @AfterEach
+    public void cleanup() throws Exception
+    {
+        server.close();
+        compression.setEnabled(false);
+    }
+
+    private void respond(Socket socket) throws IOException
+    {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), US_ASCII));
+        String encoding = null;
+        String line;
+        while ((line = reader.readLine()) != null && !line.isEmpty())
+        {
+            if (line.regionMatches(true, 0, "Accept-Encoding:", 0, 16))
+            {
+                encoding = line.substring(16).trim();
+            }
+        }
+        acceptEncoding.set(encoding);
+
+        byte[] content = BODY.getBytes(UTF_8);
+        StringBuilder headers = new StringBuilder("HTTP/1.1 200 OK\r\nContent-Type: application/xml\r\nConnection: close\r\n");
+        if (encoding != null && encoding.contains("gzip"))
+        {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            try (OutputStream gzip = new GZIPOutputStream(buffer))
+            {
+                gzip.write(content);
+            }
+            content = buffer.toByteArray();
+            headers.append("Content-Encoding: gzip\r\n");
+        }
+        headers.append("Content-Length: ").append(content.length).append("\r\n\r\n");
+
+        OutputStream out = socket.getOutputStream();
+        out.write(headers.toString().getBytes(US_ASCII));
+        out.write(content);
+        out.flush();
+    }
+
+    private String fetch() throws IOException
+    {
+        ClientHttpRequest request = factory.createRequest(uri, HttpMethod.GET);
+        try (ClientHttpResponse response = request.execute(); InputStream in = response.getBody())
+        {
+            return new String(in.readAllBytes(), UTF_8);
+        }
+    }
+
+    @Test
+    public void testCompression() throws IOException
+    {
+        assertEquals(BODY, fetch(), "Uncompressed body wrong");
+        assertNull(acceptEncoding.get(), "Compression requested when disabled");
+        assertEquals(0L, compression.getCompressedResponses(), "Uncompressed response counted");
+
+        compression.setEnabled(true);
+
+        assertEquals(BODY, fetch(), "Decompressed body wrong");
+        assertTrue(acceptEncoding.get().contains("gzip"), "Compression not requested when enabled");
+        assertEquals(1L, compression.getCompressedResponses(), "Compressed response not counted");
+        assertEquals(BODY.length(), compression.getDecompressedBytes(), "Decompressed byte count wrong");
+        assertTrue(compression.getCompressedBytes() > 0 && compression.getCompressedBytes() < BODY.length() / 10,
+                   "Compressed byte count wrong: " + compression.getCompressedBytes());
+
+        // Turning it off again must not leave compression set in the shared context.
+
+        compression.setEnabled(false);
+
+        assertEquals(BODY, fetch(), "Uncompressed body wrong");
+        assertNull(acceptEncoding.get(), "Compression requested after being disabled");
+        assertEquals(1L, compression.getCompressedResponses(), "Uncompressed response counted");
+    }
+}
@@ -19,15 +19,33 @@
 package org.cruk.clarity.api.impl;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
 
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+
+import org.cruk.clarity.api.http.ClarityHttpConnectionPool;
+import org.cruk.clarity.api.http.ClarityHttpConnectionPoolMeterBinder;
 import org.junit.jupiter.api.Test;
 
 import com.genologics.ri.Locatable;
 import com.genologics.ri.artifact.Artifact;
 import com.genologics.ri.artifact.ArtifactLink;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
 public class ClarityAPIImplTest
 {
     @Test
@@ -46,4 +64,109 @@ public class ClarityAPIImplTest
 
         assertEquals(Artifact.class, classOfEntity.invoke(api, link), "Class of entity for " + link.getClass().getName() + " is wrong.");
     }
+
+    @Test
+    public void testExpandSearchTermsInParts() throws Exception
+    {
+        ClarityAPIImpl api = new ClarityAPIImpl();
+
+        Map<String, Object> terms = new LinkedHashMap<>();
+        terms.put("projectname", "Project");
+        terms.put("name", Arrays.asList("aaaa", "bbbb", "cccc", "dddd", "eeee"));
+        terms.put("udf.Tag", new String[] { "x", "y" });
+
+        List<StringBuilder> whole = api.expandSearchTermsInParts(terms, 1000);
+        assertEquals(1, whole.size(), "Short query has been split");
+        assertEquals(api.expandSearchTerms(terms).toString(), whole.get(0).toString(), "Short query has changed");
+
+        // The fixed terms are "projectname=Project&udf.Tag=x&udf.Tag=y" (39 characters),
+        // and each name adds 10 characters.
+
+        List<StringBuilder> parts = api.expandSearchTermsInParts(terms, 60);
+        assertEquals(3, parts.size(), "Query not split into the expected number of parts");
+        assertEquals("projectname=Project&udf.Tag=x&udf.Tag=y&name=aaaa&name=bbbb", parts.get(0).toString(), "First part wrong");
+        assertEquals("projectname=Project&udf.Tag=x&udf.Tag=y&name=cccc&name=dddd", parts.get(1).toString(), "Second part wrong");
+        assertEquals("projectname=Project&udf.Tag=x&udf.Tag=y&name=eeee", parts.get(2).toString(), "Third part wrong");
+
+        // Encoded characters count as three.
+
+        terms.put("name", Arrays.asList("a a", "b b"));
+        parts = api.expandSearchTermsInParts(terms, 50);
+        assertEquals(2, parts.size(), "Encoded length not used for splitting");
+    }
+
+    @Test
+    public void testConnectionPoolConfiguration() throws Exception
+    {
+        ClarityAPIImpl api = new ClarityAPIImpl();
+        api.afterInitialisation();
+
+        try (ClarityHttpConnectionPool pool = new ClarityHttpConnectionPool(1000, 0))
+        {
+            api.setHttpConnectionPool(pool);
+
+            assertEquals(ClarityHttpConnectionPool.DEFAULT_MAX_PER_ROUTE, pool.getConnectionManager().getDefaultMaxPerRoute(), "Default max per route wrong");
+            assertEquals(ClarityHttpConnectionPool.DEFAULT_MAX_TOTAL, pool.getConnectionManager().getMaxTotal(), "Default max total wrong");
+
+            Properties props = new Properties();
+            props.setProperty("http.pool.max.per.route", "8");
+            props.setProperty("http.pool.max.total", "16");
+            props.setProperty("http.pool.ttl", "60000");
+            props.setProperty("http.pool.idle.eviction", "not a number");
+
+            api.setConfiguration(props);
+
+            assertEquals(8, pool.getConnectionManager().getDefaultMaxPerRoute(), "Max per route not set");
+            assertEquals(16, pool.getConnectionManager().getMaxTotal(), "Max total not set");
+            assertEquals(16, pool.getTotalStats().getMax(), "Pool stats max wrong");
+            assertEquals(0, pool.getLeased(), "Should be no leased connections");
+        }
+        finally
+        {
+            api.shutdown();
+        }
+    }
+
+    @Test
+    public void testConnectionPoolPublishing() throws Exception
+    {
+        MBeanServer server = MBeanServerFactory.newMBeanServer();
+        ObjectName name;
+        ObjectName otherName;
+
+        try (ClarityHttpConnectionPool pool = new ClarityHttpConnectionPool(1000, 0);
+             ClarityHttpConnectionPool other = new ClarityHttpConnectionPool(1000, 0))
+        {
+            pool.setMaxTotal(12);
+
+            name = pool.registerMBean(server);
+            otherName = other.registerMBean(server);
+
+            assertNotNull(name, "Pool MBean not registered");
+            assertNotNull(otherName, "Second pool MBean not registered");
+            assertNotEquals(name, otherName, "Pools registered under the same name");
+            assertEquals(ClarityHttpConnectionPool.JMX_NAME, name.getDomain() + ":type=" + name.getKeyProperty("type"),
+                         "Pool MBean name wrong");
+
+            assertThrows(IllegalStateException.class, () -> pool.registerMBean(server), "Could register twice");
+
+            assertTrue(server.isRegistered(name), "Pool MBean not registered");
+            assertEquals(12, server.getAttribute(name, "MaxTotal"), "MBean max total wrong");
+            assertEquals(0, server.getAttribute(name, "Leased"), "MBean leased wrong");
+            assertEquals(0, server.getAttribute(name, "Pending"), "MBean pending wrong");
+            assertEquals(ClarityHttpConnectionPool.DEFAULT_MAX_TOTAL, server.getAttribute(otherName, "MaxTotal"),
+                         "Second MBean max total wrong");
+
+            SimpleMeterRegistry registry = new SimpleMeterRegistry();
+            new ClarityHttpConnectionPoolMeterBinder(pool).bindTo(registry);
+
+            assertEquals(12.0, registry.get(ClarityHttpConnectionPoolMeterBinder.METER_PREFIX + "max").gauge().value(), "Max gauge wrong");
+            assertEquals(0.0, registry.get(ClarityHttpConnectionPoolMeterBinder.METER_PREFIX + "leased").gauge().value(), "Leased gauge wrong");
+            assertEquals(0.0, registry.get(ClarityHttpConnectionPoolMeterBinder.METER_PREFIX + "available").gauge().value(), "Available gauge wrong");
+            assertEquals(0.0, registry.get(ClarityHttpConnectionPoolMeterBinder.METER_PREFIX + "pending").gauge().value(), "Pending gauge wrong");
+        }
+
+        assertFalse(server.isRegistered(name), "Pool MBean not unregistered on close");
+        assertFalse(server.isRegistered(otherName), "Second pool MBean not unregistered on close");
+    }
 }
@@ -0,0 +1,77 @@
+/*
+ * CRUK-CI Clarity REST API Java Client.
+ * Copyright (C) 2013 Cancer Research UK Cambridge Institute.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cruk.clarity.api.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.URI;
+
+import org.junit.jupiter.api.Test;
+
+import com.genologics.ri.Location;
+import com.genologics.ri.artifact.Artifact;
+import com.genologics.ri.sample.Sample;
+import com.genologics.ri.userdefined.UDF;
+
+public class EntityCopierTest
+{
+    @Test
+    public void testSampleUpdate() throws Exception
+    {
+        Sample original = new Sample();
+        original.setName("Original");
+        original.setCreationLocation(new Location());
+
+        Sample updated = new Sample(new URI("http://limsdev.cri.camres.org:8080/api/v2/samples/ABC123"), "ABC123");
+        updated.setName("Updated");
+        updated.getUserDefinedFields().add(new UDF("Field", "Value"));
+
+        EntityCopier copier = EntityCopier.forClass(Sample.class);
+
+        assertSame(copier, EntityCopier.forClass(Sample.class), "Copier not cached");
+
+        copier.update(original, updated);
+
+        assertEquals("Updated", original.getName(), "Name not copied");
+        assertEquals("ABC123", original.getLimsid(), "LIMS id not copied");
+        assertEquals(updated.getUri(), original.getUri(), "URI not copied");
+        assertSame(updated.getUserDefinedFields(), original.getUserDefinedFields(), "Fields not copied");
+
+        // Transient field is not touched.
+        assertTrue(original.getCreationLocation() != null, "Creation location has been cleared");
+        assertNull(updated.getCreationLocation(), "Creation location copied the wrong way");
+
+        assertTrue(copier.getFields().stream().noneMatch(f -> f.getName().equals("creationLocation")),
+                   "Transient field in copier fields");
+    }
+
+    @Test
+    public void testWrongClass()
+    {
+        EntityCopier copier = EntityCopier.forClass(Sample.class);
+
+        assertThrows(IllegalArgumentException.class, () -> copier.update(new Sample(), new Artifact()));
+        assertThrows(IllegalArgumentException.class, () -> copier.update(null, new Sample()));
+        assertThrows(IllegalArgumentException.class, () -> EntityCopier.forClass(null));
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * CRUK-CI Clarity REST API Java Client.
+ * Copyright (C) 2013 Cancer Research UK Cambridge Institute.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.cruk.clarity.api.jaxb;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.net.URI;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.Source;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+import jakarta.xml.bind.JAXBIntrospector;
+import jakarta.xml.bind.annotation.XmlSchema;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
+
+import com.genologics.ri.Links;
+import com.genologics.ri.Namespaces;
+import com.genologics.ri.artifact.Artifact;
+import com.genologics.ri.artifact.ArtifactBatchFetchResult;
+import com.genologics.ri.artifact.Artifacts;
+import com.genologics.ri.step.Arrangements;
+
+public class LazyJaxbMarshallerTest
+{
+    private static final String ARTIFACT_PACKAGE = Artifact.class.getPackageName();
+
+    private static final String STEP_PACKAGE = Arrangements.class.getPackageName();
+
+    private File exampleDirectory = new File("src/test/jaxb");
+
+    private LazyJaxbMarshaller jaxb;
+
+    @BeforeEach
+    public void setup()
+    {
+        jaxb = new LazyJaxbMarshaller(getClass().getClassLoader(), Namespaces.getNamespacePackages().values(), null);
+    }
+
+    private String marshal(Object thing) throws Exception
+    {
+        StringWriter writer = new StringWriter();
+        jaxb.marshal(thing, new StreamResult(writer));
+        return writer.toString();
+    }
+
+    private Object unmarshal(Source source) throws Exception
+    {
+        // Elements declared in an ObjectFactory come back wrapped.
+        return JAXBIntrospector.getValue(jaxb.unmarshal(source));
+    }
+
+    @Test
+    public void testContextsBuiltWhenNeeded() throws Exception
+    {
+        assertTrue(jaxb.getLoadedPackages().isEmpty(), "Packages loaded before use");
+
+        Object artifact = unmarshal(new StreamSource(new File(exampleDirectory, "artifact.xml")));
+        assertSame(Artifact.class, artifact.getClass(), "Wrong class unmarshalled from file");
+        assertEquals(Set.of(ARTIFACT_PACKAGE), jaxb.getLoadedPackages(), "Wrong packages loaded for an artifact");
+
+        Artifact copy = (Artifact)unmarshal(new StreamSource(new StringReader(marshal(artifact))));
+        assertEquals(((Artifact)artifact).getLimsid(), copy.getLimsid(), "Artifact round trip wrong");
+        assertEquals(Set.of(ARTIFACT_PACKAGE), jaxb.getLoadedPackages(), "Marshalling loaded another package");
+
+        Object arrangements = unmarshal(new StreamSource(new File(exampleDirectory, "arrangements.xml")));
+        assertSame(Arrangements.class, arrangements.getClass(), "Wrong class unmarshalled for step arrangements");
+        assertTrue(jaxb.getLoadedPackages().contains(STEP_PACKAGE), "Step package not loaded");
+
+        Object exception = unmarshal(new StreamSource(new File(exampleDirectory, "exception.xml")));
+        assertSame(com.genologics.ri.exception.Exception.class, exception.getClass(), "Wrong class unmarshalled for exception");
+        assertEquals(3, jaxb.getLoadedPackages().size(), "Unexpected packages loaded");
+
+        Links links = new Links();
+        links.add(new Artifact(new URI("http://limsdev.cri.camres.org:8080/api/v2/artifacts/2-1"), "2-1"));
+
+        DocumentBuilderFactory documentFactory = DocumentBuilderFactory.newInstance();
+        documentFactory.setNamespaceAware(true);
+        Document document = documentFactory.newDocumentBuilder().parse(new InputSource(new StringReader(marshal(links))));
+
+        Links linksCopy = (Links)unmarshal(new DOMSource(document));
+        assertEquals(1, linksCopy.getSize(), "Links round trip through DOM wrong");
+        assertTrue(jaxb.getLoadedPackages().contains(Links.class.getPackageName()), "Root package not loaded");
+    }
+
+    @Test
+    public void testNamespacePackages() throws Exception
+    {
+        Set<String> modelPackages = Links.class.getModule().getPackages();
+
+        for (Map.Entry<String, String> entry : Namespaces.getNamespacePackages().entrySet())
+        {
+            assertTrue(modelPackages.contains(entry.getValue()), "No package " + entry.getValue());
+
+            Class<?> packageInfo = Class.forName(entry.getValue() + ".package-info");
+            assertEquals(entry.getKey(), packageInfo.getAnnotation(XmlSchema.class).namespace(),
+                         "Wrong namespace for package " + entry.getValue());
+        }
+
+        // Only the package of adapters has no namespace of its own.
+        assertEquals(modelPackages.size() - 1, Namespaces.getNamespacePackages().size(), "Packages missing from the namespaces");
+    }
+
+    @Test
+    public void testSupports()
+    {
+        assertTrue(jaxb.supports(Artifact.class), "Artifact not supported");
+        assertTrue(jaxb.supports(Arrangements.class), "Arrangements not supported");
+        assertFalse(jaxb.supports(String.class), "String supported");
+        assertTrue(jaxb.getLoadedPackages().isEmpty(), "Checking support loaded packages");
+    }
+
+    @Test
+    public void testKnownClasses()
+    {
+        List<Class<?>> classes = jaxb.getKnownClasses();
+
+        assertTrue(classes.contains(Artifact.class), "Artifact not known");
+        assertTrue(classes.contains(Artifacts.class), "Artifact query results not known");
+        assertTrue(classes.contains(ArtifactBatchFetchResult.class), "Artifact batch results not known");
+        assertTrue(classes.contains(Arrangements.class), "Step arrangements not known");
+        assertFalse(jaxb.getLoadedPackages().contains(ARTIFACT_PACKAGE), "Finding classes built a context");
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * CRUK-CI Clarity REST API Java Client.
+ * Copyright (C) 2013 Cancer Research UK Cambridge Institute.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cruk.clarity.api.jaxb;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.oxm.XmlMappingException;
+
+import com.genologics.ri.artifact.Artifact;
+
+public class PooledJaxb2MarshallerTest
+{
+    private PooledJaxb2Marshaller jaxb;
+
+    @BeforeEach
+    public void setup() throws Exception
+    {
+        jaxb = new PooledJaxb2Marshaller(4);
+        jaxb.setClassesToBeBound(Artifact.class);
+        jaxb.afterPropertiesSet();
+    }
+
+    private String marshal(Artifact artifact)
+    {
+        StringWriter writer = new StringWriter();
+        jaxb.marshal(artifact, new StreamResult(writer));
+        return writer.toString();
+    }
+
+    private Artifact unmarshal(String xml)
+    {
+        return (Artifact)jaxb.unmarshal(new StreamSource(new StringReader(xml)));
+    }
+
+    @Test
+    public void testReuse() throws Exception
+    {
+        Artifact artifact = new Artifact(new URI("http://limsdev.cri.camres.org:8080/api/v2/artifacts/2-1000624"), "2-1000624");
+        artifact.setName("Pooled");
+
+        assertEquals(0, jaxb.getIdleMarshallers(), "Pool not empty at start");
+
+        String xml = marshal(artifact);
+        assertEquals(1, jaxb.getIdleMarshallers(), "Marshaller not returned to the pool");
+
+        Artifact copy = unmarshal(xml);
+        assertEquals("2-1000624", copy.getLimsid(), "Wrong artifact unmarshalled");
+        assertEquals("Pooled", copy.getName(), "Wrong artifact unmarshalled");
+        assertEquals(1, jaxb.getIdleUnmarshallers(), "Unmarshaller not returned to the pool");
+
+        assertEquals(xml, marshal(copy), "Reused marshaller gives different XML");
+        assertEquals(1, jaxb.getIdleMarshallers(), "Marshaller not reused");
+
+        // Outside a call, each request for one is a new object.
+
+        assertNotSame(jaxb.createUnmarshaller(), jaxb.createUnmarshaller(), "Unmarshaller shared outside a call");
+        assertSame(Artifact.class, unmarshal(xml).getClass(), "Wrong class unmarshalled");
+        assertEquals(1, jaxb.getIdleUnmarshallers(), "Unmarshaller not reused");
+    }
+
+    @Test
+    public void testFailureNotPooled()
+    {
+        assertThrows(XmlMappingException.class, () -> unmarshal("<art:artifact xmlns:art=\"http://genologics.com/ri/artifact\">"));
+        assertEquals(0, jaxb.getIdleUnmarshallers(), "Unmarshaller from a failed call returned to the pool");
+
+        assertEquals("2-1", unmarshal("<art:artifact xmlns:art=\"http://genologics.com/ri/artifact\" limsid=\"2-1\"/>").getLimsid(),
+                     "Unmarshalling after failure wrong");
+    }
+
+    @Test
+    public void testConcurrentUse() throws Exception
+    {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try
+        {
+            List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>();
+            for (int t = 0; t < 8; t++)
+            {
+                final int thread = t;
+                futures.add(executor.submit(() ->
+                {
+                    for (int i = 0; i < 200; i++)
+                    {
+                        String limsid = "2-" + thread + "00" + i;
+                        Artifact artifact = new Artifact(new URI("http://limsdev.cri.camres.org:8080/api/v2/artifacts/" + limsid), limsid);
+                        if (!limsid.equals(unmarshal(marshal(artifact)).getLimsid()))
+                        {
+                            return false;
+                        }
+                    }
+                    return true;
+                }));
+            }
+
+            for (Future<Boolean> future : futures)
+            {
+                assertTrue(future.get(30, TimeUnit.SECONDS), "Concurrent round trip gave the wrong artifact");
+            }
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+
+        assertTrue(jaxb.getIdleMarshallers() <= 4, "Marshaller pool larger than its limit");
+        assertTrue(jaxb.getIdleUnmarshallers() <= 4, "Unmarshaller pool larger than its limit");
+    }
+}
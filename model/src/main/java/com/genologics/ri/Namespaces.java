@@ -20,6 +20,12 @@ package com.genologics.ri;
 
 import static org.apache.commons.lang3.StringUtils.EMPTY;
 
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 import jakarta.xml.bind.annotation.XmlSchema;
 
 /**
@@ -181,6 +187,11 @@ public final class Namespaces
      */
     public static final String EMPTY_NAMESPACE = EMPTY;
 
+    /**
+     * Map of namespace to the package holding its classes.
+     */
+    private static final Map<String, String> NAMESPACE_PACKAGES = mapNamespacePackages();
+
     /**
      * Private constructor to prevent instantiation.
      */
@@ -188,6 +199,60 @@ public final class Namespaces
     {
     }
 
+    /**
+     * Get the packages holding the classes for each of the namespaces listed here.
+     * The root namespace's classes are in this package, and those of
+     * "{@code http://genologics.com/ri/x}" are in the package "{@code x}" under it.
+     *
+     * <p>
+     * This gives every package of the model without having to search the class path
+     * for them.
+     * </p>
+     *
+     * @return An unmodifiable map of namespace to package name.
+     *
+     * @since 2.34
+     */
+    public static Map<String, String> getNamespacePackages()
+    {
+        return NAMESPACE_PACKAGES;
+    }
+
+    /**
+     * Create the map of namespace to package from the namespace constants.
+     *
+     * @return The namespace to package map.
+     */
+    private static Map<String, String> mapNamespacePackages()
+    {
+        String rootPackage = Namespaces.class.getPackageName();
+
+        Map<String, String> map = new LinkedHashMap<>();
+        for (Field field : Namespaces.class.getDeclaredFields())
+        {
+            if (Modifier.isPublic(field.getModifiers()) && field.getType() == String.class)
+            {
+                try
+                {
+                    String namespace = (String)field.get(null);
+                    if (ROOT_NAMESPACE.equals(namespace))
+                    {
+                        map.put(namespace, rootPackage);
+                    }
+                    else if (namespace.startsWith(ROOT_NAMESPACE + "/"))
+                    {
+                        map.put(namespace, rootPackage + "." + namespace.substring(ROOT_NAMESPACE.length() + 1));
+                    }
+                }
+                catch (IllegalAccessException e)
+                {
+                    throw new AssertionError("Cannot read public field " + field.getName(), e);
+                }
+            }
+        }
+        return Collections.unmodifiableMap(map);
+    }
+
     /**
      * Extract package level information for the named package.
      * No longer used, but kept for reference.
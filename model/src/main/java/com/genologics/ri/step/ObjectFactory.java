@@ -148,6 +148,16 @@ public class ObjectFactory
         return new Actions();
     }
 
+    /**
+     * Create an instance of {@link Arrangements}.
+     *
+     * @return A new Arrangements instance.
+     */
+    public Arrangements createArrangements()
+    {
+        return new Arrangements();
+    }
+
     /**
      * Create an instance of {@link NextAction}.
      *
@@ -49,8 +49,10 @@ import org.apache.commons.lang3.ClassUtils;
 import org.aspectj.lang.ProceedingJoinPoint;
 import org.aspectj.lang.annotation.Around;
 import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.reflect.MethodSignature;
 import org.cruk.clarity.api.ClarityAPI;
 import org.cruk.clarity.api.ClarityException;
+import org.cruk.clarity.api.DeleteResults;
 import org.cruk.clarity.api.InvalidURIException;
 import org.cruk.clarity.api.impl.ClarityAPIInternal;
 import org.cruk.clarity.api.search.Search;
@@ -524,11 +526,20 @@ public class ClarityAPIPlaybackAspect
      * from prerecorded messages, and should be quietly ignored (a warning is logged).
      *
      * @param pjp The join point.
+     *
+     * @return An empty result for {@code deleteAll}, null for everything else.
      */
     @Around("(execution(public * create*(..)) or execution(public * delete*(..)) or execution(public * upload*(..))) and bean(clarityAPI)")
-    public void blockWrite(ProceedingJoinPoint pjp)
+    public Object blockWrite(ProceedingJoinPoint pjp)
     {
         logger.warn("Call to {} blocked.", pjp.getSignature().getName());
+
+        if (pjp.getSignature() instanceof MethodSignature method &&
+            DeleteResults.class.equals(method.getReturnType()))
+        {
+            return new DeleteResults<Locatable>(Collections.emptyList());
+        }
+        return null;
     }
 
     /**